@@ -0,0 +1,124 @@
+/*
+ * uk.ac.macaulay.util.bench: BinaryRasterReadBenchmark.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.macaulay.util.GISRaster;
+import uk.ac.macaulay.util.GISRasterBinaryFile;
+import uk.ac.macaulay.util.GISRasterReader;
+import uk.ac.macaulay.util.MappedGISRaster;
+
+/**
+ * <!-- BinaryRasterReadBenchmark -->
+ *
+ * Time the faster ways of loading grids of numbers, to compare with
+ * {@link RasterReadBenchmark}: parsing an ARC ASCII grid in parallel, reading
+ * a {@link GISRasterBinaryFile} with and without checksums, and opening a
+ * {@link MappedGISRaster} and visiting every cell.
+ *
+ * @author Gary Polhill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryRasterReadBenchmark {
+  @Param({ "256", "1024" })
+  public int size;
+
+  @Param({ SyntheticData.INT, SyntheticData.DOUBLE })
+  public String cellType;
+
+  @Param({ "0.0", "0.1" })
+  public double nodataDensity;
+
+  private File ascii;
+
+  private File binary;
+
+  private File checksummed;
+
+  private File mapped;
+
+  @Setup
+  public void setUp() throws IOException {
+    ascii = SyntheticData.gridFile(size, cellType, nodataDensity);
+    binary = SyntheticData.tempFile(GISRasterBinaryFile.EXTENSION);
+    GISRasterReader.convertToBinary(ascii.getPath(), binary.getPath(), false);
+    checksummed = SyntheticData.tempFile(GISRasterBinaryFile.EXTENSION);
+    GISRasterReader.convertToBinary(ascii.getPath(), checksummed.getPath(), true);
+    mapped = SyntheticData.tempFile(MappedGISRaster.EXTENSION);
+    GISRasterReader.convertToMapped(ascii.getPath(), mapped.getPath()).close();
+  }
+
+  @Benchmark
+  public GISRaster<?> parallelGridASCII() throws IOException {
+    return new GISRasterReader(ascii.getPath(), true).getRaster();
+  }
+
+  @Benchmark
+  public GISRaster<?> binary() throws IOException {
+    return GISRasterBinaryFile.read(binary.getPath());
+  }
+
+  @Benchmark
+  public GISRaster<?> binaryWithChecksums() throws IOException {
+    return GISRasterBinaryFile.read(checksummed.getPath());
+  }
+
+  @Benchmark
+  public double mappedSum() throws IOException {
+    MappedGISRaster<?> raster = MappedGISRaster.open(mapped.getPath(), false);
+    try {
+      double sum = 0.0;
+      for(int row = 0; row < raster.nrows(); row++) {
+        for(int col = 0; col < raster.ncols(); col++) {
+          double value = raster.atRCDouble(row, col);
+          if(!Double.isNaN(value)) sum += value;
+        }
+      }
+      return sum;
+    }
+    finally {
+      raster.close();
+    }
+  }
+}
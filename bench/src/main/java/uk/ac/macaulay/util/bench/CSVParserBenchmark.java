@@ -0,0 +1,110 @@
+/*
+ * uk.ac.macaulay.util.bench: CSVParserBenchmark.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.macaulay.util.CSVException;
+import uk.ac.macaulay.util.CSVParser;
+
+/**
+ * <!-- CSVParserBenchmark -->
+ *
+ * Time parsing a fixed number of lines, with quoted cells, shared among
+ * threads that each have their own {@link CSVParser}, to see how the time
+ * falls with the number of threads.
+ *
+ * @author Gary Polhill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSVParserBenchmark {
+  @Param({ "1", "2", "4", "8" })
+  public int nthreads;
+
+  @Param({ "200000" })
+  public int nlines;
+
+  private String[] lines;
+
+  @Setup
+  public void setUp() {
+    lines = new String[nlines];
+    for(int i = 0; i < nlines; i++) {
+      lines[i] = i + ",\"name \"\"" + i + "\"\"\"," + (i * 0.5) + ",\"some text, with a comma\"";
+    }
+  }
+
+  @Benchmark
+  public int[] parse() throws InterruptedException {
+    final int[] cellsParsed = new int[nthreads];
+    Thread[] parsers = new Thread[nthreads];
+    for(int i = 0; i < nthreads; i++) {
+      final int thread = i;
+      final int start = i * nlines / nthreads;
+      final int end = (i + 1) * nlines / nthreads;
+      parsers[i] = new Thread() {
+        public void run() {
+          CSVParser parser = new CSVParser("bench" + thread);
+          List<String> cells = new ArrayList<String>();
+          try {
+            for(int line = start; line < end; line++) {
+              cells.clear();
+              parser.parseLine(lines[line], line + 1, cells);
+              cellsParsed[thread] += cells.size();
+            }
+          }
+          catch(CSVException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+    }
+    for(Thread parser: parsers) {
+      parser.start();
+    }
+    for(Thread parser: parsers) {
+      parser.join();
+    }
+    return cellsParsed;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * uk.ac.macaulay.util.bench: CSVReaderBenchmark.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.macaulay.util.CSVException;
+import uk.ac.macaulay.util.CSVReader;
+import uk.ac.macaulay.util.HeadedTable;
+import uk.ac.macaulay.util.ParallelCSVReader;
+import uk.ac.macaulay.util.Table;
+
+/**
+ * <!-- CSVReaderBenchmark -->
+ *
+ * Time reading a CSV file with a row of headings into a {@link Table} and a
+ * {@link HeadedTable}, for each type of cell, and into a {@link Table} with a
+ * {@link ParallelCSVReader}.
+ *
+ * @author Gary Polhill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CSVReaderBenchmark {
+  @Param({ "1000", "100000" })
+  public int nrows;
+
+  @Param({ "20" })
+  public int ncols;
+
+  @Param({ SyntheticData.INT, SyntheticData.DOUBLE, SyntheticData.STRING })
+  public String cellType;
+
+  @Param({ "0.0", "0.1" })
+  public double nodataDensity;
+
+  private File file;
+
+  @Setup
+  public void setUp() throws IOException {
+    file = SyntheticData.csvFile(nrows, ncols, cellType, nodataDensity);
+  }
+
+  @Benchmark
+  public Table<String> table() throws IOException, CSVException {
+    return new CSVReader(file.getPath()).getTable();
+  }
+
+  @Benchmark
+  public HeadedTable<String> headedTable() throws IOException, CSVException {
+    return new CSVReader(file.getPath()).getHeadedTable();
+  }
+
+  @Benchmark
+  public Table<String> parallelTable() throws IOException, CSVException {
+    return new ParallelCSVReader(file.getPath()).getTable();
+  }
+}
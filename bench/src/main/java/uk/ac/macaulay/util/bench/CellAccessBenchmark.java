@@ -0,0 +1,165 @@
+/*
+ * uk.ac.macaulay.util.bench: CellAccessBenchmark.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.macaulay.util.DoubleTable;
+import uk.ac.macaulay.util.GISRaster;
+import uk.ac.macaulay.util.Table;
+
+/**
+ * <!-- CellAccessBenchmark -->
+ *
+ * Time converting tables of numbers to {@link DoubleTable}s, and visiting
+ * every cell of a raster in different ways: row by row, column by column, by
+ * georeferenced co-ordinate, without boxing, and with the parallel bulk
+ * operations. The raster is stored as primitives when <code>primitive</code>
+ * is true, and as objects otherwise.
+ *
+ * @author Gary Polhill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellAccessBenchmark {
+  @Param({ "256", "1024" })
+  public int size;
+
+  @Param({ SyntheticData.INT, SyntheticData.DOUBLE })
+  public String cellType;
+
+  @Param({ "0.0", "0.1" })
+  public double nodataDensity;
+
+  @Param({ "true", "false" })
+  public boolean primitive;
+
+  private Table<String> strings;
+
+  private Table<? extends Number> numbers;
+
+  private GISRaster<Double> raster;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    strings = SyntheticData.table(size, cellType, nodataDensity);
+    numbers = (Table<? extends Number>)strings.inferAndConvert();
+    DoubleTable doubles = strings.asDoubleTable();
+    Double nodata = Double.valueOf(SyntheticData.NODATA);
+    if(primitive) {
+      raster = new GISRaster<Double>(doubles, 0.0, 0.0, 10.0, nodata);
+    }
+    else {
+      raster = new GISRaster<Double>(size, size, 0.0, 0.0, 10.0, nodata);
+      for(int row = 0; row < size; row++) {
+        for(int col = 0; col < size; col++) {
+          raster.atRC(row, col, doubles.atRC(row, col));
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public DoubleTable asDoubleTableFromStrings() {
+    return strings.asDoubleTable();
+  }
+
+  @Benchmark
+  public DoubleTable asDoubleTableFromNumbers() {
+    return numbers.asDoubleTable();
+  }
+
+  @Benchmark
+  public double rowMajor() {
+    double sum = 0.0;
+    for(int row = 0; row < size; row++) {
+      for(int col = 0; col < size; col++) {
+        sum += raster.atRC(row, col);
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double columnMajor() {
+    double sum = 0.0;
+    for(int col = 0; col < size; col++) {
+      for(int row = 0; row < size; row++) {
+        sum += raster.atRC(row, col);
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double georeferenced() {
+    double sum = 0.0;
+    for(int row = 0; row < size; row++) {
+      double y = raster.convertRow(row);
+      for(int col = 0; col < size; col++) {
+        sum += raster.atXY(raster.convertX(col), y);
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double unboxed() {
+    double sum = 0.0;
+    for(int row = 0; row < size; row++) {
+      for(int col = 0; col < size; col++) {
+        double value = raster.atRCDouble(row, col);
+        if(!Double.isNaN(value)) sum += value;
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double reduce() {
+    return raster.reduce(0.0, (sum, value) -> sum + value, (a, b) -> a + b);
+  }
+
+  @Benchmark
+  public int countNoData() {
+    return raster.countNoData();
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * uk.ac.macaulay.util.bench: ConcurrentTableBenchmark.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.macaulay.util.ConcurrentTable;
+import uk.ac.macaulay.util.Table;
+
+/**
+ * <!-- ConcurrentTableBenchmark -->
+ *
+ * Time a fixed number of writes shared among threads writing to disjoint
+ * blocks of rows, in a {@link ConcurrentTable} and in a synchronized
+ * {@link Table}, to see how the time falls with the number of threads.
+ *
+ * @author Gary Polhill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentTableBenchmark {
+  @Param({ "1", "2", "4", "8" })
+  public int nthreads;
+
+  @Param({ "400" })
+  public int nrows;
+
+  @Param({ "500" })
+  public int ncols;
+
+  private ConcurrentTable<Integer> concurrent;
+
+  private Table<Integer> synchronised;
+
+  @Setup
+  public void setUp() {
+    concurrent = Table.concurrent(nrows, ncols);
+    synchronised = new Table<Integer>(nrows, ncols);
+  }
+
+  @Benchmark
+  public Table<Integer> concurrentTable() throws InterruptedException {
+    return write(concurrent);
+  }
+
+  @Benchmark
+  public Table<Integer> synchronizedTable() throws InterruptedException {
+    return write(synchronised);
+  }
+
+  /**
+   * <!-- write -->
+   *
+   * @param table The table to write every cell of
+   * @return The table
+   * @throws InterruptedException
+   */
+  private Table<Integer> write(final Table<Integer> table) throws InterruptedException {
+    Thread[] writers = new Thread[nthreads];
+    for(int i = 0; i < nthreads; i++) {
+      final int start = i * nrows / nthreads;
+      final int end = (i + 1) * nrows / nthreads;
+      writers[i] = new Thread() {
+        public void run() {
+          for(int row = start; row < end; row++) {
+            for(int col = 0; col < ncols; col++) {
+              table.atRC(row, col, row * ncols + col);
+            }
+          }
+        }
+      };
+    }
+    for(Thread writer: writers) {
+      writer.start();
+    }
+    for(Thread writer: writers) {
+      writer.join();
+    }
+    return table;
+  }
+}
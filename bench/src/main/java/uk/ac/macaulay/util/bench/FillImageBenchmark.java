@@ -0,0 +1,94 @@
+/*
+ * uk.ac.macaulay.util.bench: FillImageBenchmark.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util.bench;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.macaulay.util.GISKeyedRaster;
+import uk.ac.macaulay.util.GISRGBScaledKey;
+import uk.ac.macaulay.util.GISRasterReader;
+
+/**
+ * <!-- FillImageBenchmark -->
+ *
+ * Time rendering a raster of doubles to an image with
+ * {@link GISKeyedRaster#fillImage(BufferedImage, int)}, using a scaled colour
+ * key (compiled or not), at different zoom factors.
+ *
+ * @author Gary Polhill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FillImageBenchmark {
+  @Param({ "256", "1024" })
+  public int size;
+
+  @Param({ "1", "4" })
+  public int zoom;
+
+  @Param({ "0.0", "0.1" })
+  public double nodataDensity;
+
+  @Param({ "false", "true" })
+  public boolean compiled;
+
+  private GISKeyedRaster<Double> raster;
+
+  private BufferedImage image;
+
+  @Setup
+  public void setUp() throws IOException {
+    GISRasterReader reader =
+      new GISRasterReader(SyntheticData.gridFile(size, SyntheticData.DOUBLE, nodataDensity).getPath());
+    GISRGBScaledKey<Double> key = new GISRGBScaledKey<Double>(0.0, 1000.0, Color.BLUE, Color.RED);
+    raster = compiled ? new GISKeyedRaster<Double>(reader.getRasterDouble(), key.compile(1.0))
+                     : new GISKeyedRaster<Double>(reader.getRasterDouble(), key);
+    image = new BufferedImage(size * zoom, size * zoom, BufferedImage.TYPE_INT_ARGB);
+  }
+
+  @Benchmark
+  public BufferedImage fillImage() {
+    raster.fillImage(image, zoom);
+    return image;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * uk.ac.macaulay.util.bench: RasterReadBenchmark.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.macaulay.util.FileOpener;
+import uk.ac.macaulay.util.GISRaster;
+import uk.ac.macaulay.util.GISRasterReader;
+import uk.ac.macaulay.util.Table;
+import uk.ac.macaulay.util.TextReader;
+
+/**
+ * <!-- RasterReadBenchmark -->
+ *
+ * Time reading ARC ASCII grids of each type of cell: the whole of
+ * {@link GISRasterReader}, and just splitting the cells into a table of
+ * strings with {@link TextReader#readTable(int, int)}.
+ *
+ * @author Gary Polhill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RasterReadBenchmark {
+  @Param({ "256", "1024" })
+  public int size;
+
+  @Param({ SyntheticData.INT, SyntheticData.DOUBLE, SyntheticData.STRING })
+  public String cellType;
+
+  @Param({ "0.0", "0.1" })
+  public double nodataDensity;
+
+  /**
+   * The grid
+   */
+  private File file;
+
+  @Setup
+  public void setUp() throws IOException {
+    file = SyntheticData.gridFile(size, cellType, nodataDensity);
+  }
+
+  @Benchmark
+  public GISRaster<?> gisRasterReader() throws IOException {
+    return new GISRasterReader(file.getPath()).getRaster();
+  }
+
+  @Benchmark
+  public Table<String> textReaderReadTable() throws IOException {
+    BufferedReader buff = FileOpener.read(file);
+    try {
+      TextReader reader = new TextReader(buff, file.getPath(), "ARC ASCII grid");
+      reader.readOrderedKeyValuePairs(new String[] { "ncols", "nrows", "xllcorner", "yllcorner", "cellsize",
+        "?nodata_value" });
+      return reader.readTable(size, size);
+    }
+    finally {
+      buff.close();
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * uk.ac.macaulay.util.bench: SyntheticData.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import uk.ac.macaulay.util.FileOpener;
+import uk.ac.macaulay.util.Table;
+
+/**
+ * <!-- SyntheticData -->
+ *
+ * Make the inputs for the benchmarks: cells of a chosen type, some of which
+ * have no data, written to tables or to temporary ARC ASCII grid and CSV
+ * files. The same seed is always used, so every run of a benchmark sees the
+ * same data.
+ *
+ * @author Gary Polhill
+ */
+public final class SyntheticData {
+  /**
+   * The 'no data' value used in the grids
+   */
+  public static final String NODATA = "-9999";
+
+  /**
+   * Seed for the random numbers
+   */
+  private static final long SEED = 20100401L;
+
+  /**
+   * The types of cell that can be made
+   */
+  public static final String INT = "int";
+
+  public static final String DOUBLE = "double";
+
+  public static final String STRING = "string";
+
+  private SyntheticData() {
+    // Stop instances
+  }
+
+  /**
+   * <!-- cell -->
+   *
+   * @param rand Source of random numbers
+   * @param cellType {@link #INT}, {@link #DOUBLE} or {@link #STRING}
+   * @param nodataDensity Proportion of cells to give the 'no data' value
+   * @return The text of a cell
+   */
+  public static String cell(Random rand, String cellType, double nodataDensity) {
+    if(rand.nextDouble() < nodataDensity) return NODATA;
+    if(cellType.equals(INT)) return Integer.toString(rand.nextInt(100000));
+    if(cellType.equals(DOUBLE)) return Double.toString(rand.nextInt(1000000) / 1000.0);
+    return "c" + Integer.toString(rand.nextInt(1000));
+  }
+
+  /**
+   * <!-- table -->
+   *
+   * @param size Number of rows and columns
+   * @param cellType {@link #INT}, {@link #DOUBLE} or {@link #STRING}
+   * @param nodataDensity Proportion of cells to give the 'no data' value
+   * @return A table of the text of the cells
+   */
+  public static Table<String> table(int size, String cellType, double nodataDensity) {
+    Random rand = new Random(SEED);
+    Table<String> table = new Table<String>(size, size);
+    for(int row = 0; row < size; row++) {
+      for(int col = 0; col < size; col++) {
+        table.atRC(row, col, cell(rand, cellType, nodataDensity));
+      }
+    }
+    return table;
+  }
+
+  /**
+   * <!-- gridFile -->
+   *
+   * @param size Number of rows and columns
+   * @param cellType {@link #INT}, {@link #DOUBLE} or {@link #STRING}
+   * @param nodataDensity Proportion of cells to give the 'no data' value
+   * @return A temporary ARC ASCII grid file, deleted when the JVM exits
+   * @throws IOException
+   */
+  public static File gridFile(int size, String cellType, double nodataDensity) throws IOException {
+    File file = tempFile(".asc");
+    PrintWriter out = FileOpener.write(file);
+    out.println("ncols " + size);
+    out.println("nrows " + size);
+    out.println("xllcorner 0");
+    out.println("yllcorner 0");
+    out.println("cellsize 10");
+    out.println("NODATA_value " + NODATA);
+    writeCells(out, size, size, cellType, nodataDensity, ' ');
+    out.close();
+    return file;
+  }
+
+  /**
+   * <!-- csvFile -->
+   *
+   * @param nrows Number of rows (after a row of headings)
+   * @param ncols Number of columns
+   * @param cellType {@link #INT}, {@link #DOUBLE} or {@link #STRING}
+   * @param nodataDensity Proportion of cells to give the 'no data' value
+   * @return A temporary CSV file, deleted when the JVM exits
+   * @throws IOException
+   */
+  public static File csvFile(int nrows, int ncols, String cellType, double nodataDensity) throws IOException {
+    File file = tempFile(".csv");
+    PrintWriter out = FileOpener.write(file);
+    for(int col = 0; col < ncols; col++) {
+      if(col > 0) out.print(',');
+      out.print("heading" + col);
+    }
+    out.println();
+    writeCells(out, nrows, ncols, cellType, nodataDensity, ',');
+    out.close();
+    return file;
+  }
+
+  /**
+   * <!-- writeCells -->
+   *
+   * @param out Where to write the cells
+   * @param nrows Number of rows
+   * @param ncols Number of columns
+   * @param cellType {@link #INT}, {@link #DOUBLE} or {@link #STRING}
+   * @param nodataDensity Proportion of cells to give the 'no data' value
+   * @param separator Character to put between cells on a row
+   */
+  private static void writeCells(PrintWriter out, int nrows, int ncols, String cellType, double nodataDensity,
+      char separator) {
+    Random rand = new Random(SEED);
+    for(int row = 0; row < nrows; row++) {
+      for(int col = 0; col < ncols; col++) {
+        if(col > 0) out.print(separator);
+        out.print(cell(rand, cellType, nodataDensity));
+      }
+      out.println();
+    }
+  }
+
+  /**
+   * <!-- tempFile -->
+   *
+   * @param suffix Extension of the file
+   * @return A temporary file, deleted when the JVM exits
+   * @throws IOException
+   */
+  public static File tempFile(String suffix) throws IOException {
+    File file = File.createTempFile("utils-bench", suffix);
+    file.deleteOnExit();
+    return file;
+  }
+}
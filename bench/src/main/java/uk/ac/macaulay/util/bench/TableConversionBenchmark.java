@@ -0,0 +1,87 @@
+/*
+ * uk.ac.macaulay.util.bench: TableConversionBenchmark.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.macaulay.util.Table;
+
+/**
+ * <!-- TableConversionBenchmark -->
+ *
+ * Time working out the type of the cells in a table of strings and converting
+ * it, with each type of cell.
+ *
+ * @author Gary Polhill
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableConversionBenchmark {
+  @Param({ "256", "1024" })
+  public int size;
+
+  @Param({ SyntheticData.INT, SyntheticData.DOUBLE, SyntheticData.STRING })
+  public String cellType;
+
+  @Param({ "0.0", "0.1" })
+  public double nodataDensity;
+
+  private Table<String> strings;
+
+  @Setup
+  public void setUp() {
+    strings = SyntheticData.table(size, cellType, nodataDensity);
+  }
+
+  @Benchmark
+  public Table<?> inferAndConvert() {
+    return strings.inferAndConvert();
+  }
+
+  @Benchmark
+  public boolean areAllParseableInteger() {
+    return strings.areAllParseableInteger();
+  }
+
+  @Benchmark
+  public boolean areAllParseableDouble() {
+    return strings.areAllParseableDouble();
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * uk.ac.macaulay.util: AbstractPrimitiveTable.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.util.BitSet;
+
+/**
+ * <!-- AbstractPrimitiveTable -->
+ *
+ * <p>
+ * A {@link Table} of numbers stored in a single row-major array of primitives
+ * rather than as boxed objects. Subclasses supply the array and unboxed
+ * accessors for it. The usual <code>atRC</code>, <code>atXY</code> and
+ * <code>atXFlipY</code> methods still work, but box and unbox each entry.
+ * </p>
+ *
+ * <p>
+ * Unlike a {@link Table}, cells are initialised to zero rather than
+ * <code>null</code>. Setting a cell to <code>null</code> is still allowed, and
+ * is recorded in a bit set that is only created if needed.
+ * </p>
+ *
+ * @author Gary Polhill
+ */
+public abstract class AbstractPrimitiveTable<T extends Number> extends Table<T> {
+  /**
+   * Cells that have been set to <code>null</code> (<code>null</code> if there
+   * are none)
+   */
+  private BitSet nulls;
+
+  /**
+   * Constructor
+   *
+   * @param nrows The number of rows in the table
+   * @param ncols The number of columns in the table
+   */
+  protected AbstractPrimitiveTable(int nrows, int ncols) {
+    super(nrows, ncols, false);
+    if(nrows < 0 || ncols < 0 || (long)nrows * (long)ncols > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Cannot store " + nrows + " rows by " + ncols + " columns in an array");
+    }
+  }
+
+  /**
+   * Cloning constructor (subclasses copy the array)
+   *
+   * @param table The table to clone
+   */
+  protected AbstractPrimitiveTable(AbstractPrimitiveTable<T> table) {
+    this(table.nrows, table.ncols);
+    synchronized(table) {
+      if(table.nulls != null) nulls = (BitSet)table.nulls.clone();
+    }
+  }
+
+  /**
+   * <!-- index -->
+   *
+   * @param row The row
+   * @param col The column
+   * @return The index of the cell in the array
+   */
+  protected final int index(int row, int col) {
+    return row * ncols + col;
+  }
+
+  /**
+   * <!-- checkRC -->
+   *
+   * Throw an exception if the row or column is out of range
+   *
+   * @param row The row
+   * @param col The column
+   */
+  protected final void checkRC(int row, int col) {
+    if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
+  }
+
+  /**
+   * <!-- isNull -->
+   *
+   * @param row The row
+   * @param col The column
+   * @return <code>true</code> if the cell has been set to <code>null</code>
+   */
+  public boolean isNull(int row, int col) {
+    checkRC(row, col);
+    return isNull(index(row, col));
+  }
+
+  /**
+   * <!-- isNull -->
+   *
+   * @param ix Index in the array
+   * @return <code>true</code> if the cell at the index is <code>null</code>
+   */
+  protected final boolean isNull(int ix) {
+    return nulls != null && nulls.get(ix);
+  }
+
+  /**
+   * <!-- hasNulls -->
+   *
+   * @return <code>true</code> if any cell has been set to <code>null</code>
+   *         (and not since been given a value).
+   */
+  public boolean hasNulls() {
+    return nulls != null && !nulls.isEmpty();
+  }
+
+  /**
+   * <!-- setNull -->
+   *
+   * Record that the cell at the index is <code>null</code>. This is
+   * synchronized because a {@link BitSet} is not safe to update from more than
+   * one thread, even when the bits concerned differ.
+   *
+   * @param ix Index in the array
+   */
+  protected final synchronized void setNull(int ix) {
+    if(nulls == null) nulls = new BitSet();
+    nulls.set(ix);
+  }
+
+  /**
+   * <!-- clearNull -->
+   *
+   * Record that the cell at the index has a value
+   *
+   * @param ix Index in the array
+   */
+  protected final void clearNull(int ix) {
+    if(nulls != null) {
+      synchronized(this) {
+        nulls.clear(ix);
+      }
+    }
+  }
+
+  /**
+   * <!-- getDouble -->
+   *
+   * Get the entry in a cell as a <code>double</code>, without boxing it. The
+   * value returned for a <code>null</code> cell is whatever is in the array.
+   *
+   * @param row The row
+   * @param col The column
+   * @return The entry in the cell
+   */
+  public abstract double getDouble(int row, int col);
+
+  /**
+   * <!-- setDouble -->
+   *
+   * Set the entry in a cell from a <code>double</code>, without boxing it. The
+   * value will be cast to the type of the array.
+   *
+   * @param row The row
+   * @param col The column
+   * @param value The value to set
+   */
+  public abstract void setDouble(int row, int col, double value);
+
+  /**
+   * <!-- cellEquals -->
+   *
+   * Check whether the entry in a cell is equal to a value, as
+   * {@link Object#equals(Object)} would, but without boxing the entry.
+   *
+   * @param row The row
+   * @param col The column
+   * @param value The value to compare with
+   * @return <code>true</code> if the cell is not <code>null</code> and its
+   *         entry equals the value
+   */
+  public abstract boolean cellEquals(int row, int col, Object value);
+
+  /**
+   * <!-- asDoubleTable -->
+   *
+   * Widen the table to <code>double</code>s directly from the array, rather
+   * than by formatting and parsing each cell.
+   *
+   * @see uk.ac.macaulay.util.Table#asDoubleTable()
+   */
+  @Override
+  public DoubleTable asDoubleTable() {
+    final DoubleTable table = new DoubleTable(nrows, ncols);
+    ParallelRows.forEach(nrows, ncols, (startRow, endRow) -> {
+      for(int row = startRow; row < endRow; row++) {
+        for(int col = 0; col < ncols; col++) {
+          table.setDouble(row, col, getDouble(row, col));
+        }
+      }
+    });
+    if(nulls != null) {
+      for(int i = nulls.nextSetBit(0); i >= 0; i = nulls.nextSetBit(i + 1)) {
+        table.setCell(i / ncols, i % ncols, null);
+      }
+    }
+    return table;
+  }
+
+  /**
+   * <!-- copy -->
+   *
+   * @return A copy of this table
+   */
+  public abstract AbstractPrimitiveTable<T> copy();
+
+  /**
+   * <!-- newTable -->
+   *
+   * @param nrows The number of rows
+   * @param ncols The number of columns
+   * @return An empty table of a different size, storing the same type of
+   *         primitive as this one
+   */
+  public abstract AbstractPrimitiveTable<T> newTable(int nrows, int ncols);
+}
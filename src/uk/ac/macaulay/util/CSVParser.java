@@ -0,0 +1,360 @@
+/*
+ * uk.ac.macaulay.util: CSVParser.java
+ * 
+ * Copyright (C) 2010 Macaulay Institute
+ * 
+ * This file is part of utils.
+ * 
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * <!-- CSVParser -->
+ * 
+ * <p>
+ * Parse CSV records one character at a time, with a finite state machine
+ * working directly on a buffer of characters. Cells are separated by commas,
+ * and may be in quotes, in which case they may contain commas, quotes
+ * (appearing twice) and line breaks. A record ends at a line break (LF, CR
+ * or CR LF) outside quotes.
+ * </p>
+ * 
+ * <p>
+ * Errors are reported as {@link CSVException}s giving the file, the number
+ * of the record and the number of the cell in the record.
+ * </p>
+ * 
+ * <p>
+ * A parser keeps its buffers and where it is in the file to itself, so is
+ * not thread-safe, but needs no locking either: each thread parsing CSV
+ * should have its own, and any number of threads can then parse different
+ * files, or lines from the same file, at the same time.
+ * </p>
+ * 
+ * @see CSVReader
+ * @author Gary Polhill
+ */
+public final class CSVParser {
+  /**
+   * Size of the buffer when reading from a {@link Reader}
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * States of the parser
+   */
+  private static final int START_CELL = 0;
+
+  private static final int UNQUOTED = 1;
+
+  private static final int QUOTED = 2;
+
+  private static final int QUOTE_IN_QUOTED = 3;
+
+  /**
+   * Where the characters come from, or <code>null</code> if they are all in
+   * the buffer
+   */
+  private final Reader in;
+
+  /**
+   * The name of the file (<code>null</code> if none) for error messages
+   */
+  private final String filename;
+
+  /**
+   * What the end of the input is called in error messages
+   */
+  private final String end;
+
+  /**
+   * Buffer of characters
+   */
+  private char[] buf;
+
+  /**
+   * Position of the next character to read in the buffer
+   */
+  private int pos;
+
+  /**
+   * Number of characters in the buffer
+   */
+  private int limit;
+
+  /**
+   * The characters of the cell being parsed
+   */
+  private char[] cell;
+
+  /**
+   * Number of characters in the cell
+   */
+  private int length;
+
+  /**
+   * Number of the next record
+   */
+  private int row;
+
+  /**
+   * <code>true</code> if the last record ended with a CR, so an LF
+   * following it is part of the same line break
+   */
+  private boolean afterCR;
+
+  /**
+   * Constructor for reading records from a {@link Reader}
+   * 
+   * @param in The reader
+   * @param filename The name of the file being read
+   * @param row The number of the first record
+   */
+  public CSVParser(Reader in, String filename, int row) {
+    this.in = in;
+    this.filename = filename;
+    this.row = row;
+    end = "end of file";
+    buf = new char[BUFFER_SIZE];
+    pos = 0;
+    limit = 0;
+    cell = new char[64];
+    length = 0;
+    afterCR = false;
+  }
+
+  /**
+   * Constructor for reading records from characters already in memory
+   * 
+   * @param chars Array containing the characters
+   * @param offset Position of the first character in the array
+   * @param length Number of characters
+   * @param filename The name of the file they come from
+   * @param row The number of the first record
+   */
+  CSVParser(char[] chars, int offset, int length, String filename, int row) {
+    this.in = null;
+    this.filename = filename;
+    this.row = row;
+    end = "end of file";
+    buf = chars;
+    pos = offset;
+    limit = offset + length;
+    cell = new char[64];
+    this.length = 0;
+    afterCR = false;
+  }
+
+  /**
+   * Constructor for parsing lines of text with {@link #parseLine}
+   * 
+   * @param filename The name of the file the lines come from, or
+   *          <code>null</code>
+   */
+  public CSVParser(String filename) {
+    this.in = null;
+    this.filename = filename;
+    row = 0;
+    end = "end of line";
+    buf = new char[256];
+    pos = 0;
+    limit = 0;
+    cell = new char[64];
+    length = 0;
+    afterCR = false;
+  }
+
+  /**
+   * <!-- getRow -->
+   * 
+   * @return The number of the next record to be parsed
+   */
+  public int getRow() {
+    return row;
+  }
+
+  /**
+   * <!-- next -->
+   * 
+   * Parse the next record
+   * 
+   * @param cells List to which to add the cells of the record (which should
+   *          be empty)
+   * @return <code>false</code> if there are no more records
+   * @throws IOException
+   * @throws CSVException
+   */
+  public boolean next(List<String> cells) throws IOException, CSVException {
+    if(afterCR) {
+      afterCR = false;
+      if((pos < limit || refill()) && buf[pos] == '\n') pos++;
+    }
+    if(pos == limit && !refill()) return false;
+
+    int state = START_CELL;
+    length = 0;
+    while(pos < limit || refill()) {
+      char c = buf[pos++];
+      switch(state) {
+      case START_CELL:
+      case UNQUOTED:
+        if(c == ',') {
+          cells.add(takeCell());
+          state = START_CELL;
+        }
+        else if(c == '\n' || c == '\r') {
+          cells.add(takeCell());
+          return endRecord(c);
+        }
+        else if(c == '"') {
+          if(state == UNQUOTED) {
+            throw new CSVException(", (comma)", "\" (quote)", filename, row, cells.size() + 1);
+          }
+          state = QUOTED;
+        }
+        else {
+          append(c);
+          state = UNQUOTED;
+        }
+        break;
+      case QUOTED:
+        if(c == '"') state = QUOTE_IN_QUOTED;
+        else
+          append(c);
+        break;
+      case QUOTE_IN_QUOTED:
+        if(c == '"') {
+          append(c);
+          state = QUOTED;
+        }
+        else if(c == ',') {
+          cells.add(takeCell());
+          state = START_CELL;
+        }
+        else if(c == '\n' || c == '\r') {
+          cells.add(takeCell());
+          return endRecord(c);
+        }
+        else {
+          throw new CSVException("\" (quote) or , (comma)", String.valueOf(c), filename, row, cells.size() + 1);
+        }
+        break;
+      default:
+        throw new RuntimeException("Unhandled CSV parser state " + state);
+      }
+    }
+
+    // The end of the input also ends the record
+
+    if(state == QUOTED) throw new CSVException("\" (quote)", end, filename, row, cells.size() + 1);
+    cells.add(takeCell());
+    row++;
+    return true;
+  }
+
+  /**
+   * <!-- parseLine -->
+   * 
+   * Parse a line of text, reusing the buffers of this parser. A cell in
+   * quotes may contain line breaks, but if the line has a line break outside
+   * quotes, only the cells before it are parsed.
+   * 
+   * @param line The line of text
+   * @param row The number of the row the line is in the file, for error
+   *          messages
+   * @param cells List to which to add the cells of the line (an empty line
+   *          has one empty cell)
+   * @throws CSVException
+   */
+  public void parseLine(String line, int row, List<String> cells) throws CSVException {
+    if(in != null) throw new IllegalStateException("Parser for " + filename + " reads from a file");
+    int n = line.length();
+    if(n > buf.length) buf = new char[Math.max(n, buf.length * 2)];
+    line.getChars(0, n, buf, 0);
+    pos = 0;
+    limit = n;
+    this.row = row;
+    afterCR = false;
+    try {
+      if(!next(cells)) cells.add("");
+    }
+    catch(IOException e) {
+      // There is no reader to throw it
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * <!-- endRecord -->
+   * 
+   * @param c The character ending the record
+   * @return <code>true</code>
+   */
+  private boolean endRecord(char c) {
+    afterCR = c == '\r';
+    row++;
+    return true;
+  }
+
+  /**
+   * <!-- append -->
+   * 
+   * @param c A character to add to the cell
+   */
+  private void append(char c) {
+    if(length == cell.length) {
+      char[] bigger = new char[length * 2];
+      System.arraycopy(cell, 0, bigger, 0, length);
+      cell = bigger;
+    }
+    cell[length++] = c;
+  }
+
+  /**
+   * <!-- takeCell -->
+   * 
+   * @return The cell parsed, ready to start the next
+   */
+  private String takeCell() {
+    String text = new String(cell, 0, length);
+    length = 0;
+    return text;
+  }
+
+  /**
+   * <!-- refill -->
+   * 
+   * @return <code>false</code> if there are no more characters
+   * @throws IOException
+   */
+  private boolean refill() throws IOException {
+    if(in == null) return false;
+    int n;
+    do {
+      n = in.read(buf, 0, buf.length);
+    } while(n == 0);
+    if(n < 0) return false;
+    pos = 0;
+    limit = n;
+    return true;
+  }
+}
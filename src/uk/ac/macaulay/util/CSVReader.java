@@ -23,11 +23,9 @@
  */
 package uk.ac.macaulay.util;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
-import java.util.ListIterator;
-import java.util.NoSuchElementException;
 
 /**
  * CSVReader
@@ -36,19 +34,24 @@ import java.util.NoSuchElementException;
  * form a CSV file consists of a series of lines, each cell of which is
  * separated by a comma. To include a comma in a cell, the cell must be in
  * quotes. If the cell contains a quote, then the cell must be in quotes, and
- * each quote to include in the cell appears twice.
+ * each quote to include in the cell appears twice. A cell in quotes may also
+ * contain line breaks.
  * <p>
  * Calling the constructor causes the file to be read in. The data can then be
  * accessed by asking for the Table. Class methods are available to allow CSV
- * formatted data to be parsed on behalf of the caller.
+ * formatted data to be parsed on behalf of the caller. Files too big to read
+ * in all at once can be read a row at a time with {@link #stream(String)}, and
+ * large local files read using all the processors available with a
+ * {@link ParallelCSVReader}. Files with columns of numbers take much less
+ * memory read into a {@link ColumnTable}.
  * 
  * @author Gary Polhill
  */
 public class CSVReader {
   /**
-   * The data read in from the CSV file, as a list of list of cells
+   * The data read in from the CSV file, as a list of arrays of cells
    */
-  LinkedList<LinkedList<String>> cells;
+  ArrayList<String[]> cells;
 
   /**
    * The number of rows in the CSV file
@@ -65,16 +68,6 @@ public class CSVReader {
    */
   String filename;
 
-  /**
-   * Store the name of the file being worked on temporarily
-   */
-  private static String working_on_file = null;
-
-  /**
-   * Store the row being worked on temporarily
-   */
-  private static int working_on_row;
-
   /**
    * Constructor, reading in all the data in the CSV file.
    * 
@@ -86,19 +79,39 @@ public class CSVReader {
    */
   public CSVReader(String filename) throws IOException, CSVException {
     this.filename = filename;
-    BufferedReader buff = FileOpener.read(filename);
-    cells = new LinkedList<LinkedList<String>>();
+    cells = new ArrayList<String[]>();
     nrows = 0;
     ncols = 0;
-    String line;
-    while((line = buff.readLine()) != null) {
-      LinkedList<String> row = parseCells(line, filename, nrows + 1);
-      if(row.size() > ncols) ncols = row.size();
-      cells.addLast(row);
-      nrows++;
+    CSVStream stream = stream(filename);
+    try {
+      while(stream.nextRow()) {
+        String[] row = stream.getRow().toArray(new String[stream.getRow().size()]);
+        if(row.length > ncols) ncols = row.length;
+        cells.add(row);
+        nrows++;
+      }
+    }
+    finally {
+      stream.close();
     }
   }
 
+  /**
+   * <!-- stream -->
+   * 
+   * Read a CSV file one row at a time, without keeping the rows read, for
+   * files too big to read in all at once.
+   * 
+   * @param filename The file from which to read the CSV data. If this begins
+   *          with http:// or https://, then it is assumed the file is to be
+   *          downloaded from the web.
+   * @return A stream of the rows of the file
+   * @throws IOException
+   */
+  public static CSVStream stream(String filename) throws IOException {
+    return new CSVStream(filename);
+  }
+
   /**
    * <!-- getTable -->
    * 
@@ -107,15 +120,11 @@ public class CSVReader {
   public Table<String> getTable() {
     Table<String> table = new Table<String>(nrows, ncols);
 
-    int row_n = 0;
-    for(LinkedList<String> row: cells) {
-      int col_n = 0;
-
-      for(String cell: row) {
-        table.atRC(row_n, col_n, cell);
-        col_n++;
+    for(int row_n = 0; row_n < nrows; row_n++) {
+      String[] row = cells.get(row_n);
+      for(int col_n = 0; col_n < row.length; col_n++) {
+        table.atRC(row_n, col_n, row[col_n]);
       }
-      row_n++;
     }
 
     return table;
@@ -131,16 +140,8 @@ public class CSVReader {
    * @return A table with headings from the data read in.
    */
   public HeadedTable<String> getHeadedTable() {
-    String[] colHeadings;
- 
-    ListIterator<LinkedList<String>> i = cells.listIterator();
-    
-    if(i.hasNext()) {
-      colHeadings = i.next().toArray(new String[0]);
-    }
-    else {
-      throw new IllegalStateException("There are no headings");
-    }
+    if(nrows == 0) throw new IllegalStateException("There are no headings");
+    String[] colHeadings = cells.get(0);
 
     if(colHeadings.length != ncols) {
       throw new IllegalStateException("Number of headings (" + colHeadings.length
@@ -148,15 +149,10 @@ public class CSVReader {
     }
     HeadedTable<String> table = new HeadedTable<String>(nrows - 1, colHeadings);
 
-    while(i.hasNext()) {
-      LinkedList<String> row = i.next();
-
-      int col_n = 0;
-      int row_n = i.previousIndex() - 1;
-
-      for(String cell: row) {
-        table.atRC(row_n, col_n, cell);
-        col_n++;
+    for(int row_n = 1; row_n < nrows; row_n++) {
+      String[] row = cells.get(row_n);
+      for(int col_n = 0; col_n < row.length; col_n++) {
+        table.atRC(row_n - 1, col_n, row[col_n]);
       }
     }
 
@@ -200,7 +196,10 @@ public class CSVReader {
   /**
    * <!-- parseCells -->
    * 
-   * Parse a line of text from a file into a list of cells.
+   * Parse a line of text from a file into a list of cells. Any number of
+   * threads may call this at once; a thread parsing many lines should use a
+   * {@link CSVParser} of its own rather than this method, to reuse the
+   * parser's buffers.
    * 
    * @param line The line of text
    * @param file The file it came from
@@ -208,129 +207,25 @@ public class CSVReader {
    * @return A list of cells in the line
    * @throws CSVException
    */
-  public static synchronized LinkedList<String> parseCells(String line, String file, int row) throws CSVException {
-    // Temporarily store the file and line number in the file for feeding back
-    // relevant information to the user
-    working_on_file = file;
-    working_on_row = row;
-    // Call parseCells(String)
-    LinkedList<String> rowcells = parseCells(line);
-    working_on_file = null;
-    working_on_row = 0;
+  public static LinkedList<String> parseCells(String line, String file, int row) throws CSVException {
+    LinkedList<String> rowcells = new LinkedList<String>();
+    new CSVParser(file).parseLine(line, row, rowcells);
     return rowcells;
   }
 
   /**
    * <!-- parseCells -->
    * 
-   * Parse a line of text into a list of cells.
+   * Parse a line of text into a list of cells. A cell in quotes may contain
+   * line breaks, but if the line has a line break outside quotes, only the
+   * cells before it are parsed.
    * 
    * @param line The line of text
    * @return A list of cells in the line
    * @throws CSVException
    */
-  public static synchronized LinkedList<String> parseCells(String line) throws CSVException {
-    // Convert the line into a series of tokens
-    LinkedList<String> tokens = tokenize(line);
-    LinkedList<String> row = new LinkedList<String>();
-    // Call private recursive methods to parse the tokens and build the list of
-    // cells
-    parseCells(tokens, row);
-    return row;
-  }
-
-  /**
-   * <!-- parseCells -->
-   * 
-   * Private entry method into recursive parsing of a line of CSV text, which
-   * calls the main method.
-   * 
-   * @param tokens A list of tokens in the line
-   * @param row A list of cells in the row so far (empty when called)
-   * @throws CSVException
-   */
-  private static void parseCells(LinkedList<String> tokens, LinkedList<String> row) throws CSVException {
-    parseCells(tokens, row, new StringBuffer());
-  }
-
-  /**
-   * <!-- parseCells -->
-   * 
-   * Main private method for recursively parsing a line of CSV text.
-   * 
-   * @param tokens A list of the remaining tokens in the line
-   * @param row The row of cells being built up from the tokens in the line
-   * @param cell The current cell being built up from the tokens (empty when
-   *          first called)
-   * @throws CSVException
-   */
-  private static void parseCells(LinkedList<String> tokens, LinkedList<String> row, StringBuffer cell)
-      throws CSVException {
-    if(tokens.size() == 0) {
-      row.addLast(cell.toString());
-      return;
-    }
-    String token = tokens.removeFirst();
-    if(token.equals(",")) {
-      row.addLast(cell.toString());
-      parseCells(tokens, row, new StringBuffer());
-    }
-    else if(token.equals("\"")) {
-      if(cell.length() > 0)
-        throw new CSVException(", (comma)", "\" (quote)", working_on_file, working_on_row, row.size() + 1);
-      parseQuotedCell(tokens, row, cell);
-    }
-    else {
-      cell.append(token);
-      parseCells(tokens, row, cell);
-    }
-  }
-
-  /**
-   * <!-- parseQuotedCell -->
-   * 
-   * Partner of the main private recursive CSV parsing method to parse a cell in
-   * quotes. The first quote in the cell is assumed to have been read. This
-   * method will keep going until it finds the closing quote, which is followed
-   * either by a comma or the end of the line. If this is not found, an
-   * exception is raised.
-   * 
-   * @param tokens A list of tokens on the current line of text
-   * @param row The row of cells so far found
-   * @param cell The contents of the current cell.
-   * @throws CSVException
-   */
-  private static void parseQuotedCell(LinkedList<String> tokens, LinkedList<String> row, StringBuffer cell)
-      throws CSVException {
-    if(tokens.size() == 0) {
-      // End of line reached without a closing quote
-      throw new CSVException("\" (quote)", "end of line", working_on_file, working_on_row, row.size() + 1);
-    }
-    String token = tokens.removeFirst();
-    if(token.equals("\"")) {
-      // Found a quote, but is it the closing quote? Yes if the end of the line
-      // is reached (no more tokens) or the next token is a comma. No if the
-      // next token is another quote (then the quote is to be added to the
-      // contents of the cell). If the next token is not a comma or quote, then
-      // a CSV format exception has occurred.
-      if(tokens.size() == 0) return;
-      String next_token = tokens.removeFirst();
-      if(next_token.equals("\"")) {
-        cell.append(token);
-        parseQuotedCell(tokens, row, cell);
-      }
-      else if(next_token.equals(",")) {
-        row.addLast(cell.toString());
-        parseCells(tokens, row, new StringBuffer());
-      }
-      else {
-        throw new CSVException("\" (quote) or , (comma)", token, working_on_file, working_on_row, row.size() + 1);
-      }
-    }
-    else {
-      cell.append(token);
-      parseQuotedCell(tokens, row, cell);
-    }
+  public static LinkedList<String> parseCells(String line) throws CSVException {
+    return parseCells(line, null, 0);
   }
 
 }
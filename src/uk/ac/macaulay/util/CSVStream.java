@@ -0,0 +1,251 @@
+/*
+ * uk.ac.macaulay.util: CSVStream.java
+ * 
+ * Copyright (C) 2010 Macaulay Institute
+ * 
+ * This file is part of utils.
+ * 
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * <!-- CSVStream -->
+ * 
+ * <p>
+ * Read a CSV file one row at a time, in the format read by {@link CSVReader},
+ * without keeping the rows already read. A row ends at a line break that is
+ * not in quotes, so a cell in quotes may span several lines of the file. Each
+ * row is parsed into the same list, so however big the file, only one row is
+ * held in memory. The list is only valid until the next row is read: copy it
+ * if it is needed for longer.
+ * </p>
+ * 
+ * <p>
+ * Rows can be read with {@link #nextRow()} and {@link #getRow()}:
+ * </p>
+ * 
+ * <pre>
+ * CSVStream csv = CSVReader.stream(filename);
+ * try {
+ *   while(csv.nextRow()) {
+ *     List&lt;String&gt; row = csv.getRow();
+ *     ...
+ *   }
+ * }
+ * finally {
+ *   csv.close();
+ * }
+ * </pre>
+ * 
+ * <p>
+ * or, if errors need not be checked for, with a for-each loop, which wraps
+ * them in unchecked exceptions (see {@link #iterator()}). The file is closed
+ * when the last row has been read, or when the iterator throws an exception.
+ * </p>
+ * 
+ * @author Gary Polhill
+ */
+public class CSVStream implements Closeable, Iterable<List<String>> {
+  /**
+   * The name of the CSV file
+   */
+  private final String filename;
+
+  /**
+   * Where the rows come from
+   */
+  private final BufferedReader in;
+
+  /**
+   * Parser for the rows
+   */
+  private final CSVParser parser;
+
+  /**
+   * The cells of the current row
+   */
+  private final ArrayList<String> row;
+
+  /**
+   * An unmodifiable view of the current row, given to callers
+   */
+  private final List<String> view;
+
+  /**
+   * The number of rows read so far (and so the number of the current row,
+   * from 1)
+   */
+  private int rowNumber;
+
+  /**
+   * <code>true</code> when the end of the file has been reached
+   */
+  private boolean finished;
+
+  /**
+   * Constructor, opening the file
+   * 
+   * @param filename The file from which to read the CSV data. If this begins
+   *          with http:// or https://, then it is assumed the file is to be
+   *          downloaded from the web.
+   * @throws IOException
+   */
+  public CSVStream(String filename) throws IOException {
+    this.filename = filename;
+    in = FileOpener.read(filename);
+    parser = new CSVParser(in, filename, 1);
+    row = new ArrayList<String>();
+    view = Collections.unmodifiableList(row);
+    rowNumber = 0;
+    finished = false;
+  }
+
+  /**
+   * <!-- nextRow -->
+   * 
+   * Read the next row, replacing the cells in the list returned by
+   * {@link #getRow()}
+   * 
+   * @return <code>false</code> if there are no more rows
+   * @throws IOException
+   * @throws CSVException
+   */
+  public boolean nextRow() throws IOException, CSVException {
+    if(finished) return false;
+    row.clear();
+    if(!parser.next(row)) {
+      finished = true;
+      in.close();
+      return false;
+    }
+    rowNumber++;
+    return true;
+  }
+
+  /**
+   * <!-- getRow -->
+   * 
+   * @return The cells of the current row. The list is reused for the next
+   *         row, and cannot be modified.
+   */
+  public List<String> getRow() {
+    return view;
+  }
+
+  /**
+   * <!-- getRowNumber -->
+   * 
+   * @return The number of the current row, from 1
+   */
+  public int getRowNumber() {
+    return rowNumber;
+  }
+
+  /**
+   * <!-- getFileName -->
+   * 
+   * @return The name of the file being read
+   */
+  public String getFileName() {
+    return filename;
+  }
+
+  /**
+   * <!-- close -->
+   * 
+   * Close the file, if the last row has not already been read
+   * 
+   * @see java.io.Closeable#close()
+   */
+  public void close() throws IOException {
+    finished = true;
+    in.close();
+  }
+
+  /**
+   * <!-- closeAfter -->
+   * 
+   * Close the file after an error reading it, as a for-each loop has no
+   * chance to
+   * 
+   * @param e The error, to which any error closing the file is added as
+   *          suppressed
+   */
+  private void closeAfter(Exception e) {
+    try {
+      close();
+    }
+    catch(IOException closing) {
+      e.addSuppressed(closing);
+    }
+  }
+
+  /**
+   * <!-- iterator -->
+   * 
+   * The iterator gives the same list each time, with the cells of the next
+   * row. An {@link IOException} reading the file is thrown as an
+   * {@link UncheckedIOException}, and a {@link CSVException} as an
+   * {@link IllegalStateException} caused by it, after closing the file.
+   * 
+   * @see java.lang.Iterable#iterator()
+   * @return An iterator over the rows not yet read
+   */
+  public Iterator<List<String>> iterator() {
+    return new Iterator<List<String>>() {
+      /**
+       * <code>true</code> if a row has been read by {@link #hasNext()} but not
+       * yet returned by {@link #next()}
+       */
+      private boolean ahead = false;
+
+      public boolean hasNext() {
+        if(!ahead) {
+          try {
+            ahead = nextRow();
+          }
+          catch(IOException e) {
+            closeAfter(e);
+            throw new UncheckedIOException(e);
+          }
+          catch(CSVException e) {
+            closeAfter(e);
+            throw new IllegalStateException(e);
+          }
+        }
+        return ahead;
+      }
+
+      public List<String> next() {
+        if(!hasNext()) throw new NoSuchElementException();
+        ahead = false;
+        return view;
+      }
+    };
+  }
+}
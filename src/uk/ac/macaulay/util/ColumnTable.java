@@ -0,0 +1,617 @@
+/*
+ * uk.ac.macaulay.util: ColumnTable.java
+ * 
+ * Copyright (C) 2010 Macaulay Institute
+ * 
+ * This file is part of utils.
+ * 
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <!-- ColumnTable -->
+ *
+ * <p>
+ * A {@link HeadedTable} storing each column in an array of its own, of
+ * <code>int</code>s, <code>long</code>s, <code>double</code>s or
+ * {@link String}s. A column of numbers takes a fraction of the memory of the
+ * same column as text, and can be gone through a cell at a time without
+ * boxing by getting its array (e.g. with {@link #getDoubles(String)}).
+ * </p>
+ *
+ * <p>
+ * Tables are read from CSV files with a heading row by
+ * {@link #readCSV(String, Map)}, given the type of each column, or
+ * {@link #readCSV(String, int)}, which works the types out from the first few
+ * rows. Numbers are parsed with a {@link NumberParser} straight into the
+ * column arrays, a row at a time as the file is streamed, so the file is
+ * never held as text.
+ * </p>
+ *
+ * <p>
+ * Empty cells in columns of numbers, and cells missing from rows shorter
+ * than the headings, are <code>null</code>; their elements in the arrays are
+ * zero.
+ * </p>
+ *
+ * @author Gary Polhill
+ */
+public class ColumnTable extends HeadedTable<Object> {
+  /**
+   * <!-- Type -->
+   *
+   * Type of a column, in the same order as the {@link NumberParser}
+   * constants, with text last in place of {@link NumberParser#NOT_A_NUMBER}
+   *
+   * @author Gary Polhill
+   */
+  public enum Type {
+    INT, LONG, DOUBLE, STRING
+  }
+
+  /**
+   * The columns
+   */
+  private final Column[] columns;
+
+  /**
+   * Constructor
+   *
+   * @param colHeadings The column headings
+   * @param columns The columns, all with the same number of cells
+   */
+  private ColumnTable(String[] colHeadings, Column[] columns) {
+    super(columns.length == 0 ? 0 : columns[0].n, colHeadings, false);
+    this.columns = columns;
+    for(Column column: columns) {
+      column.trim();
+    }
+  }
+
+  /**
+   * <!-- readCSV -->
+   *
+   * Read a CSV file with a heading row into a table with the given column
+   * types. A cell that is not a number of the type of its column (or, for a
+   * column of <code>int</code>s or <code>long</code>s, is not an integer in
+   * range) is reported as a {@link CSVException}.
+   *
+   * @param filename The file from which to read the CSV data (which may be a
+   *          web address, as for {@link CSVReader#CSVReader(String)})
+   * @param schema The type of each column, by heading. Columns not in the
+   *          schema are {@link Type#STRING}.
+   * @return The table
+   * @throws IOException
+   * @throws CSVException
+   * @throws IllegalArgumentException if a column in the schema is not in the
+   *           file
+   */
+  public static ColumnTable readCSV(String filename, Map<String, Type> schema) throws IOException, CSVException {
+    CSVStream stream = CSVReader.stream(filename);
+    try {
+      String[] colHeadings = headings(stream);
+      Column[] columns = new Column[colHeadings.length];
+      for(int col = 0; col < colHeadings.length; col++) {
+        Type type = schema.get(colHeadings[col]);
+        columns[col] = new Column(type == null ? Type.STRING : type, false);
+      }
+      for(String heading: schema.keySet()) {
+        if(!Arrays.asList(colHeadings).contains(heading)) {
+          throw new IllegalArgumentException("No column " + heading + " in CSV file " + filename);
+        }
+      }
+      while(stream.nextRow()) {
+        add(stream, columns, stream.getRow());
+      }
+      return new ColumnTable(colHeadings, columns);
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * <!-- readCSV -->
+   *
+   * Read a CSV file with a heading row into a table, with the type of each
+   * column the narrowest that will hold all its non-empty cells in the first
+   * few rows ({@link Type#STRING} if none of them is). A column of numbers is
+   * widened if a later number needs it, but a later cell that is not a number
+   * at all is reported as a {@link CSVException}: if that happens, use a
+   * bigger sample, or give the types with {@link #readCSV(String, Map)}.
+   *
+   * @param filename The file from which to read the CSV data (which may be a
+   *          web address, as for {@link CSVReader#CSVReader(String)})
+   * @param sample The number of rows (after the headings) from which to work
+   *          out the types of the columns
+   * @return The table
+   * @throws IOException
+   * @throws CSVException
+   */
+  public static ColumnTable readCSV(String filename, int sample) throws IOException, CSVException {
+    CSVStream stream = CSVReader.stream(filename);
+    try {
+      String[] colHeadings = headings(stream);
+      List<String[]> rows = new ArrayList<String[]>(Math.min(sample, 1 << 16));
+      while(rows.size() < sample && stream.nextRow()) {
+        rows.add(stream.getRow().toArray(new String[stream.getRow().size()]));
+      }
+
+      NumberParser parser = new NumberParser();
+      Column[] columns = new Column[colHeadings.length];
+      for(int col = 0; col < colHeadings.length; col++) {
+        int type = -1;
+        for(String[] row: rows) {
+          if(col < row.length && row[col].length() > 0) {
+            type = NumberParser.widest(type, parser.parse(row[col]));
+          }
+        }
+        columns[col] = new Column(type < 0 ? Type.STRING : Type.values()[type], true);
+      }
+
+      // The rows in the sample are parsed again here, but by the same
+      // parsers, so their numbers will fit the columns
+
+      int rowNumber = 1;
+      for(String[] row: rows) {
+        rowNumber++;
+        add(filename, rowNumber, columns, Arrays.asList(row));
+      }
+      while(stream.nextRow()) {
+        add(stream, columns, stream.getRow());
+      }
+      return new ColumnTable(colHeadings, columns);
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * <!-- headings -->
+   *
+   * @param stream A stream at the start of a CSV file
+   * @return The headings in the first row
+   * @throws IOException
+   * @throws CSVException
+   */
+  private static String[] headings(CSVStream stream) throws IOException, CSVException {
+    if(!stream.nextRow()) throw new IllegalStateException("There are no headings");
+    return stream.getRow().toArray(new String[stream.getRow().size()]);
+  }
+
+  /**
+   * <!-- add -->
+   *
+   * @param stream The stream the row was read from
+   * @param columns The columns to add the cells of a row to
+   * @param row The row
+   * @throws CSVException
+   */
+  private static void add(CSVStream stream, Column[] columns, List<String> row) throws CSVException {
+    add(stream.getFileName(), stream.getRowNumber(), columns, row);
+  }
+
+  /**
+   * <!-- add -->
+   *
+   * @param filename The file the row is from, for error messages
+   * @param rowNumber The number of the row in the file, for error messages
+   * @param columns The columns to add the cells of a row to
+   * @param row The row
+   * @throws CSVException if there are more cells than columns, or a cell
+   *           does not fit its column
+   */
+  private static void add(String filename, int rowNumber, Column[] columns, List<String> row)
+      throws CSVException {
+    if(row.size() > columns.length) {
+      throw new CSVException(columns.length + " cells", row.size() + " cells", filename, rowNumber,
+        columns.length + 1);
+    }
+    for(int col = 0; col < columns.length; col++) {
+      String text = col < row.size() ? row.get(col) : null;
+      if(!columns[col].add(text)) {
+        throw new CSVException(columns[col].describe(), text, filename, rowNumber, col + 1);
+      }
+    }
+  }
+
+  /**
+   * <!-- getType -->
+   *
+   * @param colHeading The column heading
+   * @return The type of the column
+   */
+  public Type getType(String colHeading) {
+    return columns[getColumn(colHeading)].type;
+  }
+
+  /**
+   * <!-- getType -->
+   *
+   * @param col The column number
+   * @return The type of the column
+   */
+  public Type getType(int col) {
+    return columns[col].type;
+  }
+
+  /**
+   * <!-- getInts -->
+   *
+   * @param colHeading The heading of a column of {@link Type#INT}
+   * @return The array holding the column, which is changed if the table is
+   */
+  public int[] getInts(String colHeading) {
+    return column(colHeading, Type.INT).ints;
+  }
+
+  /**
+   * <!-- getLongs -->
+   *
+   * @param colHeading The heading of a column of {@link Type#LONG}
+   * @return The array holding the column, which is changed if the table is
+   */
+  public long[] getLongs(String colHeading) {
+    return column(colHeading, Type.LONG).longs;
+  }
+
+  /**
+   * <!-- getDoubles -->
+   *
+   * @param colHeading The heading of a column of {@link Type#DOUBLE}
+   * @return The array holding the column, which is changed if the table is
+   */
+  public double[] getDoubles(String colHeading) {
+    return column(colHeading, Type.DOUBLE).doubles;
+  }
+
+  /**
+   * <!-- getStrings -->
+   *
+   * @param colHeading The heading of a column of {@link Type#STRING}
+   * @return The array holding the column, which is changed if the table is
+   */
+  public String[] getStrings(String colHeading) {
+    return column(colHeading, Type.STRING).strings;
+  }
+
+  /**
+   * <!-- isNull -->
+   *
+   * @param row The row
+   * @param col The column
+   * @return <code>true</code> if the cell is <code>null</code>
+   */
+  public boolean isNull(int row, int col) {
+    if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
+    return columns[col].isNull(row);
+  }
+
+  /**
+   * <!-- column -->
+   *
+   * @param colHeading The column heading
+   * @param type The type the column should be
+   * @return The column
+   */
+  private Column column(String colHeading, Type type) {
+    Column column = columns[getColumn(colHeading)];
+    if(column.type != type) {
+      throw new IllegalArgumentException("Column " + colHeading + " is of type " + column.type + ", not " + type);
+    }
+    return column;
+  }
+
+  /**
+   * <!-- getCell -->
+   *
+   * @see uk.ac.macaulay.util.Table#getCell(int, int)
+   * @return An {@link Integer}, {@link Long}, {@link Double} or
+   *         {@link String}, depending on the type of the column
+   */
+  protected Object getCell(int row, int col) {
+    Column column = columns[col];
+    if(column.isNull(row)) return null;
+    switch(column.type) {
+    case INT:
+      return column.ints[row];
+    case LONG:
+      return column.longs[row];
+    case DOUBLE:
+      return column.doubles[row];
+    default:
+      return column.strings[row];
+    }
+  }
+
+  /**
+   * <!-- setCell -->
+   *
+   * The value must be <code>null</code> or fit the type of the column:
+   * {@link Integer} for {@link Type#INT}; {@link Integer} or {@link Long} for
+   * {@link Type#LONG}; any {@link Number} for {@link Type#DOUBLE}; and
+   * {@link String} for {@link Type#STRING}. Otherwise an
+   * IllegalArgumentException is thrown.
+   *
+   * @see uk.ac.macaulay.util.Table#setCell(int, int, java.lang.Object)
+   */
+  protected void setCell(int row, int col, Object value) {
+    Column column = columns[col];
+    if(value == null) {
+      column.setNull(row);
+      return;
+    }
+    if(column.type == Type.INT && value instanceof Integer) {
+      column.ints[row] = (Integer)value;
+    }
+    else if(column.type == Type.LONG && (value instanceof Integer || value instanceof Long)) {
+      column.longs[row] = ((Number)value).longValue();
+    }
+    else if(column.type == Type.DOUBLE && value instanceof Number) {
+      column.doubles[row] = ((Number)value).doubleValue();
+    }
+    else if(column.type == Type.STRING && value instanceof String) {
+      column.strings[row] = (String)value;
+    }
+    else {
+      throw new IllegalArgumentException("Cannot put " + value.getClass().getSimpleName() + " " + value
+        + " in column " + colHeadings[col] + " of type " + column.type);
+    }
+    if(column.nulls != null) column.nulls.clear(row);
+  }
+
+  /**
+   * <!-- Column -->
+   *
+   * <p>
+   * A column of cells, growing as cells are added to it, and of a type that
+   * is either fixed or widened to fit the numbers added.
+   * </p>
+   *
+   * @author Gary Polhill
+   */
+  private static final class Column {
+    /**
+     * The type of the column
+     */
+    Type type;
+
+    /**
+     * <code>true</code> if the type can be widened to another type of number
+     */
+    final boolean widen;
+
+    /**
+     * The number of cells
+     */
+    int n;
+
+    int[] ints;
+
+    long[] longs;
+
+    double[] doubles;
+
+    String[] strings;
+
+    /**
+     * Cells that are <code>null</code> (<code>null</code> if there are none)
+     */
+    BitSet nulls;
+
+    /**
+     * Parser for the cells
+     */
+    final NumberParser parser;
+
+    Column(Type type, boolean widen) {
+      this.type = type;
+      this.widen = widen;
+      n = 0;
+      parser = new NumberParser();
+      allocate(type, 1 << 10);
+    }
+
+    /**
+     * <!-- add -->
+     *
+     * Add a cell to the end of the column
+     *
+     * @param text The cell (<code>null</code> if missing)
+     * @return <code>false</code> if the cell does not fit the type of the
+     *         column
+     */
+    boolean add(String text) {
+      if(n == capacity()) resize(type, n * 2);
+      if(type == Type.STRING) {
+        strings[n] = text;
+      }
+      else if(text == null || text.length() == 0) {
+        setNull(n);
+      }
+      else {
+        int parsed = parser.parse(text);
+        if(parsed == NumberParser.NOT_A_NUMBER) return false;
+        if(parsed > type.ordinal()) {
+          if(!widen) return false;
+          resize(Type.values()[parsed], capacity());
+        }
+        switch(type) {
+        case INT:
+          ints[n] = parser.intValue();
+          break;
+        case LONG:
+          longs[n] = parser.longValue();
+          break;
+        default:
+          doubles[n] = parser.doubleValue();
+          break;
+        }
+      }
+      n++;
+      return true;
+    }
+
+    /**
+     * <!-- describe -->
+     *
+     * @return What a cell of the column should be, for error messages
+     */
+    String describe() {
+      switch(type) {
+      case INT:
+        return widen ? "a number" : "an integer from " + Integer.MIN_VALUE + " to " + Integer.MAX_VALUE;
+      case LONG:
+        return widen ? "a number" : "an integer from " + Long.MIN_VALUE + " to " + Long.MAX_VALUE;
+      default:
+        return "a number";
+      }
+    }
+
+    /**
+     * <!-- isNull -->
+     *
+     * @param row The row
+     * @return <code>true</code> if the cell in the row is <code>null</code>
+     */
+    boolean isNull(int row) {
+      return type == Type.STRING ? strings[row] == null : nulls != null && nulls.get(row);
+    }
+
+    /**
+     * <!-- setNull -->
+     *
+     * @param row The row whose cell to make <code>null</code>
+     */
+    void setNull(int row) {
+      if(type == Type.STRING) {
+        strings[row] = null;
+      }
+      else {
+        if(nulls == null) nulls = new BitSet();
+        nulls.set(row);
+        switch(type) {
+        case INT:
+          ints[row] = 0;
+          break;
+        case LONG:
+          longs[row] = 0L;
+          break;
+        default:
+          doubles[row] = 0.0;
+          break;
+        }
+      }
+    }
+
+    /**
+     * <!-- trim -->
+     *
+     * Make the array the same length as the number of cells
+     */
+    void trim() {
+      if(capacity() != n) resize(type, n);
+    }
+
+    /**
+     * <!-- capacity -->
+     *
+     * @return The length of the array
+     */
+    private int capacity() {
+      switch(type) {
+      case INT:
+        return ints.length;
+      case LONG:
+        return longs.length;
+      case DOUBLE:
+        return doubles.length;
+      default:
+        return strings.length;
+      }
+    }
+
+    /**
+     * <!-- allocate -->
+     *
+     * @param newType The type of array to allocate
+     * @param length The length of array to allocate
+     */
+    private void allocate(Type newType, int length) {
+      switch(newType) {
+      case INT:
+        ints = new int[length];
+        break;
+      case LONG:
+        longs = new long[length];
+        break;
+      case DOUBLE:
+        doubles = new double[length];
+        break;
+      default:
+        strings = new String[length];
+        break;
+      }
+    }
+
+    /**
+     * <!-- resize -->
+     *
+     * Copy the cells to a new array, which may be of a wider type of number
+     *
+     * @param newType The new type
+     * @param length The length of the new array
+     */
+    private void resize(Type newType, int length) {
+      if(newType == type) {
+        switch(type) {
+        case INT:
+          ints = Arrays.copyOf(ints, length);
+          break;
+        case LONG:
+          longs = Arrays.copyOf(longs, length);
+          break;
+        case DOUBLE:
+          doubles = Arrays.copyOf(doubles, length);
+          break;
+        default:
+          strings = Arrays.copyOf(strings, length);
+          break;
+        }
+        return;
+      }
+      allocate(newType, length);
+      for(int i = 0; i < n; i++) {
+        if(newType == Type.LONG) longs[i] = ints[i];
+        else
+          doubles[i] = type == Type.INT ? ints[i] : longs[i];
+      }
+      ints = null;
+      if(newType != Type.LONG) longs = null;
+      type = newType;
+    }
+  }
+}
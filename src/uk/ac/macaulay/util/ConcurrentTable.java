@@ -0,0 +1,206 @@
+/*
+ * uk.ac.macaulay.util: ConcurrentTable.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <!-- ConcurrentTable -->
+ *
+ * <p>
+ * A {@link Table} that many threads can read and write at once. The cells are
+ * kept in an {@link AtomicReferenceArray}, so each read sees the latest write
+ * to that cell without taking a lock, and each write is an atomic update of
+ * one cell. None of the setters synchronize on the table, so threads writing
+ * to different cells (e.g. disjoint rows of a shared grid) do not wait for
+ * each other.
+ * </p>
+ *
+ * <p>
+ * The price is that the table no longer provides mutual exclusion for
+ * sequences of operations: if several cells must be updated together, the
+ * caller must arrange the locking. Updates that depend on the current value of
+ * a single cell can use {@link #compareAndSetRC(int, int, Object, Object)}.
+ * </p>
+ *
+ * @see Table#concurrent(int, int)
+ * @author Gary Polhill
+ */
+public class ConcurrentTable<T> extends Table<T> {
+  /**
+   * The cells of the table, row by row
+   */
+  private final AtomicReferenceArray<T> cells;
+
+  /**
+   * Construct a ConcurrentTable with the given number of rows and columns,
+   * initialised to null in each cell.
+   *
+   * @param nrows The number of rows in the table
+   * @param ncols The number of columns in the table
+   */
+  public ConcurrentTable(int nrows, int ncols) {
+    super(nrows, ncols, false);
+    if(nrows < 0 || ncols < 0 || (long)nrows * (long)ncols > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Cannot store " + nrows + " rows by " + ncols + " columns in an array");
+    }
+    cells = new AtomicReferenceArray<T>(nrows * ncols);
+  }
+
+  /**
+   * Construct a ConcurrentTable as a copy of another table
+   *
+   * @param table The table to copy
+   */
+  public ConcurrentTable(Table<T> table) {
+    this(table.nrows, table.ncols);
+    for(int i = 0; i < nrows; i++) {
+      for(int j = 0; j < ncols; j++) {
+        setCell(i, j, table.atRC(i, j));
+      }
+    }
+  }
+
+  /**
+   * <!-- getCell -->
+   *
+   * @see uk.ac.macaulay.util.Table#getCell(int, int)
+   */
+  @Override
+  protected T getCell(int row, int col) {
+    return cells.get(row * ncols + col);
+  }
+
+  /**
+   * <!-- setCell -->
+   *
+   * @see uk.ac.macaulay.util.Table#setCell(int, int, java.lang.Object)
+   */
+  @Override
+  protected void setCell(int row, int col, T value) {
+    cells.set(row * ncols + col, value);
+  }
+
+  /**
+   * <!-- atXY -->
+   *
+   * Set the value of a cell, accessed by (x, y) co-ordinates, with (0, 0) at
+   * the bottom left, without locking the table
+   *
+   * @see uk.ac.macaulay.util.Table#atXY(int, int, java.lang.Object)
+   */
+  @Override
+  public void atXY(int x, int y, T value) {
+    if(x < 0 || x >= ncols || y < 0 || y >= nrows) throw new ArrayIndexOutOfBoundsException();
+    setCell((nrows - y) - 1, x, value);
+  }
+
+  /**
+   * <!-- atXFlipY -->
+   *
+   * Set the value of a cell, accessed by (x, y) co-ordinates, with (0, 0) at
+   * the top left, without locking the table
+   *
+   * @see uk.ac.macaulay.util.Table#atXFlipY(int, int, java.lang.Object)
+   */
+  @Override
+  public void atXFlipY(int x, int y, T value) {
+    if(x < 0 || x >= ncols || y < 0 || y >= nrows) throw new ArrayIndexOutOfBoundsException();
+    setCell(y, x, value);
+  }
+
+  /**
+   * <!-- atRC -->
+   *
+   * Set the value of a cell, accessed by row and column, without locking the
+   * table
+   *
+   * @see uk.ac.macaulay.util.Table#atRC(int, int, java.lang.Object)
+   */
+  @Override
+  public void atRC(int row, int col, T value) {
+    if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
+    setCell(row, col, value);
+  }
+
+  /**
+   * <!-- compareAndSetRC -->
+   *
+   * Atomically set the value of a cell if it is currently the expected value.
+   * As with {@link AtomicReferenceArray#compareAndSet(int, Object, Object)},
+   * the comparison uses <code>==</code>, not <code>equals()</code>.
+   *
+   * @param row The row
+   * @param col The column
+   * @param expect The value the cell is expected to have
+   * @param value The value to set
+   * @return <code>true</code> if the cell was set
+   */
+  public boolean compareAndSetRC(int row, int col, T expect, T value) {
+    if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
+    return cells.compareAndSet(row * ncols + col, expect, value);
+  }
+
+  /**
+   * <!-- getAndSetRC -->
+   *
+   * Atomically set the value of a cell, returning the value it had before
+   *
+   * @param row The row
+   * @param col The column
+   * @param value The value to set
+   * @return The previous value in the cell
+   */
+  public T getAndSetRC(int row, int col, T value) {
+    if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
+    return cells.getAndSet(row * ncols + col, value);
+  }
+
+  /**
+   * <!-- findRow -->
+   *
+   * Find the first row starting at startRow where the entry in the specified
+   * column has the stated value, without locking the table. Rows being written
+   * to during the search may or may not be found.
+   *
+   * @see uk.ac.macaulay.util.Table#findRow(int, int, java.lang.Object)
+   */
+  @Override
+  public int findRow(int startRow, int col, T value) {
+    for(int row = startRow; row < nrows; row++) {
+      if(atRC(row, col).equals(value)) return row;
+    }
+    return -1;
+  }
+
+  /**
+   * <!-- findRow -->
+   *
+   * @see uk.ac.macaulay.util.Table#findRow(int, java.lang.Object)
+   */
+  @Override
+  public int findRow(int col, T value) {
+    return findRow(0, col, value);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * uk.ac.macaulay.util: DenseNoDataMask.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+/**
+ * <!-- DenseNoDataMask -->
+ *
+ * A {@link NoDataMask} keeping one bit per cell in a <code>long[]</code>. The
+ * array is not allocated until a cell is first set, so a raster with no cells
+ * stipulated as having no data costs nothing extra.
+ *
+ * @author Gary Polhill
+ */
+public class DenseNoDataMask implements NoDataMask {
+  /**
+   * Number of cells covered by the mask
+   */
+  private final int ncells;
+
+  /**
+   * The bits, 64 cells per word (<code>null</code> if none has been set)
+   */
+  private long[] words;
+
+  /**
+   * Constructor
+   *
+   * @param ncells The number of cells in the raster
+   */
+  public DenseNoDataMask(int ncells) {
+    if(ncells < 0) throw new IllegalArgumentException("Negative number of cells: " + ncells);
+    this.ncells = ncells;
+  }
+
+  /**
+   * Cloning constructor
+   *
+   * @param mask The mask to copy
+   */
+  public DenseNoDataMask(DenseNoDataMask mask) {
+    this(mask.ncells);
+    if(mask.words != null) words = mask.words.clone();
+  }
+
+  /**
+   * <!-- isImplicit -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#isImplicit()
+   */
+  public boolean isImplicit() {
+    return false;
+  }
+
+  /**
+   * <!-- get -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#get(int)
+   */
+  public boolean get(int ix) {
+    return words != null && (words[ix >>> 6] & (1L << ix)) != 0L;
+  }
+
+  /**
+   * <!-- set -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#set(int)
+   */
+  public void set(int ix) {
+    if(ix < 0 || ix >= ncells) throw new ArrayIndexOutOfBoundsException(ix);
+    if(words == null) words = new long[(ncells + 63) >>> 6];
+    words[ix >>> 6] |= 1L << ix;
+  }
+
+  /**
+   * <!-- clear -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#clear(int)
+   */
+  public void clear(int ix) {
+    if(words != null) words[ix >>> 6] &= ~(1L << ix);
+  }
+
+  /**
+   * <!-- clear -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#clear()
+   */
+  public void clear() {
+    words = null;
+  }
+
+  /**
+   * <!-- cardinality -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#cardinality()
+   */
+  public int cardinality() {
+    if(words == null) return 0;
+    int n = 0;
+    for(long word: words) {
+      n += Long.bitCount(word);
+    }
+    return n;
+  }
+
+  /**
+   * <!-- nextSetBit -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#nextSetBit(int)
+   */
+  public int nextSetBit(int fromIndex) {
+    if(words == null || fromIndex >= ncells) return -1;
+    if(fromIndex < 0) fromIndex = 0;
+    int w = fromIndex >>> 6;
+    long word = words[w] & (-1L << fromIndex);
+    while(word == 0L) {
+      if(++w == words.length) return -1;
+      word = words[w];
+    }
+    return (w << 6) + Long.numberOfTrailingZeros(word);
+  }
+
+  /**
+   * <!-- copy -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#copy()
+   */
+  public DenseNoDataMask copy() {
+    return new DenseNoDataMask(this);
+  }
+}
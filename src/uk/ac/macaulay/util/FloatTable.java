@@ -0,0 +1,198 @@
+/*
+ * uk.ac.macaulay.util: FloatTable.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+/**
+ * <!-- FloatTable -->
+ *
+ * A table of single precision floating point numbers stored in a single row-major <code>float[]</code>.
+ *
+ * @see AbstractPrimitiveTable
+ * @author Gary Polhill
+ */
+public class FloatTable extends AbstractPrimitiveTable<Float> {
+  /**
+   * The cells of the table, row by row
+   */
+  private final float[] cells;
+
+  /**
+   * Construct a table with the given number of rows and columns, with each
+   * cell initialised to zero.
+   *
+   * @param nrows The number of rows in the table
+   * @param ncols The number of columns in the table
+   */
+  public FloatTable(int nrows, int ncols) {
+    super(nrows, ncols);
+    cells = new float[nrows * ncols];
+  }
+
+  /**
+   * Construct a table using an existing array of cells, which is not copied.
+   *
+   * @param nrows The number of rows in the table
+   * @param ncols The number of columns in the table
+   * @param cells The cells, row by row
+   * @throws IllegalArgumentException if the array is the wrong length
+   */
+  public FloatTable(int nrows, int ncols, float[] cells) {
+    super(nrows, ncols);
+    if(cells.length != nrows * ncols) {
+      throw new IllegalArgumentException("Array of " + cells.length + " cells does not have " + nrows + " rows by "
+        + ncols + " columns");
+    }
+    this.cells = cells;
+  }
+
+  /**
+   * Cloning constructor
+   *
+   * @param table The table to clone
+   */
+  public FloatTable(FloatTable table) {
+    super(table);
+    cells = table.cells.clone();
+  }
+
+  /**
+   * <!-- getFloat -->
+   *
+   * @param row The row
+   * @param col The column
+   * @return The entry in the cell
+   */
+  public float getFloat(int row, int col) {
+    checkRC(row, col);
+    return cells[index(row, col)];
+  }
+
+  /**
+   * <!-- setFloat -->
+   *
+   * Set the entry in a cell. Unlike {@link #atRC(int, int, Object)}, this is
+   * not synchronized.
+   *
+   * @param row The row
+   * @param col The column
+   * @param value The value to set
+   */
+  public void setFloat(int row, int col, float value) {
+    checkRC(row, col);
+    int ix = index(row, col);
+    cells[ix] = value;
+    clearNull(ix);
+  }
+
+  /**
+   * <!-- getFloats -->
+   *
+   * @return The array storing the cells, row by row (not a copy)
+   */
+  public float[] getFloats() {
+    return cells;
+  }
+
+  /**
+   * <!-- getDouble -->
+   *
+   * @see uk.ac.macaulay.util.AbstractPrimitiveTable#getDouble(int, int)
+   */
+  @Override
+  public double getDouble(int row, int col) {
+    checkRC(row, col);
+    return cells[index(row, col)];
+  }
+
+  /**
+   * <!-- setDouble -->
+   *
+   * @see uk.ac.macaulay.util.AbstractPrimitiveTable#setDouble(int, int, double)
+   */
+  @Override
+  public void setDouble(int row, int col, double value) {
+    setFloat(row, col, (float)value);
+  }
+
+  /**
+   * <!-- cellEquals -->
+   *
+   * @see uk.ac.macaulay.util.AbstractPrimitiveTable#cellEquals(int, int, java.lang.Object)
+   */
+  @Override
+  public boolean cellEquals(int row, int col, Object value) {
+    checkRC(row, col);
+    int ix = index(row, col);
+    return value instanceof Float && !isNull(ix) && Float.floatToIntBits(cells[ix]) == Float.floatToIntBits(((Float)value).floatValue());
+  }
+
+  /**
+   * <!-- getCell -->
+   *
+   * @see uk.ac.macaulay.util.Table#getCell(int, int)
+   */
+  @Override
+  protected Float getCell(int row, int col) {
+    int ix = index(row, col);
+    return isNull(ix) ? null : Float.valueOf(cells[ix]);
+  }
+
+  /**
+   * <!-- setCell -->
+   *
+   * @see uk.ac.macaulay.util.Table#setCell(int, int, java.lang.Object)
+   */
+  @Override
+  protected void setCell(int row, int col, Float value) {
+    int ix = index(row, col);
+    if(value == null) {
+      cells[ix] = 0;
+      setNull(ix);
+    }
+    else {
+      cells[ix] = value.floatValue();
+      clearNull(ix);
+    }
+  }
+
+  /**
+   * <!-- copy -->
+   *
+   * @see uk.ac.macaulay.util.AbstractPrimitiveTable#copy()
+   */
+  @Override
+  public FloatTable copy() {
+    return new FloatTable(this);
+  }
+
+  /**
+   * <!-- newTable -->
+   *
+   * @see uk.ac.macaulay.util.AbstractPrimitiveTable#newTable(int, int)
+   */
+  @Override
+  public FloatTable newTable(int nrows, int ncols) {
+    return new FloatTable(nrows, ncols);
+  }
+}
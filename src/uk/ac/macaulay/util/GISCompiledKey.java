@@ -0,0 +1,336 @@
+/*
+ * uk.ac.macaulay.util: GISCompiledKey.java
+ * 
+ * Copyright (C) 2010 Macaulay Institute
+ * 
+ * This file is part of utils.
+ * 
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <!-- GISCompiledKey -->
+ * 
+ * <p>
+ * A key giving the colours of a {@link GISScaledKey} or
+ * {@link GISMultiScaleKey} from lookup tables of ARGB values sampled along
+ * each scale. Finding the colour for an entry then needs no more than a
+ * multiplication and an array access (and a logarithm for log scales), rather
+ * than building a new {@link Color} each time, which makes drawing large
+ * rasters with {@link GISKeyedRaster#fillImage(java.awt.image.BufferedImage)}
+ * much quicker. Where there are several scales, the one containing an entry
+ * is found by binary search.
+ * </p>
+ * 
+ * <p>
+ * The tables are made large enough that the red, green and blue components of
+ * the colours differ from those of the original key by no more than a given
+ * amount, up to a limit of {@link #MAX_SIZE} entries per scale. Converting
+ * colours back to entries is passed on to the original key.
+ * </p>
+ * 
+ * @author Gary Polhill
+ */
+public class GISCompiledKey<T extends Number> extends AbstractGISRasterImageConverter<T> implements
+    GISRasterImageConverter<T> {
+  /**
+   * The default largest difference in any colour component (0-255)
+   */
+  public static final double DEFAULT_MAX_ERROR = 1.0;
+
+  /**
+   * The smallest number of entries in the table for a scale
+   */
+  public static final int MIN_SIZE = 16;
+
+  /**
+   * The largest number of entries in the table for a scale
+   */
+  public static final int MAX_SIZE = 1 << 16;
+
+  /**
+   * The key that was compiled
+   */
+  private final GISRasterImageConverter<T> key;
+
+  /**
+   * The scales, sorted by their minima
+   */
+  private final GISScaledKey<?>[] scales;
+
+  /**
+   * The minimum of each scale, not converted to linear, for searching
+   */
+  private final double[] starts;
+
+  /**
+   * The minimum of each scale, converted to linear
+   */
+  private final double[] mins;
+
+  /**
+   * The maximum of each scale, converted to linear
+   */
+  private final double[] maxs;
+
+  /**
+   * Number of table entries per unit of each scale, converted to linear
+   */
+  private final double[] factors;
+
+  /**
+   * The ARGB colours for each scale
+   */
+  private final int[][] tables;
+
+  /**
+   * The largest difference in a colour component from the original key
+   */
+  private double error;
+
+  /**
+   * Constructor compiling a single scale with the default error
+   * 
+   * @param key The scale to compile
+   */
+  public GISCompiledKey(GISScaledKey<T> key) {
+    this(key, DEFAULT_MAX_ERROR);
+  }
+
+  /**
+   * Constructor compiling a single scale
+   * 
+   * @param key The scale to compile
+   * @param maxError The largest difference allowed between any of the red,
+   *          green and blue components (0-255) of the colours given by this
+   *          key and by the scale
+   */
+  public GISCompiledKey(GISScaledKey<T> key, double maxError) {
+    this(key, Collections.singletonList(key), maxError);
+  }
+
+  /**
+   * Constructor compiling several scales with the default error
+   * 
+   * @param key The scales to compile
+   */
+  public GISCompiledKey(GISMultiScaleKey<T> key) {
+    this(key, DEFAULT_MAX_ERROR);
+  }
+
+  /**
+   * Constructor compiling several scales
+   * 
+   * @param key The scales to compile
+   * @param maxError The largest difference allowed between any of the red,
+   *          green and blue components (0-255) of the colours given by this
+   *          key and by the scales
+   */
+  public GISCompiledKey(GISMultiScaleKey<T> key, double maxError) {
+    this(key, key.getScales(), maxError);
+  }
+
+  /**
+   * Constructor building the tables
+   * 
+   * @param key The key being compiled
+   * @param scales The scales in the key, sorted by their minima
+   * @param maxError The largest difference allowed in a colour component
+   */
+  private GISCompiledKey(GISRasterImageConverter<T> key, List<GISScaledKey<T>> scales, double maxError) {
+    if(Double.isNaN(maxError) || maxError < 0.0) {
+      throw new IllegalArgumentException("Invalid maximum error " + maxError + " for compiled key");
+    }
+    this.key = key;
+    int n = scales.size();
+    this.scales = scales.toArray(new GISScaledKey<?>[n]);
+    starts = new double[n];
+    mins = new double[n];
+    maxs = new double[n];
+    factors = new double[n];
+    tables = new int[n][];
+    error = 0.0;
+    for(int i = 0; i < n; i++) {
+      GISScaledKey<T> scale = scales.get(i);
+      mins[i] = scale.getLinearMin();
+      maxs[i] = scale.getLinearMax();
+      starts[i] = scale.fromLinear(mins[i]);
+      double scaleError = Double.POSITIVE_INFINITY;
+      for(int size = MIN_SIZE; size <= MAX_SIZE && scaleError > maxError; size *= 2) {
+        tables[i] = sample(scale, size);
+        scaleError = measureError(scale, tables[i]);
+      }
+      factors[i] = tables[i].length / (maxs[i] - mins[i]);
+      error = Math.max(error, scaleError);
+    }
+  }
+
+  /**
+   * <!-- sample -->
+   * 
+   * Sample a scale in the middle of each of a number of equal intervals
+   * 
+   * @param scale The scale
+   * @param size The number of intervals
+   * @return The ARGB colour for each interval
+   */
+  private static int[] sample(GISScaledKey<?> scale, int size) {
+    int[] table = new int[size];
+    double min = scale.getLinearMin();
+    double step = (scale.getLinearMax() - min) / size;
+    for(int i = 0; i < size; i++) {
+      table[i] = scale.getLinearColor(min + (i + 0.5) * step).getRGB();
+    }
+    return table;
+  }
+
+  /**
+   * <!-- measureError -->
+   * 
+   * Find the largest difference in a colour component between the entries of
+   * a table and the colours of the scale at the ends of their intervals.
+   * 
+   * @param scale The scale
+   * @param table The table sampled from it
+   * @return The largest difference
+   */
+  private static double measureError(GISScaledKey<?> scale, int[] table) {
+    double min = scale.getLinearMin();
+    double step = (scale.getLinearMax() - min) / table.length;
+    int error = 0;
+    int edge = scale.getLinearColor(min).getRGB();
+    for(int i = 0; i < table.length; i++) {
+      int next = scale.getLinearColor(i == table.length - 1 ? scale.getLinearMax() : min + (i + 1) * step).getRGB();
+      for(int shift = 0; shift < 24; shift += 8) {
+        int c = (table[i] >> shift) & 0xff;
+        error = Math.max(error, Math.abs(c - ((edge >> shift) & 0xff)));
+        error = Math.max(error, Math.abs(c - ((next >> shift) & 0xff)));
+      }
+      edge = next;
+    }
+    return error;
+  }
+
+  /**
+   * <!-- getARGB -->
+   * 
+   * @param value The value of an entry
+   * @return The ARGB colour for the entry, or 0 (transparent) if it is not on
+   *         any of the scales
+   */
+  public int getARGB(double value) {
+    int i = 0;
+    if(scales.length > 1) {
+      i = Arrays.binarySearch(starts, value);
+      if(i < 0) i = Math.max(-i - 2, 0);
+    }
+    // Converting the minima back from linear may have lost a little
+    // precision, so the value could be on the next scale
+    for(int j = i; j <= i + 1 && j < scales.length; j++) {
+      double linear = scales[j].toLinear(value);
+      if(linear >= mins[j] && linear <= maxs[j]) {
+        int[] table = tables[j];
+        int ix = (int)((linear - mins[j]) * factors[j]);
+        return table[ix < table.length ? ix : table.length - 1];
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * <!-- getColor -->
+   * 
+   * @see uk.ac.macaulay.util.GISRasterImageConverter#getColor(java.lang.Object)
+   * @param entry
+   * @return The colour for the entry from the lookup table, or
+   *         <code>null</code> if the entry is not on any of the scales
+   */
+  public Color getColor(T entry) {
+    int argb = getARGB(entry.doubleValue());
+    if(argb == 0) {
+      setFailureMessage("Compiled key " + this + " does not contain entry " + entry);
+      return null;
+    }
+    return new Color(argb, true);
+  }
+
+  /**
+   * <!-- getEntry -->
+   * 
+   * Return the entry for a colour using the key that was compiled
+   * 
+   * @see uk.ac.macaulay.util.GISRasterImageConverter#getEntry(java.awt.Color)
+   * @param colour
+   * @return The entry for the colour
+   */
+  public T getEntry(Color colour) {
+    T entry = key.getEntry(colour);
+    if(entry == null) setFailureMessage(key.getFailureMessage());
+    return entry;
+  }
+
+  /**
+   * <!-- getError -->
+   * 
+   * @return The largest difference found between any of the red, green and
+   *         blue components of the colours in the tables and those of the
+   *         original key, which may be more than the maximum asked for if a
+   *         table reached {@link #MAX_SIZE}
+   */
+  public double getError() {
+    return error;
+  }
+
+  /**
+   * <!-- getKey -->
+   * 
+   * @return The key that was compiled
+   */
+  public GISRasterImageConverter<T> getKey() {
+    return key;
+  }
+
+  /**
+   * <!-- size -->
+   * 
+   * @return The total number of entries in the lookup tables
+   */
+  public int size() {
+    int n = 0;
+    for(int[] table: tables) {
+      n += table.length;
+    }
+    return n;
+  }
+
+  /**
+   * <!-- toString -->
+   * 
+   * @see java.lang.Object#toString()
+   * @return A string describing the key
+   */
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + size() + " entries, error " + error + ": " + key + "]";
+  }
+}
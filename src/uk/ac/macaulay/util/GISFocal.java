@@ -0,0 +1,587 @@
+/*
+ * uk.ac.macaulay.util: GISFocal.java
+ * 
+ * Copyright (C) 2010 Macaulay Institute
+ * 
+ * This file is part of utils.
+ * 
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.util.Arrays;
+
+/**
+ * <!-- GISFocal -->
+ * 
+ * <p>
+ * Focal (moving window) statistics of a raster: each cell of the result
+ * summarises the cells of the raster in a square or circular window centred
+ * on it. Cells with no data, and the parts of a window over the edge of the
+ * raster, are left out of the window; a cell of the result has no data only
+ * if there are no cells with data in its window.
+ * </p>
+ * 
+ * <p>
+ * The raster is worked through in parallel bands of rows, each of which
+ * reads the rows of the raster either side of it that its windows reach.
+ * The cost of each cell does not grow with the area of the window: sums and
+ * means over squares use summed-area tables, and minima and maxima over
+ * squares sliding windows along rows then columns, so these take the same
+ * time whatever the window size. Circles, and the majority over either shape,
+ * slide along each row of the window, taking time in proportion to the
+ * radius.
+ * </p>
+ * 
+ * @author Gary Polhill
+ */
+public final class GISFocal {
+  /**
+   * <!-- Statistic -->
+   * 
+   * The statistics that can be computed. {@link #MAJORITY} is the most
+   * frequent value in the window (the smallest of them if there is a tie),
+   * and is meant for rasters of categories.
+   * 
+   * @author Gary Polhill
+   */
+  public enum Statistic {
+    SUM, MEAN, MIN, MAX, MAJORITY;
+  }
+
+  /**
+   * <!-- Shape -->
+   * 
+   * The shapes of window. A {@link #SQUARE} of radius <i>r</i> has sides of
+   * 2<i>r</i> + 1 cells; a {@link #CIRCLE} has the cells whose centres are no
+   * more than <i>r</i> cells from the centre of the window.
+   * 
+   * @author Gary Polhill
+   */
+  public enum Shape {
+    SQUARE, CIRCLE;
+  }
+
+  private GISFocal() {
+    // Stop instances
+  }
+
+  /**
+   * <!-- sum -->
+   * 
+   * @param raster The raster
+   * @param shape The shape of window
+   * @param radius The radius of the window in cells
+   * @return The sum of the cells in the window around each cell
+   */
+  public static GISRaster<Double> sum(GISRaster<? extends Number> raster, Shape shape, int radius) {
+    return compute(raster, Statistic.SUM, shape, radius);
+  }
+
+  /**
+   * <!-- mean -->
+   * 
+   * @param raster The raster
+   * @param shape The shape of window
+   * @param radius The radius of the window in cells
+   * @return The mean of the cells in the window around each cell
+   */
+  public static GISRaster<Double> mean(GISRaster<? extends Number> raster, Shape shape, int radius) {
+    return compute(raster, Statistic.MEAN, shape, radius);
+  }
+
+  /**
+   * <!-- min -->
+   * 
+   * @param raster The raster
+   * @param shape The shape of window
+   * @param radius The radius of the window in cells
+   * @return The minimum of the cells in the window around each cell
+   */
+  public static GISRaster<Double> min(GISRaster<? extends Number> raster, Shape shape, int radius) {
+    return compute(raster, Statistic.MIN, shape, radius);
+  }
+
+  /**
+   * <!-- max -->
+   * 
+   * @param raster The raster
+   * @param shape The shape of window
+   * @param radius The radius of the window in cells
+   * @return The maximum of the cells in the window around each cell
+   */
+  public static GISRaster<Double> max(GISRaster<? extends Number> raster, Shape shape, int radius) {
+    return compute(raster, Statistic.MAX, shape, radius);
+  }
+
+  /**
+   * <!-- majority -->
+   * 
+   * @param raster The raster
+   * @param shape The shape of window
+   * @param radius The radius of the window in cells
+   * @return The most frequent value of the cells in the window around each
+   *         cell
+   */
+  public static GISRaster<Double> majority(GISRaster<? extends Number> raster, Shape shape, int radius) {
+    return compute(raster, Statistic.MAJORITY, shape, radius);
+  }
+
+  /**
+   * <!-- compute -->
+   * 
+   * @param raster The raster
+   * @param statistic The statistic to compute
+   * @param shape The shape of window
+   * @param radius The radius of the window in cells
+   * @return A new raster of <code>double</code>s with the statistic of the
+   *         window around each cell, and the georeference of
+   *         <code>raster</code>
+   * @throws IllegalArgumentException if the radius is negative
+   */
+  public static GISRaster<Double> compute(final GISRaster<? extends Number> raster, final Statistic statistic,
+      final Shape shape, final int radius) {
+    if(radius < 0) throw new IllegalArgumentException("Negative radius " + radius + " for focal " + statistic);
+    final GISRaster<Double> output = new GISRaster<Double>(new DoubleTable(raster.nrows, raster.ncols),
+        raster.getOriginX(), raster.getOriginY(), raster.getCellSize());
+    final int[] halfWidths = halfWidths(shape, radius);
+
+    // Make the bands at least four windows high, so most of the rows each
+    // band reads are its own rather than those it shares with its neighbours
+
+    long minBlockCells = 4L * (2L * radius + 1L) * raster.ncols;
+    output.writeRows(raster.nrows, raster.ncols, minBlockCells, (startRow, endRow, changes) -> {
+      Band band = new Band(raster, startRow, endRow, radius);
+      switch(statistic) {
+      case SUM:
+      case MEAN:
+        if(shape == Shape.SQUARE) band.sumSquare(statistic == Statistic.MEAN, output, changes);
+        else
+          band.sumSpans(halfWidths, statistic == Statistic.MEAN, output, changes);
+        break;
+      case MIN:
+      case MAX:
+        if(shape == Shape.SQUARE) band.minSquare(statistic == Statistic.MAX, output, changes);
+        else
+          band.minSpans(halfWidths, statistic == Statistic.MAX, output, changes);
+        break;
+      case MAJORITY:
+        band.majority(halfWidths, output, changes);
+        break;
+      default:
+        throw new RuntimeException("Unhandled focal statistic " + statistic);
+      }
+    });
+    return output;
+  }
+
+  /**
+   * <!-- halfWidths -->
+   * 
+   * @param shape The shape of window
+   * @param radius The radius of the window in cells
+   * @return The number of cells either side of the centre column in each row
+   *         of the window, from <code>-radius</code> to <code>radius</code>
+   *         rows from the centre
+   */
+  private static int[] halfWidths(Shape shape, int radius) {
+    int[] halfWidths = new int[2 * radius + 1];
+    for(int dy = -radius; dy <= radius; dy++) {
+      if(shape == Shape.SQUARE) halfWidths[dy + radius] = radius;
+      else
+        halfWidths[dy + radius] = (int)Math.floor(Math.sqrt((double)radius * radius - (double)dy * dy));
+    }
+    return halfWidths;
+  }
+
+  /**
+   * <!-- slidingMin -->
+   * 
+   * Find the minimum of each window of <code>2 * half + 1</code> values along
+   * an array, cut short at the ends, using a queue of the positions of values
+   * that could still be the minimum of a later window.
+   * 
+   * @param values The values, with no <code>NaN</code>s
+   * @param offset Where the values start in the array
+   * @param n The number of values
+   * @param half The number of values either side of the centre of the window
+   * @param mins Where to put the minimum of the window centred on each value
+   * @param queue Space for at least <code>n</code> positions
+   */
+  private static void slidingMin(double[] values, int offset, int n, int half, double[] mins, int[] queue) {
+    int head = 0;
+    int tail = 0;
+    for(int i = 0; i < n + half; i++) {
+      if(i < n) {
+        double value = values[offset + i];
+        while(tail > head && values[offset + queue[tail - 1]] >= value)
+          tail--;
+        queue[tail++] = i;
+      }
+      int centre = i - half;
+      if(centre >= 0) {
+        while(queue[head] < centre - half)
+          head++;
+        mins[centre] = values[offset + queue[head]];
+      }
+    }
+  }
+
+  /**
+   * <!-- Band -->
+   * 
+   * A band of rows of the result, and the cells of the raster its windows
+   * reach, read once as <code>double</code>s with <code>NaN</code> for no
+   * data.
+   * 
+   * @author Gary Polhill
+   */
+  private static final class Band {
+    /**
+     * First and last + 1 rows of the result
+     */
+    final int startRow;
+
+    final int endRow;
+
+    /**
+     * First and last + 1 rows of the raster read
+     */
+    final int lo;
+
+    final int hi;
+
+    final int ncols;
+
+    final int radius;
+
+    /**
+     * The cells read, row by row
+     */
+    final double[] cells;
+
+    Band(GISRaster<? extends Number> raster, int startRow, int endRow, int radius) {
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.radius = radius;
+      ncols = raster.ncols;
+      lo = Math.max(0, startRow - radius);
+      hi = (int)Math.min((long)raster.nrows, (long)endRow + radius);
+      cells = new double[(hi - lo) * ncols];
+      for(int row = lo, i = 0; row < hi; row++) {
+        for(int col = 0; col < ncols; col++, i++) {
+          cells[i] = raster.atRCDouble(row, col);
+        }
+      }
+    }
+
+    /**
+     * <!-- sumSquare -->
+     * 
+     * Sum or mean over squares, from the difference of four entries in
+     * summed-area tables of the values and of the number of cells with data
+     * 
+     * @param mean <code>true</code> for the mean, <code>false</code> for the
+     *          sum
+     * @param output Where to put the results
+     * @param changes Changes to the mask of cells with no data in the output
+     */
+    void sumSquare(boolean mean, GISRaster<Double> output, GISRaster.NoDataChanges changes) {
+      int width = ncols + 1;
+      int nb = hi - lo;
+      double[] sums = new double[(nb + 1) * width];
+      int[] counts = new int[(nb + 1) * width];
+      for(int i = 0; i < nb; i++) {
+        double rowSum = 0.0;
+        int rowCount = 0;
+        for(int j = 0; j < ncols; j++) {
+          double value = cells[i * ncols + j];
+          if(!Double.isNaN(value)) {
+            rowSum += value;
+            rowCount++;
+          }
+          sums[(i + 1) * width + j + 1] = sums[i * width + j + 1] + rowSum;
+          counts[(i + 1) * width + j + 1] = counts[i * width + j + 1] + rowCount;
+        }
+      }
+      for(int row = startRow; row < endRow; row++) {
+        int top = Math.max(row - radius, lo) - lo;
+        int bottom = Math.min(row + radius + 1, hi) - lo;
+        for(int col = 0; col < ncols; col++) {
+          int left = Math.max(col - radius, 0);
+          int right = Math.min(col + radius + 1, ncols);
+          int a = top * width + left;
+          int b = top * width + right;
+          int c = bottom * width + left;
+          int d = bottom * width + right;
+          int count = counts[d] - counts[b] - counts[c] + counts[a];
+          double sum = sums[d] - sums[b] - sums[c] + sums[a];
+          output.atRCDouble(row, col, count == 0 ? Double.NaN : (mean ? sum / count : sum), changes);
+        }
+      }
+    }
+
+    /**
+     * <!-- sumSpans -->
+     * 
+     * Sum or mean over any shape, adding the span of each row of the window
+     * from prefix sums along the rows
+     * 
+     * @param halfWidths Half the width of each row of the window
+     * @param mean <code>true</code> for the mean, <code>false</code> for the
+     *          sum
+     * @param output Where to put the results
+     * @param changes Changes to the mask of cells with no data in the output
+     */
+    void sumSpans(int[] halfWidths, boolean mean, GISRaster<Double> output, GISRaster.NoDataChanges changes) {
+      int width = ncols + 1;
+      int nb = hi - lo;
+      double[] sums = new double[nb * width];
+      int[] counts = new int[nb * width];
+      for(int i = 0; i < nb; i++) {
+        for(int j = 0; j < ncols; j++) {
+          double value = cells[i * ncols + j];
+          boolean data = !Double.isNaN(value);
+          sums[i * width + j + 1] = sums[i * width + j] + (data ? value : 0.0);
+          counts[i * width + j + 1] = counts[i * width + j] + (data ? 1 : 0);
+        }
+      }
+      for(int row = startRow; row < endRow; row++) {
+        for(int col = 0; col < ncols; col++) {
+          double sum = 0.0;
+          int count = 0;
+          for(int dy = -radius; dy <= radius; dy++) {
+            int i = row + dy - lo;
+            if(i < 0 || i >= nb) continue;
+            int half = halfWidths[dy + radius];
+            int left = i * width + Math.max(col - half, 0);
+            int right = i * width + Math.min(col + half + 1, ncols);
+            sum += sums[right] - sums[left];
+            count += counts[right] - counts[left];
+          }
+          output.atRCDouble(row, col, count == 0 ? Double.NaN : (mean ? sum / count : sum), changes);
+        }
+      }
+    }
+
+    /**
+     * <!-- minCells -->
+     * 
+     * @param max <code>true</code> to find maxima rather than minima
+     * @return The cells, negated for maxima, with no data as infinity, so the
+     *         minimum of them gives the result
+     */
+    private double[] minCells(boolean max) {
+      double[] values = new double[cells.length];
+      for(int i = 0; i < cells.length; i++) {
+        double value = cells[i];
+        values[i] = Double.isNaN(value) ? Double.POSITIVE_INFINITY : (max ? -value : value);
+      }
+      return values;
+    }
+
+    /**
+     * <!-- minResult -->
+     * 
+     * @param min A minimum found from {@link #minCells(boolean)}
+     * @param max <code>true</code> if finding maxima
+     * @return The result for the cell
+     */
+    private static double minResult(double min, boolean max) {
+      if(min == Double.POSITIVE_INFINITY) return Double.NaN;
+      return max ? -min : min;
+    }
+
+    /**
+     * <!-- minSquare -->
+     * 
+     * Minimum or maximum over squares, as the minimum down the columns of the
+     * minima along the rows
+     * 
+     * @param max <code>true</code> for the maximum, <code>false</code> for the
+     *          minimum
+     * @param output Where to put the results
+     * @param changes Changes to the mask of cells with no data in the output
+     */
+    void minSquare(boolean max, GISRaster<Double> output, GISRaster.NoDataChanges changes) {
+      int nb = hi - lo;
+      double[] values = minCells(max);
+      double[] rowMins = new double[values.length];
+      int[] queue = new int[Math.max(nb, ncols)];
+      double[] rowMin = new double[ncols];
+      for(int i = 0; i < nb; i++) {
+        slidingMin(values, i * ncols, ncols, radius, rowMin, queue);
+        System.arraycopy(rowMin, 0, rowMins, i * ncols, ncols);
+      }
+      double[] column = new double[nb];
+      double[] columnMin = new double[nb];
+      for(int col = 0; col < ncols; col++) {
+        for(int i = 0; i < nb; i++) {
+          column[i] = rowMins[i * ncols + col];
+        }
+        slidingMin(column, 0, nb, radius, columnMin, queue);
+        for(int row = startRow; row < endRow; row++) {
+          output.atRCDouble(row, col, minResult(columnMin[row - lo], max), changes);
+        }
+      }
+    }
+
+    /**
+     * <!-- minSpans -->
+     * 
+     * Minimum or maximum over any shape, as the minimum of the sliding minima
+     * along the span of each row of the window
+     * 
+     * @param halfWidths Half the width of each row of the window
+     * @param max <code>true</code> for the maximum, <code>false</code> for the
+     *          minimum
+     * @param output Where to put the results
+     * @param changes Changes to the mask of cells with no data in the output
+     */
+    void minSpans(int[] halfWidths, boolean max, GISRaster<Double> output, GISRaster.NoDataChanges changes) {
+      int nb = hi - lo;
+      double[] values = minCells(max);
+      int[] queue = new int[ncols];
+      double[] rowMin = new double[ncols];
+      double[] mins = new double[ncols];
+      for(int row = startRow; row < endRow; row++) {
+        Arrays.fill(mins, Double.POSITIVE_INFINITY);
+        for(int dy = -radius; dy <= radius; dy++) {
+          int i = row + dy - lo;
+          if(i < 0 || i >= nb) continue;
+          slidingMin(values, i * ncols, ncols, halfWidths[dy + radius], rowMin, queue);
+          for(int col = 0; col < ncols; col++) {
+            if(rowMin[col] < mins[col]) mins[col] = rowMin[col];
+          }
+        }
+        for(int col = 0; col < ncols; col++) {
+          output.atRCDouble(row, col, minResult(mins[col], max), changes);
+        }
+      }
+    }
+
+    /**
+     * <!-- majority -->
+     * 
+     * Majority over any shape. The values in the band are numbered in
+     * increasing order, and a count of each number kept as the window slides
+     * along a row, adding the cell entering each row of the window at the
+     * right and removing the one leaving at the left.
+     * 
+     * @param halfWidths Half the width of each row of the window
+     * @param output Where to put the results
+     * @param changes Changes to the mask of cells with no data in the output
+     */
+    void majority(int[] halfWidths, GISRaster<Double> output, GISRaster.NoDataChanges changes) {
+      int nb = hi - lo;
+      double[] values = new double[cells.length];
+      int nvalues = 0;
+      for(double value: cells) {
+        if(!Double.isNaN(value)) values[nvalues++] = value;
+      }
+      Arrays.sort(values, 0, nvalues);
+      int ncategories = 0;
+      for(int i = 0; i < nvalues; i++) {
+        if(ncategories == 0 || values[i] != values[ncategories - 1]) values[ncategories++] = values[i];
+      }
+      int[] categories = new int[cells.length];
+      for(int i = 0; i < cells.length; i++) {
+        categories[i] = Double.isNaN(cells[i]) ? -1 : Arrays.binarySearch(values, 0, ncategories, cells[i]);
+      }
+
+      Histogram histogram = new Histogram(ncategories);
+      for(int row = startRow; row < endRow; row++) {
+        histogram.clear();
+        for(int dy = -radius; dy <= radius; dy++) {
+          int i = row + dy - lo;
+          if(i < 0 || i >= nb) continue;
+          for(int col = 0, n = Math.min(halfWidths[dy + radius], ncols - 1); col <= n; col++) {
+            histogram.add(categories[i * ncols + col]);
+          }
+        }
+        for(int col = 0; col < ncols; col++) {
+          if(col > 0) {
+            for(int dy = -radius; dy <= radius; dy++) {
+              int i = row + dy - lo;
+              if(i < 0 || i >= nb) continue;
+              int half = halfWidths[dy + radius];
+              if(col - 1 - half >= 0) histogram.remove(categories[i * ncols + col - 1 - half]);
+              if(col + half < ncols) histogram.add(categories[i * ncols + col + half]);
+            }
+          }
+          output.atRCDouble(row, col, histogram.best < 0 ? Double.NaN : values[histogram.best], changes);
+        }
+      }
+    }
+  }
+
+  /**
+   * <!-- Histogram -->
+   * 
+   * Counts of the numbered values in a window, keeping track of the most
+   * frequent, with ties going to the lowest number
+   * 
+   * @author Gary Polhill
+   */
+  private static final class Histogram {
+    final int[] counts;
+
+    /**
+     * The most frequent number, or -1 if the window is empty
+     */
+    int best = -1;
+
+    Histogram(int n) {
+      counts = new int[n];
+    }
+
+    void clear() {
+      Arrays.fill(counts, 0);
+      best = -1;
+    }
+
+    /**
+     * <!-- add -->
+     * 
+     * @param n A number entering the window, or -1 for no data
+     */
+    void add(int n) {
+      if(n < 0) return;
+      counts[n]++;
+      if(best < 0 || counts[n] > counts[best] || (counts[n] == counts[best] && n < best)) best = n;
+    }
+
+    /**
+     * <!-- remove -->
+     * 
+     * The most frequent number only needs to be searched for again if it is
+     * the one leaving the window.
+     * 
+     * @param n A number leaving the window, or -1 for no data
+     */
+    void remove(int n) {
+      if(n < 0) return;
+      counts[n]--;
+      if(n == best) {
+        best = -1;
+        for(int i = 0; i < counts.length; i++) {
+          if(counts[i] > 0 && (best < 0 || counts[i] > counts[best])) best = i;
+        }
+      }
+    }
+  }
+}
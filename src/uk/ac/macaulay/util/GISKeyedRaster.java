@@ -25,7 +25,11 @@ package uk.ac.macaulay.util;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.IndexColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -146,23 +150,77 @@ public class GISKeyedRaster<T> extends GISRaster<T> {
    * Constructor using a buffered image and a converter to build a
    * GISKeyedRaster
    * 
+   * <p>
+   * The image is read a line at a time, in parallel blocks of lines, and the
+   * entry for each colour found is remembered, so the converter is asked only
+   * once about each colour in the image (and never by more than one thread at
+   * a time). As with {@link #atXY(int, int, Color)}, the alpha channel of the
+   * image is ignored, and cells whose colours have no entry have no data.
+   * </p>
+   * 
    * @param image The image from which to get colours
    * @param converter Converter mapping colours to data
    * @param originX Georeference for the left edge of the image
    * @param originY Georeference for the bottom edge of the image
    * @param cellSize Length of one side of a pixel (assumed square)
    */
-  public GISKeyedRaster(BufferedImage image, GISRasterImageConverter<T> converter, double originX, double originY,
-      double cellSize) {
-    super(image.getWidth(), image.getHeight(), originX, originY, cellSize);
+  public GISKeyedRaster(final BufferedImage image, GISRasterImageConverter<T> converter, double originX,
+      double originY, double cellSize) {
+    super(image.getHeight(), image.getWidth(), originX, originY, cellSize);
     this.converter = converter;
-    for(int x = 0; x < ncols; x++) {
-      for(int y = 0; y < nrows; y++) {
-        atXY(x, y, new Color(image.getRGB(x, y)));
+    final EntryCache<T> entries = new EntryCache<T>();
+    ParallelRows.forEach(nrows, ncols, (startY, endY) -> {
+      EntryCache<T> seen = new EntryCache<T>();
+      int[] rgbs = new int[ncols];
+      for(int y = startY; y < endY; y++) {
+        image.getRGB(0, y, ncols, 1, rgbs, 0, ncols);
+        int row = (nrows - y) - 1;
+        for(int x = 0; x < ncols; x++) {
+          int rgb = rgbs[x] & 0x00ffffff;
+          int slot = seen.find(rgb);
+          T entry;
+          if(seen.has(slot)) {
+            entry = seen.get(slot);
+          }
+          else {
+            entry = getEntry(entries, rgb);
+            seen.put(slot, rgb, entry);
+          }
+          if(entry != null && !entry.equals(getNoDataValue())) setCell(row, x, entry);
+        }
       }
+    });
+  }
+
+  /**
+   * <!-- getEntry -->
+   * 
+   * Get the entry for a colour from the converter, unless it has already been
+   * asked about it.
+   * 
+   * @param entries The entries already found for colours
+   * @param rgb The colour (without alpha)
+   * @return The entry for the colour
+   */
+  private T getEntry(EntryCache<T> entries, int rgb) {
+    synchronized(entries) {
+      int slot = entries.find(rgb);
+      if(entries.has(slot)) return entries.get(slot);
+      T entry = converter.getEntry(new Color(rgb));
+      entries.put(slot, rgb, entry);
+      return entry;
     }
   }
 
+  /**
+   * <!-- getConverter -->
+   * 
+   * @return The converter mapping entries to colours
+   */
+  GISRasterImageConverter<T> getConverter() {
+    return converter;
+  }
+
   /**
    * <!-- getColor -->
    * 
@@ -325,28 +383,227 @@ public class GISKeyedRaster<T> extends GISRaster<T> {
    * If it is too big, then the extra pixels will not be set. If too small,
    * then the data in those cells will not be written.
    * 
+   * <p>
+   * Each row of the raster is converted to an array of colours, which is
+   * stretched by the zoom factor and copied into the image a whole line at a
+   * time. If the image is of type {@link BufferedImage#TYPE_INT_ARGB} or
+   * {@link BufferedImage#TYPE_INT_RGB}, the lines are copied straight into its
+   * pixel array, and large rasters are drawn in parallel blocks of rows, so
+   * the converter must be safe to call from more than one thread.
+   * </p>
+   * 
    * @param image Image to fill
    * @param zoomFactor Zoom factor (number of pixels per cell in the data)
    */
-  public void fillImage(BufferedImage image, int zoomFactor) {
-    // Save some overhead in the loop calling methods
-    int width = image.getWidth();
-    int height = image.getHeight();
-    
-    for(int x = 0; x < ncols; x++) {
-      for(int y = 0; y < nrows; y++) {
-        Color color = atXYColor(x, y);
-        int rgb = color.getRGB();
-        for(int xx = 0; xx < zoomFactor; xx++) {
-          for(int yy = 0; yy < zoomFactor; yy++) {
-            int xxx = x * zoomFactor + xx;
-            int yyy = y * zoomFactor + yy;
-            if(xxx < width && yyy < height) {
-              image.setRGB(xxx, yyy, rgb);
-            }
-            else {
-              break;
-            }
+  public void fillImage(final BufferedImage image, final int zoomFactor) {
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    if(zoomFactor <= 0 || width == 0 || height == 0) return;
+
+    // The cells that will be seen in the image, and the pixels they cover
+    final int xcells = Math.min(ncols, (width + zoomFactor - 1) / zoomFactor);
+    final int ycells = Math.min(nrows, (height + zoomFactor - 1) / zoomFactor);
+    final int npixels = (int)Math.min(width, (long)xcells * zoomFactor);
+    if(xcells == 0 || ycells == 0) return;
+
+    WritableRaster raster = image.getRaster();
+    if((image.getType() == BufferedImage.TYPE_INT_ARGB || image.getType() == BufferedImage.TYPE_INT_RGB)
+      && raster.getDataBuffer() instanceof DataBufferInt
+      && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+      DataBufferInt buffer = (DataBufferInt)raster.getDataBuffer();
+      SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel)raster.getSampleModel();
+      final int[] data = buffer.getData();
+      final int stride = model.getScanlineStride();
+      final int offset = buffer.getOffset()
+        + model.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+      final int mask = image.getType() == BufferedImage.TYPE_INT_RGB ? 0x00ffffff : 0xffffffff;
+      int work = (int)Math.min(Integer.MAX_VALUE, (long)npixels * zoomFactor);
+
+      ParallelRows.forEach(ycells, work, (startY, endY) -> {
+        int[] colors = new int[xcells];
+        int[] pixels = zoomFactor == 1 ? colors : new int[npixels];
+        for(int y = startY; y < endY; y++) {
+          fillRow(y, colors, pixels, zoomFactor, mask);
+          for(int yy = y * zoomFactor; yy < (y + 1) * zoomFactor && yy < height; yy++) {
+            System.arraycopy(pixels, 0, data, offset + yy * stride, npixels);
+          }
+        }
+      });
+    }
+    else {
+      // Setting RGB values through other colour models might not be safe to
+      // do in parallel
+      int[] colors = new int[xcells];
+      int[] pixels = zoomFactor == 1 ? colors : new int[npixels];
+      for(int y = 0; y < ycells; y++) {
+        fillRow(y, colors, pixels, zoomFactor, 0xffffffff);
+        for(int yy = y * zoomFactor; yy < (y + 1) * zoomFactor && yy < height; yy++) {
+          image.setRGB(0, yy, npixels, 1, pixels, 0, npixels);
+        }
+      }
+    }
+  }
+
+  /**
+   * <!-- fillRow -->
+   * 
+   * Get the colours of the cells in a row of the image, with the same values
+   * as {@link #atXYColor(int, int)}, and stretch them by the zoom factor.
+   * Runs of cells with the same entry only look up the colour once. If the
+   * converter is a {@link GISCompiledKey}, the colours are taken from its
+   * lookup tables without boxing the entries.
+   * 
+   * @param y The Y cell
+   * @param colors Array to put the colour of each cell in, as ARGB
+   * @param pixels Array to put the colour of each pixel in (which may be the
+   *          same as <code>colors</code> if the zoom factor is 1)
+   * @param zoomFactor Number of pixels per cell
+   * @param mask Bits of the colours to keep
+   */
+  private void fillRow(int y, int[] colors, int[] pixels, int zoomFactor, int mask) {
+    int row = (nrows - y) - 1;
+    if(converter instanceof GISCompiledKey) {
+      GISCompiledKey<?> key = (GISCompiledKey<?>)converter;
+      for(int x = 0; x < colors.length; x++) {
+        double value = atRCDouble(row, x);
+        colors[x] = Double.isNaN(value) ? 0 : key.getARGB(value) & mask;
+      }
+    }
+    else {
+      fillRowColors(row, colors, mask);
+    }
+    if(pixels != colors) {
+      for(int x = 0, px = 0; x < colors.length; x++, px += zoomFactor) {
+        Arrays.fill(pixels, px, Math.min(px + zoomFactor, pixels.length), colors[x]);
+      }
+    }
+  }
+
+  /**
+   * <!-- fillRowColors -->
+   * 
+   * Get the colours of the cells in a row from the converter.
+   * 
+   * @param row The row
+   * @param colors Array to put the colour of each cell in, as ARGB
+   * @param mask Bits of the colours to keep
+   */
+  private void fillRowColors(int row, int[] colors, int mask) {
+    T last = null;
+    int lastColor = 0;
+    for(int x = 0; x < colors.length; x++) {
+      if(isNoData(row, x)) {
+        colors[x] = 0;
+      }
+      else {
+        T entry = getCell(row, x);
+        if(last == null || !last.equals(entry)) {
+          last = entry;
+          lastColor = converter.getColor(entry).getRGB() & mask;
+        }
+        colors[x] = lastColor;
+      }
+    }
+  }
+
+  /**
+   * <!-- EntryCache -->
+   * 
+   * An open-addressing hash table from colours (RGB without alpha, packed in
+   * an <code>int</code>) to entries, which may be <code>null</code>. Slots are
+   * found using {@link #find(int)}, and then looked in or filled, so a colour
+   * is only hashed once. It is not thread-safe.
+   * 
+   * @author Gary Polhill
+   */
+  private static final class EntryCache<T> {
+    /**
+     * Key for an empty slot (which isn't a colour without alpha)
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * The colours
+     */
+    private int[] colors;
+
+    /**
+     * The entries for them
+     */
+    private Object[] entries;
+
+    /**
+     * Number of colours in the table
+     */
+    private int size;
+
+    EntryCache() {
+      colors = new int[64];
+      Arrays.fill(colors, EMPTY);
+      entries = new Object[colors.length];
+      size = 0;
+    }
+
+    /**
+     * <!-- find -->
+     * 
+     * @param rgb A colour
+     * @return The slot the colour is in, or the empty slot to put it in
+     */
+    int find(int rgb) {
+      int mask = colors.length - 1;
+      int hash = rgb * 0x9e3779b9;
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      while(colors[slot] != EMPTY && colors[slot] != rgb) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    /**
+     * <!-- has -->
+     * 
+     * @param slot A slot returned by {@link #find(int)}
+     * @return <code>true</code> if the colour was found in the slot
+     */
+    boolean has(int slot) {
+      return colors[slot] != EMPTY;
+    }
+
+    /**
+     * <!-- get -->
+     * 
+     * @param slot A slot with a colour in it
+     * @return The entry for the colour
+     */
+    @SuppressWarnings("unchecked")
+    T get(int slot) {
+      return (T)entries[slot];
+    }
+
+    /**
+     * <!-- put -->
+     * 
+     * Put a colour in an empty slot, growing the table if it is getting full
+     * 
+     * @param slot The empty slot returned by {@link #find(int)} for the colour
+     * @param rgb The colour
+     * @param entry The entry for it
+     */
+    void put(int slot, int rgb, T entry) {
+      colors[slot] = rgb;
+      entries[slot] = entry;
+      if(++size * 2 > colors.length) {
+        int[] oldColors = colors;
+        Object[] oldEntries = entries;
+        colors = new int[oldColors.length * 2];
+        Arrays.fill(colors, EMPTY);
+        entries = new Object[colors.length];
+        for(int i = 0; i < oldColors.length; i++) {
+          if(oldColors[i] != EMPTY) {
+            int newSlot = find(oldColors[i]);
+            colors[newSlot] = oldColors[i];
+            entries[newSlot] = oldEntries[i];
           }
         }
       }
@@ -26,6 +26,8 @@ package uk.ac.macaulay.util;
 import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * <!-- GISMultiScaleKey -->
@@ -90,6 +92,28 @@ public class GISMultiScaleKey<T extends Number> extends AbstractGISRasterImageCo
     if(i == scales.size()) scales.add(scale);
   }
 
+  /**
+   * <!-- getScales -->
+   * 
+   * @return The scales, sorted by their minima
+   */
+  List<GISScaledKey<T>> getScales() {
+    return Collections.unmodifiableList(scales);
+  }
+
+  /**
+   * <!-- compile -->
+   * 
+   * @param maxError The largest difference allowed between any of the red,
+   *          green and blue components (0-255) of the colours the compiled key
+   *          gives and those this key gives
+   * @return A {@link GISCompiledKey} giving colours from lookup tables
+   *         sampled from each of the scales
+   */
+  public GISCompiledKey<T> compile(double maxError) {
+    return new GISCompiledKey<T>(this, maxError);
+  }
+
   /**
    * <!-- getColor -->
    * 
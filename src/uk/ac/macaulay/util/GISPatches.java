@@ -0,0 +1,352 @@
+/*
+ * uk.ac.macaulay.util: GISPatches.java
+ * 
+ * Copyright (C) 2010 Macaulay Institute
+ * 
+ * This file is part of utils.
+ * 
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <!-- GISPatches -->
+ * 
+ * <p>
+ * The patches of a raster of categories: groups of neighbouring cells with
+ * the same value, where neighbours share a side (4-connectivity) or a side or
+ * a corner (8-connectivity). Cells with no data belong to no patch. The
+ * patches are numbered from 1 in the order their first cells appear reading
+ * the raster row by row from the top, and each has a row in a table of
+ * metrics: its value, number of cells, area, perimeter and bounding box.
+ * </p>
+ * 
+ * <p>
+ * Patches are found with a union-find structure over the cells, in which
+ * each cell points towards the first cell of its patch. Blocks of rows are
+ * labelled in parallel, each joining only cells in the block, and then the
+ * patches either side of each boundary between blocks are joined. As cells
+ * always point to earlier cells, the structure can then be flattened in one
+ * pass, without recursion (or flood filling) whatever the shape of the
+ * patches.
+ * </p>
+ * 
+ * @author Gary Polhill
+ */
+public final class GISPatches {
+  /**
+   * Heading of the column of the table of metrics with the number of the
+   * patch
+   */
+  public static final String PATCH = "patch";
+
+  /**
+   * Heading of the column with the value of the cells in the patch
+   */
+  public static final String VALUE = "value";
+
+  /**
+   * Heading of the column with the number of cells in the patch
+   */
+  public static final String CELLS = "cells";
+
+  /**
+   * Heading of the column with the area of the patch
+   */
+  public static final String AREA = "area";
+
+  /**
+   * Heading of the column with the length of the edge of the patch
+   */
+  public static final String PERIMETER = "perimeter";
+
+  /**
+   * Heading of the column with the left edge of the patch's bounding box
+   */
+  public static final String MIN_X = "minX";
+
+  /**
+   * Heading of the column with the bottom edge of the patch's bounding box
+   */
+  public static final String MIN_Y = "minY";
+
+  /**
+   * Heading of the column with the right edge of the patch's bounding box
+   */
+  public static final String MAX_X = "maxX";
+
+  /**
+   * Heading of the column with the top edge of the patch's bounding box
+   */
+  public static final String MAX_Y = "maxY";
+
+  /**
+   * Value of a cell with no data in the array of links
+   */
+  private static final int BACKGROUND = -1;
+
+  /**
+   * Raster of the patch number of each cell, with 0 (no data) for cells in no
+   * patch
+   */
+  private final GISRaster<Integer> labels;
+
+  /**
+   * Table of metrics for each patch
+   */
+  private final HeadedTable<Number> metrics;
+
+  /**
+   * Constructor, labelling the patches of a raster
+   * 
+   * @param raster The raster of categories
+   * @param eightConnected <code>true</code> if cells touching only at a
+   *          corner are in the same patch
+   */
+  public GISPatches(final GISRaster<Integer> raster, final boolean eightConnected) {
+    final int nrows = raster.nrows;
+    final int ncols = raster.ncols;
+    final int[] values = new int[nrows * ncols];
+    final int[] links = new int[nrows * ncols];
+
+    // First pass: the patches within each block, and the first row of each
+    // block, with the cells that start a patch in the block
+
+    List<Block> blocks = ParallelRows.reduce(nrows, ncols, new ParallelRows.Reduction<List<Block>>() {
+      public List<Block> rows(int startRow, int endRow) {
+        Block block = new Block(startRow);
+        for(int row = startRow; row < endRow; row++) {
+          for(int col = 0, i = row * ncols; col < ncols; col++, i++) {
+            double value = raster.atRCDouble(row, col);
+            if(Double.isNaN(value)) {
+              links[i] = BACKGROUND;
+              continue;
+            }
+            values[i] = (int)value;
+            links[i] = i;
+            if(col > 0) join(links, values, i, i - 1);
+            if(row > startRow) {
+              join(links, values, i, i - ncols);
+              if(eightConnected) {
+                if(col > 0) join(links, values, i, i - ncols - 1);
+                if(col < ncols - 1) join(links, values, i, i - ncols + 1);
+              }
+            }
+          }
+        }
+        for(int i = startRow * ncols; i < endRow * ncols; i++) {
+          if(links[i] == BACKGROUND) continue;
+          links[i] = links[links[i]];
+          if(links[i] == i) block.add(i);
+        }
+        List<Block> list = new ArrayList<Block>();
+        list.add(block);
+        return list;
+      }
+
+      public List<Block> combine(List<Block> upper, List<Block> lower) {
+        upper.addAll(lower);
+        return upper;
+      }
+    });
+
+    // Join the patches either side of the boundaries between blocks
+
+    for(Block block: blocks) {
+      int row = block.startRow;
+      if(row == 0) continue;
+      for(int col = 0, i = row * ncols; col < ncols; col++, i++) {
+        if(links[i] == BACKGROUND) continue;
+        join(links, values, i, i - ncols);
+        if(eightConnected) {
+          if(col > 0) join(links, values, i, i - ncols - 1);
+          if(col < ncols - 1) join(links, values, i, i - ncols + 1);
+        }
+      }
+    }
+
+    // Number the patches: the cells that started a patch in a block now point
+    // to the first cell of the patch they are in, which comes before them
+
+    final int[] numbers = new int[nrows * ncols];
+    int npatches = 0;
+    for(Block block: blocks) {
+      for(int j = 0; j < block.nroots; j++) {
+        int root = block.roots[j];
+        links[root] = links[links[root]];
+        if(links[root] == root) numbers[root] = ++npatches;
+      }
+    }
+
+    // Second pass: the patch number of each cell
+
+    final int[] cells = new int[nrows * ncols];
+    ParallelRows.forEach(nrows, ncols, (startRow, endRow) -> {
+      for(int i = startRow * ncols; i < endRow * ncols; i++) {
+        if(links[i] != BACKGROUND) cells[i] = numbers[links[links[i]]];
+      }
+    });
+    IntTable table = new IntTable(nrows, ncols, cells);
+    labels = new GISRaster<Integer>(table, raster.getOriginX(), raster.getOriginY(), raster.getCellSize(), 0, table);
+    metrics = metrics(raster, values, cells, npatches);
+  }
+
+  /**
+   * <!-- join -->
+   * 
+   * Put two cells in the same patch if they have the same value, by pointing
+   * the later of the cells their links lead to at the earlier, and halving
+   * the paths followed.
+   * 
+   * @param links The cell each cell points towards the first of its patch
+   * @param values The value of each cell
+   * @param i A cell with data
+   * @param j An earlier cell
+   */
+  private static void join(int[] links, int[] values, int i, int j) {
+    if(links[j] == BACKGROUND || values[i] != values[j]) return;
+    while(links[i] != i) {
+      links[i] = links[links[i]];
+      i = links[i];
+    }
+    while(links[j] != j) {
+      links[j] = links[links[j]];
+      j = links[j];
+    }
+    if(i < j) links[j] = i;
+    else if(j < i) links[i] = j;
+  }
+
+  /**
+   * <!-- metrics -->
+   * 
+   * @param raster The raster of categories
+   * @param values The value of each cell
+   * @param cells The patch number of each cell
+   * @param npatches The number of patches
+   * @return The table of metrics
+   */
+  private static HeadedTable<Number> metrics(GISRaster<Integer> raster, int[] values, int[] cells, int npatches) {
+    int nrows = raster.nrows;
+    int ncols = raster.ncols;
+    int[] value = new int[npatches + 1];
+    int[] count = new int[npatches + 1];
+    long[] edges = new long[npatches + 1];
+    int[] minRow = new int[npatches + 1];
+    int[] maxRow = new int[npatches + 1];
+    int[] minCol = new int[npatches + 1];
+    int[] maxCol = new int[npatches + 1];
+    Arrays.fill(minRow, Integer.MAX_VALUE);
+    Arrays.fill(minCol, Integer.MAX_VALUE);
+    for(int row = 0, i = 0; row < nrows; row++) {
+      for(int col = 0; col < ncols; col++, i++) {
+        int patch = cells[i];
+        if(patch == 0) continue;
+        value[patch] = values[i];
+        count[patch]++;
+        if(row == 0 || cells[i - ncols] != patch) edges[patch]++;
+        if(row == nrows - 1 || cells[i + ncols] != patch) edges[patch]++;
+        if(col == 0 || cells[i - 1] != patch) edges[patch]++;
+        if(col == ncols - 1 || cells[i + 1] != patch) edges[patch]++;
+        if(row < minRow[patch]) minRow[patch] = row;
+        maxRow[patch] = row;
+        if(col < minCol[patch]) minCol[patch] = col;
+        if(col > maxCol[patch]) maxCol[patch] = col;
+      }
+    }
+
+    double cellSize = raster.getCellSize();
+    HeadedTable<Number> table =
+      new HeadedTable<Number>(npatches, new String[] { PATCH, VALUE, CELLS, AREA, PERIMETER, MIN_X, MIN_Y, MAX_X,
+        MAX_Y });
+    for(int patch = 1; patch <= npatches; patch++) {
+      int row = patch - 1;
+      table.atRC(row, 0, patch);
+      table.atRC(row, 1, value[patch]);
+      table.atRC(row, 2, count[patch]);
+      table.atRC(row, 3, count[patch] * raster.getCellArea());
+      table.atRC(row, 4, edges[patch] * cellSize);
+      table.atRC(row, 5, raster.getOriginX() + minCol[patch] * cellSize);
+      table.atRC(row, 6, raster.getOriginY() + (nrows - 1 - maxRow[patch]) * cellSize);
+      table.atRC(row, 7, raster.getOriginX() + (maxCol[patch] + 1) * cellSize);
+      table.atRC(row, 8, raster.getOriginY() + (nrows - minRow[patch]) * cellSize);
+    }
+    return table;
+  }
+
+  /**
+   * <!-- getLabels -->
+   * 
+   * @return A raster of the number of the patch each cell is in, with no data
+   *         (0) for cells in no patch
+   */
+  public GISRaster<Integer> getLabels() {
+    return labels;
+  }
+
+  /**
+   * <!-- getMetrics -->
+   * 
+   * @return A table with a row for each patch, in order of patch number, and
+   *         columns {@link #PATCH}, {@link #VALUE} and {@link #CELLS} (as
+   *         {@link Integer}s), {@link #AREA}, {@link #PERIMETER} (the length
+   *         of the sides of its cells not shared with another cell of the
+   *         patch), and {@link #MIN_X}, {@link #MIN_Y}, {@link #MAX_X} and
+   *         {@link #MAX_Y} (the edges of the bounding box) as {@link Double}s
+   */
+  public HeadedTable<Number> getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * <!-- npatches -->
+   * 
+   * @return The number of patches
+   */
+  public int npatches() {
+    return metrics.nrows();
+  }
+
+  /**
+   * <!-- Block -->
+   * 
+   * A block of rows labelled together, and the cells in it that were the
+   * first of a patch within the block
+   * 
+   * @author Gary Polhill
+   */
+  private static final class Block {
+    final int startRow;
+
+    int[] roots = new int[16];
+
+    int nroots = 0;
+
+    Block(int startRow) {
+      this.startRow = startRow;
+    }
+
+    void add(int root) {
+      if(nroots == roots.length) roots = Arrays.copyOf(roots, nroots * 2);
+      roots[nroots++] = root;
+    }
+  }
+}
@@ -24,10 +24,8 @@
 package uk.ac.macaulay.util;
 
 import java.awt.Color;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * <!-- GISRaster -->
@@ -59,15 +57,21 @@ public class GISRaster<T> extends Table<T> {
   private final double cellSize;
 
   /**
-   * Co-ordinates containing no data (map of X to set of Y co-ordinates
+   * Cells stipulated as containing no data
    */
-  private Map<Integer, Set<Integer>> nodata;
+  private NoDataMask nodata;
 
   /**
    * No data value, if used (null if not)
    */
   private final T nodata_value;
 
+  /**
+   * Table of primitives in which the cells are stored, if the raster was built
+   * from one (null if the cells are stored as objects in the usual way)
+   */
+  private final Table<T> store;
+
   /**
    * Constructor with null nodata_value
    * 
@@ -93,10 +97,11 @@ public class GISRaster<T> extends Table<T> {
    */
   public GISRaster(int nrows, int ncols, double originX, double originY, double cellSize, T nodata_value) {
     super(nrows, ncols);
+    store = null;
     this.originX = originX;
     this.originY = originY;
     this.cellSize = cellSize;
-    if(nodata == null) nodata = new HashMap<Integer, Set<Integer>>();
+    nodata = new DenseNoDataMask(nrows * ncols);
     this.nodata_value = nodata_value;
   }
 
@@ -124,11 +129,40 @@ public class GISRaster<T> extends Table<T> {
    * @param nodata_value Value to use to indicate no data for that cell
    */
   public GISRaster(Table<T> table, double originX, double originY, double cellSize, T nodata_value) {
-    super(table);
+    this(table, originX, originY, cellSize, nodata_value,
+        (table instanceof AbstractPrimitiveTable<?>) ? ((AbstractPrimitiveTable<?>)table).copy() : null);
+  }
+
+  /**
+   * Constructor converting an existing table into a GISRaster, storing the
+   * cells in a table of primitives. If the store is the table itself, the
+   * GISRaster will share its data with the table, so this is not public.
+   * 
+   * @param table The table to convert
+   * @param originX Georeference for eastings origin
+   * @param originY Georeference for northings origin
+   * @param cellSize Length of one side of the (square) cells
+   * @param nodata_value Value to use to indicate no data for that cell
+   * @param store Table of primitives in which to store the cells, or
+   *          <code>null</code> to copy the cells of the table into a new
+   *          table of objects
+   */
+  @SuppressWarnings("unchecked")
+  GISRaster(Table<T> table, double originX, double originY, double cellSize, T nodata_value,
+      AbstractPrimitiveTable<?> store) {
+    super(table.nrows, table.ncols, store == null);
+    this.store = (Table<T>)store;
+    if(store == null) {
+      for(int i = 0; i < nrows; i++) {
+        for(int j = 0; j < ncols; j++) {
+          super.setCell(i, j, table.atRC(i, j));
+        }
+      }
+    }
     this.originX = originX;
     this.originY = originY;
     this.cellSize = cellSize;
-    if(nodata == null) nodata = new HashMap<Integer, Set<Integer>>();
+    nodata = new DenseNoDataMask(nrows * ncols);
     this.nodata_value = nodata_value;
   }
 
@@ -138,9 +172,245 @@ public class GISRaster<T> extends Table<T> {
    * @param raster The GISRaster to clone
    */
   public GISRaster(GISRaster<T> raster) {
-    this(raster, raster.originX, raster.originY, raster.cellSize, raster.nodata_value);
-    for(Integer x: raster.nodata.keySet()) {
-      nodata.put(x, new HashSet<Integer>(raster.nodata.get(x)));
+    this(raster, raster.originX, raster.originY, raster.cellSize, raster.nodata_value,
+        raster.store == null ? null : ((AbstractPrimitiveTable<?>)raster.store).copy());
+    nodata = raster.nodata.copy();
+  }
+
+  /**
+   * <!-- getCell -->
+   * 
+   * Get the cell from the table of primitives, if there is one.
+   * 
+   * @see uk.ac.macaulay.util.Table#getCell(int, int)
+   */
+  @Override
+  protected T getCell(int row, int col) {
+    return store == null ? super.getCell(row, col) : store.getCell(row, col);
+  }
+
+  /**
+   * <!-- setCell -->
+   * 
+   * Set the cell in the table of primitives, if there is one.
+   * 
+   * @see uk.ac.macaulay.util.Table#setCell(int, int, java.lang.Object)
+   */
+  @Override
+  protected void setCell(int row, int col, T value) {
+    if(store == null) super.setCell(row, col, value);
+    else
+      store.setCell(row, col, value);
+  }
+
+  /**
+   * <!-- isPrimitive -->
+   * 
+   * @return <code>true</code> if the cells are stored as an array of
+   *         primitives (i.e. the raster was built from an {@link IntTable},
+   *         {@link FloatTable} or {@link DoubleTable})
+   */
+  public boolean isPrimitive() {
+    return store != null;
+  }
+
+  /**
+   * <!-- atRCDouble -->
+   * 
+   * Return the value for the row and column number as a <code>double</code>.
+   * If the raster stores its cells as primitives, this avoids boxing the entry.
+   * The raster must contain {@link Number}s.
+   * 
+   * @param row The row
+   * @param col The column
+   * @return The entry in the cell, or <code>NaN</code> if there is no data
+   */
+  public double atRCDouble(int row, int col) {
+    if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
+    if(isNoData(row, col)) return Double.NaN;
+    if(store != null) return ((AbstractPrimitiveTable<?>)store).getDouble(row, col);
+    return ((Number)getCell(row, col)).doubleValue();
+  }
+
+  /**
+   * <!-- atRCDouble -->
+   * 
+   * Set the value for the row and column number from a <code>double</code>,
+   * without boxing it. The raster must store its cells as primitives; the
+   * value is cast to their type. Only changes to the mask of cells with no
+   * data are synchronized; to write blocks of rows in parallel without
+   * waiting for them, use {@link #writeRows(int, int, long, RowWriter)}.
+   * 
+   * @param row The row
+   * @param col The column
+   * @param value The value to set, or <code>NaN</code> for no data
+   * @throws UnsupportedOperationException if the cells are not stored as
+   *           primitives
+   */
+  public void atRCDouble(int row, int col, double value) {
+    if(store == null) throw new UnsupportedOperationException("Raster cells are not stored as primitives");
+    if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
+    if(Double.isNaN(value)) atXYNoData(col, (nrows - row) - 1);
+    else {
+      clearNoData(row * ncols + col);
+      ((AbstractPrimitiveTable<?>)store).setDouble(row, col, value);
+    }
+  }
+
+  /**
+   * <!-- atRCDouble -->
+   * 
+   * Set the value for the row and column number from a <code>double</code>
+   * while writing a block of rows in parallel with others. The mask of cells
+   * with no data is only read, and any change to it is recorded to be made
+   * once all the blocks have been written. Each cell should be written at most
+   * once until then.
+   * 
+   * @see #atRCDouble(int, int, double)
+   * @param row The row
+   * @param col The column
+   * @param value The value to set, or <code>NaN</code> for no data
+   * @param changes The changes to the mask made by the block
+   */
+  void atRCDouble(int row, int col, double value, NoDataChanges changes) {
+    if(store == null) throw new UnsupportedOperationException("Raster cells are not stored as primitives");
+    if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
+    int ix = row * ncols + col;
+    if(Double.isNaN(value)) changes.add(ix);
+    else {
+      if(nodata.get(ix)) changes.add(~ix);
+      ((AbstractPrimitiveTable<?>)store).setDouble(row, col, value);
+    }
+  }
+
+  /**
+   * <!-- atRCNoData -->
+   * 
+   * Stipulate that there is no data in a cell while writing a block of rows in
+   * parallel with others, once all the blocks have been written.
+   * 
+   * @param row The row
+   * @param col The column
+   * @param changes The changes to the mask made by the block
+   */
+  void atRCNoData(int row, int col, NoDataChanges changes) {
+    if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
+    changes.add(row * ncols + col);
+  }
+
+  /**
+   * <!-- RowWriter -->
+   * 
+   * Something writing to a block of rows of a raster
+   * 
+   * @author Gary Polhill
+   */
+  interface RowWriter {
+    /**
+     * <!-- rows -->
+     * 
+     * @param startRow The first row of the block
+     * @param endRow One more than the last row of the block
+     * @param changes Where to record changes to the mask of cells with no
+     *          data, to pass to {@link GISRaster#atRCDouble(int, int, double,
+     *          NoDataChanges)} or {@link GISRaster#atRCNoData(int, int,
+     *          NoDataChanges)}
+     */
+    public void rows(int startRow, int endRow, NoDataChanges changes);
+  }
+
+  /**
+   * <!-- writeRows -->
+   * 
+   * <p>
+   * Write to the raster in parallel blocks of rows. A {@link NoDataMask}
+   * cannot be read safely while another thread is changing it (a
+   * {@link SparseNoDataMask} moves its entries about), so rather than change
+   * the mask as they go, the blocks each record their changes, and these are
+   * all made at once when every block has been written.
+   * </p>
+   * 
+   * <p>
+   * The rows of the blocks need not be rows of this raster (they might, for
+   * example, be the rows of a window of it), but blocks must write to
+   * different cells.
+   * </p>
+   * 
+   * @see ParallelRows#reduce(int, int, long, ParallelRows.Reduction)
+   * @param blockRows The number of rows to split into blocks
+   * @param blockCols The number of columns in those rows (used to size the
+   *          blocks)
+   * @param minBlockCells The least number of cells to have in a block (0 for
+   *          the usual number)
+   * @param writer What to write to each block
+   */
+  void writeRows(int blockRows, int blockCols, long minBlockCells, final RowWriter writer) {
+    NoDataChanges changes =
+      ParallelRows.reduce(blockRows, blockCols, minBlockCells, new ParallelRows.Reduction<NoDataChanges>() {
+        public NoDataChanges rows(int startRow, int endRow) {
+          NoDataChanges block = new NoDataChanges();
+          writer.rows(startRow, endRow, block);
+          return block;
+        }
+
+        public NoDataChanges combine(NoDataChanges upper, NoDataChanges lower) {
+          return upper.addAll(lower);
+        }
+      });
+    // The changes are indices of cells of this raster, whatever the blocks
+    synchronized(this) {
+      for(int i = 0; i < changes.n; i++) {
+        int ix = changes.changes[i];
+        if(ix >= 0) setNoData(ix / ncols, ix % ncols);
+        else
+          nodata.clear(~ix);
+      }
+    }
+  }
+
+  /**
+   * <!-- NoDataChanges -->
+   * 
+   * Changes to the mask of cells with no data recorded while writing a block
+   * of rows, in the order they were made
+   * 
+   * @see GISRaster#writeRows(int, int, long, RowWriter)
+   * @author Gary Polhill
+   */
+  static final class NoDataChanges {
+    /**
+     * The index of each cell to be given no data, or the complement of the
+     * index of each cell to be given data
+     */
+    private int[] changes = new int[16];
+
+    /**
+     * The number of changes
+     */
+    private int n = 0;
+
+    /**
+     * <!-- add -->
+     * 
+     * @param change The index of a cell to be given no data, or its
+     *          complement if it is to be given data
+     */
+    private void add(int change) {
+      if(n == changes.length) changes = Arrays.copyOf(changes, n * 2);
+      changes[n++] = change;
+    }
+
+    /**
+     * <!-- addAll -->
+     * 
+     * @param other Changes made after these
+     * @return These changes, followed by the others
+     */
+    private NoDataChanges addAll(NoDataChanges other) {
+      if(n + other.n > changes.length) changes = Arrays.copyOf(changes, Math.max(n + other.n, n * 2));
+      System.arraycopy(other.changes, 0, changes, n, other.n);
+      n += other.n;
+      return this;
     }
   }
 
@@ -358,8 +628,9 @@ public class GISRaster<T> extends Table<T> {
    */
   @Override
   public T atXY(int x, int y) {
-    if(isAtXYNoData(x, y)) return nodata_value;
-    return super.atXY(x, y);
+    if(x < 0 || x >= ncols || y < 0 || y >= nrows) throw new ArrayIndexOutOfBoundsException();
+    int row = (nrows - y) - 1;
+    return isNoData(row, x) ? nodata_value : getCell(row, x);
   }
 
   /**
@@ -375,8 +646,8 @@ public class GISRaster<T> extends Table<T> {
    */
   @Override
   public T atXFlipY(int x, int y) {
-    if(isAtXYNoData(x, (nrows - y) - 1)) return nodata_value;
-    return super.atXFlipY(x, y);
+    if(x < 0 || x >= ncols || y < 0 || y >= nrows) throw new ArrayIndexOutOfBoundsException();
+    return isNoData(y, x) ? nodata_value : getCell(y, x);
   }
 
   /**
@@ -391,8 +662,8 @@ public class GISRaster<T> extends Table<T> {
    */
   @Override
   public T atRC(int row, int col) {
-    if(isAtXYNoData(col, (nrows - row) - 1)) return nodata_value;
-    return super.atRC(row, col);
+    if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
+    return isNoData(row, col) ? nodata_value : getCell(row, col);
   }
 
   /**
@@ -425,7 +696,8 @@ public class GISRaster<T> extends Table<T> {
   public void atXY(int x, int y, T value) {
     if(value == null || value.equals(nodata_value)) atXYNoData(x, y);
     else {
-      if(isAtXYNoData(x, y) && nodata != null && nodata.containsKey(x) && nodata.get(x).contains(y)) nodata.get(x).remove(y);
+      if(x < 0 || x >= ncols || y < 0 || y >= nrows) throw new ArrayIndexOutOfBoundsException();
+      clearNoData(((nrows - y) - 1) * ncols + x);
       super.atXY(x, y, value);
     }
   }
@@ -461,6 +733,24 @@ public class GISRaster<T> extends Table<T> {
     atXY(col, (nrows - row) - 1, value);
   }
 
+  /**
+   * <!-- fill -->
+   * 
+   * Set every cell in the raster to the same value. If this is
+   * <code>null</code> or the 'no data' value, there will be no data in any
+   * cell.
+   * 
+   * @see uk.ac.macaulay.util.Table#fill(java.lang.Object)
+   * @param value The value to set
+   */
+  @Override
+  public void fill(T value) {
+    synchronized(this) {
+      nodata.clear();
+    }
+    super.fill((value == null || value.equals(nodata_value)) ? null : value);
+  }
+
   /**
    * <!-- atXYNoData -->
    * 
@@ -482,18 +772,46 @@ public class GISRaster<T> extends Table<T> {
    * 
    * Stipulate that there is no data in the specified cell. This will throw an
    * exception if the cell co-ordinates are out of bounds, and set the current
-   * entry in that cell to <code>null</code>, deleting any entry therein.
+   * entry in that cell to <code>null</code>, deleting any entry therein. (If
+   * the raster is using an {@link ImplicitNoDataMask}, the entry is set to the
+   * 'no data' value instead.)
    * 
    * @param x
    * @param y
    */
-  public void atXYNoData(int x, int y) {
-    atXY(x, y, null);
-    if(nodata == null) nodata = new HashMap<Integer, Set<Integer>>();
-    if(!nodata.containsKey(x)) {
-      nodata.put(x, new HashSet<Integer>());
+  public synchronized void atXYNoData(int x, int y) {
+    if(x < 0 || x >= ncols || y < 0 || y >= nrows) throw new ArrayIndexOutOfBoundsException();
+    setNoData((nrows - y) - 1, x);
+  }
+
+  /**
+   * <!-- setNoData -->
+   * 
+   * Give a cell no data, without checking the row and column are in range.
+   * The caller must hold the lock on the raster.
+   * 
+   * @param row The row
+   * @param col The column
+   */
+  private void setNoData(int row, int col) {
+    if(nodata.isImplicit()) setCell(row, col, nodata_value);
+    else {
+      setCell(row, col, null);
+      nodata.set(row * ncols + col);
     }
-    nodata.get(x).add(y);
+  }
+
+  /**
+   * <!-- clearNoData -->
+   * 
+   * Record that a cell is no longer stipulated to have no data. The mask is
+   * read as well as changed with the lock held, as another thread changing it
+   * could otherwise make it give the wrong answer.
+   * 
+   * @param ix The index of the cell
+   */
+  private synchronized void clearNoData(int ix) {
+    if(nodata.get(ix)) nodata.clear(ix);
   }
 
   /**
@@ -537,9 +855,140 @@ public class GISRaster<T> extends Table<T> {
    * @return <code>true</code> if there is no data for the given cell.
    */
   public boolean isAtXYNoData(int x, int y) {
-    T entry = super.atXY(x, y);
-    return entry == null || (nodata != null && nodata.containsKey(x) && nodata.get(x).contains(y))
-      || entry.equals(nodata_value);
+    if(x < 0 || x >= ncols || y < 0 || y >= nrows) throw new ArrayIndexOutOfBoundsException();
+    return isNoData((nrows - y) - 1, x);
+  }
+
+  /**
+   * <!-- isNoData -->
+   * 
+   * Check whether a cell has a 'no data' entry, without checking the row and
+   * column are in range. The mask is checked first, and then the entry, which
+   * is compared with the 'no data' value without boxing it if the cells are
+   * stored as primitives.
+   * 
+   * @param row The row
+   * @param col The column
+   * @return <code>true</code> if there is no data for the given cell.
+   */
+  boolean isNoData(int row, int col) {
+    if(nodata.get(row * ncols + col)) return true;
+    if(store != null) {
+      AbstractPrimitiveTable<?> primitives = (AbstractPrimitiveTable<?>)store;
+      return primitives.isNull(row, col) || (nodata_value != null && primitives.cellEquals(row, col, nodata_value));
+    }
+    T entry = getCell(row, col);
+    return entry == null || entry.equals(nodata_value);
+  }
+
+  /**
+   * <!-- getNoDataMask -->
+   * 
+   * @return The mask recording cells stipulated as having no data
+   */
+  public NoDataMask getNoDataMask() {
+    return nodata;
+  }
+
+  /**
+   * <!-- setNoDataMask -->
+   * 
+   * Change the way cells stipulated as having no data are recorded. By default,
+   * a {@link DenseNoDataMask} is used, which is fastest, but uses one bit per
+   * cell once any cell has been stipulated as having no data. A
+   * {@link SparseNoDataMask} uses less memory when such cells are few or
+   * clustered, and an {@link ImplicitNoDataMask} uses none, relying instead on
+   * the 'no data' value being written to the cells. Cells already stipulated
+   * as having no data are recorded in the new mask.
+   * 
+   * @param mask The new mask, which should have no cells set, and (if it is a
+   *          {@link DenseNoDataMask}) have <code>nrows() * ncols()</code>
+   *          cells
+   */
+  public synchronized void setNoDataMask(NoDataMask mask) {
+    for(int i = nodata.nextSetBit(0); i >= 0; i = nodata.nextSetBit(i + 1)) {
+      if(mask.isImplicit()) setCell(i / ncols, i % ncols, nodata_value);
+      else
+        mask.set(i);
+    }
+    nodata = mask;
+  }
+
+  /**
+   * <!-- countNoData -->
+   * 
+   * Count the cells with no data, in parallel blocks of rows.
+   * 
+   * @return The number of cells for which {@link #isAtXYNoData(int, int)}
+   *         would return <code>true</code>
+   */
+  public int countNoData() {
+    return ParallelRows.reduce(nrows, ncols, new ParallelRows.Reduction<Integer>() {
+      public Integer rows(int startRow, int endRow) {
+        int n = 0;
+        for(int r = startRow; r < endRow; r++) {
+          for(int c = 0; c < ncols; c++) {
+            if(isNoData(r, c)) n++;
+          }
+        }
+        return n;
+      }
+
+      public Integer combine(Integer upper, Integer lower) {
+        return upper + lower;
+      }
+    });
+  }
+
+  /**
+   * <!-- forEachValidCell -->
+   * 
+   * Visit every cell that has data, in parallel blocks of rows. Within a
+   * block, cells are visited row by row.
+   * 
+   * @param visitor The visitor, which is given the row, column and entry of
+   *          each cell with data
+   */
+  public void forEachValidCell(final CellVisitor<? super T> visitor) {
+    ParallelRows.forEach(nrows, ncols, (startRow, endRow) -> {
+      for(int r = startRow; r < endRow; r++) {
+        for(int c = 0; c < ncols; c++) {
+          if(!isNoData(r, c)) visitor.visit(r, c, getCell(r, c));
+        }
+      }
+    });
+  }
+
+  /**
+   * <!-- newRaster -->
+   * 
+   * Make an empty raster with the same 'no data' value and way of storing
+   * cells as this one (in memory, if this one is mapped from a file), but with
+   * a different size and georeference.
+   * 
+   * @param nrows Number of rows in the new raster
+   * @param ncols Number of columns in the new raster
+   * @param originX Georeference for the left edge of the new raster
+   * @param originY Georeference for the bottom edge of the new raster
+   * @param cellSize Length of one side of the cells of the new raster
+   * @return The new raster
+   */
+  @SuppressWarnings("unchecked")
+  GISRaster<T> newRaster(int nrows, int ncols, double originX, double originY, double cellSize) {
+    if(store == null) return new GISRaster<T>(nrows, ncols, originX, originY, cellSize, nodata_value);
+    AbstractPrimitiveTable<?> table = ((AbstractPrimitiveTable<?>)store).newTable(nrows, ncols);
+    return new GISRaster<T>((Table<T>)table, originX, originY, cellSize, nodata_value, table);
+  }
+
+  /**
+   * <!-- pyramid -->
+   * 
+   * @see GISRasterPyramid
+   * @param aggregator How to combine the cells of one level into the next
+   * @return A pyramid of coarser versions of this raster
+   */
+  public GISRasterPyramid<T> pyramid(GISRasterPyramid.Aggregator<T> aggregator) {
+    return new GISRasterPyramid<T>(this, aggregator);
   }
 
   /**
@@ -0,0 +1,488 @@
+/*
+ * uk.ac.macaulay.util: GISRasterBinaryFile.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * <!-- GISRasterBinaryFile -->
+ *
+ * <p>
+ * Read and write rasters of <code>Integer</code>, <code>Float</code> or
+ * <code>Double</code> in a simple binary format: a {@link RasterFileHeader}
+ * followed by the cells row by row from the top, as little-endian numbers,
+ * and optionally a CRC-32 checksum of each block of rows. Reading such a file
+ * needs no parsing: each block of rows is read into a direct buffer and copied
+ * into the raster's array in bulk, so a raster can be loaded about as quickly
+ * as the disk can supply it. Converting an ARC ASCII grid to this format once
+ * saves parsing it every time it is used.
+ * </p>
+ *
+ * <p>
+ * Unlike a {@link MappedGISRaster}, the raster read is held in memory, and
+ * changes to it are not written back to the file.
+ * </p>
+ *
+ * @see GISRasterReader
+ * @author Gary Polhill
+ */
+public final class GISRasterBinaryFile {
+  /**
+   * Suggested file name extension
+   */
+  public static final String EXTENSION = ".bgrid";
+
+  /**
+   * Name of the format, for error messages
+   */
+  private static final String FORMAT = "binary raster";
+
+  /**
+   * Largest number of rows in a block
+   */
+  public static final int MAX_BLOCK_ROWS = 256;
+
+  /**
+   * Largest number of bytes in a block, unless a row is bigger
+   */
+  public static final int MAX_BLOCK_BYTES = 1 << 24;
+
+  private GISRasterBinaryFile() {
+    // Stop instances
+  }
+
+  /**
+   * <!-- write -->
+   *
+   * Write a raster to a file. Cells with no data are written as the 'no data'
+   * value; if there is none, that from {@link MappedGISRaster#noDataFor(Class)}
+   * is used, and put in the header, so that they still have no data when the
+   * file is read.
+   *
+   * @param <T> The type of entry in the raster
+   * @param filename The file to write (any existing file is overwritten)
+   * @param type The type of entry in the raster (<code>Integer</code>,
+   *          <code>Float</code> or <code>Double</code>)
+   * @param raster The raster
+   * @param checksums <code>true</code> to write a checksum of each block of
+   *          rows
+   * @return The header written to the file
+   * @throws IOException
+   */
+  public static <T extends Number> RasterFileHeader write(String filename, Class<T> type, GISRaster<T> raster,
+      boolean checksums) throws IOException {
+    RasterFileHeader.CellType cellType = RasterFileHeader.CellType.forClass(type);
+    int ncols = raster.ncols();
+    long rowBytes = (long)ncols * cellType.bytes();
+    int blockRows = (int)Math.max(1L, Math.min(MAX_BLOCK_ROWS, MAX_BLOCK_BYTES / Math.max(rowBytes, 1L)));
+    if(blockRows * rowBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Rows of " + ncols + " columns are too long to write");
+    }
+    T nodata_value = raster.getNoDataValue();
+    if(nodata_value == null) nodata_value = MappedGISRaster.noDataFor(type);
+    RasterFileHeader header =
+      new RasterFileHeader(RasterFileHeader.Layout.ROWS, cellType, checksums ? RasterFileHeader.HAS_CHECKSUMS : 0,
+          raster.nrows(), ncols, blockRows, raster.getOriginX(), raster.getOriginY(), raster.getCellSize(),
+          nodata_value);
+    double nodata = header.getNoDataValue().doubleValue();
+
+    RandomAccessFile file = new RandomAccessFile(filename, "rw");
+    try {
+      FileChannel channel = file.getChannel();
+      file.setLength(0L);
+      ByteBuffer buffer = ByteBuffer.allocateDirect((int)Math.max(RasterFileHeader.SIZE, blockRows * rowBytes));
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      header.write(buffer);
+      buffer.flip();
+      writeFully(channel, buffer);
+
+      int[] crcs = new int[header.ntiles()];
+      CRC32 crc = new CRC32();
+      for(int block = 0; block < crcs.length; block++) {
+        buffer.clear();
+        int endRow = Math.min(raster.nrows(), (block + 1) * blockRows);
+        for(int row = block * blockRows; row < endRow; row++) {
+          for(int col = 0; col < ncols; col++) {
+            double value = raster.atRCDouble(row, col);
+            if(Double.isNaN(value)) value = nodata;
+            switch(cellType) {
+            case INT:
+              buffer.putInt((int)value);
+              break;
+            case FLOAT:
+              buffer.putFloat((float)value);
+              break;
+            default:
+              buffer.putDouble(value);
+            }
+          }
+        }
+        buffer.flip();
+        if(checksums) {
+          crc.reset();
+          crc.update(buffer.duplicate());
+          crcs[block] = (int)crc.getValue();
+        }
+        writeFully(channel, buffer);
+      }
+
+      if(checksums) {
+        buffer.clear();
+        for(int block = 0; block < crcs.length; block++) {
+          if(!buffer.hasRemaining()) {
+            buffer.flip();
+            writeFully(channel, buffer);
+            buffer.clear();
+          }
+          buffer.putInt(crcs[block]);
+        }
+        buffer.flip();
+        writeFully(channel, buffer);
+      }
+    }
+    finally {
+      file.close();
+    }
+    return header;
+  }
+
+  /**
+   * <!-- read -->
+   *
+   * Read a raster from a file, storing its cells in an {@link IntTable},
+   * {@link FloatTable} or {@link DoubleTable} according to the cell type in
+   * the file's header.
+   *
+   * @param filename The file
+   * @return The raster
+   * @throws IOException
+   * @throws FileFormatException if the file is not in the format, is too
+   *           short, or a block of rows does not match its checksum
+   */
+  public static GISRaster<?> read(String filename) throws IOException {
+    return readRaster(filename, null, null);
+  }
+
+  /**
+   * <!-- read -->
+   *
+   * Read a raster from a file, checking it has the expected type of entry.
+   *
+   * @param <T> The type of entry in the raster
+   * @param filename The file
+   * @param type The class of entry expected
+   * @return The raster
+   * @throws IOException
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends Number> GISRaster<T> read(String filename, Class<T> type) throws IOException {
+    return (GISRaster<T>)readRaster(filename, type, null);
+  }
+
+  /**
+   * <!-- readWindow -->
+   *
+   * Read a window of rows and columns from a raster file, seeking to the
+   * cells of the window in each row rather than reading the whole file. The
+   * checksums of the blocks of rows are not checked, as they cover cells
+   * outside the window.
+   *
+   * @param filename The file
+   * @param firstRow The first row of the window
+   * @param lastRow The last row of the window + 1
+   * @param firstCol The first column of the window
+   * @param lastCol The last column of the window + 1
+   * @return A raster of the cells in the window, with its origin moved to the
+   *         bottom left of the window
+   * @throws IOException
+   */
+  public static GISRaster<?> readWindow(String filename, int firstRow, int lastRow, int firstCol, int lastCol)
+      throws IOException {
+    return readRaster(filename, null, new int[] { firstRow, lastRow, firstCol, lastCol });
+  }
+
+  /**
+   * <!-- readRaster -->
+   *
+   * @param filename The file
+   * @param type The class of entry expected, or <code>null</code> if any will
+   *          do
+   * @param window The first and last + 1 rows, and first and last + 1
+   *          columns to read, or <code>null</code> to read them all
+   * @return The raster
+   * @throws IOException
+   */
+  private static GISRaster<?> readRaster(String filename, Class<?> type, int[] window) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(filename, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate(RasterFileHeader.SIZE);
+      readFully(filename, channel, buffer, 0L);
+      buffer.flip();
+      RasterFileHeader header = RasterFileHeader.read(buffer, filename);
+      if(header.getLayout() != RasterFileHeader.Layout.ROWS) {
+        throw new FileFormatException(filename, FORMAT, "row layout", header.getLayout().toString());
+      }
+      if(type != null && header.getCellType().getType() != type) {
+        throw new FileFormatException(filename, FORMAT, type.getSimpleName() + " cells", header.getCellType()
+            .getType().getSimpleName()
+          + " cells");
+      }
+      long expected = RasterFileHeader.SIZE + header.payloadBytes() + header.checksumBytes();
+      if(channel.size() < expected) {
+        throw new FileFormatException(filename, FORMAT, expected + " bytes", channel.size() + " bytes");
+      }
+      double originX = header.getOriginX();
+      double originY = header.getOriginY();
+      AbstractPrimitiveTable<?> table;
+      if(window == null) {
+        if((long)header.nrows() * (long)header.ncols() > Integer.MAX_VALUE
+          || header.tileBytes() > Integer.MAX_VALUE) {
+          throw new FileFormatException(filename, FORMAT, "a raster that will fit in an array", header.nrows()
+            + " rows by " + header.ncols() + " columns");
+        }
+        table = readCells(filename, channel, header);
+      }
+      else {
+        if(window[0] < 0 || window[1] > header.nrows() || window[0] >= window[1] || window[2] < 0
+          || window[3] > header.ncols() || window[2] >= window[3]) {
+          throw new IllegalArgumentException("Window of rows " + window[0] + " to " + window[1] + " and columns "
+            + window[2] + " to " + window[3] + " is not in the " + header.nrows() + " rows and " + header.ncols()
+            + " columns of " + filename);
+        }
+        if((long)(window[1] - window[0]) * (long)(window[3] - window[2]) > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("Window of " + (window[1] - window[0]) + " rows by "
+            + (window[3] - window[2]) + " columns will not fit in an array");
+        }
+        table = readWindowCells(filename, channel, header, window);
+        originX += window[2] * header.getCellSize();
+        originY += (header.nrows() - window[1]) * header.getCellSize();
+      }
+      switch(header.getCellType()) {
+      case INT:
+        return new GISRaster<Integer>((IntTable)table, originX, originY, header.getCellSize(), (Integer)header
+            .getNoDataValue(), table);
+      case FLOAT:
+        return new GISRaster<Float>((FloatTable)table, originX, originY, header.getCellSize(), (Float)header
+            .getNoDataValue(), table);
+      default:
+        return new GISRaster<Double>((DoubleTable)table, originX, originY, header.getCellSize(), (Double)header
+            .getNoDataValue(), table);
+      }
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  /**
+   * <!-- readHeader -->
+   *
+   * Read just the header of a file
+   *
+   * @param filename The file
+   * @return The header
+   * @throws IOException
+   */
+  public static RasterFileHeader readHeader(String filename) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(filename, "r");
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate(RasterFileHeader.SIZE);
+      readFully(filename, file.getChannel(), buffer, 0L);
+      buffer.flip();
+      return RasterFileHeader.read(buffer, filename);
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  /**
+   * <!-- readCells -->
+   *
+   * @param filename The file (for error messages)
+   * @param channel The file
+   * @param header The header read from the file
+   * @return The cells
+   * @throws IOException
+   */
+  private static AbstractPrimitiveTable<?> readCells(String filename, FileChannel channel, RasterFileHeader header)
+      throws IOException {
+    int nrows = header.nrows();
+    int ncols = header.ncols();
+    int blockRows = header.getTileSize();
+    int n = nrows * ncols;
+    RasterFileHeader.CellType cellType = header.getCellType();
+    int[] ints = cellType == RasterFileHeader.CellType.INT ? new int[n] : null;
+    float[] floats = cellType == RasterFileHeader.CellType.FLOAT ? new float[n] : null;
+    double[] doubles = cellType == RasterFileHeader.CellType.DOUBLE ? new double[n] : null;
+
+    boolean checksums = header.hasFlag(RasterFileHeader.HAS_CHECKSUMS);
+    ByteBuffer crcs = null;
+    if(checksums) {
+      crcs = ByteBuffer.allocate((int)header.checksumBytes()).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(filename, channel, crcs, RasterFileHeader.SIZE + header.payloadBytes());
+      crcs.flip();
+    }
+    CRC32 crc = new CRC32();
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect((int)Math.min(header.tileBytes(), header.payloadBytes()));
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    long position = RasterFileHeader.SIZE;
+    for(int block = 0; block < header.ntiles(); block++) {
+      int startRow = block * blockRows;
+      int cells = (Math.min(nrows, startRow + blockRows) - startRow) * ncols;
+      buffer.clear();
+      buffer.limit(cells * cellType.bytes());
+      readFully(filename, channel, buffer, position);
+      position += buffer.limit();
+      buffer.flip();
+      if(checksums) {
+        crc.reset();
+        crc.update(buffer.duplicate());
+        int expected = crcs.getInt();
+        if((int)crc.getValue() != expected) {
+          throw new FileFormatException(filename, FORMAT, "checksum " + Integer.toHexString(expected) + " for rows "
+            + startRow + " to " + (startRow + cells / ncols - 1), Integer.toHexString((int)crc.getValue()));
+        }
+      }
+      switch(cellType) {
+      case INT:
+        buffer.asIntBuffer().get(ints, startRow * ncols, cells);
+        break;
+      case FLOAT:
+        buffer.asFloatBuffer().get(floats, startRow * ncols, cells);
+        break;
+      default:
+        buffer.asDoubleBuffer().get(doubles, startRow * ncols, cells);
+      }
+    }
+
+    switch(cellType) {
+    case INT:
+      return new IntTable(nrows, ncols, ints);
+    case FLOAT:
+      return new FloatTable(nrows, ncols, floats);
+    default:
+      return new DoubleTable(nrows, ncols, doubles);
+    }
+  }
+
+  /**
+   * <!-- readWindowCells -->
+   *
+   * @param filename The file (for error messages)
+   * @param channel The file
+   * @param header The header read from the file
+   * @param window The first and last + 1 rows, and first and last + 1
+   *          columns to read
+   * @return The cells in the window
+   * @throws IOException
+   */
+  private static AbstractPrimitiveTable<?> readWindowCells(String filename, FileChannel channel,
+      RasterFileHeader header, int[] window) throws IOException {
+    int nrows = window[1] - window[0];
+    int ncols = window[3] - window[2];
+    int n = nrows * ncols;
+    RasterFileHeader.CellType cellType = header.getCellType();
+    int[] ints = cellType == RasterFileHeader.CellType.INT ? new int[n] : null;
+    float[] floats = cellType == RasterFileHeader.CellType.FLOAT ? new float[n] : null;
+    double[] doubles = cellType == RasterFileHeader.CellType.DOUBLE ? new double[n] : null;
+
+    // Whole rows are contiguous in the file, so are read a block at a time
+
+    boolean wholeRows = ncols == header.ncols();
+    int blockRows = wholeRows ? Math.max(1, Math.min(nrows, MAX_BLOCK_BYTES / (ncols * cellType.bytes()))) : 1;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(blockRows * ncols * cellType.bytes());
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    for(int row = 0; row < nrows; row += blockRows) {
+      int cells = Math.min(blockRows, nrows - row) * ncols;
+      long position =
+        RasterFileHeader.SIZE + ((long)(window[0] + row) * header.ncols() + window[2]) * cellType.bytes();
+      buffer.clear();
+      buffer.limit(cells * cellType.bytes());
+      readFully(filename, channel, buffer, position);
+      buffer.flip();
+      switch(cellType) {
+      case INT:
+        buffer.asIntBuffer().get(ints, row * ncols, cells);
+        break;
+      case FLOAT:
+        buffer.asFloatBuffer().get(floats, row * ncols, cells);
+        break;
+      default:
+        buffer.asDoubleBuffer().get(doubles, row * ncols, cells);
+      }
+    }
+
+    switch(cellType) {
+    case INT:
+      return new IntTable(nrows, ncols, ints);
+    case FLOAT:
+      return new FloatTable(nrows, ncols, floats);
+    default:
+      return new DoubleTable(nrows, ncols, doubles);
+    }
+  }
+
+  /**
+   * <!-- readFully -->
+   *
+   * Fill a buffer from a file
+   *
+   * @param filename The file (for error messages)
+   * @param channel The file
+   * @param buffer The buffer
+   * @param position Where in the file to start reading
+   * @throws IOException
+   */
+  private static void readFully(String filename, FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while(buffer.hasRemaining()) {
+      int n = channel.read(buffer, position);
+      if(n < 0) throw new FileFormatException(filename, FORMAT, buffer.remaining() + " more bytes", null);
+      position += n;
+    }
+  }
+
+  /**
+   * <!-- writeFully -->
+   *
+   * Write all of a buffer to a file
+   *
+   * @param channel The file
+   * @param buffer The buffer
+   * @throws IOException
+   */
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while(buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+}
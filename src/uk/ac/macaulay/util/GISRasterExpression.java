@@ -0,0 +1,582 @@
+/*
+ * uk.ac.macaulay.util: GISRasterExpression.java
+ * 
+ * Copyright (C) 2010 Macaulay Institute
+ * 
+ * This file is part of utils.
+ * 
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * <!-- GISRasterExpression -->
+ * 
+ * <p>
+ * Map algebra: an expression combining rasters cell by cell, such as
+ * </p>
+ * 
+ * <pre>
+ * GISRasterExpression.of(a).times(0.5).plus(GISRasterExpression.of(b)).where(GISRasterExpression.of(c).eq(3))
+ * </pre>
+ * 
+ * <p>
+ * Building an expression does no work. When it is evaluated, each block of
+ * rows works through the expression a row at a time, with a row-sized buffer
+ * for each operation, so no intermediate rasters are made, and the values
+ * are never boxed. Blocks of rows are evaluated in parallel.
+ * </p>
+ * 
+ * <p>
+ * Cells with no data are <code>NaN</code> while the expression is worked
+ * out: the result of any operation on a cell with no data (including
+ * comparisons) has no data, as does anything excluded by
+ * {@link #where(GISRasterExpression)}. Comparisons and logical operations
+ * give 1 for true and 0 for false, and anything other than 0 is taken to be
+ * true. All the rasters in an expression must have the same size, origin and
+ * cell size.
+ * </p>
+ * 
+ * @author Gary Polhill
+ */
+public abstract class GISRasterExpression {
+  /**
+   * <!-- Row -->
+   * 
+   * Evaluation of an expression for one block of rows, with any buffers it
+   * needs
+   * 
+   * @author Gary Polhill
+   */
+  interface Row {
+    /**
+     * <!-- evaluate -->
+     * 
+     * @param row The row to evaluate
+     * @param cells Array to put the value of each cell in the row in
+     */
+    public void evaluate(int row, double[] cells);
+  }
+
+  /**
+   * <!-- getRaster -->
+   * 
+   * @return A raster in the expression, or <code>null</code> if there are
+   *         none
+   */
+  abstract GISRaster<?> getRaster();
+
+  /**
+   * <!-- row -->
+   * 
+   * @param ncols The number of columns in a row
+   * @return An evaluator for the expression, for use in one thread
+   */
+  abstract Row row(int ncols);
+
+  /**
+   * <!-- of -->
+   * 
+   * @param raster A raster of numbers
+   * @return An expression with the values of the raster
+   */
+  public static GISRasterExpression of(final GISRaster<? extends Number> raster) {
+    return new GISRasterExpression() {
+      GISRaster<?> getRaster() {
+        return raster;
+      }
+
+      Row row(final int ncols) {
+        return (row, cells) -> {
+          for(int col = 0; col < ncols; col++) {
+            cells[col] = raster.atRCDouble(row, col);
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * <!-- constant -->
+   * 
+   * @param value A value
+   * @return An expression with the same value in every cell (which has no
+   *         data if the value is <code>NaN</code>)
+   */
+  public static GISRasterExpression constant(final double value) {
+    return new GISRasterExpression() {
+      GISRaster<?> getRaster() {
+        return null;
+      }
+
+      Row row(int ncols) {
+        return (row, cells) -> Arrays.fill(cells, value);
+      }
+    };
+  }
+
+  /**
+   * <!-- apply -->
+   * 
+   * Apply a function to each cell of an expression that has data
+   * 
+   * @param function The function
+   * @param arg The expression
+   * @return An expression with the result of the function
+   */
+  public static GISRasterExpression apply(final DoubleUnaryOperator function, final GISRasterExpression arg) {
+    return new GISRasterExpression() {
+      GISRaster<?> getRaster() {
+        return arg.getRaster();
+      }
+
+      Row row(final int ncols) {
+        final Row argRow = arg.row(ncols);
+        return (row, cells) -> {
+          argRow.evaluate(row, cells);
+          for(int col = 0; col < ncols; col++) {
+            if(!Double.isNaN(cells[col])) cells[col] = function.applyAsDouble(cells[col]);
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * <!-- apply -->
+   * 
+   * Apply a function to each cell of two expressions where both have data
+   * 
+   * @param function The function
+   * @param arg1 The first argument
+   * @param arg2 The second argument
+   * @return An expression with the result of the function
+   */
+  public static GISRasterExpression apply(final DoubleBinaryOperator function, final GISRasterExpression arg1,
+      final GISRasterExpression arg2) {
+    final GISRaster<?> raster = checkRasters(arg1.getRaster(), arg2.getRaster());
+    return new GISRasterExpression() {
+      GISRaster<?> getRaster() {
+        return raster;
+      }
+
+      Row row(final int ncols) {
+        final Row row1 = arg1.row(ncols);
+        final Row row2 = arg2.row(ncols);
+        final double[] cells2 = new double[ncols];
+        return (row, cells) -> {
+          row1.evaluate(row, cells);
+          row2.evaluate(row, cells2);
+          for(int col = 0; col < ncols; col++) {
+            double x = cells[col];
+            double y = cells2[col];
+            cells[col] = (Double.isNaN(x) || Double.isNaN(y)) ? Double.NaN : function.applyAsDouble(x, y);
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * <!-- choose -->
+   * 
+   * @param condition A condition
+   * @param ifTrue The values to use where the condition is true
+   * @param ifFalse The values to use where the condition is false
+   * @return An expression choosing between the two, with no data where the
+   *         condition has no data
+   */
+  public static GISRasterExpression choose(final GISRasterExpression condition, final GISRasterExpression ifTrue,
+      final GISRasterExpression ifFalse) {
+    final GISRaster<?> raster =
+      checkRasters(condition.getRaster(), checkRasters(ifTrue.getRaster(), ifFalse.getRaster()));
+    return new GISRasterExpression() {
+      GISRaster<?> getRaster() {
+        return raster;
+      }
+
+      Row row(final int ncols) {
+        final Row conditionRow = condition.row(ncols);
+        final Row trueRow = ifTrue.row(ncols);
+        final Row falseRow = ifFalse.row(ncols);
+        final double[] trueCells = new double[ncols];
+        final double[] falseCells = new double[ncols];
+        return (row, cells) -> {
+          conditionRow.evaluate(row, cells);
+          trueRow.evaluate(row, trueCells);
+          falseRow.evaluate(row, falseCells);
+          for(int col = 0; col < ncols; col++) {
+            if(!Double.isNaN(cells[col])) cells[col] = cells[col] != 0.0 ? trueCells[col] : falseCells[col];
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * <!-- checkRasters -->
+   * 
+   * @param raster1 A raster in an expression, or <code>null</code>
+   * @param raster2 A raster in another expression, or <code>null</code>
+   * @return One of the rasters, or <code>null</code> if neither is a raster
+   * @throws IllegalArgumentException if the rasters don't line up
+   */
+  private static GISRaster<?> checkRasters(GISRaster<?> raster1, GISRaster<?> raster2) {
+    if(raster1 == null) return raster2;
+    if(raster2 == null) return raster1;
+    if(raster1.nrows != raster2.nrows || raster1.ncols != raster2.ncols
+      || raster1.getOriginX() != raster2.getOriginX() || raster1.getOriginY() != raster2.getOriginY()
+      || raster1.getCellSize() != raster2.getCellSize()) {
+      throw new IllegalArgumentException("Rasters in an expression must have the same size, origin and cell size ("
+        + raster1.nrows + "x" + raster1.ncols + " at (" + raster1.getOriginX() + ", " + raster1.getOriginY()
+        + ") with cell size " + raster1.getCellSize() + " and " + raster2.nrows + "x" + raster2.ncols + " at ("
+        + raster2.getOriginX() + ", " + raster2.getOriginY() + ") with cell size " + raster2.getCellSize() + ")");
+    }
+    return raster1;
+  }
+
+  /**
+   * <!-- plus -->
+   * 
+   * @param arg Expression to add
+   * @return This plus the argument
+   */
+  public GISRasterExpression plus(GISRasterExpression arg) {
+    return apply((x, y) -> x + y, this, arg);
+  }
+
+  /**
+   * <!-- plus -->
+   * 
+   * @param arg Value to add
+   * @return This plus the argument
+   */
+  public GISRasterExpression plus(double arg) {
+    return plus(constant(arg));
+  }
+
+  /**
+   * <!-- minus -->
+   * 
+   * @param arg Expression to subtract
+   * @return This minus the argument
+   */
+  public GISRasterExpression minus(GISRasterExpression arg) {
+    return apply((x, y) -> x - y, this, arg);
+  }
+
+  /**
+   * <!-- minus -->
+   * 
+   * @param arg Value to subtract
+   * @return This minus the argument
+   */
+  public GISRasterExpression minus(double arg) {
+    return minus(constant(arg));
+  }
+
+  /**
+   * <!-- times -->
+   * 
+   * @param arg Expression to multiply by
+   * @return This times the argument
+   */
+  public GISRasterExpression times(GISRasterExpression arg) {
+    return apply((x, y) -> x * y, this, arg);
+  }
+
+  /**
+   * <!-- times -->
+   * 
+   * @param arg Value to multiply by
+   * @return This times the argument
+   */
+  public GISRasterExpression times(double arg) {
+    return times(constant(arg));
+  }
+
+  /**
+   * <!-- dividedBy -->
+   * 
+   * @param arg Expression to divide by
+   * @return This divided by the argument (with no data where the argument is
+   *         0, rather than an infinity)
+   */
+  public GISRasterExpression dividedBy(GISRasterExpression arg) {
+    return apply((x, y) -> y == 0.0 ? Double.NaN : x / y, this, arg);
+  }
+
+  /**
+   * <!-- dividedBy -->
+   * 
+   * @param arg Value to divide by
+   * @return This divided by the argument (with no data everywhere if it is 0)
+   */
+  public GISRasterExpression dividedBy(double arg) {
+    return dividedBy(constant(arg));
+  }
+
+  /**
+   * <!-- min -->
+   * 
+   * @param arg Another expression
+   * @return The lesser of this and the argument
+   */
+  public GISRasterExpression min(GISRasterExpression arg) {
+    return apply(Math::min, this, arg);
+  }
+
+  /**
+   * <!-- max -->
+   * 
+   * @param arg Another expression
+   * @return The greater of this and the argument
+   */
+  public GISRasterExpression max(GISRasterExpression arg) {
+    return apply(Math::max, this, arg);
+  }
+
+  /**
+   * <!-- negate -->
+   * 
+   * @return Minus this
+   */
+  public GISRasterExpression negate() {
+    return apply(x -> -x, this);
+  }
+
+  /**
+   * <!-- abs -->
+   * 
+   * @return The absolute value of this
+   */
+  public GISRasterExpression abs() {
+    return apply(Math::abs, this);
+  }
+
+  /**
+   * <!-- eq -->
+   * 
+   * @param arg Another expression
+   * @return 1 where this equals the argument, 0 elsewhere
+   */
+  public GISRasterExpression eq(GISRasterExpression arg) {
+    return apply((x, y) -> x == y ? 1.0 : 0.0, this, arg);
+  }
+
+  /**
+   * <!-- eq -->
+   * 
+   * @param arg A value
+   * @return 1 where this equals the argument, 0 elsewhere
+   */
+  public GISRasterExpression eq(double arg) {
+    return eq(constant(arg));
+  }
+
+  /**
+   * <!-- ne -->
+   * 
+   * @param arg Another expression
+   * @return 1 where this does not equal the argument, 0 elsewhere
+   */
+  public GISRasterExpression ne(GISRasterExpression arg) {
+    return apply((x, y) -> x != y ? 1.0 : 0.0, this, arg);
+  }
+
+  /**
+   * <!-- ne -->
+   * 
+   * @param arg A value
+   * @return 1 where this does not equal the argument, 0 elsewhere
+   */
+  public GISRasterExpression ne(double arg) {
+    return ne(constant(arg));
+  }
+
+  /**
+   * <!-- lt -->
+   * 
+   * @param arg Another expression
+   * @return 1 where this is less than the argument, 0 elsewhere
+   */
+  public GISRasterExpression lt(GISRasterExpression arg) {
+    return apply((x, y) -> x < y ? 1.0 : 0.0, this, arg);
+  }
+
+  /**
+   * <!-- lt -->
+   * 
+   * @param arg A value
+   * @return 1 where this is less than the argument, 0 elsewhere
+   */
+  public GISRasterExpression lt(double arg) {
+    return lt(constant(arg));
+  }
+
+  /**
+   * <!-- le -->
+   * 
+   * @param arg Another expression
+   * @return 1 where this is less than or equal to the argument, 0 elsewhere
+   */
+  public GISRasterExpression le(GISRasterExpression arg) {
+    return apply((x, y) -> x <= y ? 1.0 : 0.0, this, arg);
+  }
+
+  /**
+   * <!-- le -->
+   * 
+   * @param arg A value
+   * @return 1 where this is less than or equal to the argument, 0 elsewhere
+   */
+  public GISRasterExpression le(double arg) {
+    return le(constant(arg));
+  }
+
+  /**
+   * <!-- gt -->
+   * 
+   * @param arg Another expression
+   * @return 1 where this is greater than the argument, 0 elsewhere
+   */
+  public GISRasterExpression gt(GISRasterExpression arg) {
+    return apply((x, y) -> x > y ? 1.0 : 0.0, this, arg);
+  }
+
+  /**
+   * <!-- gt -->
+   * 
+   * @param arg A value
+   * @return 1 where this is greater than the argument, 0 elsewhere
+   */
+  public GISRasterExpression gt(double arg) {
+    return gt(constant(arg));
+  }
+
+  /**
+   * <!-- ge -->
+   * 
+   * @param arg Another expression
+   * @return 1 where this is greater than or equal to the argument, 0
+   *         elsewhere
+   */
+  public GISRasterExpression ge(GISRasterExpression arg) {
+    return apply((x, y) -> x >= y ? 1.0 : 0.0, this, arg);
+  }
+
+  /**
+   * <!-- ge -->
+   * 
+   * @param arg A value
+   * @return 1 where this is greater than or equal to the argument, 0
+   *         elsewhere
+   */
+  public GISRasterExpression ge(double arg) {
+    return ge(constant(arg));
+  }
+
+  /**
+   * <!-- and -->
+   * 
+   * @param arg Another expression
+   * @return 1 where this and the argument are both true, 0 elsewhere
+   */
+  public GISRasterExpression and(GISRasterExpression arg) {
+    return apply((x, y) -> (x != 0.0 && y != 0.0) ? 1.0 : 0.0, this, arg);
+  }
+
+  /**
+   * <!-- or -->
+   * 
+   * @param arg Another expression
+   * @return 1 where this or the argument is true, 0 elsewhere
+   */
+  public GISRasterExpression or(GISRasterExpression arg) {
+    return apply((x, y) -> (x != 0.0 || y != 0.0) ? 1.0 : 0.0, this, arg);
+  }
+
+  /**
+   * <!-- not -->
+   * 
+   * @return 1 where this is false, 0 elsewhere
+   */
+  public GISRasterExpression not() {
+    return apply(x -> x == 0.0 ? 1.0 : 0.0, this);
+  }
+
+  /**
+   * <!-- where -->
+   * 
+   * @param condition A condition
+   * @return This where the condition is true, and no data elsewhere
+   */
+  public GISRasterExpression where(GISRasterExpression condition) {
+    return choose(condition, this, constant(Double.NaN));
+  }
+
+  /**
+   * <!-- evaluate -->
+   * 
+   * @return A new raster of <code>double</code>s with the value of the
+   *         expression, and the georeference of the rasters in it
+   * @throws IllegalStateException if there are no rasters in the expression
+   */
+  public GISRaster<Double> evaluate() {
+    GISRaster<?> raster = getRaster();
+    if(raster == null) throw new IllegalStateException("There are no rasters in the expression");
+    GISRaster<Double> output = new GISRaster<Double>(new DoubleTable(raster.nrows, raster.ncols),
+        raster.getOriginX(), raster.getOriginY(), raster.getCellSize());
+    evaluate(output);
+    return output;
+  }
+
+  /**
+   * <!-- evaluate -->
+   * 
+   * Evaluate the expression into an existing raster, which may be one of the
+   * rasters in it. Cells with no data in the result are given no data in the
+   * raster.
+   * 
+   * @param output A raster storing its cells as primitives, the same size as
+   *          the rasters in the expression; values are cast to the type of
+   *          primitive stored
+   * @throws UnsupportedOperationException if the output raster does not store
+   *           its cells as primitives
+   * @throws IllegalArgumentException if the output raster does not line up
+   *           with the rasters in the expression
+   */
+  public void evaluate(final GISRaster<? extends Number> output) {
+    if(!output.isPrimitive()) throw new UnsupportedOperationException("Raster cells are not stored as primitives");
+    checkRasters(getRaster(), output);
+    final int ncols = output.ncols;
+    output.writeRows(output.nrows, ncols, 0L, (startRow, endRow, changes) -> {
+      Row evaluator = row(ncols);
+      double[] cells = new double[ncols];
+      for(int row = startRow; row < endRow; row++) {
+        evaluator.evaluate(row, cells);
+        for(int col = 0; col < ncols; col++) {
+          output.atRCDouble(row, col, cells[col], changes);
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,400 @@
+/*
+ * uk.ac.macaulay.util: GISRasterPyramid.java
+ * 
+ * Copyright (C) 2010 Macaulay Institute
+ * 
+ * This file is part of utils.
+ * 
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <!-- GISRasterPyramid -->
+ * 
+ * <p>
+ * A {@link GISRaster} together with a series of coarser versions of it, each
+ * with cells twice the size of the one before, down to a single cell. Each
+ * cell of a level is made by combining the (up to) four cells it covers in
+ * the level before with an {@link Aggregator}, such as the {@link #mean()},
+ * {@link #mode()}, {@link #min()} or {@link #max()}. Cells with no data are
+ * left out, and a cell covering no cells with data has no data itself. The
+ * levels share the origin of the raster, and cover at most one extra cell of
+ * the level before along the top and right edges.
+ * </p>
+ * 
+ * <p>
+ * Queries can then be given a ground resolution, and will be answered from
+ * the coarsest level with cells no bigger than that, which is useful for
+ * drawing the raster zoomed out, or for coarse analyses. The levels are
+ * built in parallel blocks of rows, and, if the raster stores its cells as
+ * primitives, so do the levels. Changes to the raster after the pyramid has
+ * been built are not seen in the levels.
+ * </p>
+ * 
+ * @author Gary Polhill
+ */
+public class GISRasterPyramid<T> {
+  /**
+   * <!-- Aggregator -->
+   * 
+   * A way of combining the cells of one level into a cell of the next
+   * 
+   * @author Gary Polhill
+   */
+  public interface Aggregator<T> {
+    /**
+     * <!-- aggregate -->
+     * 
+     * @param values The entries in the cells with data (from 1 to 4 of them).
+     *          The list is reused for the next cell, so must be copied if it
+     *          is needed after the call returns.
+     * @return The entry for the cell covering them, or <code>null</code> if
+     *         it is to have no data
+     */
+    public T aggregate(List<T> values);
+  }
+
+  /**
+   * <!-- DoubleAggregator -->
+   * 
+   * An {@link Aggregator} that can also combine cells as <code>double</code>s,
+   * which is used instead for rasters storing their cells as primitives. The
+   * result is cast to the type of primitive stored.
+   * 
+   * @author Gary Polhill
+   */
+  public interface DoubleAggregator<T> extends Aggregator<T> {
+    /**
+     * <!-- aggregate -->
+     * 
+     * @param values The entries in the cells with data, in the first
+     *          <code>n</code> elements
+     * @param n The number of cells with data (from 1 to 4)
+     * @return The entry for the cell covering them, or <code>NaN</code> if it
+     *         is to have no data
+     */
+    public double aggregate(double[] values, int n);
+  }
+
+  /**
+   * The levels, with the raster itself first
+   */
+  private final ArrayList<GISRaster<T>> levels;
+
+  /**
+   * The way cells are combined
+   */
+  private final Aggregator<T> aggregator;
+
+  /**
+   * Constructor building all the levels down to a single cell
+   * 
+   * @param raster The raster
+   * @param aggregator The way of combining cells
+   */
+  public GISRasterPyramid(GISRaster<T> raster, Aggregator<T> aggregator) {
+    this(raster, aggregator, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Constructor building up to a maximum number of levels
+   * 
+   * @param raster The raster
+   * @param aggregator The way of combining cells
+   * @param maxLevels The most levels to have, including the raster itself
+   */
+  public GISRasterPyramid(GISRaster<T> raster, Aggregator<T> aggregator, int maxLevels) {
+    this.aggregator = aggregator;
+    levels = new ArrayList<GISRaster<T>>();
+    levels.add(raster);
+    while(levels.size() < maxLevels && (raster.nrows > 1 || raster.ncols > 1)) {
+      raster = downsample(raster);
+      levels.add(raster);
+    }
+  }
+
+  /**
+   * <!-- downsample -->
+   * 
+   * @param raster A level
+   * @return The next level
+   */
+  private GISRaster<T> downsample(final GISRaster<T> raster) {
+    final int nrows = (raster.nrows + 1) / 2;
+    final int ncols = (raster.ncols + 1) / 2;
+    final GISRaster<T> level =
+      raster.newRaster(nrows, ncols, raster.getOriginX(), raster.getOriginY(), raster.getCellSize() * 2.0);
+    final boolean primitive = raster.isPrimitive() && aggregator instanceof DoubleAggregator;
+
+    level.writeRows(nrows, ncols, 0L, (startRow, endRow, changes) -> {
+      double[] doubles = new double[4];
+      List<T> values = new ArrayList<T>(4);
+      for(int row = startRow; row < endRow; row++) {
+        int y = (nrows - row) - 1;
+        for(int x = 0; x < ncols; x++) {
+          int n = 0;
+          values.clear();
+          for(int yy = 2 * y; yy < 2 * y + 2 && yy < raster.nrows; yy++) {
+            int r = (raster.nrows - yy) - 1;
+            for(int c = 2 * x; c < 2 * x + 2 && c < raster.ncols; c++) {
+              if(primitive) {
+                double value = raster.atRCDouble(r, c);
+                if(!Double.isNaN(value)) doubles[n++] = value;
+              }
+              else if(!raster.isNoData(r, c)) {
+                values.add(raster.getCell(r, c));
+                n++;
+              }
+            }
+          }
+          if(primitive) {
+            level.atRCDouble(row, x, n == 0 ? Double.NaN : ((DoubleAggregator<T>)aggregator).aggregate(doubles, n),
+              changes);
+          }
+          else {
+            T value = n == 0 ? null : aggregator.aggregate(values);
+            if(value != null) level.setCell(row, x, value);
+            else if(level.isPrimitive()) level.atRCNoData(row, x, changes);
+          }
+        }
+      }
+    });
+    return level;
+  }
+
+  /**
+   * <!-- nlevels -->
+   * 
+   * @return The number of levels, including the raster itself
+   */
+  public int nlevels() {
+    return levels.size();
+  }
+
+  /**
+   * <!-- getLevel -->
+   * 
+   * @param level The level, where 0 is the raster itself, and each level
+   *          after has cells twice the size
+   * @return The raster for the level
+   */
+  public GISRaster<T> getLevel(int level) {
+    return levels.get(level);
+  }
+
+  /**
+   * <!-- getLevelFor -->
+   * 
+   * @param resolution A ground resolution (in the same units as the cell
+   *          size)
+   * @return The coarsest level with cells no bigger than the resolution, or
+   *         the raster itself if its cells are bigger
+   */
+  public GISRaster<T> getLevelFor(double resolution) {
+    int i = 0;
+    while(i + 1 < levels.size() && levels.get(i + 1).getCellSize() <= resolution) {
+      i++;
+    }
+    return levels.get(i);
+  }
+
+  /**
+   * <!-- atXY -->
+   * 
+   * @see GISRaster#atXY(double, double)
+   * @param x Eastings
+   * @param y Northings
+   * @param resolution Ground resolution
+   * @return The entry at the location in the level for the resolution
+   */
+  public T atXY(double x, double y, double resolution) {
+    return getLevelFor(resolution).atXY(x, y);
+  }
+
+  /**
+   * <!-- isAtXYNoData -->
+   * 
+   * @see GISRaster#isAtXYNoData(double, double)
+   * @param x Eastings
+   * @param y Northings
+   * @param resolution Ground resolution
+   * @return <code>true</code> if there is no data at the location in the
+   *         level for the resolution
+   */
+  public boolean isAtXYNoData(double x, double y, double resolution) {
+    return getLevelFor(resolution).isAtXYNoData(x, y);
+  }
+
+  /**
+   * <!-- getAggregator -->
+   * 
+   * @return The way cells were combined to make the levels
+   */
+  public Aggregator<T> getAggregator() {
+    return aggregator;
+  }
+
+  /**
+   * <!-- mean -->
+   * 
+   * @param <T> The type of entry
+   * @return An aggregator taking the mean of the cells with data. For
+   *         integer types, this is truncated, as by a cast.
+   */
+  public static <T extends Number> Aggregator<T> mean() {
+    return new DoubleAggregator<T>() {
+      public double aggregate(double[] values, int n) {
+        double sum = 0.0;
+        for(int i = 0; i < n; i++) {
+          sum += values[i];
+        }
+        return sum / n;
+      }
+
+      public T aggregate(List<T> values) {
+        int n = values.size();
+        double[] doubles = new double[n];
+        for(int i = 0; i < n; i++) {
+          doubles[i] = values.get(i).doubleValue();
+        }
+        return convert(aggregate(doubles, n), values.get(0));
+      }
+    };
+  }
+
+  /**
+   * <!-- min -->
+   * 
+   * @param <T> The type of entry
+   * @return An aggregator taking the least of the cells with data
+   */
+  public static <T extends Comparable<? super T>> Aggregator<T> min() {
+    return new DoubleAggregator<T>() {
+      public double aggregate(double[] values, int n) {
+        double min = values[0];
+        for(int i = 1; i < n; i++) {
+          min = Math.min(min, values[i]);
+        }
+        return min;
+      }
+
+      public T aggregate(List<T> values) {
+        T min = values.get(0);
+        for(T value: values) {
+          if(value.compareTo(min) < 0) min = value;
+        }
+        return min;
+      }
+    };
+  }
+
+  /**
+   * <!-- max -->
+   * 
+   * @param <T> The type of entry
+   * @return An aggregator taking the greatest of the cells with data
+   */
+  public static <T extends Comparable<? super T>> Aggregator<T> max() {
+    return new DoubleAggregator<T>() {
+      public double aggregate(double[] values, int n) {
+        double max = values[0];
+        for(int i = 1; i < n; i++) {
+          max = Math.max(max, values[i]);
+        }
+        return max;
+      }
+
+      public T aggregate(List<T> values) {
+        T max = values.get(0);
+        for(T value: values) {
+          if(value.compareTo(max) > 0) max = value;
+        }
+        return max;
+      }
+    };
+  }
+
+  /**
+   * <!-- mode -->
+   * 
+   * Use for categorical rasters. Where there is a tie, the entry that comes
+   * first is used, the cells being in the order bottom left, bottom right, top
+   * left, top right.
+   * 
+   * @param <T> The type of entry
+   * @return An aggregator taking the most common entry of the cells with data
+   */
+  public static <T> Aggregator<T> mode() {
+    return new DoubleAggregator<T>() {
+      public double aggregate(double[] values, int n) {
+        int best = 0;
+        int bestCount = 0;
+        for(int i = 0; i < n; i++) {
+          int count = 0;
+          for(int j = i; j < n; j++) {
+            if(values[j] == values[i]) count++;
+          }
+          if(count > bestCount) {
+            best = i;
+            bestCount = count;
+          }
+        }
+        return values[best];
+      }
+
+      public T aggregate(List<T> values) {
+        int n = values.size();
+        int best = 0;
+        int bestCount = 0;
+        for(int i = 0; i < n; i++) {
+          int count = 0;
+          for(int j = i; j < n; j++) {
+            if(values.get(j).equals(values.get(i))) count++;
+          }
+          if(count > bestCount) {
+            best = i;
+            bestCount = count;
+          }
+        }
+        return values.get(best);
+      }
+    };
+  }
+
+  /**
+   * <!-- convert -->
+   * 
+   * @param <T> The type of entry
+   * @param value A value
+   * @param like An entry of the type to convert the value to
+   * @return The value, as the same type of {@link Number} as the entry
+   */
+  @SuppressWarnings("unchecked")
+  private static <T extends Number> T convert(double value, T like) {
+    if(like instanceof Double) return (T)Double.valueOf(value);
+    if(like instanceof Float) return (T)Float.valueOf((float)value);
+    if(like instanceof Long) return (T)Long.valueOf((long)value);
+    if(like instanceof Integer) return (T)Integer.valueOf((int)value);
+    if(like instanceof Short) return (T)Short.valueOf((short)value);
+    if(like instanceof Byte) return (T)Byte.valueOf((byte)value);
+    throw new IllegalArgumentException("Cannot take the mean of entries of " + like.getClass());
+  }
+}
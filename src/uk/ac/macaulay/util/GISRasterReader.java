@@ -49,7 +49,8 @@ import javax.imageio.ImageIO;
  * names), then it will create a GISKeyedRaster<?>, again, with datatypes
  * String, Double or Integer. A GISRaster<?> can be converted to a
  * GISKeyedRaster<?> if it is given a legend, mapping symbolic values onto
- * colours.
+ * colours. Files with the {@link GISRasterBinaryFile#EXTENSION} or
+ * {@link MappedGISRaster#EXTENSION} extensions are read as binary rasters.
  * 
  * @author Gary Polhill
  */
@@ -73,7 +74,35 @@ public class GISRasterReader {
   public static final String XPM_CELLSIZE = "cellsize";
 
   public GISRasterReader(String filename) throws IOException {
+    this(filename, false);
+  }
+
+  /**
+   * Constructor, with the option of reading an ARC ASCII grid in parallel with
+   * a {@link ParallelGridASCIIReader}, which is much faster for large grids
+   * but needs all the cells to be numbers, and the file to be local.
+   * 
+   * @param filename The file to read
+   * @param parallel <code>true</code> to read an ARC ASCII grid in parallel
+   * @throws IOException
+   */
+  public GISRasterReader(String filename, boolean parallel) throws IOException {
     this.filename = filename;
+    if(filename.endsWith(MappedGISRaster.EXTENSION)) {
+      MappedGISRaster<?> mapped = MappedGISRaster.open(filename, false);
+      raster = mapped;
+      rasterType = mapped.getCellType().getType();
+      return;
+    }
+    if(filename.endsWith(GISRasterBinaryFile.EXTENSION)) {
+      raster = GISRasterBinaryFile.read(filename);
+      rasterType = GISRasterBinaryFile.readHeader(filename).getCellType().getType();
+      return;
+    }
+    if(parallel && !filename.endsWith(".xpm")) {
+      readGridASCIIParallel();
+      return;
+    }
     BufferedReader buff = FileOpener.read(filename);
     if(filename.endsWith(".xpm")) {
       readXPM(buff, new HashMap<Color, String>(), null, null, null, XPM_XLLCORNER, XPM_YLLCORNER, XPM_CELLSIZE);
@@ -83,6 +112,55 @@ public class GISRasterReader {
     }
   }
 
+  /**
+   * Constructor reading only the cells of a raster file that overlap a
+   * window. For ARC ASCII grids, the cells before the window are skipped
+   * without being parsed, and the file is read no further than the last row
+   * of the window. Binary and mapped rasters are read from the window
+   * directly. Other files (and grids with cells that are not numbers) are
+   * read in full, and the window cut out of them.
+   * 
+   * @param filename The file to read
+   * @param minX Left edge of the window
+   * @param minY Bottom edge of the window
+   * @param maxX Right edge of the window
+   * @param maxY Top edge of the window
+   * @throws IOException
+   * @throws IllegalArgumentException if the window does not overlap the
+   *           raster
+   */
+  public GISRasterReader(String filename, double minX, double minY, double maxX, double maxY) throws IOException {
+    this.filename = filename;
+    if(filename.endsWith(MappedGISRaster.EXTENSION)) {
+      MappedGISRaster<?> mapped = MappedGISRaster.open(filename, false);
+      try {
+        raster = crop(mapped, window(mapped.nrows(), mapped.ncols(), mapped.getOriginX(), mapped.getOriginY(),
+            mapped.getCellSize(), minX, minY, maxX, maxY));
+        rasterType = mapped.getCellType().getType();
+      }
+      finally {
+        mapped.close();
+      }
+    }
+    else if(filename.endsWith(GISRasterBinaryFile.EXTENSION)) {
+      RasterFileHeader header = GISRasterBinaryFile.readHeader(filename);
+      int[] window =
+        window(header.nrows(), header.ncols(), header.getOriginX(), header.getOriginY(), header.getCellSize(),
+            minX, minY, maxX, maxY);
+      raster = GISRasterBinaryFile.readWindow(filename, window[0], window[1], window[2], window[3]);
+      rasterType = header.getCellType().getType();
+    }
+    else if(filename.endsWith(".xpm")) {
+      readXPM(FileOpener.read(filename), new HashMap<Color, String>(), null, null, null, XPM_XLLCORNER,
+          XPM_YLLCORNER, XPM_CELLSIZE);
+      raster = crop(raster, window(raster.nrows(), raster.ncols(), raster.getOriginX(), raster.getOriginY(), raster
+          .getCellSize(), minX, minY, maxX, maxY));
+    }
+    else {
+      readGridASCIIWindow(minX, minY, maxX, maxY);
+    }
+  }
+
   public <T> GISRasterReader(String filename, double xllcorner, double yllcorner, double cellSize,
       GISRasterImageConverter<T> converter) throws IOException {
     this.filename = filename;
@@ -138,6 +216,126 @@ public class GISRasterReader {
     return reader.getRaster();
   }
 
+  /**
+   * <!-- readWindow -->
+   * 
+   * @see #GISRasterReader(String, double, double, double, double)
+   * @param fileName The file to read
+   * @param minX Left edge of the window
+   * @param minY Bottom edge of the window
+   * @param maxX Right edge of the window
+   * @param maxY Top edge of the window
+   * @return A raster of the cells overlapping the window, with its origin at
+   *         the bottom left of the first of them
+   * @throws IOException
+   */
+  public static GISRaster<?> readWindow(String fileName, double minX, double minY, double maxX, double maxY)
+      throws IOException {
+    GISRasterReader reader = new GISRasterReader(fileName, minX, minY, maxX, maxY);
+    return reader.getRaster();
+  }
+
+  /**
+   * <!-- convertToBinary -->
+   * 
+   * Convert a raster file (typically an ARC ASCII grid) of integers or
+   * floating point numbers to a {@link GISRasterBinaryFile}, which can be read
+   * much more quickly. The file can then be read with this class if its name
+   * ends with {@link GISRasterBinaryFile#EXTENSION}.
+   * 
+   * @param fileName The raster file to convert
+   * @param binaryFileName The binary raster file to create
+   * @param checksums <code>true</code> to write checksums in the binary file
+   * @throws IOException
+   */
+  public static void convertToBinary(String fileName, String binaryFileName, boolean checksums) throws IOException {
+    GISRasterReader reader = new GISRasterReader(fileName);
+    if(reader.isRasterTypeInteger()) {
+      GISRasterBinaryFile.write(binaryFileName, Integer.class, reader.getRasterInteger(), checksums);
+    }
+    else if(reader.isRasterTypeDouble()) {
+      GISRasterBinaryFile.write(binaryFileName, Double.class, reader.getRasterDouble(), checksums);
+    }
+    else {
+      throw new FileFormatException(fileName, "raster", "integer or floating point cells", "cells of type "
+        + reader.getRasterDataType().getSimpleName());
+    }
+  }
+
+  /**
+   * <!-- convertToMapped -->
+   * 
+   * Convert a raster file (typically an ARC ASCII grid) to a
+   * {@link MappedGISRaster} file, so that later runs can open it without
+   * parsing it again. The file can then be opened with
+   * {@link MappedGISRaster#open(String, boolean)}, or with this class if its
+   * name ends with {@link MappedGISRaster#EXTENSION}. An ARC ASCII grid is
+   * read twice with a {@link GridASCIIReader}, once to find the type of its
+   * cells and once to copy them row by row, so it never has to fit in memory.
+   * If the raster file has no 'no data' value, that from
+   * {@link MappedGISRaster#noDataFor(Class)} is used.
+   * 
+   * @param fileName The raster file to convert
+   * @param mappedFileName The mapped raster file to create
+   * @return The mapped raster, open for reading and writing
+   * @throws IOException
+   */
+  public static MappedGISRaster<?> convertToMapped(String fileName, String mappedFileName) throws IOException {
+    if(fileName.endsWith(".xpm") || fileName.endsWith(MappedGISRaster.EXTENSION)) {
+      GISRasterReader reader = new GISRasterReader(fileName);
+      if(reader.isRasterTypeInteger()) {
+        return MappedGISRaster.create(mappedFileName, Integer.class, reader.getRasterInteger());
+      }
+      else if(reader.isRasterTypeDouble()) {
+        return MappedGISRaster.create(mappedFileName, Double.class, reader.getRasterDouble());
+      }
+      throw new FileFormatException(fileName, "raster", "integer or floating point cells", "cells of type "
+        + reader.getRasterDataType().getSimpleName());
+    }
+
+    GridASCIIReader grid = new GridASCIIReader(fileName);
+    int type;
+    try {
+      type = grid.scanCellType();
+    }
+    finally {
+      grid.close();
+    }
+    NumberParser parser = new NumberParser();
+    String nodata_value = grid.getNoDataValue();
+    int nodataType = nodata_value == null ? NumberParser.INT : parser.parse(nodata_value);
+    if(type == NumberParser.NOT_A_NUMBER || nodataType == NumberParser.NOT_A_NUMBER) {
+      throw new FileFormatException(fileName, "ARC ASCII grid", "integer or floating point cells",
+          "cells that are not numbers");
+    }
+
+    final MappedGISRaster<?> mapped =
+      (type == NumberParser.INT && nodataType == NumberParser.INT) ? MappedGISRaster.create(mappedFileName,
+          Integer.class, grid.nrows(), grid.ncols(), grid.getXllcorner(), grid.getYllcorner(), grid.getCellSize(),
+          nodata_value == null ? null : parser.intValue(), MappedGISRaster.DEFAULT_TILE_SIZE) : MappedGISRaster
+          .create(mappedFileName, Double.class, grid.nrows(), grid.ncols(), grid.getXllcorner(),
+              grid.getYllcorner(), grid.getCellSize(), nodata_value == null ? null : parser.doubleValue(),
+              MappedGISRaster.DEFAULT_TILE_SIZE);
+    grid = new GridASCIIReader(fileName);
+    try {
+      grid.visitRows(new RasterRowVisitor() {
+        public void row(int row, double[] cells) {
+          for(int col = 0; col < cells.length; col++) {
+            mapped.atRCDouble(row, col, cells[col]);
+          }
+        }
+      });
+    }
+    catch(IOException e) {
+      mapped.close();
+      throw e;
+    }
+    finally {
+      grid.close();
+    }
+    return mapped;
+  }
+
   @SuppressWarnings("unchecked")
   private void readXPM(BufferedReader buff, Map<Color, String> invLegend, Double xllcorner, Double yllcorner,
       Double cellSize, String xllcornerStr, String yllcornerStr, String cellSizeStr) throws IOException {
@@ -298,18 +496,7 @@ public class GISRasterReader {
       }
     }
 
-    if(table.areAllParseableInteger()) {
-      raster = new GISRaster<Integer>(table.asIntegerTable(), xllcorner, yllcorner, cellSize);
-      rasterType = Integer.class;
-    }
-    else if(table.areAllParseableDouble()) {
-      raster = new GISRaster<Double>(table.asDoubleTable(), xllcorner, yllcorner, cellSize);
-      rasterType = Double.class;
-    }
-    else {
-      raster = new GISRaster<String>(table, xllcorner, yllcorner, cellSize);
-      rasterType = String.class;
-    }
+    setRaster(table, xllcorner, yllcorner, cellSize, null);
 
     if(allEntriesHaveColours && rasterType == String.class) {
       raster = ((GISRaster<String>)raster).asGISKeyedRaster(legend);
@@ -366,17 +553,168 @@ public class GISRasterReader {
   /**
    * <!-- readGridASCII -->
    * 
-   * Read the raster in Grid ASCII format
+   * Read the raster in Grid ASCII format. The cells are parsed straight into
+   * an array of numbers by a {@link GridASCIIReader}; only if some of them
+   * are not numbers is the file read again as text, with
+   * {@link #readGridASCIIText(BufferedReader)}, to make a raster of strings.
    * 
    * @param buff
    * @throws IOException
    */
   private void readGridASCII(BufferedReader buff) throws IOException {
+    GridASCIIReader grid = new GridASCIIReader(buff, filename);
+    try {
+      TypedTableBuilder cells = grid.readCells();
+      if(cells.isNumeric()
+        && setRaster(cells.build(), grid.getXllcorner(), grid.getYllcorner(), grid.getCellSize(), grid
+            .getNoDataValue())) {
+        return;
+      }
+    }
+    finally {
+      grid.close();
+    }
+    readGridASCIIText(FileOpener.read(filename));
+  }
+
+  /**
+   * <!-- readGridASCIIWindow -->
+   * 
+   * Read the cells of a raster in Grid ASCII format that overlap a window. If
+   * they or the nodata value are not numbers, the file is read again as text.
+   * 
+   * @param minX Left edge of the window
+   * @param minY Bottom edge of the window
+   * @param maxX Right edge of the window
+   * @param maxY Top edge of the window
+   * @throws IOException
+   */
+  private void readGridASCIIWindow(double minX, double minY, double maxX, double maxY) throws IOException {
+    GridASCIIReader grid = new GridASCIIReader(filename);
+    int[] window;
+    try {
+      window =
+        window(grid.nrows(), grid.ncols(), grid.getXllcorner(), grid.getYllcorner(), grid.getCellSize(), minX, minY,
+            maxX, maxY);
+      TypedTableBuilder cells = grid.readWindow(window[0], window[1], window[2], window[3]);
+      double cellsize = grid.getCellSize();
+      if(cells.isNumeric()
+        && setRaster(cells.build(), grid.getXllcorner() + window[2] * cellsize, grid.getYllcorner()
+          + (grid.nrows() - window[1]) * cellsize, cellsize, grid.getNoDataValue())) {
+        return;
+      }
+    }
+    finally {
+      grid.close();
+    }
+    readGridASCIIText(FileOpener.read(filename));
+    raster = crop(raster, window);
+  }
+
+  /**
+   * <!-- window -->
+   * 
+   * @param nrows Number of rows in the raster
+   * @param ncols Number of columns in the raster
+   * @param originX Georeference for the left edge of the raster
+   * @param originY Georeference for the bottom edge of the raster
+   * @param cellSize Length of one side of the cells of the raster
+   * @param minX Left edge of the window
+   * @param minY Bottom edge of the window
+   * @param maxX Right edge of the window
+   * @param maxY Top edge of the window
+   * @return The first and last + 1 rows, and first and last + 1 columns of
+   *         the cells overlapping the window
+   * @throws IllegalArgumentException if no cells overlap the window
+   */
+  private int[] window(int nrows, int ncols, double originX, double originY, double cellSize, double minX,
+      double minY, double maxX, double maxY) {
+    int firstCol = (int)Math.max(0.0, Math.floor((minX - originX) / cellSize));
+    int lastCol = (int)Math.min((double)ncols, Math.ceil((maxX - originX) / cellSize));
+    int firstY = (int)Math.max(0.0, Math.floor((minY - originY) / cellSize));
+    int lastY = (int)Math.min((double)nrows, Math.ceil((maxY - originY) / cellSize));
+    if(firstCol >= lastCol || firstY >= lastY) {
+      throw new IllegalArgumentException("Window (" + minX + ", " + minY + ") to (" + maxX + ", " + maxY
+        + ") does not overlap the raster in " + filename);
+    }
+    return new int[] { nrows - lastY, nrows - firstY, firstCol, lastCol };
+  }
+
+  /**
+   * <!-- crop -->
+   * 
+   * @param <T> The type of entry in the raster
+   * @param full A raster read in full
+   * @param window The first and last + 1 rows, and first and last + 1
+   *          columns to keep
+   * @return A new raster of the cells in the window, keyed as the full one
+   *         was if it was a {@link GISKeyedRaster}
+   */
+  private static <T> GISRaster<T> crop(GISRaster<T> full, int[] window) {
+    double cellSize = full.getCellSize();
+    GISRaster<T> cropped =
+      full.newRaster(window[1] - window[0], window[3] - window[2], full.getOriginX() + window[2] * cellSize, full
+          .getOriginY()
+        + (full.nrows() - window[1]) * cellSize, cellSize);
+    for(int row = window[0]; row < window[1]; row++) {
+      for(int col = window[2]; col < window[3]; col++) {
+        if(full.isPrimitive()) cropped.atRCDouble(row - window[0], col - window[2], full.atRCDouble(row, col));
+        else
+          cropped.atRC(row - window[0], col - window[2], full.atRC(row, col));
+      }
+    }
+    if(full instanceof GISKeyedRaster) {
+      return new GISKeyedRaster<T>(cropped, ((GISKeyedRaster<T>)full).getConverter());
+    }
+    return cropped;
+  }
+
+  /**
+   * <!-- readGridASCIIParallel -->
+   * 
+   * Read the raster in Grid ASCII format using a
+   * {@link ParallelGridASCIIReader}. If the nodata value is not a number, the
+   * file is read again as text.
+   * 
+   * @throws IOException
+   */
+  private void readGridASCIIParallel() throws IOException {
+    ParallelGridASCIIReader grid = new ParallelGridASCIIReader(filename);
+    if(!setRaster(grid.readCells(), grid.getXllcorner(), grid.getYllcorner(), grid.getCellSize(), grid
+        .getNoDataValue())) {
+      readGridASCIIText(FileOpener.read(filename));
+    }
+  }
+
+  /**
+   * <!-- readGridASCIIText -->
+   * 
+   * Read the raster in Grid ASCII format as a table of strings, converting it
+   * to numbers if possible
+   * 
+   * @param buff
+   * @throws IOException
+   */
+  private void readGridASCIIText(BufferedReader buff) throws IOException {
     TextReader reader = new TextReader(buff, filename, "ARC ASCII grid");
 
     Map<String, String> header =
-      reader.readOrderedKeyValuePairs(new String[] { "nrows", "ncols", "xllcorner|xllcenter", "yllcorner|yllcenter",
-        "cellsize", "?nodata_value" });
+      reader.readOrderedKeyValuePairs(new String[] { "nrows|ncols", "nrows|ncols",
+        "xllcorner|xllcenter|yllcorner|yllcenter", "xllcorner|xllcenter|yllcorner|yllcenter", "cellsize",
+        "?nodata_value" });
+
+    // The keys may come in either order, so each must be checked for
+    for(String key: new String[] { "nrows", "ncols" }) {
+      if(!header.containsKey(key)) {
+        throw new FileFormatException(filename, "ARC ASCII grid", key + " in the header", "no " + key);
+      }
+    }
+    for(String axis: new String[] { "x", "y" }) {
+      if(!header.containsKey(axis + "llcorner") && !header.containsKey(axis + "llcenter")) {
+        throw new FileFormatException(filename, "ARC ASCII grid", axis + "llcorner or " + axis
+          + "llcenter in the header", "neither");
+      }
+    }
 
     int nrows, ncols;
 
@@ -427,39 +765,74 @@ public class GISRasterReader {
 
     String nodata_value = header.containsKey("nodata_value") ? header.get("nodata_value") : null;
 
-    if(nodata_value != null) {
-      try {
-        int nodata_value_i = Integer.parseInt(nodata_value);
-        if(!table.areAllParseableInteger()) throw new NumberFormatException();
-        raster = new GISRaster<Integer>(table.asIntegerTable(), xllcorner, yllcorner, cellsize, nodata_value_i);
-        rasterType = Integer.class;
-      }
-      catch(NumberFormatException e1) {
-        try {
-          double nodata_value_d = Double.parseDouble(nodata_value);
-          if(!table.areAllParseableDouble()) throw new NumberFormatException();
-          raster = new GISRaster<Double>(table.asDoubleTable(), xllcorner, yllcorner, cellsize, nodata_value_d);
-          rasterType = Double.class;
-        }
-        catch(NumberFormatException e2) {
-          raster = new GISRaster<String>(table, xllcorner, yllcorner, cellsize, nodata_value);
-          rasterType = String.class;
-        }
-      }
+    setRaster(table, xllcorner, yllcorner, cellsize, nodata_value);
+  }
+
+  /**
+   * <!-- setRaster -->
+   * 
+   * Set the raster from a table of the entries read from a file, converting
+   * them to the narrowest type that will hold all of them and the nodata
+   * value: <code>Integer</code>, then <code>Double</code>, and otherwise
+   * <code>String</code>. The entries are parsed only once, using
+   * {@link Table#inferAndConvert()}.
+   * 
+   * @param table The entries read from the file
+   * @param xllcorner The x co-ordinate of the lower left corner
+   * @param yllcorner The y co-ordinate of the lower left corner
+   * @param cellsize The size of each cell
+   * @param nodata_value The value representing no data (may be
+   *          <code>null</code>)
+   */
+  private void setRaster(Table<String> table, double xllcorner, double yllcorner, double cellsize,
+      String nodata_value) {
+    Table<?> converted =
+      (nodata_value != null && new NumberParser().parse(nodata_value) == NumberParser.NOT_A_NUMBER) ? table : table
+          .inferAndConvert();
+
+    if(!(converted instanceof AbstractPrimitiveTable)
+      || !setRaster((AbstractPrimitiveTable<?>)converted, xllcorner, yllcorner, cellsize, nodata_value)) {
+      raster = new GISRaster<String>(table, xllcorner, yllcorner, cellsize, nodata_value);
+      rasterType = String.class;
+    }
+  }
+
+  /**
+   * <!-- setRaster -->
+   * 
+   * Set the raster from a table of numbers: an <code>Integer</code> raster if
+   * the table and nodata value are <code>int</code>s, otherwise a
+   * <code>Double</code> raster.
+   * 
+   * @param cells The numbers read from a file
+   * @param xllcorner The x co-ordinate of the lower left corner
+   * @param yllcorner The y co-ordinate of the lower left corner
+   * @param cellsize The size of each cell
+   * @param nodata_value The value representing no data (may be
+   *          <code>null</code>)
+   * @return <code>false</code> (and the raster is not set) if the nodata
+   *         value is not a number
+   */
+  private boolean setRaster(AbstractPrimitiveTable<?> cells, double xllcorner, double yllcorner, double cellsize,
+      String nodata_value) {
+    NumberParser parser = new NumberParser();
+    int nodataType = nodata_value == null ? NumberParser.INT : parser.parse(nodata_value);
+    if(nodataType == NumberParser.NOT_A_NUMBER) return false;
+
+    if(cells instanceof IntTable && nodataType == NumberParser.INT) {
+      IntTable ints = (IntTable)cells;
+      raster =
+        new GISRaster<Integer>(ints, xllcorner, yllcorner, cellsize, nodata_value == null ? null : parser.intValue(),
+            ints);
+      rasterType = Integer.class;
     }
     else {
-      if(table.areAllParseableInteger()) {
-        raster = new GISRaster<Integer>(table.asIntegerTable(), xllcorner, yllcorner, cellsize);
-        rasterType = Integer.class;
-      }
-      else if(table.areAllParseableDouble()) {
-        raster = new GISRaster<Double>(table.asDoubleTable(), xllcorner, yllcorner, cellsize);
-        rasterType = Double.class;
-      }
-      else {
-        raster = new GISRaster<String>(table, xllcorner, yllcorner, cellsize);
-        rasterType = String.class;
-      }
+      DoubleTable doubles = cells instanceof DoubleTable ? (DoubleTable)cells : cells.asDoubleTable();
+      raster =
+        new GISRaster<Double>(doubles, xllcorner, yllcorner, cellsize, nodata_value == null ? null : parser
+            .doubleValue(), doubles);
+      rasterType = Double.class;
     }
+    return true;
   }
 }
@@ -0,0 +1,405 @@
+/*
+ * uk.ac.macaulay.util: GISResampler.java
+ * 
+ * Copyright (C) 2010 Macaulay Institute
+ * 
+ * This file is part of utils.
+ * 
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.util.Arrays;
+
+/**
+ * <!-- GISResampler -->
+ * 
+ * <p>
+ * Bring a raster onto the grid of another with a different origin and cell
+ * size. Each cell of the target takes its value from the source by one of
+ * the {@link Method}s, with no data where it has no cells of the source to
+ * take a value from.
+ * </p>
+ * 
+ * <p>
+ * Rather than finding the cells of the source from the georeference of each
+ * cell of the target, as {@link GISRaster#atXY(double, double)} would, the
+ * columns of the source needed by each column of the target are worked out
+ * once, and those needed by each row of the target once per row. Only the
+ * part of the target in a window (by default, the extent of the source) is
+ * worked on, in parallel blocks of rows.
+ * </p>
+ * 
+ * @author Gary Polhill
+ */
+public final class GISResampler {
+  /**
+   * <!-- Method -->
+   * 
+   * How to find the value of a cell of the target.
+   * <ul>
+   * <li>{@link #NEAREST}: the cell of the source its centre is in (as
+   * {@link GISRaster#atXY(double, double)})</li>
+   * <li>{@link #BILINEAR}: interpolated from the four cells of the source
+   * with centres nearest its centre, leaving out any with no data, and using
+   * the nearest cells at the edges of the source</li>
+   * <li>{@link #MAJORITY}: the most frequent value of the cells of the source
+   * with centres in the cell (the smallest if there is a tie), or the nearest
+   * if the cell is too small to have any. This is meant for rasters of
+   * categories being made coarser.</li>
+   * </ul>
+   * 
+   * @author Gary Polhill
+   */
+  public enum Method {
+    NEAREST, BILINEAR, MAJORITY;
+  }
+
+  private GISResampler() {
+    // Stop instances
+  }
+
+  /**
+   * <!-- resample -->
+   * 
+   * Resample to a new raster
+   * 
+   * @param source The raster to resample
+   * @param method How to resample
+   * @param nrows Number of rows in the new raster
+   * @param ncols Number of columns in the new raster
+   * @param originX Georeference for the left edge of the new raster
+   * @param originY Georeference for the bottom edge of the new raster
+   * @param cellSize Length of one side of the cells of the new raster
+   * @return A new raster of <code>double</code>s, with no data outside the
+   *         source
+   */
+  public static GISRaster<Double> resample(GISRaster<? extends Number> source, Method method, int nrows, int ncols,
+      double originX, double originY, double cellSize) {
+    GISRaster<Double> target = new GISRaster<Double>(new DoubleTable(nrows, ncols), originX, originY, cellSize);
+    resample(source, target, method, originX, originY, originX + ncols * cellSize, originY + nrows * cellSize);
+    return target;
+  }
+
+  /**
+   * <!-- resample -->
+   * 
+   * Resample into the part of an existing raster that overlaps the source.
+   * The other cells of the target are left as they are.
+   * 
+   * @param source The raster to resample
+   * @param target The raster to put the result in, which must store its
+   *          cells as primitives
+   * @param method How to resample
+   */
+  public static void resample(GISRaster<? extends Number> source, GISRaster<? extends Number> target,
+      Method method) {
+    resample(source, target, method, source.getOriginX(), source.getOriginY(), source.getOriginX()
+      + source.ncols * source.getCellSize(), source.getOriginY() + source.nrows * source.getCellSize());
+  }
+
+  /**
+   * <!-- resample -->
+   * 
+   * Resample into the part of an existing raster in a window. Every cell of
+   * the target that overlaps the window is given a value (no data if it has
+   * none from the source); the other cells are left as they are.
+   * 
+   * @param source The raster to resample
+   * @param target The raster to put the result in, which must store its
+   *          cells as primitives
+   * @param method How to resample
+   * @param minX Left edge of the window
+   * @param minY Bottom edge of the window
+   * @param maxX Right edge of the window
+   * @param maxY Top edge of the window
+   * @throws UnsupportedOperationException if the target does not store its
+   *           cells as primitives
+   */
+  public static void resample(final GISRaster<? extends Number> source, final GISRaster<? extends Number> target,
+      final Method method, double minX, double minY, double maxX, double maxY) {
+    if(!target.isPrimitive()) {
+      throw new UnsupportedOperationException("Cannot resample into a raster not storing its cells as primitives");
+    }
+    double cellSize = target.getCellSize();
+    final int startCol = (int)Math.max(0L, (long)Math.floor((minX - target.getOriginX()) / cellSize));
+    final int endCol = (int)Math.min(target.ncols, (long)Math.ceil((maxX - target.getOriginX()) / cellSize));
+    int startY = (int)Math.max(0L, (long)Math.floor((minY - target.getOriginY()) / cellSize));
+    int endY = (int)Math.min(target.nrows, (long)Math.ceil((maxY - target.getOriginY()) / cellSize));
+    if(startCol >= endCol || startY >= endY) return;
+    final int startRow = target.nrows - endY;
+    int endRow = target.nrows - startY;
+
+    final Lookup lookup = new Lookup(source, target, method, startCol, endCol);
+    target.writeRows(endRow - startRow, endCol - startCol, 0L, (start, end, changes) -> {
+      for(int row = startRow + start; row < startRow + end; row++) {
+        lookup.row(row, changes);
+      }
+    });
+  }
+
+  /**
+   * <!-- Lookup -->
+   * 
+   * The columns of the source needed by each column of the target being
+   * worked on
+   * 
+   * @author Gary Polhill
+   */
+  private static final class Lookup {
+    final GISRaster<? extends Number> source;
+
+    final GISRaster<? extends Number> target;
+
+    final Method method;
+
+    final int startCol;
+
+    final int endCol;
+
+    /**
+     * The column of the source each column's centre is in, or -1 if it is
+     * outside the source
+     */
+    final int[] nearest;
+
+    /**
+     * For {@link Method#BILINEAR}, the columns of the source either side of
+     * each column's centre, and the weight of the right one
+     */
+    final int[] left;
+
+    final int[] right;
+
+    final double[] weight;
+
+    /**
+     * For {@link Method#MAJORITY}, the first and last + 1 columns of the
+     * source with centres in each column
+     */
+    final int[] first;
+
+    final int[] last;
+
+    /**
+     * The most columns of the source in any column
+     */
+    int maxWidth = 0;
+
+    Lookup(GISRaster<? extends Number> source, GISRaster<? extends Number> target, Method method, int startCol,
+        int endCol) {
+      this.source = source;
+      this.target = target;
+      this.method = method;
+      this.startCol = startCol;
+      this.endCol = endCol;
+      int n = endCol - startCol;
+      nearest = new int[n];
+      left = method == Method.BILINEAR ? new int[n] : null;
+      right = method == Method.BILINEAR ? new int[n] : null;
+      weight = method == Method.BILINEAR ? new double[n] : null;
+      first = method == Method.MAJORITY ? new int[n] : null;
+      last = method == Method.MAJORITY ? new int[n] : null;
+
+      double scale = source.getCellSize();
+      for(int i = 0; i < n; i++) {
+        double x = target.convertX(startCol + i);
+        nearest[i] = source.isInTableX(x) ? source.convertX(x) : -1;
+        if(method == Method.BILINEAR) {
+          double position = (x - source.getOriginX()) / scale - 0.5;
+          int[] span = span(position, source.ncols);
+          left[i] = nearest[i] < 0 ? -1 : span[0];
+          right[i] = span[1];
+          weight[i] = span[0] == span[1] ? 0.0 : position - span[0];
+        }
+        else if(method == Method.MAJORITY) {
+          double edge = x - target.getCellSize() / 2.0;
+          first[i] = centresFrom(edge, source.getOriginX(), scale, source.ncols);
+          last[i] = centresFrom(edge + target.getCellSize(), source.getOriginX(), scale, source.ncols);
+          maxWidth = Math.max(maxWidth, last[i] - first[i]);
+        }
+      }
+    }
+
+    /**
+     * <!-- row -->
+     * 
+     * Resample one row of the target
+     * 
+     * @param row The row
+     * @param changes Changes to the mask of cells with no data in the target
+     */
+    void row(int row, GISRaster.NoDataChanges changes) {
+      double y = target.convertRow(row);
+      int sourceRow = source.isInTableY(y) ? (source.nrows - source.convertY(y)) - 1 : -1;
+      switch(method) {
+      case NEAREST:
+        for(int col = startCol; col < endCol; col++) {
+          target.atRCDouble(row, col, nearest(sourceRow, col - startCol), changes);
+        }
+        break;
+      case BILINEAR:
+        double top = source.getOriginY() + source.nrows * source.getCellSize();
+        double position = (top - y) / source.getCellSize() - 0.5;
+        int[] span = span(position, source.nrows);
+        double wy = span[0] == span[1] ? 0.0 : position - span[0];
+        for(int col = startCol; col < endCol; col++) {
+          int i = col - startCol;
+          if(sourceRow < 0 || left[i] < 0) target.atRCDouble(row, col, Double.NaN, changes);
+          else
+            target.atRCDouble(row, col, bilinear(span[0], span[1], wy, i), changes);
+        }
+        break;
+      case MAJORITY:
+
+        // Source rows counted up from the bottom, then turned into rows
+
+        double bottom = y - target.getCellSize() / 2.0;
+        int lowY = centresFrom(bottom, source.getOriginY(), source.getCellSize(), source.nrows);
+        int highY = centresFrom(bottom + target.getCellSize(), source.getOriginY(), source.getCellSize(), source.nrows);
+        int firstRow = source.nrows - highY;
+        int lastRow = source.nrows - lowY;
+        double[] block = new double[Math.max(0, lastRow - firstRow) * maxWidth];
+        for(int col = startCol; col < endCol; col++) {
+          int i = col - startCol;
+          if(firstRow >= lastRow || first[i] >= last[i]) target.atRCDouble(row, col, nearest(sourceRow, i), changes);
+          else
+            target.atRCDouble(row, col, majority(firstRow, lastRow, first[i], last[i], block), changes);
+        }
+        break;
+      default:
+        throw new RuntimeException("Unhandled resampling method " + method);
+      }
+    }
+
+    /**
+     * <!-- nearest -->
+     * 
+     * @param sourceRow The row of the source, or -1 if outside it
+     * @param i The column being worked on, from {@link #startCol}
+     * @return The value of the nearest cell
+     */
+    private double nearest(int sourceRow, int i) {
+      return (sourceRow < 0 || nearest[i] < 0) ? Double.NaN : source.atRCDouble(sourceRow, nearest[i]);
+    }
+
+    /**
+     * <!-- bilinear -->
+     * 
+     * @param top The row of the source above the centre of the cell
+     * @param bottom The row of the source below the centre of the cell
+     * @param wy The weight of the bottom row
+     * @param i The column being worked on, from {@link #startCol}
+     * @return The value interpolated from the cells with data, or
+     *         <code>NaN</code> if none of them with any weight have data
+     */
+    private double bilinear(int top, int bottom, double wy, int i) {
+      double wx = weight[i];
+      double sum = 0.0;
+      double weights = 0.0;
+      double value = source.atRCDouble(top, left[i]);
+      double w = (1.0 - wy) * (1.0 - wx);
+      if(w > 0.0 && !Double.isNaN(value)) {
+        sum += w * value;
+        weights += w;
+      }
+      value = source.atRCDouble(top, right[i]);
+      w = (1.0 - wy) * wx;
+      if(w > 0.0 && !Double.isNaN(value)) {
+        sum += w * value;
+        weights += w;
+      }
+      value = source.atRCDouble(bottom, left[i]);
+      w = wy * (1.0 - wx);
+      if(w > 0.0 && !Double.isNaN(value)) {
+        sum += w * value;
+        weights += w;
+      }
+      value = source.atRCDouble(bottom, right[i]);
+      w = wy * wx;
+      if(w > 0.0 && !Double.isNaN(value)) {
+        sum += w * value;
+        weights += w;
+      }
+      return weights > 0.0 ? sum / weights : Double.NaN;
+    }
+
+    /**
+     * <!-- majority -->
+     * 
+     * @param firstRow First row of the source block
+     * @param lastRow Last + 1 row of the source block
+     * @param firstCol First column of the source block
+     * @param lastCol Last + 1 column of the source block
+     * @param block Space for the values in the block
+     * @return The most frequent value in the block
+     */
+    private double majority(int firstRow, int lastRow, int firstCol, int lastCol, double[] block) {
+      int n = 0;
+      for(int row = firstRow; row < lastRow; row++) {
+        for(int col = firstCol; col < lastCol; col++) {
+          double value = source.atRCDouble(row, col);
+          if(!Double.isNaN(value)) block[n++] = value;
+        }
+      }
+      if(n == 0) return Double.NaN;
+      Arrays.sort(block, 0, n);
+      double best = block[0];
+      int bestRun = 0;
+      for(int i = 0, run = 1; i < n; i++, run++) {
+        if(i == n - 1 || block[i + 1] != block[i]) {
+          if(run > bestRun) {
+            best = block[i];
+            bestRun = run;
+          }
+          run = 0;
+        }
+      }
+      return best;
+    }
+  }
+
+  /**
+   * <!-- span -->
+   * 
+   * @param position A position in cells, where 0 is the centre of the first
+   * @param n The number of cells
+   * @return The cells with centres either side of the position, which are
+   *         the same cell if it is beyond the centre of the first or last
+   */
+  private static int[] span(double position, int n) {
+    int low = (int)Math.floor(position);
+    if(low < 0) return new int[] { 0, 0 };
+    if(low >= n - 1) return new int[] { n - 1, n - 1 };
+    return new int[] { low, low + 1 };
+  }
+
+  /**
+   * <!-- centresFrom -->
+   * 
+   * @param edge A georeference along one axis
+   * @param origin The georeference of the edge of the source on that axis
+   * @param cellSize The size of the cells of the source
+   * @param n The number of cells of the source on that axis
+   * @return The first cell of the source with its centre at or after the
+   *         georeference, from 0 to <code>n</code>
+   */
+  private static int centresFrom(double edge, double origin, double cellSize, int n) {
+    double cell = Math.ceil((edge - origin) / cellSize - 0.5);
+    return (int)Math.max(0.0, Math.min((double)n, cell));
+  }
+}
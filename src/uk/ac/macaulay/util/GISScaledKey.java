@@ -50,6 +50,12 @@ public abstract class GISScaledKey<T extends Number> extends AbstractGISRasterIm
    */
   static final double DEFAULT_TOLERANCE = 16.0 * Math.ulp(1.0);
 
+  /**
+   * The most a colour parameter can have changed when the colour was rounded
+   * to eight bits per band
+   */
+  private static final double ROUNDING = 0.5 / 255.0;
+
   /**
    * The colour parameters to use at the minimum of the scale
    */
@@ -195,23 +201,69 @@ public abstract class GISScaledKey<T extends Number> extends AbstractGISRasterIm
       setFailureMessage("Scale " + this + " does not contain entry " + entry);
       return null;
     }
-    double scale = (max - toLinear(entry.doubleValue())) / (max - min);
+    return getLinearColor(toLinear(entry.doubleValue()));
+  }
+
+  /**
+   * <!-- getLinearColor -->
+   * 
+   * Return the colour for a point on the scale after conversion to linear
+   * 
+   * @param linear A value between the minimum and maximum of the scale,
+   *          converted using {@link #toLinear(double)}
+   * @return The colour to use for the value
+   */
+  Color getLinearColor(double linear) {
+    double scale = (max - linear) / (max - min);
     float[] arg = new float[minC.length];
     for(int i = 0; i < arg.length; i++) {
-      arg[i] = (float)(scale * (minC[i] - maxC[i]) + minC[i]);
+      arg[i] = (float)(scale * (minC[i] - maxC[i]) + maxC[i]);
     }
     return buildColor(arg);
   }
 
+  /**
+   * <!-- getLinearMin -->
+   * 
+   * @return The minimum of the scale, converted to linear
+   */
+  double getLinearMin() {
+    return min;
+  }
+
+  /**
+   * <!-- getLinearMax -->
+   * 
+   * @return The maximum of the scale, converted to linear
+   */
+  double getLinearMax() {
+    return max;
+  }
+
+  /**
+   * <!-- compile -->
+   * 
+   * @param maxError The largest difference allowed between any of the red,
+   *          green and blue components (0-255) of the colours the compiled key
+   *          gives and those this key gives
+   * @return A {@link GISCompiledKey} giving colours from a lookup table
+   *         sampled from this scale
+   */
+  public GISCompiledKey<T> compile(double maxError) {
+    return new GISCompiledKey<T>(this, maxError);
+  }
+
   /**
    * <!-- getEntry -->
    * 
    * Return the entry for a given colour. A small tolerance in the difference
    * between entries is allowed to detect when the bands give different values
    * for the entry and hence the colour in the argument is not part of the
-   * original scale. If there is any difference in value, the entry returned
-   * will be that from the band with maximum difference between minimum and
-   * maximum, as this should offer the greatest accuracy.
+   * original scale. This is in addition to the difference there could be from
+   * each band having been rounded to eight bits. If there is any difference in
+   * value, the entry returned will be that from the band with maximum
+   * difference between minimum and maximum, as this should offer the greatest
+   * accuracy.
    * 
    * @see uk.ac.macaulay.util.GISRasterImageConverter#getEntry(java.awt.Color)
    * @param colour The colour to convert to an entry
@@ -224,29 +276,30 @@ public abstract class GISScaledKey<T extends Number> extends AbstractGISRasterIm
         + ", " + minC[1] + ", " + minC[2] + ") to (" + maxC[0] + ", " + maxC[1] + ", " + maxC[2] + ")");
       return null;
     }
-    Double[] scale = new Double[] { null, null, null };
     double tscale = 0.0;
     double maxDiff = 0.0;
+    double lowest = Double.POSITIVE_INFINITY;
+    double highest = Double.NEGATIVE_INFINITY;
     for(int i = 0; i < minC.length; i++) {
-      if(minC[i] < maxC[i]) {
-        scale[i] = new Double((arg[i] - minC[i]) / (maxC[i] - minC[i]));
-        for(int j = 0; j < i; j++) {
-          if(scale[j] == null) continue;
-          if(Math.abs(scale[i] - scale[j]) > tolerance) {
-            setFailureMessage("Colour (" + arg[0] + ", " + arg[1] + ", " + arg[2] + ") is not on a line between ("
-              + minC[0] + ", " + minC[1] + ", " + minC[2] + ") to (" + maxC[0] + ", " + maxC[1] + ", " + maxC[2] + ")");
-            return null;
-          }
+      if(minC[i] != maxC[i]) {
+        double scale = (arg[i] - minC[i]) / (maxC[i] - minC[i]);
+        double rounding = ROUNDING / Math.abs(maxC[i] - minC[i]);
+        lowest = Math.min(lowest, scale + rounding);
+        highest = Math.max(highest, scale - rounding);
+        if(highest - lowest > tolerance) {
+          setFailureMessage("Colour (" + arg[0] + ", " + arg[1] + ", " + arg[2] + ") is not on a line between ("
+            + minC[0] + ", " + minC[1] + ", " + minC[2] + ") to (" + maxC[0] + ", " + maxC[1] + ", " + maxC[2] + ")");
+          return null;
         }
         double diff = Math.abs(maxC[i] - minC[i]);
         if(diff > maxDiff) {
           maxDiff = diff;
-          tscale = scale[i];
+          tscale = scale;
         }
       }
     }
 
-    return getNumber(fromLinear(tscale));
+    return getNumber(fromLinear(min + tscale * (max - min)));
   }
 
   /**
@@ -310,7 +363,7 @@ public abstract class GISScaledKey<T extends Number> extends AbstractGISRasterIm
   public boolean inRange(Color colour) {
     float arg[] = getComponents(colour);
     for(int i = 0; i < arg.length; i++) {
-      if(arg[i] < minC[i] || arg[i] > maxC[i]) return false;
+      if(arg[i] < Math.min(minC[i], maxC[i]) || arg[i] > Math.max(minC[i], maxC[i])) return false;
     }
     return true;
   }
@@ -0,0 +1,405 @@
+/*
+ * uk.ac.macaulay.util: GISZonalStatistics.java
+ * 
+ * Copyright (C) 2010 Macaulay Institute
+ * 
+ * This file is part of utils.
+ * 
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.util.Arrays;
+
+/**
+ * <!-- GISZonalStatistics -->
+ * 
+ * <p>
+ * Summarise the values in one raster over each of the zones given in another.
+ * For every zone, the number of cells in the zone, and the number, sum, mean,
+ * minimum and maximum of the values with data in those cells are found, along
+ * with (optionally) a histogram of the values.
+ * </p>
+ * 
+ * <p>
+ * The rasters need not have the same origin, size or cell size: each cell of
+ * the zone raster takes its value from the cell of the value raster its
+ * centre is in. Cells with no zone are ignored, and cells with no value (or
+ * whose centres are outside the value raster) count towards the cells in the
+ * zone but not the values. The rasters are read in parallel blocks of rows,
+ * each adding up its own arrays of totals for the zones, which are then
+ * merged.
+ * </p>
+ * 
+ * @author Gary Polhill
+ */
+public final class GISZonalStatistics {
+  /**
+   * Heading of the column of results with the zone
+   */
+  public static final String ZONE = "zone";
+
+  /**
+   * Heading of the column with the number of cells in the zone
+   */
+  public static final String CELLS = "cells";
+
+  /**
+   * Heading of the column with the number of values with data in the zone
+   */
+  public static final String COUNT = "count";
+
+  /**
+   * Heading of the column with the sum of the values in the zone
+   */
+  public static final String SUM = "sum";
+
+  /**
+   * Heading of the column with the mean of the values in the zone
+   */
+  public static final String MEAN = "mean";
+
+  /**
+   * Heading of the column with the least value in the zone
+   */
+  public static final String MIN = "min";
+
+  /**
+   * Heading of the column with the greatest value in the zone
+   */
+  public static final String MAX = "max";
+
+  /**
+   * Prefix for the headings of the columns of histogram counts, which is
+   * followed by the number of the bin, from 0
+   */
+  public static final String BIN = "bin";
+
+  /**
+   * Largest range of zone numbers to index directly, rather than by searching
+   * a list of the zones found
+   */
+  private static final int MAX_DIRECT_ZONES = 1 << 20;
+
+  private GISZonalStatistics() {
+    // Stop instances
+  }
+
+  /**
+   * <!-- compute -->
+   * 
+   * Compute statistics without a histogram
+   * 
+   * @param zones The zone of each cell
+   * @param values The values to summarise
+   * @return A table with a row for each zone, in increasing order of zone,
+   *         and columns {@link #ZONE}, {@link #CELLS}, {@link #COUNT},
+   *         {@link #SUM}, {@link #MEAN}, {@link #MIN} and {@link #MAX}. The
+   *         zone and counts are {@link Integer}s, and the others
+   *         {@link Double}s, with the mean, minimum and maximum
+   *         <code>NaN</code> if the count is 0.
+   */
+  public static HeadedTable<Number> compute(GISRaster<Integer> zones, GISRaster<? extends Number> values) {
+    return compute(zones, values, 0, 0.0, 0.0);
+  }
+
+  /**
+   * <!-- compute -->
+   * 
+   * Compute statistics with a histogram
+   * 
+   * @param zones The zone of each cell
+   * @param values The values to summarise
+   * @param nbins Number of bins in the histogram (0 for no histogram)
+   * @param low The lower edge of the first bin
+   * @param high The upper edge of the last bin. Values outside the range from
+   *          <code>low</code> to <code>high</code> are not counted in the
+   *          histogram.
+   * @return A table with a row for each zone, in increasing order of zone,
+   *         and the columns described for
+   *         {@link #compute(GISRaster, GISRaster)}, followed by the number of
+   *         values in each bin of the histogram as {@link Integer}s, in
+   *         columns {@link #BIN}<code>0</code>, {@link #BIN}<code>1</code>,
+   *         ...
+   */
+  public static HeadedTable<Number> compute(final GISRaster<Integer> zones, final GISRaster<? extends Number> values,
+      final int nbins, final double low, final double high) {
+    if(nbins < 0 || (nbins > 0 && !(high > low))) {
+      throw new IllegalArgumentException("Invalid histogram of " + nbins + " bins from " + low + " to " + high);
+    }
+
+    // Line up the rasters: the column and row of the value for each column
+    // and row of zones, or -1 if the centre of the zone cell is outside
+    final int[] valueCols = new int[zones.ncols];
+    for(int col = 0; col < zones.ncols; col++) {
+      int vcol = values.convertX(zones.convertX(col));
+      valueCols[col] = (vcol >= 0 && vcol < values.ncols) ? vcol : -1;
+    }
+    final int[] valueRows = new int[zones.nrows];
+    for(int row = 0; row < zones.nrows; row++) {
+      int vrow = (values.nrows - values.convertY(zones.convertRow(row))) - 1;
+      valueRows[row] = (vrow >= 0 && vrow < values.nrows) ? vrow : -1;
+    }
+
+    final ZoneIndex index = new ZoneIndex(zones);
+    final int nzones = index.size();
+    Totals totals =
+      ParallelRows.reduce(zones.nrows, zones.ncols, 8L * nzones * (nbins + 6), new ParallelRows.Reduction<Totals>() {
+        public Totals rows(int startRow, int endRow) {
+          Totals block = new Totals(nzones, nbins);
+          double width = (high - low) / nbins;
+          for(int row = startRow; row < endRow; row++) {
+            int vrow = valueRows[row];
+            for(int col = 0; col < zones.ncols; col++) {
+              double zone = zones.atRCDouble(row, col);
+              if(Double.isNaN(zone)) continue;
+              int z = index.index((int)zone);
+              block.cells[z]++;
+              int vcol = valueCols[col];
+              if(vrow < 0 || vcol < 0) continue;
+              double value = values.atRCDouble(vrow, vcol);
+              if(Double.isNaN(value)) continue;
+              block.count[z]++;
+              block.sum[z] += value;
+              if(value < block.min[z]) block.min[z] = value;
+              if(value > block.max[z]) block.max[z] = value;
+              if(nbins > 0 && value >= low && value <= high) {
+                int bin = Math.min((int)((value - low) / width), nbins - 1);
+                block.bins[z * nbins + bin]++;
+              }
+            }
+          }
+          return block;
+        }
+
+        public Totals combine(Totals upper, Totals lower) {
+          upper.add(lower);
+          return upper;
+        }
+      });
+
+    // Build the table of results, leaving out zone numbers with no cells
+    int nrows = 0;
+    for(int z = 0; z < nzones; z++) {
+      if(totals.cells[z] > 0) nrows++;
+    }
+    String[] headings = new String[7 + nbins];
+    headings[0] = ZONE;
+    headings[1] = CELLS;
+    headings[2] = COUNT;
+    headings[3] = SUM;
+    headings[4] = MEAN;
+    headings[5] = MIN;
+    headings[6] = MAX;
+    for(int bin = 0; bin < nbins; bin++) {
+      headings[7 + bin] = BIN + bin;
+    }
+    HeadedTable<Number> table = new HeadedTable<Number>(nrows, headings);
+    int row = 0;
+    for(int z = 0; z < nzones; z++) {
+      if(totals.cells[z] == 0) continue;
+      int count = totals.count[z];
+      table.atRC(row, 0, index.zone(z));
+      table.atRC(row, 1, totals.cells[z]);
+      table.atRC(row, 2, count);
+      table.atRC(row, 3, totals.sum[z]);
+      table.atRC(row, 4, count == 0 ? Double.NaN : totals.sum[z] / count);
+      table.atRC(row, 5, count == 0 ? Double.NaN : totals.min[z]);
+      table.atRC(row, 6, count == 0 ? Double.NaN : totals.max[z]);
+      for(int bin = 0; bin < nbins; bin++) {
+        table.atRC(row, 7 + bin, totals.bins[z * nbins + bin]);
+      }
+      row++;
+    }
+    return table;
+  }
+
+  /**
+   * <!-- Totals -->
+   * 
+   * Arrays of totals for each zone
+   * 
+   * @author Gary Polhill
+   */
+  private static final class Totals {
+    final int[] cells;
+
+    final int[] count;
+
+    final double[] sum;
+
+    final double[] min;
+
+    final double[] max;
+
+    /**
+     * Histogram counts, in order of zone then bin
+     */
+    final int[] bins;
+
+    Totals(int nzones, int nbins) {
+      cells = new int[nzones];
+      count = new int[nzones];
+      sum = new double[nzones];
+      min = new double[nzones];
+      max = new double[nzones];
+      Arrays.fill(min, Double.POSITIVE_INFINITY);
+      Arrays.fill(max, Double.NEGATIVE_INFINITY);
+      bins = new int[nzones * nbins];
+    }
+
+    /**
+     * <!-- add -->
+     * 
+     * @param totals Totals from another block of rows to add to these
+     */
+    void add(Totals totals) {
+      for(int z = 0; z < cells.length; z++) {
+        cells[z] += totals.cells[z];
+        count[z] += totals.count[z];
+        sum[z] += totals.sum[z];
+        min[z] = Math.min(min[z], totals.min[z]);
+        max[z] = Math.max(max[z], totals.max[z]);
+      }
+      for(int i = 0; i < bins.length; i++) {
+        bins[i] += totals.bins[i];
+      }
+    }
+  }
+
+  /**
+   * <!-- ZoneIndex -->
+   * 
+   * Numbering of the zones from 0. If the zones found cover a small enough
+   * range, they are numbered from the least; otherwise, they are numbered in
+   * order from a sorted list of them.
+   * 
+   * @author Gary Polhill
+   */
+  private static final class ZoneIndex {
+    /**
+     * The least zone
+     */
+    private final int min;
+
+    /**
+     * Number of zones
+     */
+    private final int size;
+
+    /**
+     * Sorted list of zones, if they are not numbered directly
+     */
+    private final int[] zones;
+
+    ZoneIndex(final GISRaster<Integer> raster) {
+      final int ncols = raster.ncols;
+      int[] range = ParallelRows.reduce(raster.nrows, ncols, new ParallelRows.Reduction<int[]>() {
+        public int[] rows(int startRow, int endRow) {
+          int[] range = new int[] { Integer.MAX_VALUE, Integer.MIN_VALUE };
+          for(int row = startRow; row < endRow; row++) {
+            for(int col = 0; col < ncols; col++) {
+              double zone = raster.atRCDouble(row, col);
+              if(Double.isNaN(zone)) continue;
+              range[0] = Math.min(range[0], (int)zone);
+              range[1] = Math.max(range[1], (int)zone);
+            }
+          }
+          return range;
+        }
+
+        public int[] combine(int[] upper, int[] lower) {
+          return new int[] { Math.min(upper[0], lower[0]), Math.max(upper[1], lower[1]) };
+        }
+      });
+      if(range[0] > range[1]) {
+        min = 0;
+        size = 0;
+        zones = null;
+      }
+      else if((long)range[1] - (long)range[0] < MAX_DIRECT_ZONES) {
+        min = range[0];
+        size = range[1] - range[0] + 1;
+        zones = null;
+      }
+      else {
+        zones = ParallelRows.reduce(raster.nrows, ncols, new ParallelRows.Reduction<int[]>() {
+          public int[] rows(int startRow, int endRow) {
+            int[] found = new int[(endRow - startRow) * ncols];
+            int n = 0;
+            for(int row = startRow; row < endRow; row++) {
+              for(int col = 0; col < ncols; col++) {
+                double zone = raster.atRCDouble(row, col);
+                if(!Double.isNaN(zone)) found[n++] = (int)zone;
+              }
+            }
+            Arrays.sort(found, 0, n);
+            int m = 0;
+            for(int i = 0; i < n; i++) {
+              if(m == 0 || found[i] != found[m - 1]) found[m++] = found[i];
+            }
+            return Arrays.copyOf(found, m);
+          }
+
+          public int[] combine(int[] upper, int[] lower) {
+            int[] merged = new int[upper.length + lower.length];
+            int i = 0, j = 0, m = 0;
+            while(i < upper.length || j < lower.length) {
+              int next;
+              if(j == lower.length || (i < upper.length && upper[i] <= lower[j])) next = upper[i++];
+              else
+                next = lower[j++];
+              if(m == 0 || merged[m - 1] != next) merged[m++] = next;
+            }
+            return Arrays.copyOf(merged, m);
+          }
+        });
+        min = zones[0];
+        size = zones.length;
+      }
+    }
+
+    /**
+     * <!-- size -->
+     * 
+     * @return The number of zones
+     */
+    int size() {
+      return size;
+    }
+
+    /**
+     * <!-- index -->
+     * 
+     * @param zone A zone found in the raster
+     * @return Its number
+     */
+    int index(int zone) {
+      return zones == null ? zone - min : Arrays.binarySearch(zones, zone);
+    }
+
+    /**
+     * <!-- zone -->
+     * 
+     * @param index The number of a zone
+     * @return The zone
+     */
+    int zone(int index) {
+      return zones == null ? index + min : zones[index];
+    }
+  }
+}
@@ -0,0 +1,574 @@
+/*
+ * uk.ac.macaulay.util: GridASCIIReader.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <!-- GridASCIIReader -->
+ *
+ * <p>
+ * Read an ARC ASCII grid without making a {@link String} for every cell. The
+ * cells are parsed with a {@link NumberParser} straight from a buffer of
+ * characters, either into a {@link TypedTableBuilder} (see
+ * {@link #readCells()}), or one row at a time into an array given to a
+ * {@link RasterRowVisitor} (see {@link #visitRows(RasterRowVisitor)}). The
+ * latter needs memory for only one row, however big the grid.
+ * </p>
+ *
+ * <p>
+ * The header is read when the reader is constructed. The keys in it may be in
+ * any order and any case. Rows of cells need not each be on one line: cells
+ * are simply separated by white space. The file may only be read once.
+ * </p>
+ *
+ * @see GISRasterReader
+ * @author Gary Polhill
+ */
+public class GridASCIIReader implements Closeable {
+  /**
+   * Name of the format, for error messages
+   */
+  private static final String FORMAT = "ARC ASCII grid";
+
+  /**
+   * Keys that may appear in the header
+   */
+  private static final String[] KEYS =
+    new String[] { "ncols", "nrows", "xllcorner", "xllcenter", "yllcorner", "yllcenter", "cellsize", "nodata_value" };
+
+  /**
+   * Initial size of the buffer of characters
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The file name
+   */
+  private final String filename;
+
+  /**
+   * Where the characters come from
+   */
+  private final Reader in;
+
+  /**
+   * Buffer of characters read
+   */
+  private char[] buf;
+
+  /**
+   * The buffer as a {@link CharSequence}, for the {@link NumberParser}
+   */
+  private CharBuffer view;
+
+  /**
+   * Position of the next character to read in the buffer
+   */
+  private int pos;
+
+  /**
+   * Number of characters in the buffer
+   */
+  private int limit;
+
+  /**
+   * Position in the buffer of the start of the current token (from which the
+   * buffer must be kept when it is refilled)
+   */
+  private int mark;
+
+  /**
+   * Number of characters in the file before the start of the buffer
+   */
+  private long offset;
+
+  /**
+   * Current line number (from 1)
+   */
+  private int line;
+
+  /**
+   * Number of characters in the file before the start of the current line
+   */
+  private long lineStart;
+
+  /**
+   * <code>true</code> if the current token has been looked at but not used
+   */
+  private boolean pending;
+
+  /**
+   * <code>true</code> if the cells have been read
+   */
+  private boolean read;
+
+  private final int nrows;
+
+  private final int ncols;
+
+  private final double xllcorner;
+
+  private final double yllcorner;
+
+  private final double cellsize;
+
+  /**
+   * The 'no data' value as it appears in the file (<code>null</code> if none)
+   */
+  private final String nodata_value;
+
+  /**
+   * Constructor, opening the file and reading the header
+   *
+   * @param filename The file to read
+   * @throws IOException
+   */
+  public GridASCIIReader(String filename) throws IOException {
+    this(FileOpener.read(filename), filename);
+  }
+
+  /**
+   * Constructor reading the header from a buffer that has been opened
+   * already
+   *
+   * @param buff The buffer to read from
+   * @param filename The name of the file the buffer is reading from
+   * @throws IOException
+   */
+  public GridASCIIReader(BufferedReader buff, String filename) throws IOException {
+    this.filename = filename;
+    in = buff;
+    buf = new char[BUFFER_SIZE];
+    view = CharBuffer.wrap(buf);
+    pos = 0;
+    limit = 0;
+    mark = 0;
+    offset = 0L;
+    line = 1;
+    lineStart = 0L;
+    pending = false;
+    read = false;
+
+    Map<String, String> header = new HashMap<String, String>();
+    while(nextToken()) {
+      String key = token().toLowerCase();
+      if(Arrays.asList(KEYS).indexOf(key) < 0) {
+        pending = true;
+        break;
+      }
+      if(!nextToken()) throw formatException("a value for " + key, null);
+      header.put(key, token());
+    }
+
+    nrows = parseInt(header, "nrows");
+    ncols = parseInt(header, "ncols");
+    cellsize = parseDouble(header, "cellsize");
+    xllcorner =
+      header.containsKey("xllcorner") ? parseDouble(header, "xllcorner")
+          : (parseDouble(header, "xllcenter") - cellsize / 2.0);
+    yllcorner =
+      header.containsKey("yllcorner") ? parseDouble(header, "yllcorner")
+          : (parseDouble(header, "yllcenter") - cellsize / 2.0);
+    nodata_value = header.get("nodata_value");
+  }
+
+  /**
+   * <!-- parseInt -->
+   *
+   * @param header The header
+   * @param key A key expected in the header
+   * @return The value of the key as an integer
+   * @throws FileFormatException
+   */
+  private int parseInt(Map<String, String> header, String key) throws FileFormatException {
+    if(!header.containsKey(key)) throw new FileFormatException(filename, FORMAT, key + " in the header", "no " + key);
+    try {
+      return Integer.parseInt(header.get(key));
+    }
+    catch(NumberFormatException e) {
+      throw new FileFormatException(filename, FORMAT, "an integer for " + key, header.get(key));
+    }
+  }
+
+  /**
+   * <!-- parseDouble -->
+   *
+   * @param header The header
+   * @param key A key expected in the header
+   * @return The value of the key as a double
+   * @throws FileFormatException
+   */
+  private double parseDouble(Map<String, String> header, String key) throws FileFormatException {
+    if(!header.containsKey(key)) throw new FileFormatException(filename, FORMAT, key + " in the header", "no " + key);
+    try {
+      return Double.parseDouble(header.get(key));
+    }
+    catch(NumberFormatException e) {
+      throw new FileFormatException(filename, FORMAT, "a double for " + key, header.get(key));
+    }
+  }
+
+  public String getFileName() {
+    return filename;
+  }
+
+  public int nrows() {
+    return nrows;
+  }
+
+  public int ncols() {
+    return ncols;
+  }
+
+  public double getXllcorner() {
+    return xllcorner;
+  }
+
+  public double getYllcorner() {
+    return yllcorner;
+  }
+
+  public double getCellSize() {
+    return cellsize;
+  }
+
+  /**
+   * <!-- getNoDataValue -->
+   *
+   * @return The 'no data' value as it appears in the header, or
+   *         <code>null</code> if there is none
+   */
+  public String getNoDataValue() {
+    return nodata_value;
+  }
+
+  /**
+   * <!-- getDataOffset -->
+   *
+   * @return The number of characters in the file before the first cell
+   *         (which is also the number of bytes, as the header is ASCII)
+   */
+  long getDataOffset() {
+    return offset + (pending ? mark : pos);
+  }
+
+  /**
+   * <!-- getDataLine -->
+   *
+   * @return The line number (from 1) the first cell is on
+   */
+  int getDataLine() {
+    return line;
+  }
+
+  /**
+   * <!-- getDataLineStart -->
+   *
+   * @return The number of characters in the file before the start of the line
+   *         the first cell is on
+   */
+  long getDataLineStart() {
+    return lineStart;
+  }
+
+  /**
+   * <!-- readCells -->
+   *
+   * Read the cells into a {@link TypedTableBuilder}, which will hold them in
+   * the narrowest type of array it can. Reading stops at the first cell that
+   * is not a number, in which case the builder returned will not be numeric.
+   *
+   * @return The builder
+   * @throws IOException
+   */
+  public TypedTableBuilder readCells() throws IOException {
+    startReading();
+    TypedTableBuilder builder = new TypedTableBuilder(nrows, ncols);
+    for(int row = 0; row < nrows; row++) {
+      for(int col = 0; col < ncols; col++) {
+        nextCell(row, col);
+        if(!builder.set(row, col, view, mark, pos)) return builder;
+      }
+    }
+    return builder;
+  }
+
+  /**
+   * <!-- readWindow -->
+   *
+   * Read the cells in a window of rows and columns into a
+   * {@link TypedTableBuilder}, as {@link #readCells()}. Cells before the
+   * window are skipped by counting where they start, without parsing them,
+   * and the file is not read beyond the last row of the window.
+   *
+   * @param firstRow The first row of the window
+   * @param lastRow The last row of the window + 1
+   * @param firstCol The first column of the window
+   * @param lastCol The last column of the window + 1
+   * @return The builder, with the cells of the window
+   * @throws IOException
+   */
+  public TypedTableBuilder readWindow(int firstRow, int lastRow, int firstCol, int lastCol) throws IOException {
+    if(firstRow < 0 || lastRow > nrows || firstRow >= lastRow || firstCol < 0 || lastCol > ncols
+      || firstCol >= lastCol) {
+      throw new IllegalArgumentException("Window of rows " + firstRow + " to " + lastRow + " and columns "
+        + firstCol + " to " + lastCol + " is not in the " + nrows + " rows and " + ncols + " columns of " + filename);
+    }
+    startReading();
+    TypedTableBuilder builder = new TypedTableBuilder(lastRow - firstRow, lastCol - firstCol);
+    skipCells((long)firstRow * ncols + firstCol, 0L);
+    for(int row = firstRow; row < lastRow; row++) {
+      if(row > firstRow) skipCells(ncols - lastCol + firstCol, (long)(row - 1) * ncols + lastCol);
+      for(int col = firstCol; col < lastCol; col++) {
+        nextCell(row, col);
+        if(!builder.set(row - firstRow, col - firstCol, view, mark, pos)) return builder;
+      }
+    }
+    return builder;
+  }
+
+  /**
+   * <!-- visitRows -->
+   *
+   * Read the cells one row at a time, giving each row to a visitor as an array
+   * of <code>double</code>s. Cells equal to the 'no data' value are given as
+   * <code>NaN</code>. Only one row is kept in memory.
+   *
+   * @param visitor The visitor
+   * @throws IOException
+   * @throws FileFormatException if a cell is not a number, or there are too
+   *           few cells
+   */
+  public void visitRows(RasterRowVisitor visitor) throws IOException {
+    startReading();
+    NumberParser parser = new NumberParser();
+    boolean hasNoData = nodata_value != null && parser.parse(nodata_value) != NumberParser.NOT_A_NUMBER;
+    double nodata = hasNoData ? parser.doubleValue() : Double.NaN;
+    double[] cells = new double[ncols];
+    for(int row = 0; row < nrows; row++) {
+      for(int col = 0; col < ncols; col++) {
+        nextCell(row, col);
+        if(parser.parse(view, mark, pos) == NumberParser.NOT_A_NUMBER) {
+          throw formatException("a number for row " + row + ", column " + col, token());
+        }
+        double value = parser.doubleValue();
+        cells[col] = (hasNoData && value == nodata) ? Double.NaN : value;
+      }
+      visitor.row(row, cells);
+    }
+  }
+
+  /**
+   * <!-- scanCellType -->
+   *
+   * Read all the cells to find the narrowest type that will hold them, without
+   * keeping any of them. Reading stops at the first cell that is not a number.
+   *
+   * @return A {@link NumberParser} constant
+   * @throws IOException
+   */
+  public int scanCellType() throws IOException {
+    startReading();
+    NumberParser parser = new NumberParser();
+    int type = NumberParser.INT;
+    for(int row = 0; row < nrows; row++) {
+      for(int col = 0; col < ncols; col++) {
+        nextCell(row, col);
+        type = NumberParser.widest(type, parser.parse(view, mark, pos));
+        if(type == NumberParser.NOT_A_NUMBER) return type;
+      }
+    }
+    return type;
+  }
+
+  /**
+   * <!-- close -->
+   *
+   * @see java.io.Closeable#close()
+   */
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /**
+   * <!-- startReading -->
+   *
+   * Check the cells have not already been read
+   */
+  private void startReading() {
+    if(read) throw new IllegalStateException("The cells of " + filename + " have already been read");
+    read = true;
+  }
+
+  /**
+   * <!-- nextCell -->
+   *
+   * Find the next cell, which must be there
+   *
+   * @param row The row the cell is expected to be in
+   * @param col The column the cell is expected to be in
+   * @throws IOException
+   */
+  private void nextCell(int row, int col) throws IOException {
+    if(pending) pending = false;
+    else if(!nextToken()) {
+      throw formatException(nrows + " rows of " + ncols + " columns of space-separated data (cell at row " + row
+        + ", column " + col + ")", null);
+    }
+  }
+
+  /**
+   * <!-- skipCells -->
+   *
+   * Skip a number of cells, looking at each character only to see whether it
+   * is white space
+   *
+   * @param n The number of cells to skip
+   * @param first The index (row * ncols + column) of the first cell skipped,
+   *          for error messages
+   * @throws IOException
+   */
+  private void skipCells(long n, long first) throws IOException {
+    long end = first + n;
+    if(n > 0 && pending) {
+      pending = false;
+      n--;
+    }
+    boolean inCell = false;
+    while(n > 0 || inCell) {
+      if(pos == limit) {
+        mark = pos;
+        if(!refill()) {
+          if(n == 0) return;
+          throw formatException(nrows + " rows of " + ncols + " columns of space-separated data (skipping cells, "
+            + "ran out at row " + ((end - n) / ncols) + ", column " + ((end - n) % ncols) + ")", null);
+        }
+      }
+      char c = buf[pos];
+      if(c > ' ') {
+        if(!inCell) {
+          inCell = true;
+          n--;
+        }
+      }
+      else {
+        if(inCell) {
+          inCell = false;
+          if(n == 0) return;
+        }
+        if(c == '\n') {
+          line++;
+          lineStart = offset + pos + 1;
+        }
+      }
+      pos++;
+    }
+  }
+
+  /**
+   * <!-- nextToken -->
+   *
+   * Skip white space and find the next token, which will then be in the
+   * buffer from {@link #mark} to {@link #pos}.
+   *
+   * @return <code>false</code> if the end of the file was reached first
+   * @throws IOException
+   */
+  private boolean nextToken() throws IOException {
+    while(true) {
+      if(pos == limit) {
+        mark = pos;
+        if(!refill()) return false;
+      }
+      char c = buf[pos];
+      if(c > ' ') break;
+      if(c == '\n') {
+        line++;
+        lineStart = offset + pos + 1;
+      }
+      pos++;
+    }
+    mark = pos;
+    while((pos < limit || refill()) && buf[pos] > ' ') {
+      pos++;
+    }
+    return true;
+  }
+
+  /**
+   * <!-- refill -->
+   *
+   * Read more characters into the buffer, discarding those before the mark
+   * and making the buffer bigger if there is no room.
+   *
+   * @return <code>false</code> if the end of the file has been reached
+   * @throws IOException
+   */
+  private boolean refill() throws IOException {
+    if(mark > 0) {
+      System.arraycopy(buf, mark, buf, 0, limit - mark);
+      offset += mark;
+      pos -= mark;
+      limit -= mark;
+      mark = 0;
+    }
+    if(limit == buf.length) {
+      buf = Arrays.copyOf(buf, buf.length * 2);
+      view = CharBuffer.wrap(buf);
+    }
+    int n = in.read(buf, limit, buf.length - limit);
+    if(n < 0) return false;
+    limit += n;
+    return true;
+  }
+
+  /**
+   * <!-- token -->
+   *
+   * @return The current token
+   */
+  private String token() {
+    return new String(buf, mark, pos - mark);
+  }
+
+  /**
+   * <!-- formatException -->
+   *
+   * @param expecting What was expected
+   * @param found What was found
+   * @return An exception giving the line and character position of the
+   *         current token
+   */
+  private FileFormatException formatException(String expecting, String found) {
+    return new FileFormatException(filename, FORMAT, expecting, found, line, (int)(offset + mark - lineStart) + 1);
+  }
+}
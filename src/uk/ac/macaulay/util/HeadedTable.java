@@ -58,6 +58,22 @@ public class HeadedTable<T> extends Table<T> {
     initCol2Ix();
   }
 
+  /**
+   * Build a HeadedTable without necessarily allocating any storage for the
+   * cells, for subclasses that keep their data in some other way (see
+   * {@link Table#Table(int, int, boolean)}).
+   * 
+   * @param rows The number of rows
+   * @param colHeadings The column headings
+   * @param allocate If <code>false</code>, no storage is allocated for the
+   *          cells
+   */
+  protected HeadedTable(int rows, String[] colHeadings, boolean allocate) {
+    super(rows, colHeadings.length, allocate);
+    this.colHeadings = colHeadings;
+    initCol2Ix();
+  }
+
   /**
    * Build a HeadedTable from an existing table using default column names.
    * These are as commonly used in spreadsheet applications, but without
@@ -122,6 +138,21 @@ public class HeadedTable<T> extends Table<T> {
     return colHeadings;
   }
 
+  /**
+   * <!-- getColumn -->
+   * 
+   * Get the number of the column with a heading. This method will throw an
+   * IllegalArgumentException if the column heading is not recognised.
+   * 
+   * @param colHeading The column heading
+   * @return The column number
+   */
+  public int getColumn(String colHeading) {
+    Integer col = col2ix.get(colHeading);
+    if(col == null) throw new IllegalArgumentException(colHeading);
+    return col;
+  }
+
   /**
    * <!-- atRC -->
    * 
@@ -0,0 +1,108 @@
+/*
+ * uk.ac.macaulay.util: ImplicitNoDataMask.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+/**
+ * <!-- ImplicitNoDataMask -->
+ *
+ * A {@link NoDataMask} that records nothing. A {@link GISRaster} using it
+ * marks a cell as having no data by writing its 'no data' value (or
+ * <code>null</code> if it does not have one) to the cell, so the only memory
+ * used is that of the cells themselves.
+ *
+ * @author Gary Polhill
+ */
+public class ImplicitNoDataMask implements NoDataMask {
+  /**
+   * <!-- isImplicit -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#isImplicit()
+   */
+  public boolean isImplicit() {
+    return true;
+  }
+
+  /**
+   * <!-- get -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#get(int)
+   */
+  public boolean get(int ix) {
+    return false;
+  }
+
+  /**
+   * <!-- set -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#set(int)
+   */
+  public void set(int ix) {
+    throw new UnsupportedOperationException("An implicit no data mask does not record cells");
+  }
+
+  /**
+   * <!-- clear -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#clear(int)
+   */
+  public void clear(int ix) {
+    // Nothing to do
+  }
+
+  /**
+   * <!-- clear -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#clear()
+   */
+  public void clear() {
+    // Nothing to do
+  }
+
+  /**
+   * <!-- cardinality -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#cardinality()
+   */
+  public int cardinality() {
+    return 0;
+  }
+
+  /**
+   * <!-- nextSetBit -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#nextSetBit(int)
+   */
+  public int nextSetBit(int fromIndex) {
+    return -1;
+  }
+
+  /**
+   * <!-- copy -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#copy()
+   */
+  public ImplicitNoDataMask copy() {
+    return new ImplicitNoDataMask();
+  }
+}
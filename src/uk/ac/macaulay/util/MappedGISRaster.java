@@ -0,0 +1,313 @@
+/*
+ * uk.ac.macaulay.util: MappedGISRaster.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <!-- MappedGISRaster -->
+ *
+ * <p>
+ * A {@link GISRaster} whose cells are kept in a memory-mapped file rather than
+ * on the heap, for rasters too big to hold in memory. The file has a
+ * {@link RasterFileHeader} followed by the cells in square tiles (
+ * {@value #DEFAULT_TILE_SIZE} by {@value #DEFAULT_TILE_SIZE} by default), so
+ * that cells near each other on the ground are near each other in the file
+ * whichever direction they are in. Rows of tiles are mapped lazily as they are
+ * used. Opening a file only reads its header, so is quick however big the
+ * raster is.
+ * </p>
+ *
+ * <p>
+ * Apart from where the cells are kept, the raster behaves as any other
+ * {@link GISRaster} of <code>Integer</code>, <code>Float</code> or
+ * <code>Double</code>. It uses an {@link ImplicitNoDataMask}, so that cells
+ * stipulated as having no data have the 'no data' value written to the file.
+ * Files created here always have a 'no data' value; when none is given,
+ * <code>NaN</code> is used for floating point cells and
+ * <code>Integer.MIN_VALUE</code> for integer cells. (If a file opened has no
+ * 'no data' value, such cells are set to <code>null</code>, which is only
+ * recorded in memory.) Changes are written back to the file by
+ * the operating system, or when {@link #force()} or {@link #close()} is called.
+ * </p>
+ *
+ * @see GISRasterReader#convertToMapped(String, String)
+ * @author Gary Polhill
+ */
+public class MappedGISRaster<T extends Number> extends GISRaster<T> implements Closeable {
+  /**
+   * Suggested file name extension
+   */
+  public static final String EXTENSION = ".mgrid";
+
+  /**
+   * Default number of rows and columns in each tile
+   */
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  /**
+   * Header of the file
+   */
+  private final RasterFileHeader header;
+
+  /**
+   * The file
+   */
+  private final RandomAccessFile file;
+
+  /**
+   * The cells
+   */
+  private final MappedTable<T> cells;
+
+  /**
+   * Constructor
+   *
+   * @param header Header of the file
+   * @param file The file
+   * @param cells The cells, mapped from the file
+   */
+  @SuppressWarnings("unchecked")
+  private MappedGISRaster(RasterFileHeader header, RandomAccessFile file, MappedTable<T> cells) {
+    super(cells, header.getOriginX(), header.getOriginY(), header.getCellSize(), (T)header.getNoDataValue(), cells);
+    this.header = header;
+    this.file = file;
+    this.cells = cells;
+    setNoDataMask(new ImplicitNoDataMask());
+  }
+
+  /**
+   * <!-- create -->
+   *
+   * Create a new file for a raster, with all cells initially zero.
+   *
+   * @param <T> The type of entry in the raster
+   * @param filename The file to create (any existing file is overwritten)
+   * @param type The type of entry in the raster (<code>Integer</code>,
+   *          <code>Float</code> or <code>Double</code>)
+   * @param nrows The number of rows
+   * @param ncols The number of columns
+   * @param originX Eastings of the origin
+   * @param originY Northings of the origin
+   * @param cellSize Length of one side of the (square) cells
+   * @param nodata_value Value indicating no data for a cell (if
+   *          <code>null</code>, that from {@link #noDataFor(Class)} is used)
+   * @param tileSize Number of rows and columns in each tile
+   * @return The raster, open for reading and writing
+   * @throws IOException
+   */
+  public static <T extends Number> MappedGISRaster<T> create(String filename, Class<T> type, int nrows, int ncols,
+      double originX, double originY, double cellSize, T nodata_value, int tileSize) throws IOException {
+    RasterFileHeader.CellType cellType = RasterFileHeader.CellType.forClass(type);
+    if(nodata_value == null) nodata_value = noDataFor(type);
+    RasterFileHeader header =
+      new RasterFileHeader(RasterFileHeader.Layout.TILES, cellType, 0, nrows, ncols, tileSize, originX, originY,
+          cellSize, nodata_value);
+    RandomAccessFile file = new RandomAccessFile(filename, "rw");
+    try {
+      file.setLength(0L);
+      file.setLength(RasterFileHeader.SIZE + header.payloadBytes());
+      ByteBuffer buffer = ByteBuffer.allocate(RasterFileHeader.SIZE);
+      header.write(buffer);
+      buffer.flip();
+      file.getChannel().write(buffer, 0L);
+      return new MappedGISRaster<T>(header, file, new MappedTable<T>(file.getChannel(), FileChannel.MapMode.READ_WRITE,
+          header, RasterFileHeader.SIZE));
+    }
+    catch(IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * <!-- create -->
+   *
+   * Create a new file containing a copy of a raster, using the default tile
+   * size. Cells with no data in the raster have the 'no data' value written
+   * to the file, which is that from {@link #noDataFor(Class)} if the raster
+   * has none.
+   *
+   * @param <T> The type of entry in the raster
+   * @param filename The file to create (any existing file is overwritten)
+   * @param type The type of entry in the raster (<code>Integer</code>,
+   *          <code>Float</code> or <code>Double</code>)
+   * @param raster The raster to copy
+   * @return The copy, open for reading and writing
+   * @throws IOException
+   */
+  public static <T extends Number> MappedGISRaster<T> create(String filename, Class<T> type, final GISRaster<T> raster)
+      throws IOException {
+    final MappedGISRaster<T> mapped =
+      create(filename, type, raster.nrows(), raster.ncols(), raster.getOriginX(), raster.getOriginY(), raster
+          .getCellSize(), raster.getNoDataValue(), DEFAULT_TILE_SIZE);
+    ParallelRows.forEach(raster.nrows(), raster.ncols(), (startRow, endRow) -> {
+      for(int row = startRow; row < endRow; row++) {
+        for(int col = 0; col < raster.ncols(); col++) {
+          T value = raster.atRC(row, col);
+          mapped.cells.setCell(row, col, value == null ? mapped.getNoDataValue() : value);
+        }
+      }
+    });
+    return mapped;
+  }
+
+  /**
+   * <!-- noDataFor -->
+   *
+   * @param <T> The type of entry in the raster
+   * @param type The type of entry in the raster (<code>Integer</code>,
+   *          <code>Float</code> or <code>Double</code>)
+   * @return The 'no data' value to use for a new file when none is given:
+   *         <code>Integer.MIN_VALUE</code> for integers, and <code>NaN</code>
+   *         otherwise
+   */
+  public static <T extends Number> T noDataFor(Class<T> type) {
+    if(type == Integer.class) return type.cast(Integer.valueOf(Integer.MIN_VALUE));
+    if(type == Float.class) return type.cast(Float.valueOf(Float.NaN));
+    return type.cast(Double.valueOf(Double.NaN));
+  }
+
+  /**
+   * <!-- open -->
+   *
+   * Open an existing file. Only the header is read.
+   *
+   * @param filename The file
+   * @param writable <code>true</code> if changes to the raster are to be
+   *          written to the file
+   * @return The raster, with entries of the class given by the cell type in
+   *         the file's header
+   * @throws IOException
+   */
+  public static MappedGISRaster<?> open(String filename, boolean writable) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(filename, writable ? "rw" : "r");
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate(RasterFileHeader.SIZE);
+      while(buffer.hasRemaining()) {
+        if(file.getChannel().read(buffer, buffer.position()) < 0) break;
+      }
+      buffer.flip();
+      RasterFileHeader header = RasterFileHeader.read(buffer, filename);
+      if(header.getLayout() != RasterFileHeader.Layout.TILES) {
+        throw new FileFormatException(filename, "mapped raster", "tiled layout", header.getLayout().toString());
+      }
+      if(file.length() < RasterFileHeader.SIZE + header.payloadBytes()) {
+        throw new FileFormatException(filename, "mapped raster", (RasterFileHeader.SIZE + header.payloadBytes())
+          + " bytes", file.length() + " bytes");
+      }
+      return open(header, file, writable);
+    }
+    catch(IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * <!-- open -->
+   *
+   * Open an existing file, checking it has the expected type of entry.
+   *
+   * @param <T> The type of entry in the raster
+   * @param filename The file
+   * @param type The class of entry expected
+   * @param writable <code>true</code> if changes to the raster are to be
+   *          written to the file
+   * @return The raster
+   * @throws IOException
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends Number> MappedGISRaster<T> open(String filename, Class<T> type, boolean writable)
+      throws IOException {
+    MappedGISRaster<?> raster = open(filename, writable);
+    if(raster.getCellType().getType() != type) {
+      raster.close();
+      throw new FileFormatException(filename, "mapped raster", type.getSimpleName() + " cells", raster.getCellType()
+          .getType().getSimpleName()
+        + " cells");
+    }
+    return (MappedGISRaster<T>)raster;
+  }
+
+  /**
+   * <!-- open -->
+   *
+   * @param <T> The type of entry in the raster
+   * @param header The header read from the file
+   * @param file The file
+   * @param writable Whether to map the file read-write
+   * @return The raster
+   */
+  private static <T extends Number> MappedGISRaster<T> open(RasterFileHeader header, RandomAccessFile file,
+      boolean writable) {
+    return new MappedGISRaster<T>(header, file, new MappedTable<T>(file.getChannel(), writable
+        ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, header, RasterFileHeader.SIZE));
+  }
+
+  /**
+   * <!-- getHeader -->
+   *
+   * @return The header of the file
+   */
+  public RasterFileHeader getHeader() {
+    return header;
+  }
+
+  /**
+   * <!-- getCellType -->
+   *
+   * @return The type of number in each cell
+   */
+  public RasterFileHeader.CellType getCellType() {
+    return header.getCellType();
+  }
+
+  /**
+   * <!-- force -->
+   *
+   * Make sure any changes to the cells have been written to the file
+   */
+  public void force() {
+    cells.force();
+  }
+
+  /**
+   * <!-- close -->
+   *
+   * Write any changes to the file and close it. Rows of tiles already mapped
+   * remain readable until the raster is garbage collected, but others can no
+   * longer be mapped.
+   *
+   * @see java.io.Closeable#close()
+   */
+  public void close() throws IOException {
+    force();
+    file.close();
+  }
+}
@@ -0,0 +1,333 @@
+/*
+ * uk.ac.macaulay.util: MappedTable.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <!-- MappedTable -->
+ *
+ * <p>
+ * A table of numbers stored in square tiles in a memory-mapped file, laid out
+ * as described for {@link RasterFileHeader.Layout#TILES}. Each row of tiles
+ * is mapped the first time a cell in it is used, and the operating system
+ * pages the tiles in and out of memory as they are needed, so the table can
+ * be much larger than the heap.
+ * </p>
+ *
+ * <p>
+ * Cells set to <code>null</code> are recorded in memory only, as for other
+ * {@link AbstractPrimitiveTable}s, and are not saved to the file.
+ * </p>
+ *
+ * @see MappedGISRaster
+ * @author Gary Polhill
+ */
+final class MappedTable<T extends Number> extends AbstractPrimitiveTable<T> {
+  /**
+   * The file
+   */
+  private final FileChannel channel;
+
+  /**
+   * Whether the file is mapped read-only or read-write
+   */
+  private final FileChannel.MapMode mode;
+
+  /**
+   * Type of number in each cell
+   */
+  private final RasterFileHeader.CellType cellType;
+
+  /**
+   * Rows and columns in each tile
+   */
+  private final int tileSize;
+
+  /**
+   * Bytes per row of tiles
+   */
+  private final int bandBytes;
+
+  /**
+   * Position in the file of the first tile
+   */
+  private final long offset;
+
+  /**
+   * Mapped rows of tiles (<code>null</code> until first used)
+   */
+  private final AtomicReferenceArray<ByteBuffer> bands;
+
+  /**
+   * Constructor
+   *
+   * @param channel The file, which must already be large enough for all the
+   *          tiles
+   * @param mode How to map the file
+   * @param header Header describing the layout of the tiles
+   * @param offset Position in the file of the first tile
+   */
+  MappedTable(FileChannel channel, FileChannel.MapMode mode, RasterFileHeader header, long offset) {
+    super(header.nrows(), header.ncols());
+    if(header.getLayout() != RasterFileHeader.Layout.TILES) {
+      throw new IllegalArgumentException("Cells are not stored in tiles");
+    }
+    this.channel = channel;
+    this.mode = mode;
+    cellType = header.getCellType();
+    tileSize = header.getTileSize();
+    long bytes = (long)header.tilesAcross() * (long)tileSize * (long)tileSize * (long)cellType.bytes();
+    if(bytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many columns (" + ncols + ") to map a row of tiles of size " + tileSize);
+    }
+    bandBytes = (int)bytes;
+    this.offset = offset;
+    bands = new AtomicReferenceArray<ByteBuffer>(header.tilesDown());
+  }
+
+  /**
+   * <!-- band -->
+   *
+   * @param row A row
+   * @return The mapped row of tiles containing the row
+   */
+  private ByteBuffer band(int row) {
+    int b = row / tileSize;
+    ByteBuffer band = bands.get(b);
+    if(band == null) {
+      synchronized(bands) {
+        band = bands.get(b);
+        if(band == null) {
+          try {
+            band = channel.map(mode, offset + (long)b * (long)bandBytes, bandBytes).order(ByteOrder.LITTLE_ENDIAN);
+          }
+          catch(IOException e) {
+            throw new RuntimeException("Could not map row of tiles " + b + ": " + e.getMessage(), e);
+          }
+          bands.set(b, band);
+        }
+      }
+    }
+    return band;
+  }
+
+  /**
+   * <!-- position -->
+   *
+   * @param row A row
+   * @param col A column
+   * @return The position of the cell in its row of tiles
+   */
+  private int position(int row, int col) {
+    int tileCol = col / tileSize;
+    return ((tileCol * tileSize + row % tileSize) * tileSize + (col - tileCol * tileSize)) * cellType.bytes();
+  }
+
+  /**
+   * <!-- getCellType -->
+   *
+   * @return The type of number in each cell
+   */
+  RasterFileHeader.CellType getCellType() {
+    return cellType;
+  }
+
+  /**
+   * <!-- getDouble -->
+   *
+   * @see uk.ac.macaulay.util.AbstractPrimitiveTable#getDouble(int, int)
+   */
+  @Override
+  public double getDouble(int row, int col) {
+    checkRC(row, col);
+    ByteBuffer band = band(row);
+    int pos = position(row, col);
+    switch(cellType) {
+    case INT:
+      return band.getInt(pos);
+    case FLOAT:
+      return band.getFloat(pos);
+    default:
+      return band.getDouble(pos);
+    }
+  }
+
+  /**
+   * <!-- setDouble -->
+   *
+   * @see uk.ac.macaulay.util.AbstractPrimitiveTable#setDouble(int, int, double)
+   */
+  @Override
+  public void setDouble(int row, int col, double value) {
+    checkRC(row, col);
+    put(row, col, value);
+    clearNull(index(row, col));
+  }
+
+  /**
+   * <!-- put -->
+   *
+   * Write a value to the file, cast to the type of cell
+   *
+   * @param row The row
+   * @param col The column
+   * @param value The value
+   */
+  private void put(int row, int col, double value) {
+    ByteBuffer band = band(row);
+    int pos = position(row, col);
+    switch(cellType) {
+    case INT:
+      band.putInt(pos, (int)value);
+      break;
+    case FLOAT:
+      band.putFloat(pos, (float)value);
+      break;
+    default:
+      band.putDouble(pos, value);
+    }
+  }
+
+  /**
+   * <!-- cellEquals -->
+   *
+   * @see uk.ac.macaulay.util.AbstractPrimitiveTable#cellEquals(int, int, java.lang.Object)
+   */
+  @Override
+  public boolean cellEquals(int row, int col, Object value) {
+    checkRC(row, col);
+    if(!cellType.getType().isInstance(value) || isNull(index(row, col))) return false;
+    ByteBuffer band = band(row);
+    int pos = position(row, col);
+    switch(cellType) {
+    case INT:
+      return band.getInt(pos) == ((Integer)value).intValue();
+    case FLOAT:
+      return Float.floatToIntBits(band.getFloat(pos)) == Float.floatToIntBits(((Float)value).floatValue());
+    default:
+      return Double.doubleToLongBits(band.getDouble(pos)) == Double.doubleToLongBits(((Double)value).doubleValue());
+    }
+  }
+
+  /**
+   * <!-- getCell -->
+   *
+   * @see uk.ac.macaulay.util.Table#getCell(int, int)
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  protected T getCell(int row, int col) {
+    if(isNull(index(row, col))) return null;
+    ByteBuffer band = band(row);
+    int pos = position(row, col);
+    switch(cellType) {
+    case INT:
+      return (T)Integer.valueOf(band.getInt(pos));
+    case FLOAT:
+      return (T)Float.valueOf(band.getFloat(pos));
+    default:
+      return (T)Double.valueOf(band.getDouble(pos));
+    }
+  }
+
+  /**
+   * <!-- setCell -->
+   *
+   * @see uk.ac.macaulay.util.Table#setCell(int, int, java.lang.Object)
+   */
+  @Override
+  protected void setCell(int row, int col, T value) {
+    int ix = index(row, col);
+    if(value == null) {
+      put(row, col, 0.0);
+      setNull(ix);
+    }
+    else {
+      if(cellType == RasterFileHeader.CellType.INT) band(row).putInt(position(row, col), value.intValue());
+      else
+        put(row, col, value.doubleValue());
+      clearNull(ix);
+    }
+  }
+
+  /**
+   * <!-- force -->
+   *
+   * Write any changes to the cells out to the file
+   */
+  void force() {
+    for(int b = 0; b < bands.length(); b++) {
+      ByteBuffer band = bands.get(b);
+      if(band != null) ((MappedByteBuffer)band).force();
+    }
+  }
+
+  /**
+   * <!-- copy -->
+   *
+   * Copy the table into memory, as an {@link IntTable}, {@link FloatTable} or
+   * {@link DoubleTable}.
+   *
+   * @see uk.ac.macaulay.util.AbstractPrimitiveTable#copy()
+   */
+  @Override
+  public AbstractPrimitiveTable<T> copy() {
+    final AbstractPrimitiveTable<T> table = newTable(nrows, ncols);
+    ParallelRows.forEach(nrows, ncols, (startRow, endRow) -> {
+      for(int row = startRow; row < endRow; row++) {
+        for(int col = 0; col < ncols; col++) {
+          table.setCell(row, col, getCell(row, col));
+        }
+      }
+    });
+    return table;
+  }
+
+  /**
+   * <!-- newTable -->
+   *
+   * The new table is held in memory, as an {@link IntTable},
+   * {@link FloatTable} or {@link DoubleTable}.
+   *
+   * @see uk.ac.macaulay.util.AbstractPrimitiveTable#newTable(int, int)
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public AbstractPrimitiveTable<T> newTable(int nrows, int ncols) {
+    switch(cellType) {
+    case INT:
+      return (AbstractPrimitiveTable<T>)new IntTable(nrows, ncols);
+    case FLOAT:
+      return (AbstractPrimitiveTable<T>)new FloatTable(nrows, ncols);
+    default:
+      return (AbstractPrimitiveTable<T>)new DoubleTable(nrows, ncols);
+    }
+  }
+}
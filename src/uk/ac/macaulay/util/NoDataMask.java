@@ -0,0 +1,122 @@
+/*
+ * uk.ac.macaulay.util: NoDataMask.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+/**
+ * <!-- NoDataMask -->
+ *
+ * <p>
+ * A record of which cells in a {@link GISRaster} have been stipulated to have
+ * no data. Cells are identified by their index in the raster, row by row
+ * (<code>row * ncols + col</code>, with row 0 at the top). Different
+ * implementations suit different rasters:
+ * </p>
+ *
+ * <ul>
+ * <li>{@link DenseNoDataMask} keeps one bit per cell, and is fastest to read
+ * and update;</li>
+ * <li>{@link SparseNoDataMask} keeps only the cells that have no data, and
+ * uses much less memory when they are few or clustered;</li>
+ * <li>{@link ImplicitNoDataMask} keeps nothing, and relies on the raster's
+ * 'no data' value (or <code>null</code>) being written to the cell
+ * instead.</li>
+ * </ul>
+ *
+ * <p>
+ * Masks are not safe to update from more than one thread at once; the
+ * {@link GISRaster} using the mask synchronizes its updates.
+ * </p>
+ *
+ * @see GISRaster#setNoDataMask(NoDataMask)
+ * @author Gary Polhill
+ */
+public interface NoDataMask {
+  /**
+   * <!-- isImplicit -->
+   *
+   * @return <code>true</code> if the mask does not record any cells, in which
+   *         case {@link #set(int)} will throw an
+   *         {@link UnsupportedOperationException}
+   */
+  public boolean isImplicit();
+
+  /**
+   * <!-- get -->
+   *
+   * @param ix Index of the cell
+   * @return <code>true</code> if the cell has been set as having no data
+   */
+  public boolean get(int ix);
+
+  /**
+   * <!-- set -->
+   *
+   * Record that a cell has no data
+   *
+   * @param ix Index of the cell
+   */
+  public void set(int ix);
+
+  /**
+   * <!-- clear -->
+   *
+   * Record that a cell has data
+   *
+   * @param ix Index of the cell
+   */
+  public void clear(int ix);
+
+  /**
+   * <!-- clear -->
+   *
+   * Record that all cells have data
+   */
+  public void clear();
+
+  /**
+   * <!-- cardinality -->
+   *
+   * @return The number of cells set as having no data
+   */
+  public int cardinality();
+
+  /**
+   * <!-- nextSetBit -->
+   *
+   * Find the next cell set as having no data. To iterate over them all:
+   * <code>for(int i = mask.nextSetBit(0); i &gt;= 0; i = mask.nextSetBit(i + 1))</code>
+   *
+   * @param fromIndex The index to start looking from (inclusive)
+   * @return The index of the first cell at or after the given index set as
+   *         having no data, or -1 if there are none
+   */
+  public int nextSetBit(int fromIndex);
+
+  /**
+   * <!-- copy -->
+   *
+   * @return An independent copy of the mask
+   */
+  public NoDataMask copy();
+}
@@ -0,0 +1,233 @@
+/*
+ * uk.ac.macaulay.util: NumberParser.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+/**
+ * <!-- NumberParser -->
+ *
+ * <p>
+ * Work out whether some text is an <code>int</code>, a <code>long</code>, a
+ * <code>double</code> or not a number at all, and get its value, in one pass
+ * over the characters. Something is classified as the narrowest of these
+ * types that {@link Integer#parseInt(String)}, {@link Long#parseLong(String)}
+ * or {@link Double#parseDouble(String)} would accept.
+ * </p>
+ *
+ * <p>
+ * Plain decimal numbers, which are what almost all data files contain, are
+ * recognised without any exceptions being thrown. Anything else that might
+ * still be acceptable to {@link Double#parseDouble(String)} (such as
+ * <code>NaN</code>, <code>Infinity</code>, hexadecimal, or surrounding white
+ * space) is passed to it and the {@link NumberFormatException} caught. Text
+ * that cannot start a number is rejected straight away. Only ASCII digits are
+ * recognised in integers, though {@link Integer#parseInt(String)} accepts
+ * digits from other scripts too.
+ * </p>
+ *
+ * <p>
+ * The value of the last number parsed is kept in the parser, so a parser
+ * should not be shared between threads.
+ * </p>
+ *
+ * @author Gary Polhill
+ */
+public final class NumberParser {
+  /**
+   * The text is an <code>int</code>
+   */
+  public static final int INT = 0;
+
+  /**
+   * The text is a <code>long</code> outside the range of <code>int</code>
+   */
+  public static final int LONG = 1;
+
+  /**
+   * The text is a <code>double</code> but not an integer
+   */
+  public static final int DOUBLE = 2;
+
+  /**
+   * The text is not a number
+   */
+  public static final int NOT_A_NUMBER = 3;
+
+  /**
+   * The value of the last integer parsed
+   */
+  private long longValue;
+
+  /**
+   * The value of the last number parsed
+   */
+  private double doubleValue;
+
+  /**
+   * <!-- parse -->
+   *
+   * @param text The text to parse
+   * @return {@link #INT}, {@link #LONG}, {@link #DOUBLE} or
+   *         {@link #NOT_A_NUMBER}
+   */
+  public int parse(CharSequence text) {
+    return parse(text, 0, text.length());
+  }
+
+  /**
+   * <!-- parse -->
+   *
+   * Parse part of some text. If the result is {@link #INT} or {@link #LONG},
+   * the value can be obtained from {@link #longValue()} (or
+   * {@link #intValue()}); if it is anything but {@link #NOT_A_NUMBER}, from
+   * {@link #doubleValue()}.
+   *
+   * @param text The text
+   * @param start The index of the first character to parse
+   * @param end One more than the index of the last character to parse
+   * @return {@link #INT}, {@link #LONG}, {@link #DOUBLE} or
+   *         {@link #NOT_A_NUMBER}
+   */
+  public int parse(CharSequence text, int start, int end) {
+    int i = start;
+    if(i == end) return NOT_A_NUMBER;
+    char c = text.charAt(i);
+    boolean negative = c == '-';
+    if(negative || c == '+') i++;
+
+    // Integer part, accumulated negatively so Long.MIN_VALUE can be reached
+    int digitsStart = i;
+    long value = 0L;
+    boolean overflow = false;
+    while(i < end && (c = text.charAt(i)) >= '0' && c <= '9') {
+      int digit = c - '0';
+      if(value < Long.MIN_VALUE / 10 || (value == Long.MIN_VALUE / 10 && digit > -(Long.MIN_VALUE % 10))) {
+        overflow = true;
+      }
+      value = value * 10 - digit;
+      i++;
+    }
+    int ndigits = i - digitsStart;
+
+    if(i == end && ndigits > 0) {
+      if(!overflow && (negative || value != Long.MIN_VALUE)) {
+        longValue = negative ? value : -value;
+        doubleValue = (double)longValue;
+        return (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) ? INT : LONG;
+      }
+      return parseDouble(text, start, end);
+    }
+
+    // Fraction and exponent
+    if(i < end && text.charAt(i) == '.') {
+      i++;
+      int fractionStart = i;
+      while(i < end && (c = text.charAt(i)) >= '0' && c <= '9') {
+        i++;
+      }
+      ndigits += i - fractionStart;
+    }
+    if(ndigits > 0 && i < end && ((c = text.charAt(i)) == 'e' || c == 'E')) {
+      i++;
+      if(i < end && ((c = text.charAt(i)) == '-' || c == '+')) i++;
+      int exponentStart = i;
+      while(i < end && (c = text.charAt(i)) >= '0' && c <= '9') {
+        i++;
+      }
+      if(i == exponentStart) return NOT_A_NUMBER;
+    }
+    if(ndigits > 0 && i == end) return parseDouble(text, start, end);
+
+    // Not a plain decimal number: reject it if it cannot be the start of
+    // anything Double.parseDouble() accepts, otherwise let that decide
+    int j = start;
+    while(j < end && text.charAt(j) <= ' ') {
+      j++;
+    }
+    if(j < end && ((c = text.charAt(j)) == '-' || c == '+')) j++;
+    if(j == end) return NOT_A_NUMBER;
+    c = text.charAt(j);
+    if((c < '0' || c > '9') && c != '.' && c != 'N' && c != 'I') return NOT_A_NUMBER;
+    try {
+      doubleValue = Double.parseDouble(text.subSequence(start, end).toString());
+      return DOUBLE;
+    }
+    catch(NumberFormatException e) {
+      return NOT_A_NUMBER;
+    }
+  }
+
+  /**
+   * <!-- parseDouble -->
+   *
+   * Parse text already known to be acceptable to
+   * {@link Double#parseDouble(String)}
+   *
+   * @param text The text
+   * @param start The index of the first character
+   * @param end One more than the index of the last character
+   * @return {@link #DOUBLE}
+   */
+  private int parseDouble(CharSequence text, int start, int end) {
+    doubleValue = Double.parseDouble(text.subSequence(start, end).toString());
+    return DOUBLE;
+  }
+
+  /**
+   * <!-- intValue -->
+   *
+   * @return The last integer parsed, cast to <code>int</code>
+   */
+  public int intValue() {
+    return (int)longValue;
+  }
+
+  /**
+   * <!-- longValue -->
+   *
+   * @return The last integer parsed
+   */
+  public long longValue() {
+    return longValue;
+  }
+
+  /**
+   * <!-- doubleValue -->
+   *
+   * @return The last number parsed
+   */
+  public double doubleValue() {
+    return doubleValue;
+  }
+
+  /**
+   * <!-- widest -->
+   *
+   * @param type1 One type
+   * @param type2 Another type
+   * @return The wider of the two types
+   */
+  public static int widest(int type1, int type2) {
+    return Math.max(type1, type2);
+  }
+}
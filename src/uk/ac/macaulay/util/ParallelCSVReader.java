@@ -0,0 +1,534 @@
+/*
+ * uk.ac.macaulay.util: ParallelCSVReader.java
+ * 
+ * Copyright (C) 2010 Macaulay Institute
+ * 
+ * This file is part of utils.
+ * 
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <!-- ParallelCSVReader -->
+ *
+ * <p>
+ * Read a large CSV file, in the format read by {@link CSVReader}, using all
+ * the processors available. The file is memory-mapped in chunks, which are
+ * parsed concurrently on the common fork-join pool, each with its own
+ * {@link CSVParser}.
+ * </p>
+ *
+ * <p>
+ * Chunks have to be split where a record ends, which is at a line break that
+ * is not in quotes, but whether a line break is in quotes depends on all the
+ * quotes before it in the file. The file is therefore gone through twice:
+ * first to find, for each chunk, the first record break and the number of
+ * record breaks both if the chunk starts outside quotes and if it starts
+ * inside them, and the number of quotes. Going through these in order then
+ * tells each chunk whether it starts in quotes, and so where its first record
+ * starts and the number of that record in the file. The records are then
+ * parsed, and either put in a {@link Table} in order, or given to a
+ * {@link RowSink} in whatever order the chunks happen to be parsed.
+ * </p>
+ *
+ * <p>
+ * The file must be a local file in the default character set, which must
+ * encode quotes, commas and line breaks as single bytes that are not part of
+ * any other character (as ASCII, UTF-8 and the ISO-8859 sets do). If the file
+ * has errors, the one nearest the start of the file is reported, with its row
+ * and column, however the chunks happen to be scheduled.
+ * </p>
+ *
+ * @see CSVStream
+ * @author Gary Polhill
+ */
+public class ParallelCSVReader {
+  /**
+   * Largest number of bytes in a chunk
+   */
+  public static final int MAX_CHUNK_SIZE = 1 << 24;
+
+  /**
+   * Smallest number of bytes in a chunk, unless the file is smaller
+   */
+  public static final int MIN_CHUNK_SIZE = 1 << 16;
+
+  /**
+   * <!-- RowSink -->
+   *
+   * Something to give the rows of a CSV file to, as they are parsed
+   *
+   * @author Gary Polhill
+   */
+  public interface RowSink {
+    /**
+     * <!-- row -->
+     *
+     * Take a row. This is called by several threads at once, with rows in no
+     * particular order.
+     *
+     * @param row The number of the row in the file, from 1
+     * @param cells The cells of the row. The list is reused for the next row
+     *          parsed by the same thread, so must be copied if it is needed
+     *          after the call returns.
+     */
+    public void row(long row, List<String> cells);
+  }
+
+  /**
+   * The file name
+   */
+  private final String filename;
+
+  /**
+   * Constructor
+   *
+   * @param filename The file to read, which must be a local file
+   */
+  public ParallelCSVReader(String filename) {
+    this.filename = filename;
+  }
+
+  /**
+   * <!-- getFileName -->
+   *
+   * @return The name of the file read
+   */
+  public String getFileName() {
+    return filename;
+  }
+
+  /**
+   * <!-- read -->
+   *
+   * Read the file, giving each row to a sink as soon as it is parsed
+   *
+   * @param sink The sink, which must be safe to call from several threads at
+   *          once
+   * @return The number of rows in the file
+   * @throws IOException
+   * @throws CSVException
+   */
+  public long read(final RowSink sink) throws IOException, CSVException {
+    Chunk[] chunks = parse((chunk, row, cells) -> sink.row(row, cells));
+    return nrows(chunks);
+  }
+
+  /**
+   * <!-- getTable -->
+   *
+   * Read the file into a table, which has as many columns as the longest row
+   * in the file. Cells missing from shorter rows are <code>null</code>.
+   *
+   * @return A table with the rows of the file, in order
+   * @throws IOException
+   * @throws CSVException
+   */
+  public Table<String> getTable() throws IOException, CSVException {
+    final Chunk[] chunks = parseRows();
+    long nrows = nrows(chunks);
+    if(nrows > Integer.MAX_VALUE) throw new IllegalStateException("Too many rows for a table (" + nrows + ")");
+    Table<String> table = new Table<String>((int)nrows, ncols(chunks, false));
+    fill(chunks, table, 0);
+    return table;
+  }
+
+  /**
+   * <!-- getHeadedTable -->
+   *
+   * Read the file into a table with headings taken from its first row. As for
+   * {@link CSVReader#getHeadedTable()}, this will throw an
+   * IllegalStateException if the number of column headings is different from
+   * the maximum number of columns found in any one row.
+   *
+   * @return A table with headings, and the other rows of the file, in order
+   * @throws IOException
+   * @throws CSVException
+   */
+  public HeadedTable<String> getHeadedTable() throws IOException, CSVException {
+    final Chunk[] chunks = parseRows();
+    long nrows = nrows(chunks);
+    if(nrows == 0) throw new IllegalStateException("There are no headings");
+    if(nrows - 1 > Integer.MAX_VALUE) throw new IllegalStateException("Too many rows for a table (" + nrows + ")");
+    String[] colHeadings = chunks[0].rows.get(0);
+    int ncols = ncols(chunks, true);
+    if(colHeadings.length < ncols) {
+      throw new IllegalStateException("Number of headings (" + colHeadings.length
+        + ") different from number of columns (" + ncols + ")");
+    }
+    HeadedTable<String> table = new HeadedTable<String>((int)nrows - 1, colHeadings);
+    fill(chunks, table, 1);
+    return table;
+  }
+
+  /**
+   * <!-- parseRows -->
+   *
+   * @return The chunks of the file, with the rows parsed from each
+   * @throws IOException
+   * @throws CSVException
+   */
+  private Chunk[] parseRows() throws IOException, CSVException {
+    return parse((chunk, row, cells) -> chunk.rows.add(cells.toArray(new String[cells.size()])));
+  }
+
+  /**
+   * <!-- nrows -->
+   *
+   * @param chunks The parsed chunks
+   * @return The number of rows in the file
+   */
+  private static long nrows(Chunk[] chunks) {
+    for(int i = chunks.length - 1; i >= 0; i--) {
+      if(chunks[i].from >= 0) return chunks[i].firstRow - 1 + chunks[i].nrows;
+    }
+    return 0L;
+  }
+
+  /**
+   * <!-- ncols -->
+   *
+   * @param chunks The parsed chunks
+   * @param headed <code>true</code> if the first row is not to be counted
+   * @return The number of cells in the longest row
+   */
+  private static int ncols(Chunk[] chunks, boolean headed) {
+    int ncols = 0;
+    for(Chunk chunk: chunks) {
+      for(int i = (headed && chunk.index == 0) ? 1 : 0; i < chunk.rows.size(); i++) {
+        ncols = Math.max(ncols, chunk.rows.get(i).length);
+      }
+    }
+    return ncols;
+  }
+
+  /**
+   * <!-- fill -->
+   *
+   * Put the rows parsed from each chunk in a table, a chunk at a time in
+   * parallel. Each chunk writes to different rows, so the table's cells are
+   * set directly, without locking the table.
+   *
+   * @param chunks The parsed chunks, whose rows are dropped once in the table
+   * @param table The table
+   * @param skip The number of rows at the start of the file not to put in the
+   *          table
+   * @throws IOException
+   */
+  private static void fill(Chunk[] chunks, final Table<String> table, final int skip) throws IOException {
+    run(chunks, chunk -> {
+      int row = (int)(chunk.firstRow - 1) - skip;
+      for(String[] cells: chunk.rows) {
+        if(row >= 0) {
+          for(int col = 0; col < cells.length; col++) {
+            table.setCell(row, col, cells[col]);
+          }
+        }
+        row++;
+      }
+      chunk.rows = null;
+    });
+  }
+
+  /**
+   * <!-- RecordWork -->
+   *
+   * Something to do with each record parsed
+   *
+   * @author Gary Polhill
+   */
+  private interface RecordWork {
+    public void record(Chunk chunk, long row, List<String> cells);
+  }
+
+  /**
+   * <!-- parse -->
+   *
+   * Split the file into chunks at record breaks, and parse them
+   *
+   * @param work What to do with each record
+   * @return The chunks
+   * @throws IOException
+   * @throws CSVException
+   */
+  private Chunk[] parse(final RecordWork work) throws IOException, CSVException {
+    RandomAccessFile file = new RandomAccessFile(filename, "r");
+    try {
+      final FileChannel channel = file.getChannel();
+      final long size = channel.size();
+      final Chunk[] chunks = split(size);
+      run(chunks, chunk -> chunk.scan(channel));
+
+      // Find which chunks start in quotes, and so where their records start
+
+      int quoted = 0;
+      long nbreaks = 0L;
+      Chunk last = chunks[0];
+      last.from = 0L;
+      last.firstRow = 1L;
+      for(int i = 0; i < chunks.length; i++) {
+        Chunk chunk = chunks[i];
+        if(i > 0 && chunk.firstBreak[quoted] >= 0L) {
+          last.to = chunk.firstBreak[quoted];
+          chunk.from = chunk.firstBreak[quoted];
+          chunk.firstRow = nbreaks + 2L;
+          last = chunk;
+        }
+        nbreaks += chunk.nbreaks[quoted];
+        quoted ^= chunk.nquotes & 1;
+      }
+      last.to = size;
+
+      final AtomicInteger firstError = new AtomicInteger(chunks.length);
+      run(chunks, chunk -> {
+        if(chunk.from >= 0L && chunk.index < firstError.get()) {
+          chunk.parse(channel, work);
+          if(chunk.error != null) firstError.accumulateAndGet(chunk.index, Math::min);
+        }
+      });
+      if(firstError.get() < chunks.length) throw chunks[firstError.get()].error;
+      return chunks;
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  /**
+   * <!-- split -->
+   *
+   * @param size The size of the file
+   * @return The chunks to split the file into
+   */
+  private Chunk[] split(long size) {
+    long chunkSize = size / (4L * Runtime.getRuntime().availableProcessors());
+    chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+    int nchunks = (int)Math.max(1L, (size + chunkSize - 1) / chunkSize);
+    Chunk[] chunks = new Chunk[nchunks];
+    for(int i = 0; i < nchunks; i++) {
+      chunks[i] = new Chunk(i, i * chunkSize, Math.min(size, (i + 1) * chunkSize), size);
+    }
+    return chunks;
+  }
+
+  /**
+   * <!-- ChunkWork -->
+   *
+   * Something to do with a chunk
+   *
+   * @author Gary Polhill
+   */
+  private interface ChunkWork {
+    public void chunk(Chunk chunk) throws IOException;
+  }
+
+  /**
+   * <!-- run -->
+   *
+   * Do something with every chunk in parallel, treating each chunk as a row of
+   * {@link ParallelRows#THRESHOLD} cells, so that each gets its own task.
+   *
+   * @param chunks The chunks
+   * @param work What to do
+   * @throws IOException
+   */
+  private static void run(final Chunk[] chunks, final ChunkWork work) throws IOException {
+    try {
+      ParallelRows.forEach(chunks.length, ParallelRows.THRESHOLD, (startRow, endRow) -> {
+        for(int i = startRow; i < endRow; i++) {
+          try {
+            work.chunk(chunks[i]);
+          }
+          catch(IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+      });
+    }
+    catch(UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * <!-- Chunk -->
+   *
+   * <p>
+   * A range of bytes in the file. A chunk owns the records that start in its
+   * range, the last of which may end after it.
+   * </p>
+   *
+   * @author Gary Polhill
+   */
+  private final class Chunk {
+    /**
+     * Position of this chunk in the file
+     */
+    final int index;
+
+    /**
+     * First byte in the chunk
+     */
+    final long start;
+
+    /**
+     * One more than the last byte in the chunk
+     */
+    final long end;
+
+    /**
+     * Size of the file
+     */
+    final long size;
+
+    /**
+     * Number of quotes in the chunk
+     */
+    long nquotes;
+
+    /**
+     * Position after the first record break in the chunk (-1 if none), if
+     * the chunk starts outside (element 0) or inside (element 1) quotes
+     */
+    final long[] firstBreak = new long[] { -1L, -1L };
+
+    /**
+     * Number of record breaks in the chunk, if it starts outside (element 0)
+     * or inside (element 1) quotes
+     */
+    final long[] nbreaks = new long[2];
+
+    /**
+     * First byte of the first record starting in the chunk (-1 if none does)
+     */
+    long from = -1L;
+
+    /**
+     * One more than the last byte of the last record starting in the chunk
+     */
+    long to;
+
+    /**
+     * Number of the first record starting in the chunk, from 1
+     */
+    long firstRow;
+
+    /**
+     * Number of records parsed
+     */
+    long nrows;
+
+    /**
+     * The rows parsed, if they are being kept
+     */
+    List<String[]> rows = new ArrayList<String[]>();
+
+    /**
+     * The error parsing the chunk, if there was one
+     */
+    CSVException error;
+
+    Chunk(int index, long start, long end, long size) {
+      this.index = index;
+      this.start = start;
+      this.end = end;
+      this.size = size;
+    }
+
+    /**
+     * <!-- scan -->
+     *
+     * Count the quotes and record breaks in the chunk, and find the first
+     * record break, both if the chunk starts outside quotes and if it starts
+     * inside them. A CR is only a record break if not followed by an LF, so
+     * the byte after the chunk is mapped too.
+     *
+     * @param channel The file
+     * @throws IOException
+     */
+    void scan(FileChannel channel) throws IOException {
+      ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size, end + 1) - start);
+      int to = (int)(end - start);
+      int limit = buf.limit();
+      long quotes = 0L;
+      for(int i = 0; i < to; i++) {
+        byte b = buf.get(i);
+        if(b == '"') {
+          quotes++;
+        }
+        else if(b == '\n' || (b == '\r' && (i + 1 == limit || buf.get(i + 1) != '\n'))) {
+          // Outside quotes if an even number of quotes since the start of a
+          // chunk starting outside quotes, or odd if it starts inside them
+
+          int inside = (int)(quotes & 1);
+          if(nbreaks[inside]++ == 0L) firstBreak[inside] = start + i + 1;
+        }
+      }
+      nquotes = quotes;
+    }
+
+    /**
+     * <!-- parse -->
+     *
+     * Parse the records starting in the chunk. Parsing stops at the first
+     * error.
+     *
+     * @param channel The file
+     * @param work What to do with each record
+     * @throws IOException
+     */
+    void parse(FileChannel channel, RecordWork work) throws IOException {
+      if(to - from > Integer.MAX_VALUE) {
+        throw new FileFormatException(filename, "CSV", "a record break within " + Integer.MAX_VALUE
+          + " bytes of byte " + from, null);
+      }
+      ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+      CharBuffer chars =
+        Charset.defaultCharset().newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE).decode(bytes);
+      CSVParser parser = new CSVParser(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining(),
+        filename, 1);
+      List<String> cells = new ArrayList<String>();
+      try {
+        while(parser.next(cells)) {
+          work.record(this, firstRow + nrows, cells);
+          nrows++;
+          cells.clear();
+        }
+      }
+      catch(CSVException e) {
+        // The parser numbers the records from the start of the chunk
+
+        long row = firstRow - 1 + e.row;
+        error = new CSVException(e.expected, e.found, filename, (int)Math.min(row, Integer.MAX_VALUE), e.col);
+      }
+    }
+  }
+}
@@ -0,0 +1,577 @@
+/*
+ * uk.ac.macaulay.util: ParallelGridASCIIReader.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <!-- ParallelGridASCIIReader -->
+ *
+ * <p>
+ * Read the cells of a large ARC ASCII grid using all the processors
+ * available. The header is read with a {@link GridASCIIReader}; the rest of
+ * the file is then memory-mapped in chunks, which are parsed concurrently on
+ * the common fork-join pool straight into one shared array of
+ * <code>int</code>s or <code>double</code>s.
+ * </p>
+ *
+ * <p>
+ * Chunks are split at white space, so need not start at the beginning of a
+ * row. The file is gone through twice: first to count the cells and lines in
+ * each chunk (which tells each chunk which cell it starts at) and to see
+ * whether all the cells look like integers, and then to parse the cells. If an
+ * integer turns out to be too big for an <code>int</code>, the cells are
+ * parsed again as <code>double</code>s.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link GridASCIIReader}, all the cells must be numbers. If any is not,
+ * the one nearest the start of the file is reported, with its row, column,
+ * line and character, however the chunks happen to be scheduled. The header
+ * (though not the cells) must be ASCII, which the format requires anyway.
+ * </p>
+ *
+ * @see GISRasterReader#GISRasterReader(String, boolean)
+ * @author Gary Polhill
+ */
+public class ParallelGridASCIIReader {
+  /**
+   * Name of the format, for error messages
+   */
+  private static final String FORMAT = "ARC ASCII grid";
+
+  /**
+   * Largest number of bytes in a chunk
+   */
+  public static final int MAX_CHUNK_SIZE = 1 << 24;
+
+  /**
+   * Smallest number of bytes in a chunk, unless the file is smaller
+   */
+  public static final int MIN_CHUNK_SIZE = 1 << 16;
+
+  /**
+   * Longest cell allowed, in characters. Each chunk is mapped with this many
+   * bytes more than its size, so that the last cell in it can be read whole.
+   */
+  public static final int MAX_CELL_LENGTH = 1 << 10;
+
+  /**
+   * Most digits an integer that might be an <code>int</code> can have
+   */
+  private static final int MAX_INT_DIGITS = 10;
+
+  /**
+   * The file name
+   */
+  private final String filename;
+
+  private final int nrows;
+
+  private final int ncols;
+
+  private final double xllcorner;
+
+  private final double yllcorner;
+
+  private final double cellsize;
+
+  /**
+   * The 'no data' value as it appears in the file (<code>null</code> if none)
+   */
+  private final String nodata_value;
+
+  /**
+   * Number of bytes in the file before the first cell
+   */
+  private final long dataOffset;
+
+  /**
+   * Line the first cell is on
+   */
+  private final int dataLine;
+
+  /**
+   * Number of bytes in the file before the start of the line the first cell
+   * is on
+   */
+  private final long dataLineStart;
+
+  /**
+   * Constructor, reading the header
+   *
+   * @param filename The file to read, which must be a local file
+   * @throws IOException
+   */
+  public ParallelGridASCIIReader(String filename) throws IOException {
+    this.filename = filename;
+    GridASCIIReader header = new GridASCIIReader(filename);
+    header.close();
+    nrows = header.nrows();
+    ncols = header.ncols();
+    xllcorner = header.getXllcorner();
+    yllcorner = header.getYllcorner();
+    cellsize = header.getCellSize();
+    nodata_value = header.getNoDataValue();
+    dataOffset = header.getDataOffset();
+    dataLine = header.getDataLine();
+    dataLineStart = header.getDataLineStart();
+    if(nrows < 0 || ncols < 0 || (long)nrows * (long)ncols > Integer.MAX_VALUE) {
+      throw new FileFormatException(filename, FORMAT, "at most " + Integer.MAX_VALUE + " cells", nrows + " rows by "
+        + ncols + " columns");
+    }
+  }
+
+  public String getFileName() {
+    return filename;
+  }
+
+  public int nrows() {
+    return nrows;
+  }
+
+  public int ncols() {
+    return ncols;
+  }
+
+  public double getXllcorner() {
+    return xllcorner;
+  }
+
+  public double getYllcorner() {
+    return yllcorner;
+  }
+
+  public double getCellSize() {
+    return cellsize;
+  }
+
+  /**
+   * <!-- getNoDataValue -->
+   *
+   * @return The 'no data' value as it appears in the header, or
+   *         <code>null</code> if there is none
+   */
+  public String getNoDataValue() {
+    return nodata_value;
+  }
+
+  /**
+   * <!-- readCells -->
+   *
+   * Read the cells in parallel. Cells after the last one expected are
+   * ignored.
+   *
+   * @return An {@link IntTable} if all the cells and the 'no data' value are
+   *         <code>int</code>s, otherwise a {@link DoubleTable}
+   * @throws IOException
+   * @throws FileFormatException if a cell is not a number, or there are too
+   *           few cells
+   */
+  public AbstractPrimitiveTable<?> readCells() throws IOException {
+    RandomAccessFile file = new RandomAccessFile(filename, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      final Chunk[] chunks = split(channel.size());
+      run(chunks, chunk -> chunk.scan(channel));
+
+      long ncells = 0L;
+      int nlines = dataLine;
+      boolean integral = true;
+      for(Chunk chunk: chunks) {
+        chunk.firstCell = ncells;
+        chunk.firstLine = nlines;
+        ncells += chunk.ncells;
+        nlines += chunk.nlines;
+        integral &= chunk.integral;
+      }
+      int n = nrows * ncols;
+      if(ncells < n) {
+        throw new FileFormatException(filename, FORMAT, nrows + " rows of " + ncols
+          + " columns of space-separated data (cell at row " + (ncells / ncols) + ", column " + (ncells % ncols) + ")",
+            null, nlines, (int)(channel.size() - lineStart(chunks, chunks.length - 1)) + 1);
+      }
+
+      if(integral && (nodata_value == null || new NumberParser().parse(nodata_value) == NumberParser.INT)) {
+        final int[] ints = new int[n];
+        run(chunks, chunk -> chunk.parse(channel, ints, null, n));
+        boolean overflow = false;
+        for(Chunk chunk: chunks) {
+          overflow |= chunk.overflow;
+        }
+        if(!overflow) return new IntTable(nrows, ncols, ints);
+      }
+
+      final double[] doubles = new double[n];
+      final AtomicInteger firstError = new AtomicInteger(chunks.length);
+      run(chunks, chunk -> {
+        if(chunk.index < firstError.get()) {
+          chunk.parse(channel, null, doubles, n);
+          if(chunk.errorPos >= 0) firstError.accumulateAndGet(chunk.index, Math::min);
+        }
+      });
+      if(firstError.get() < chunks.length) {
+        Chunk chunk = chunks[firstError.get()];
+        long lineStart = chunk.errorLineStart >= 0 ? chunk.errorLineStart : lineStart(chunks, chunk.index - 1);
+        throw new FileFormatException(filename, FORMAT, "a number for row " + (chunk.errorCell / ncols)
+          + ", column " + (chunk.errorCell % ncols), chunk.errorToken, chunk.errorLine,
+            (int)(chunk.errorPos - lineStart) + 1);
+      }
+      return new DoubleTable(nrows, ncols, doubles);
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  /**
+   * <!-- split -->
+   *
+   * @param size The size of the file
+   * @return The chunks to split the cells in the file into
+   */
+  private Chunk[] split(long size) {
+    long bytes = Math.max(size - dataOffset, 0L);
+    long chunkSize = bytes / (4L * Runtime.getRuntime().availableProcessors());
+    chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+    int nchunks = (int)Math.max(1L, (bytes + chunkSize - 1) / chunkSize);
+    Chunk[] chunks = new Chunk[nchunks];
+    for(int i = 0; i < nchunks; i++) {
+      chunks[i] = new Chunk(i, dataOffset + i * chunkSize, Math.min(size, dataOffset + (i + 1) * chunkSize), size);
+    }
+    return chunks;
+  }
+
+  /**
+   * <!-- lineStart -->
+   *
+   * @param chunks The chunks
+   * @param last The last chunk to look in
+   * @return The number of bytes before the start of the last line that starts
+   *         in or before a chunk
+   */
+  private long lineStart(Chunk[] chunks, int last) {
+    for(int i = last; i >= 0; i--) {
+      if(chunks[i].lastLineStart >= 0) return chunks[i].lastLineStart;
+    }
+    return dataLineStart;
+  }
+
+  /**
+   * <!-- ChunkWork -->
+   *
+   * Something to do with a chunk
+   *
+   * @author Gary Polhill
+   */
+  private interface ChunkWork {
+    public void chunk(Chunk chunk) throws IOException;
+  }
+
+  /**
+   * <!-- run -->
+   *
+   * Do something with every chunk in parallel, treating each chunk as a row of
+   * {@link ParallelRows#THRESHOLD} cells, so that each gets its own task.
+   *
+   * @param chunks The chunks
+   * @param work What to do
+   * @throws IOException
+   */
+  private static void run(final Chunk[] chunks, final ChunkWork work) throws IOException {
+    try {
+      ParallelRows.forEach(chunks.length, ParallelRows.THRESHOLD, (startRow, endRow) -> {
+        for(int i = startRow; i < endRow; i++) {
+          try {
+            work.chunk(chunks[i]);
+          }
+          catch(IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+      });
+    }
+    catch(UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * <!-- Chunk -->
+   *
+   * <p>
+   * A range of bytes in the file. A chunk owns the cells that start in its
+   * range, the last of which may end after it.
+   * </p>
+   *
+   * @author Gary Polhill
+   */
+  private final class Chunk {
+    /**
+     * Position of this chunk in the file
+     */
+    final int index;
+
+    /**
+     * First byte in the chunk
+     */
+    final long start;
+
+    /**
+     * One more than the last byte in the chunk
+     */
+    final long end;
+
+    /**
+     * Size of the file
+     */
+    final long size;
+
+    /**
+     * Number of cells starting in the chunk
+     */
+    long ncells;
+
+    /**
+     * Number of new lines in the chunk
+     */
+    int nlines;
+
+    /**
+     * Number of bytes in the file before the start of the last line starting
+     * in the chunk (-1 if none does)
+     */
+    long lastLineStart = -1L;
+
+    /**
+     * <code>true</code> if every cell in the chunk looks like an integer small
+     * enough to be an <code>int</code>
+     */
+    boolean integral = true;
+
+    /**
+     * Index of the first cell in the chunk
+     */
+    long firstCell;
+
+    /**
+     * Line number of the start of the chunk
+     */
+    int firstLine;
+
+    /**
+     * <code>true</code> if a cell was too big to parse as an <code>int</code>
+     */
+    boolean overflow;
+
+    /**
+     * Position of the first cell that is not a number (-1 if none)
+     */
+    long errorPos = -1L;
+
+    /**
+     * Index of the first cell that is not a number
+     */
+    long errorCell;
+
+    /**
+     * The first cell that is not a number
+     */
+    String errorToken;
+
+    /**
+     * Line the first cell that is not a number is on
+     */
+    int errorLine;
+
+    /**
+     * Number of bytes in the file before the start of the line the first cell
+     * that is not a number is on (-1 if that line started in an earlier chunk)
+     */
+    long errorLineStart = -1L;
+
+    Chunk(int index, long start, long end, long size) {
+      this.index = index;
+      this.start = start;
+      this.end = end;
+      this.size = size;
+    }
+
+    /**
+     * <!-- map -->
+     *
+     * Map the chunk, with the byte before it and enough after it to finish
+     * the last cell that starts in it
+     *
+     * @param channel The file
+     * @return The mapped bytes, the first of which is at {@link #base()}
+     * @throws IOException
+     */
+    ByteBuffer map(FileChannel channel) throws IOException {
+      long from = base();
+      return channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(size, end + MAX_CELL_LENGTH) - from);
+    }
+
+    /**
+     * <!-- base -->
+     *
+     * @return Position in the file of the first byte mapped
+     */
+    long base() {
+      return start > dataOffset ? start - 1 : start;
+    }
+
+    /**
+     * <!-- skipContinued -->
+     *
+     * @param buf The mapped bytes
+     * @return The position in the buffer of the first byte after any cell
+     *         continued from the chunk before
+     */
+    int skipContinued(ByteBuffer buf) {
+      int i = (int)(start - base());
+      int to = (int)(end - base());
+      if(i > 0 && buf.get(i - 1) > ' ') {
+        while(i < to && buf.get(i) > ' ') {
+          i++;
+        }
+      }
+      return i;
+    }
+
+    /**
+     * <!-- scan -->
+     *
+     * Count the cells and lines in the chunk, and see whether all the cells
+     * look like <code>int</code>s.
+     *
+     * @param channel The file
+     * @throws IOException
+     */
+    void scan(FileChannel channel) throws IOException {
+      ByteBuffer buf = map(channel);
+      long base = base();
+      int to = (int)(end - base);
+      int limit = buf.limit();
+      int i = skipContinued(buf);
+      while(i < to) {
+        byte b = buf.get(i);
+        if(b <= ' ') {
+          if(b == '\n') {
+            nlines++;
+            lastLineStart = base + i + 1;
+          }
+          i++;
+          continue;
+        }
+        ncells++;
+        if(b == '-' || b == '+') i++;
+        int digitsStart = i;
+        while(i < limit && (b = buf.get(i)) >= '0' && b <= '9') {
+          i++;
+        }
+        if(i == digitsStart || i - digitsStart > MAX_INT_DIGITS || (i < limit && b > ' ')) {
+          integral = false;
+          while(i < limit && buf.get(i) > ' ') {
+            i++;
+          }
+        }
+      }
+    }
+
+    /**
+     * <!-- parse -->
+     *
+     * Parse the cells in the chunk into one of two arrays. Parsing stops at
+     * the first cell that is not a number, or (if parsing
+     * <code>int</code>s) that is too big.
+     *
+     * @param channel The file
+     * @param ints The array to parse <code>int</code>s into, or
+     *          <code>null</code>
+     * @param doubles The array to parse <code>double</code>s into, if
+     *          <code>ints</code> is <code>null</code>
+     * @param n The number of cells expected in the file
+     * @throws IOException
+     */
+    void parse(FileChannel channel, int[] ints, double[] doubles, int n) throws IOException {
+      ByteBuffer buf = map(channel);
+      long base = base();
+      int to = (int)(end - base);
+      int limit = buf.limit();
+      boolean truncated = base + limit < size;
+      NumberParser parser = new NumberParser();
+      char[] token = new char[MAX_CELL_LENGTH];
+      CharBuffer view = CharBuffer.wrap(token);
+      int line = firstLine;
+      long lineStart = -1L;
+      long cell = firstCell;
+      int i = skipContinued(buf);
+      while(i < to && cell < n) {
+        byte b = buf.get(i);
+        if(b <= ' ') {
+          if(b == '\n') {
+            line++;
+            lineStart = base + i + 1;
+          }
+          i++;
+          continue;
+        }
+        int tokenStart = i;
+        int length = 0;
+        while(i < limit && (b = buf.get(i)) > ' ') {
+          if(length < token.length) token[length++] = (char)(b & 0xff);
+          i++;
+        }
+        boolean tooLong = i - tokenStart > length || (truncated && i == limit);
+        int type = tooLong ? NumberParser.NOT_A_NUMBER : parser.parse(view, 0, length);
+        if(ints != null) {
+          if(type != NumberParser.INT) {
+            overflow = true;
+            return;
+          }
+          ints[(int)cell] = parser.intValue();
+        }
+        else if(type == NumberParser.NOT_A_NUMBER) {
+          errorPos = base + tokenStart;
+          errorCell = cell;
+          errorToken = new String(token, 0, length);
+          errorLine = line;
+          errorLineStart = lineStart;
+          return;
+        }
+        else {
+          doubles[(int)cell] = parser.doubleValue();
+        }
+        cell++;
+      }
+    }
+  }
+}
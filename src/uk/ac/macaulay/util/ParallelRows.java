@@ -0,0 +1,313 @@
+/*
+ * uk.ac.macaulay.util: ParallelRows.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <!-- ParallelRows -->
+ *
+ * <p>
+ * Run work over the rows of a table (or anything else with rows and columns)
+ * on the common fork-join pool. The rows are split in half recursively until a
+ * block has fewer than {@link #THRESHOLD} cells, and each block is then handed
+ * to the caller's code as a range of rows. Tables smaller than the threshold
+ * are processed in the calling thread.
+ * </p>
+ *
+ * <p>
+ * Blocks run concurrently, so the code given must be safe for that: typically
+ * it writes only to the rows in its block, or to its own partial result. All
+ * blocks have finished, and their writes are visible, when the methods here
+ * return. Any runtime exception thrown by a block is rethrown to the caller.
+ * </p>
+ *
+ * @author Gary Polhill
+ */
+public final class ParallelRows {
+  /**
+   * Number of cells below which a block of rows is not split any further
+   */
+  public static final int THRESHOLD = 1 << 14;
+
+  /**
+   * <!-- Block -->
+   *
+   * Work to do on a block of rows
+   *
+   * @author Gary Polhill
+   */
+  public interface Block {
+    /**
+     * <!-- rows -->
+     *
+     * @param startRow The first row in the block
+     * @param endRow One more than the last row in the block
+     */
+    public void rows(int startRow, int endRow);
+  }
+
+  /**
+   * <!-- Reduction -->
+   *
+   * Work to do on a block of rows that gives a result, with a means of
+   * combining the results from two blocks.
+   *
+   * @param <R> The type of result
+   * @author Gary Polhill
+   */
+  public interface Reduction<R> {
+    /**
+     * <!-- rows -->
+     *
+     * @param startRow The first row in the block
+     * @param endRow One more than the last row in the block
+     * @return The result for the block
+     */
+    public R rows(int startRow, int endRow);
+
+    /**
+     * <!-- combine -->
+     *
+     * @param upper The result for a block of rows
+     * @param lower The result for the block of rows immediately after it
+     * @return The result for both blocks
+     */
+    public R combine(R upper, R lower);
+  }
+
+  private ParallelRows() {
+    // Stop instances
+  }
+
+  /**
+   * <!-- forEach -->
+   *
+   * Do some work on every row, in parallel blocks of rows.
+   *
+   * @param nrows The number of rows
+   * @param ncols The number of columns (used to size the blocks)
+   * @param block The work to do on each block
+   */
+  public static void forEach(int nrows, int ncols, Block block) {
+    if(nrows <= 0) return;
+    if(isSmall(nrows, ncols)) block.rows(0, nrows);
+    else
+      new BlockAction(0, nrows, rowsPerBlock(ncols), block).invoke();
+  }
+
+  /**
+   * <!-- forEach -->
+   *
+   * Do some work on every row, in parallel blocks of rows that each have at
+   * least a given number of cells. This is for work with a set-up cost for
+   * each block (such as reading rows either side of it), where there should
+   * be fewer blocks than {@link #THRESHOLD} would give.
+   *
+   * @param nrows The number of rows
+   * @param ncols The number of columns
+   * @param minBlockCells The least number of cells to have in a block
+   * @param block The work to do on each block
+   */
+  public static void forEach(int nrows, int ncols, long minBlockCells, Block block) {
+    if(nrows <= 0) return;
+    int maxRows = rowsPerBlock(ncols, minBlockCells);
+    if(nrows <= maxRows || isSmall(nrows, ncols)) block.rows(0, nrows);
+    else
+      new BlockAction(0, nrows, maxRows, block).invoke();
+  }
+
+  /**
+   * <!-- reduce -->
+   *
+   * Compute a result from every row, in parallel blocks of rows. Results are
+   * combined in row order, so the combining operation need not be
+   * commutative.
+   *
+   * @param <R> The type of result
+   * @param nrows The number of rows
+   * @param ncols The number of columns (used to size the blocks)
+   * @param reduction The work to do on each block, and the way to combine
+   *          results
+   * @return The result
+   */
+  public static <R> R reduce(int nrows, int ncols, Reduction<R> reduction) {
+    if(nrows <= 0 || isSmall(nrows, ncols)) return reduction.rows(0, Math.max(nrows, 0));
+    return new ReductionTask<R>(0, nrows, rowsPerBlock(ncols), reduction).invoke();
+  }
+
+  /**
+   * <!-- reduce -->
+   *
+   * Compute a result from every row, in parallel blocks of rows that each have
+   * at least a given number of cells. This is for results that are expensive
+   * to create or combine (such as arrays of accumulators), where there should
+   * be fewer blocks than {@link #THRESHOLD} would give.
+   *
+   * @param <R> The type of result
+   * @param nrows The number of rows
+   * @param ncols The number of columns
+   * @param minBlockCells The least number of cells to have in a block
+   * @param reduction The work to do on each block, and the way to combine
+   *          results
+   * @return The result
+   */
+  public static <R> R reduce(int nrows, int ncols, long minBlockCells, Reduction<R> reduction) {
+    int maxRows = rowsPerBlock(ncols, minBlockCells);
+    if(nrows <= maxRows || isSmall(nrows, ncols)) return reduction.rows(0, Math.max(nrows, 0));
+    return new ReductionTask<R>(0, nrows, maxRows, reduction).invoke();
+  }
+
+  /**
+   * <!-- isSmall -->
+   *
+   * @param nrows The number of rows
+   * @param ncols The number of columns
+   * @return <code>true</code> if it isn't worth splitting the rows up
+   */
+  public static boolean isSmall(int nrows, int ncols) {
+    return (long)nrows * (long)Math.max(ncols, 1) < THRESHOLD;
+  }
+
+  /**
+   * <!-- rowsPerBlock -->
+   *
+   * @param ncols The number of columns
+   * @return The largest number of rows a block should have
+   */
+  private static int rowsPerBlock(int ncols) {
+    return Math.max(1, THRESHOLD / Math.max(ncols, 1));
+  }
+
+  /**
+   * <!-- rowsPerBlock -->
+   *
+   * @param ncols The number of columns
+   * @param minBlockCells The least number of cells to have in a block
+   * @return The largest number of rows a block should have
+   */
+  private static int rowsPerBlock(int ncols, long minBlockCells) {
+    long minRows = (minBlockCells + Math.max(ncols, 1) - 1) / Math.max(ncols, 1);
+    return (int)Math.min(Integer.MAX_VALUE, Math.max(rowsPerBlock(ncols), minRows));
+  }
+
+  /**
+   * <!-- BlockAction -->
+   *
+   * Fork-join task splitting a block of rows in half until it is small enough
+   *
+   * @author Gary Polhill
+   */
+  private static class BlockAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * First row
+     */
+    private final int startRow;
+
+    /**
+     * One more than the last row
+     */
+    private final int endRow;
+
+    /**
+     * Maximum number of rows to do without splitting
+     */
+    private final int maxRows;
+
+    /**
+     * The work to do
+     */
+    private final Block block;
+
+    BlockAction(int startRow, int endRow, int maxRows, Block block) {
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.maxRows = maxRows;
+      this.block = block;
+    }
+
+    @Override
+    protected void compute() {
+      if(endRow - startRow <= maxRows) {
+        block.rows(startRow, endRow);
+      }
+      else {
+        int mid = (startRow + endRow) >>> 1;
+        invokeAll(new BlockAction(startRow, mid, maxRows, block), new BlockAction(mid, endRow, maxRows, block));
+      }
+    }
+  }
+
+  /**
+   * <!-- ReductionTask -->
+   *
+   * Fork-join task splitting a block of rows in half until it is small
+   * enough, and combining the results of the two halves.
+   *
+   * @author Gary Polhill
+   */
+  private static class ReductionTask<R> extends RecursiveTask<R> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * First row
+     */
+    private final int startRow;
+
+    /**
+     * One more than the last row
+     */
+    private final int endRow;
+
+    /**
+     * Maximum number of rows to do without splitting
+     */
+    private final int maxRows;
+
+    /**
+     * The work to do
+     */
+    private final Reduction<R> reduction;
+
+    ReductionTask(int startRow, int endRow, int maxRows, Reduction<R> reduction) {
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.maxRows = maxRows;
+      this.reduction = reduction;
+    }
+
+    @Override
+    protected R compute() {
+      if(endRow - startRow <= maxRows) return reduction.rows(startRow, endRow);
+      int mid = (startRow + endRow) >>> 1;
+      ReductionTask<R> lower = new ReductionTask<R>(mid, endRow, maxRows, reduction);
+      lower.fork();
+      R upper = new ReductionTask<R>(startRow, mid, maxRows, reduction).compute();
+      return reduction.combine(upper, lower.join());
+    }
+  }
+}
@@ -0,0 +1,445 @@
+/*
+ * uk.ac.macaulay.util: RasterFileHeader.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <!-- RasterFileHeader -->
+ *
+ * <p>
+ * The header of a binary raster file, giving the georeferencing, the 'no
+ * data' value, and the type and arrangement of the cells that follow it. The
+ * header is {@value #SIZE} bytes long, and like the cells is stored
+ * little-endian:
+ * </p>
+ *
+ * <table border="1">
+ * <tr><th>Offset</th><th>Type</th><th>Contents</th></tr>
+ * <tr><td>0</td><td>int</td><td>Magic number: the characters
+ * <code>GISR</code></td></tr>
+ * <tr><td>4</td><td>short</td><td>Version ({@value #VERSION})</td></tr>
+ * <tr><td>6</td><td>byte</td><td>{@link Layout} ordinal</td></tr>
+ * <tr><td>7</td><td>byte</td><td>{@link CellType} ordinal</td></tr>
+ * <tr><td>8</td><td>int</td><td>Flags ({@link #HAS_NODATA},
+ * {@link #HAS_CHECKSUMS})</td></tr>
+ * <tr><td>12</td><td>int</td><td>Number of rows</td></tr>
+ * <tr><td>16</td><td>int</td><td>Number of columns</td></tr>
+ * <tr><td>20</td><td>int</td><td>Tile size (rows and columns per square
+ * tile, or rows per block in the {@link Layout#ROWS} layout)</td></tr>
+ * <tr><td>24</td><td>double</td><td>Eastings of the origin (bottom left)</td></tr>
+ * <tr><td>32</td><td>double</td><td>Northings of the origin</td></tr>
+ * <tr><td>40</td><td>double</td><td>Cell size</td></tr>
+ * <tr><td>48</td><td>long</td><td>'No data' value: an <code>int</code>
+ * sign-extended, or the bits of a <code>double</code></td></tr>
+ * <tr><td>56</td><td></td><td>Reserved (zeros)</td></tr>
+ * </table>
+ *
+ * <p>
+ * If the {@link #HAS_CHECKSUMS} flag is set, the cells are followed by a
+ * CRC-32 of the bytes of each tile (or block of rows) in turn, as an
+ * <code>int</code>.
+ * </p>
+ *
+ * @author Gary Polhill
+ */
+public final class RasterFileHeader {
+  /**
+   * Length of the header in bytes
+   */
+  public static final int SIZE = 64;
+
+  /**
+   * Magic number at the start of the file (<code>GISR</code> read
+   * little-endian)
+   */
+  public static final int MAGIC = 'G' | ('I' << 8) | ('S' << 16) | ('R' << 24);
+
+  /**
+   * Version of the format
+   */
+  public static final short VERSION = 1;
+
+  /**
+   * Flag indicating there is a 'no data' value
+   */
+  public static final int HAS_NODATA = 1;
+
+  /**
+   * Flag indicating the cells are followed by a checksum for each tile
+   */
+  public static final int HAS_CHECKSUMS = 2;
+
+  /**
+   * <!-- CellType -->
+   *
+   * Type of number stored in each cell
+   *
+   * @author Gary Polhill
+   */
+  public enum CellType {
+    INT(4, Integer.class), FLOAT(4, Float.class), DOUBLE(8, Double.class);
+
+    /**
+     * Number of bytes per cell
+     */
+    private final int bytes;
+
+    /**
+     * Class of entry in a raster with this type of cell
+     */
+    private final Class<? extends Number> type;
+
+    private CellType(int bytes, Class<? extends Number> type) {
+      this.bytes = bytes;
+      this.type = type;
+    }
+
+    /**
+     * <!-- bytes -->
+     *
+     * @return The number of bytes per cell
+     */
+    public int bytes() {
+      return bytes;
+    }
+
+    /**
+     * <!-- getType -->
+     *
+     * @return The class of entry in a raster with this type of cell
+     */
+    public Class<? extends Number> getType() {
+      return type;
+    }
+
+    /**
+     * <!-- forClass -->
+     *
+     * @param type The class of entry in a raster
+     * @return The type of cell to store it in
+     * @throws IllegalArgumentException if the class is not
+     *           <code>Integer</code>, <code>Float</code> or
+     *           <code>Double</code>
+     */
+    public static CellType forClass(Class<?> type) {
+      for(CellType cellType: values()) {
+        if(cellType.type == type) return cellType;
+      }
+      throw new IllegalArgumentException("Cannot store " + type + " in a binary raster");
+    }
+  }
+
+  /**
+   * <!-- Layout -->
+   *
+   * Order of the cells after the header
+   *
+   * @author Gary Polhill
+   */
+  public enum Layout {
+    /**
+     * Row by row, from the top
+     */
+    ROWS,
+
+    /**
+     * In square tiles, the tiles row by row from the top left, and the cells
+     * in each tile row by row. Tiles at the right and bottom edges are padded
+     * to full size.
+     */
+    TILES;
+  }
+
+  private final Layout layout;
+
+  private final CellType cellType;
+
+  private final int flags;
+
+  private final int nrows;
+
+  private final int ncols;
+
+  private final int tileSize;
+
+  private final double originX;
+
+  private final double originY;
+
+  private final double cellSize;
+
+  /**
+   * 'No data' value (<code>null</code> if none)
+   */
+  private final Number nodata_value;
+
+  /**
+   * Constructor
+   *
+   * @param layout Order of the cells
+   * @param cellType Type of number in each cell
+   * @param flags Flags other than {@link #HAS_NODATA}, which is worked out
+   *          from the nodata_value
+   * @param nrows Number of rows
+   * @param ncols Number of columns
+   * @param tileSize Number of rows and columns in each tile
+   * @param originX Eastings of the origin
+   * @param originY Northings of the origin
+   * @param cellSize Cell size
+   * @param nodata_value 'No data' value (may be <code>null</code>)
+   */
+  public RasterFileHeader(Layout layout, CellType cellType, int flags, int nrows, int ncols, int tileSize,
+      double originX, double originY, double cellSize, Number nodata_value) {
+    if(nrows < 0 || ncols < 0 || tileSize <= 0) {
+      throw new IllegalArgumentException("Invalid raster dimensions: " + nrows + " rows, " + ncols + " columns, tile size "
+        + tileSize);
+    }
+    this.layout = layout;
+    this.cellType = cellType;
+    this.flags = nodata_value == null ? (flags & ~HAS_NODATA) : (flags | HAS_NODATA);
+    this.nrows = nrows;
+    this.ncols = ncols;
+    this.tileSize = tileSize;
+    this.originX = originX;
+    this.originY = originY;
+    this.cellSize = cellSize;
+    this.nodata_value = nodata_value == null ? null : convert(cellType, nodata_value);
+  }
+
+  /**
+   * <!-- read -->
+   *
+   * Read a header from a buffer, which will be left positioned after it
+   *
+   * @param buffer The buffer
+   * @param filename The file the buffer is from (for error messages)
+   * @return The header
+   * @throws FileFormatException if the header is not valid
+   */
+  public static RasterFileHeader read(ByteBuffer buffer, String filename) throws FileFormatException {
+    if(buffer.remaining() < SIZE) {
+      throw new FileFormatException(filename, "binary raster", SIZE + " byte header", buffer.remaining() + " bytes");
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    int start = buffer.position();
+    int magic = buffer.getInt();
+    if(magic != MAGIC) {
+      throw new FileFormatException(filename, "binary raster", "magic number " + Integer.toHexString(MAGIC), Integer
+          .toHexString(magic));
+    }
+    short version = buffer.getShort();
+    if(version != VERSION) {
+      throw new FileFormatException(filename, "binary raster", "version " + VERSION, Short.toString(version));
+    }
+    int layout = buffer.get();
+    if(layout < 0 || layout >= Layout.values().length) {
+      throw new FileFormatException(filename, "binary raster", "layout", Integer.toString(layout));
+    }
+    int cellType = buffer.get();
+    if(cellType < 0 || cellType >= CellType.values().length) {
+      throw new FileFormatException(filename, "binary raster", "cell type", Integer.toString(cellType));
+    }
+    int flags = buffer.getInt();
+    int nrows = buffer.getInt();
+    int ncols = buffer.getInt();
+    int tileSize = buffer.getInt();
+    if(nrows < 0 || ncols < 0 || tileSize <= 0) {
+      throw new FileFormatException(filename, "binary raster", "non-negative dimensions and positive tile size", nrows
+        + " rows, " + ncols + " columns, tile size " + tileSize);
+    }
+    double originX = buffer.getDouble();
+    double originY = buffer.getDouble();
+    double cellSize = buffer.getDouble();
+    long nodataBits = buffer.getLong();
+    buffer.position(start + SIZE);
+
+    CellType type = CellType.values()[cellType];
+    Number nodata_value = null;
+    if((flags & HAS_NODATA) != 0) {
+      nodata_value = type == CellType.INT ? (Number)Integer.valueOf((int)nodataBits) : (Number)Double.valueOf(Double
+          .longBitsToDouble(nodataBits));
+    }
+    return new RasterFileHeader(Layout.values()[layout], type, flags, nrows, ncols, tileSize, originX, originY,
+        cellSize, nodata_value);
+  }
+
+  /**
+   * <!-- write -->
+   *
+   * Write the header to a buffer, which will be left positioned after it
+   *
+   * @param buffer The buffer
+   */
+  public void write(ByteBuffer buffer) {
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    int start = buffer.position();
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.put((byte)layout.ordinal());
+    buffer.put((byte)cellType.ordinal());
+    buffer.putInt(flags);
+    buffer.putInt(nrows);
+    buffer.putInt(ncols);
+    buffer.putInt(tileSize);
+    buffer.putDouble(originX);
+    buffer.putDouble(originY);
+    buffer.putDouble(cellSize);
+    if(nodata_value == null) buffer.putLong(0L);
+    else if(cellType == CellType.INT) buffer.putLong(nodata_value.intValue());
+    else
+      buffer.putLong(Double.doubleToRawLongBits(nodata_value.doubleValue()));
+    while(buffer.position() < start + SIZE) {
+      buffer.put((byte)0);
+    }
+  }
+
+  /**
+   * <!-- convert -->
+   *
+   * @param cellType A type of cell
+   * @param value A number
+   * @return The number as the class of entry for the type of cell
+   */
+  private static Number convert(CellType cellType, Number value) {
+    switch(cellType) {
+    case INT:
+      return Integer.valueOf(value.intValue());
+    case FLOAT:
+      return Float.valueOf(value.floatValue());
+    default:
+      return Double.valueOf(value.doubleValue());
+    }
+  }
+
+  public Layout getLayout() {
+    return layout;
+  }
+
+  public CellType getCellType() {
+    return cellType;
+  }
+
+  public int getFlags() {
+    return flags;
+  }
+
+  public boolean hasFlag(int flag) {
+    return (flags & flag) != 0;
+  }
+
+  public int nrows() {
+    return nrows;
+  }
+
+  public int ncols() {
+    return ncols;
+  }
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  public double getOriginX() {
+    return originX;
+  }
+
+  public double getOriginY() {
+    return originY;
+  }
+
+  public double getCellSize() {
+    return cellSize;
+  }
+
+  /**
+   * <!-- getNoDataValue -->
+   *
+   * @return The 'no data' value, as an <code>Integer</code>,
+   *         <code>Float</code> or <code>Double</code> according to the cell
+   *         type, or <code>null</code> if there is none
+   */
+  public Number getNoDataValue() {
+    return nodata_value;
+  }
+
+  /**
+   * <!-- tilesAcross -->
+   *
+   * @return The number of tiles in each row of tiles
+   */
+  public int tilesAcross() {
+    return (ncols + tileSize - 1) / tileSize;
+  }
+
+  /**
+   * <!-- tilesDown -->
+   *
+   * @return The number of rows of tiles
+   */
+  public int tilesDown() {
+    return (nrows + tileSize - 1) / tileSize;
+  }
+
+  /**
+   * <!-- payloadBytes -->
+   *
+   * @return The number of bytes of cells following the header
+   */
+  public long payloadBytes() {
+    if(layout == Layout.ROWS) return (long)nrows * (long)ncols * cellType.bytes;
+    return (long)tilesAcross() * (long)tilesDown() * (long)tileSize * (long)tileSize * cellType.bytes;
+  }
+
+  /**
+   * <!-- tileBytes -->
+   *
+   * @return The number of bytes of cells in each tile, or in each block of
+   *         rows in the {@link Layout#ROWS} layout (the last block may be
+   *         smaller)
+   */
+  public long tileBytes() {
+    return (long)tileSize * (long)(layout == Layout.ROWS ? ncols : tileSize) * cellType.bytes;
+  }
+
+  /**
+   * <!-- ntiles -->
+   *
+   * @return The number of tiles, or blocks of rows in the {@link Layout#ROWS}
+   *         layout
+   */
+  public int ntiles() {
+    return layout == Layout.ROWS ? tilesDown() : tilesAcross() * tilesDown();
+  }
+
+  /**
+   * <!-- checksumBytes -->
+   *
+   * @return The number of bytes of checksums following the cells
+   */
+  public long checksumBytes() {
+    return hasFlag(HAS_CHECKSUMS) ? 4L * ntiles() : 0L;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * uk.ac.macaulay.util: RasterRowVisitor.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+/**
+ * <!-- RasterRowVisitor -->
+ *
+ * Something to do with each row of a raster, as it is read. This lets a raster
+ * be processed in one pass (to compute statistics, or to convert it to another
+ * format, say) without the whole of it ever being in memory.
+ *
+ * @see GridASCIIReader#visitRows(RasterRowVisitor)
+ * @author Gary Polhill
+ */
+public interface RasterRowVisitor {
+  /**
+   * <!-- row -->
+   *
+   * @param row The row number (0 at the top)
+   * @param cells The entries in the row, with <code>NaN</code> for cells with
+   *          no data. The array is reused for the next row, so must be copied
+   *          if it is to be kept.
+   */
+  public void row(int row, double[] cells);
+}
@@ -0,0 +1,398 @@
+/*
+ * uk.ac.macaulay.util: SparseNoDataMask.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.util.Arrays;
+
+/**
+ * <!-- SparseNoDataMask -->
+ *
+ * <p>
+ * A compressed {@link NoDataMask} in the style of a roaring bitmap, for
+ * rasters where few cells are stipulated as having no data, or where those
+ * cells are clustered. Cell indices are split into a high and a low 16 bits.
+ * Each high part that has any cells set gets a container for the low parts,
+ * which is a sorted array of <code>char</code>s while it holds up to
+ * {@value #ARRAY_MAX} cells, and a 65536-bit bitmap after that.
+ * </p>
+ *
+ * <p>
+ * The memory used is therefore about two bytes per cell set when cells are
+ * scattered, and never more than one bit per cell (plus a small overhead per
+ * block of 65536 cells) when they are not. Lookups are a binary search of the
+ * high parts followed by a binary search or a bit test.
+ * </p>
+ *
+ * @author Gary Polhill
+ */
+public class SparseNoDataMask implements NoDataMask {
+  /**
+   * Largest number of cells in an array container
+   */
+  public static final int ARRAY_MAX = 4096;
+
+  /**
+   * High 16 bits of the indices in each container, in ascending order
+   */
+  private int[] keys;
+
+  /**
+   * Containers for the low 16 bits, in the same order as the keys
+   */
+  private Container[] containers;
+
+  /**
+   * Number of containers in use
+   */
+  private int size;
+
+  /**
+   * Constructor
+   */
+  public SparseNoDataMask() {
+    keys = new int[4];
+    containers = new Container[4];
+    size = 0;
+  }
+
+  /**
+   * Cloning constructor
+   *
+   * @param mask The mask to copy
+   */
+  public SparseNoDataMask(SparseNoDataMask mask) {
+    keys = Arrays.copyOf(mask.keys, mask.keys.length);
+    containers = new Container[keys.length];
+    size = mask.size;
+    for(int i = 0; i < size; i++) {
+      containers[i] = mask.containers[i].copy();
+    }
+  }
+
+  /**
+   * <!-- isImplicit -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#isImplicit()
+   */
+  public boolean isImplicit() {
+    return false;
+  }
+
+  /**
+   * <!-- get -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#get(int)
+   */
+  public boolean get(int ix) {
+    int i = find(ix >>> 16);
+    return i >= 0 && containers[i].get(ix & 0xFFFF);
+  }
+
+  /**
+   * <!-- set -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#set(int)
+   */
+  public void set(int ix) {
+    if(ix < 0) throw new ArrayIndexOutOfBoundsException(ix);
+    int key = ix >>> 16;
+    int i = find(key);
+    if(i < 0) {
+      i = -i - 1;
+      if(size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        containers = Arrays.copyOf(containers, size * 2);
+      }
+      System.arraycopy(keys, i, keys, i + 1, size - i);
+      System.arraycopy(containers, i, containers, i + 1, size - i);
+      keys[i] = key;
+      containers[i] = new ArrayContainer();
+      size++;
+    }
+    containers[i] = containers[i].set(ix & 0xFFFF);
+  }
+
+  /**
+   * <!-- clear -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#clear(int)
+   */
+  public void clear(int ix) {
+    int i = find(ix >>> 16);
+    if(i < 0) return;
+    Container container = containers[i].clear(ix & 0xFFFF);
+    if(container.cardinality() == 0) {
+      System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+      System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+      size--;
+      containers[size] = null;
+    }
+    else {
+      containers[i] = container;
+    }
+  }
+
+  /**
+   * <!-- clear -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#clear()
+   */
+  public void clear() {
+    Arrays.fill(containers, null);
+    size = 0;
+  }
+
+  /**
+   * <!-- cardinality -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#cardinality()
+   */
+  public int cardinality() {
+    int n = 0;
+    for(int i = 0; i < size; i++) {
+      n += containers[i].cardinality();
+    }
+    return n;
+  }
+
+  /**
+   * <!-- nextSetBit -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#nextSetBit(int)
+   */
+  public int nextSetBit(int fromIndex) {
+    if(fromIndex < 0) fromIndex = 0;
+    int key = fromIndex >>> 16;
+    int i = find(key);
+    if(i >= 0) {
+      int low = containers[i].next(fromIndex & 0xFFFF);
+      if(low >= 0) return (key << 16) | low;
+      i++;
+    }
+    else {
+      i = -i - 1;
+    }
+    return i < size ? (keys[i] << 16) | containers[i].next(0) : -1;
+  }
+
+  /**
+   * <!-- copy -->
+   *
+   * @see uk.ac.macaulay.util.NoDataMask#copy()
+   */
+  public SparseNoDataMask copy() {
+    return new SparseNoDataMask(this);
+  }
+
+  /**
+   * <!-- find -->
+   *
+   * @param key High 16 bits of an index
+   * @return The position of the container for the key, or (-(insertion
+   *         point) - 1) if there is none
+   */
+  private int find(int key) {
+    return Arrays.binarySearch(keys, 0, size, key);
+  }
+
+  /**
+   * <!-- Container -->
+   *
+   * Set of the low 16 bits of the indices sharing the same high 16 bits.
+   * Updates return the container to use afterwards, which may be a different
+   * kind.
+   *
+   * @author Gary Polhill
+   */
+  private static abstract class Container {
+    abstract boolean get(int low);
+
+    abstract Container set(int low);
+
+    abstract Container clear(int low);
+
+    abstract int cardinality();
+
+    /**
+     * @param low Where to start looking
+     * @return The first member at or after low, or -1 if none
+     */
+    abstract int next(int low);
+
+    abstract Container copy();
+  }
+
+  /**
+   * <!-- ArrayContainer -->
+   *
+   * Container keeping its members in a sorted array
+   *
+   * @author Gary Polhill
+   */
+  private static class ArrayContainer extends Container {
+    private char[] values;
+
+    private int size;
+
+    ArrayContainer() {
+      values = new char[4];
+      size = 0;
+    }
+
+    ArrayContainer(char[] values, int size) {
+      this.values = values;
+      this.size = size;
+    }
+
+    @Override
+    boolean get(int low) {
+      return Arrays.binarySearch(values, 0, size, (char)low) >= 0;
+    }
+
+    @Override
+    Container set(int low) {
+      int i = Arrays.binarySearch(values, 0, size, (char)low);
+      if(i >= 0) return this;
+      if(size == ARRAY_MAX) return new BitmapContainer(this).set(low);
+      i = -i - 1;
+      if(size == values.length) values = Arrays.copyOf(values, Math.min(size * 2, ARRAY_MAX));
+      System.arraycopy(values, i, values, i + 1, size - i);
+      values[i] = (char)low;
+      size++;
+      return this;
+    }
+
+    @Override
+    Container clear(int low) {
+      int i = Arrays.binarySearch(values, 0, size, (char)low);
+      if(i >= 0) {
+        System.arraycopy(values, i + 1, values, i, size - i - 1);
+        size--;
+      }
+      return this;
+    }
+
+    @Override
+    int cardinality() {
+      return size;
+    }
+
+    @Override
+    int next(int low) {
+      int i = Arrays.binarySearch(values, 0, size, (char)low);
+      if(i < 0) i = -i - 1;
+      return i < size ? values[i] : -1;
+    }
+
+    @Override
+    Container copy() {
+      return new ArrayContainer(values.clone(), size);
+    }
+  }
+
+  /**
+   * <!-- BitmapContainer -->
+   *
+   * Container keeping its members as a bitmap of all 65536 possible low parts.
+   * It changes back to an array when it has fewer than half
+   * {@value SparseNoDataMask#ARRAY_MAX} members, so that alternately setting
+   * and clearing a cell does not keep converting it.
+   *
+   * @author Gary Polhill
+   */
+  private static class BitmapContainer extends Container {
+    private final long[] words;
+
+    private int cardinality;
+
+    BitmapContainer(ArrayContainer array) {
+      words = new long[1024];
+      for(int i = 0; i < array.size; i++) {
+        int low = array.values[i];
+        words[low >>> 6] |= 1L << low;
+      }
+      cardinality = array.size;
+    }
+
+    BitmapContainer(BitmapContainer bitmap) {
+      words = bitmap.words.clone();
+      cardinality = bitmap.cardinality;
+    }
+
+    @Override
+    boolean get(int low) {
+      return (words[low >>> 6] & (1L << low)) != 0L;
+    }
+
+    @Override
+    Container set(int low) {
+      long bit = 1L << low;
+      if((words[low >>> 6] & bit) == 0L) {
+        words[low >>> 6] |= bit;
+        cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    Container clear(int low) {
+      long bit = 1L << low;
+      if((words[low >>> 6] & bit) != 0L) {
+        words[low >>> 6] &= ~bit;
+        cardinality--;
+        if(cardinality < ARRAY_MAX / 2) {
+          char[] values = new char[ARRAY_MAX];
+          int n = 0;
+          for(int i = next(0); i >= 0; i = next(i + 1)) {
+            values[n++] = (char)i;
+          }
+          return new ArrayContainer(values, n);
+        }
+      }
+      return this;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    int next(int low) {
+      int w = low >>> 6;
+      if(w >= words.length) return -1;
+      long word = words[w] & (-1L << low);
+      while(word == 0L) {
+        if(++w == words.length) return -1;
+        word = words[w];
+      }
+      return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    Container copy() {
+      return new BitmapContainer(this);
+    }
+  }
+}
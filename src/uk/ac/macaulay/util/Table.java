@@ -24,7 +24,15 @@
 package uk.ac.macaulay.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 
 /**
  * Table
@@ -32,9 +40,35 @@ import java.util.Iterator;
  * A table is a datastructure containing typed data in a 2D structure of cells,
  * accessed by co-ordinates.
  * 
+ * The bulk operations ({@link #forEachCellIndexed(CellVisitor)},
+ * {@link #mapCells(Function)}, {@link #reduce(Object, BiFunction, BinaryOperator)},
+ * {@link #allMatch(Predicate)}, {@link #fill(Object)} and
+ * {@link #applyRows(IntConsumer)}) work on blocks of rows in parallel using
+ * {@link ParallelRows}, so the functions passed to them must be safe to call
+ * from more than one thread at once.
+ * 
  * @author Gary Polhill
  */
 public class Table<T> implements Iterable<T> {
+  /**
+   * <!-- CellVisitor -->
+   * 
+   * Something to do with each cell in a table
+   * 
+   * @param <T> The type of entry in the cells
+   * @author Gary Polhill
+   */
+  public interface CellVisitor<T> {
+    /**
+     * <!-- visit -->
+     * 
+     * @param row The row of the cell
+     * @param col The column of the cell
+     * @param value The possibly null entry in the cell
+     */
+    public void visit(int row, int col, T value);
+  }
+
   /**
    * The cells of the table
    */
@@ -62,13 +96,27 @@ public class Table<T> implements Iterable<T> {
     this.ncols = ncols;
 
     synchronized(this) {
-      cells = new ArrayList<ArrayList<T>>(nrows);
-      for(int i = 0; i < nrows; i++) {
-        ArrayList<T> row = new ArrayList<T>(ncols);
-        cells.add(i, row);
-        for(int j = 0; j < ncols; j++) {
-          row.add(j, null);
-        }
+      cells = allocateCells(nrows, ncols);
+    }
+  }
+
+  /**
+   * Construct a table without necessarily allocating any storage for the
+   * cells. This is for subclasses that keep their data in some other way (e.g.
+   * as an array of primitives), and which must therefore override
+   * {@link #getCell(int, int)} and {@link #setCell(int, int, Object)}.
+   * 
+   * @param nrows The number of rows in the table
+   * @param ncols The number of columns in the table
+   * @param allocate If <code>false</code>, no storage is allocated for the
+   *          cells
+   */
+  protected Table(int nrows, int ncols, boolean allocate) {
+    this.nrows = nrows;
+    this.ncols = ncols;
+    if(allocate) {
+      synchronized(this) {
+        cells = allocateCells(nrows, ncols);
       }
     }
   }
@@ -90,6 +138,74 @@ public class Table<T> implements Iterable<T> {
     }
   }
 
+  /**
+   * <!-- concurrent -->
+   * 
+   * Create a table that several threads can update at once. Reads do not lock
+   * the table, and writes to one cell do not wait for writes to any other.
+   * 
+   * @see ConcurrentTable
+   * @param <T> The type of entry in the cells
+   * @param nrows The number of rows in the table
+   * @param ncols The number of columns in the table
+   * @return A table initialised to null in each cell
+   */
+  public static <T> ConcurrentTable<T> concurrent(int nrows, int ncols) {
+    return new ConcurrentTable<T>(nrows, ncols);
+  }
+
+  /**
+   * <!-- allocateCells -->
+   * 
+   * Build the rows of cells for a table, with each cell set to null.
+   * 
+   * @param <T> The type of entry in the cells
+   * @param nrows The number of rows
+   * @param ncols The number of columns
+   * @return The cells
+   */
+  private static <T> ArrayList<ArrayList<T>> allocateCells(int nrows, int ncols) {
+    ArrayList<ArrayList<T>> cells = new ArrayList<ArrayList<T>>(nrows);
+    for(int i = 0; i < nrows; i++) {
+      ArrayList<T> row = new ArrayList<T>(ncols);
+      cells.add(i, row);
+      for(int j = 0; j < ncols; j++) {
+        row.add(j, null);
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * <!-- getCell -->
+   * 
+   * Get the entry in a cell without checking the co-ordinates are in range.
+   * All access to the table's data goes through this method and
+   * {@link #setCell(int, int, Object)}, so subclasses storing their data
+   * differently need only override these two methods.
+   * 
+   * @param row The row
+   * @param col The column
+   * @return The possibly null entry at that row and column
+   */
+  protected T getCell(int row, int col) {
+    return cells.get(row).get(col);
+  }
+
+  /**
+   * <!-- setCell -->
+   * 
+   * Set the entry in a cell without checking the co-ordinates are in range.
+   * 
+   * @see #getCell(int, int)
+   * @param row The row
+   * @param col The column
+   * @param value The value to set
+   */
+  protected void setCell(int row, int col, T value) {
+    cells.get(row).set(col, value);
+  }
+
   /**
    * <!-- nrows -->
    * 
@@ -120,7 +236,7 @@ public class Table<T> implements Iterable<T> {
    */
   public T atXY(int x, int y) {
     if(x < 0 || x >= ncols || y < 0 || y >= nrows) throw new ArrayIndexOutOfBoundsException();
-    return cells.get((nrows - y) - 1).get(x);
+    return getCell((nrows - y) - 1, x);
   }
 
   /**
@@ -136,7 +252,7 @@ public class Table<T> implements Iterable<T> {
    */
   public T atXFlipY(int x, int y) {
     if(x < 0 || x >= ncols || y < 0 || y >= nrows) throw new ArrayIndexOutOfBoundsException();
-    return cells.get(y).get(x);
+    return getCell(y, x);
   }
 
   /**
@@ -151,7 +267,7 @@ public class Table<T> implements Iterable<T> {
    */
   public T atRC(int row, int col) {
     if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
-    return cells.get(row).get(col);
+    return getCell(row, col);
   }
 
   /**
@@ -220,7 +336,7 @@ public class Table<T> implements Iterable<T> {
    */
   public synchronized void atXY(int x, int y, T value) {
     if(x < 0 || x >= ncols || y < 0 || y >= nrows) throw new ArrayIndexOutOfBoundsException();
-    cells.get((nrows - y) - 1).add(x, value);
+    setCell((nrows - y) - 1, x, value);
   }
 
   /**
@@ -235,7 +351,7 @@ public class Table<T> implements Iterable<T> {
    */
   public synchronized void atXFlipY(int x, int y, T value) {
     if(x < 0 || x >= ncols || y < 0 || y >= nrows) throw new ArrayIndexOutOfBoundsException();
-    cells.get(y).add(x, value);
+    setCell(y, x, value);
   }
 
   /**
@@ -250,94 +366,217 @@ public class Table<T> implements Iterable<T> {
    */
   public synchronized void atRC(int row, int col, T value) {
     if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
-    cells.get(row).add(col, value);
+    setCell(row, col, value);
   }
 
   /**
-   * <!-- flatten -->
+   * <!-- forEachCellIndexed -->
    * 
-   * @return The table as a 1D data structure, row by row
+   * Visit every cell in the table, in parallel blocks of rows. Within a block,
+   * cells are visited row by row.
+   * 
+   * @param visitor The visitor, which is given the row, column and entry of
+   *          each cell
    */
-  public ArrayList<T> flatten() {
-    ArrayList<T> flattened = new ArrayList<T>(nrows * ncols);
+  public void forEachCellIndexed(final CellVisitor<? super T> visitor) {
+    ParallelRows.forEach(nrows, ncols, (startRow, endRow) -> {
+      for(int r = startRow; r < endRow; r++) {
+        for(int c = 0; c < ncols; c++) {
+          visitor.visit(r, c, atRC(r, c));
+        }
+      }
+    });
+  }
 
-    int i = 0;
-    synchronized(this) {
-      for(int r = 0; r < nrows; r++) {
+  /**
+   * <!-- applyRows -->
+   * 
+   * Do something with each row number, in parallel blocks of rows.
+   * 
+   * @param action The action to apply to each row number
+   */
+  public void applyRows(final IntConsumer action) {
+    ParallelRows.forEach(nrows, ncols, (startRow, endRow) -> {
+      for(int r = startRow; r < endRow; r++) {
+        action.accept(r);
+      }
+    });
+  }
+
+  /**
+   * <!-- mapCells -->
+   * 
+   * Build a new table by applying a function to every cell in this one
+   * (including cells that are <code>null</code>).
+   * 
+   * @param <U> The type of entry in the new table
+   * @param function The function to apply to each entry
+   * @return A table of the same size with the result of the function in each
+   *         cell
+   */
+  public <U> Table<U> mapCells(final Function<? super T, ? extends U> function) {
+    final Table<U> table = new Table<U>(nrows, ncols);
+    ParallelRows.forEach(nrows, ncols, (startRow, endRow) -> {
+      for(int r = startRow; r < endRow; r++) {
         for(int c = 0; c < ncols; c++) {
-          flattened.add(i, cells.get(r).get(c));
-          i++;
+          table.setCell(r, c, function.apply(atRC(r, c)));
         }
       }
-    }
+    });
+    return table;
+  }
+
+  /**
+   * <!-- reduce -->
+   * 
+   * Combine all the entries in the table into one value. Each block of rows is
+   * reduced from the identity using the accumulator, and the results for each
+   * block are then combined in row order.
+   * 
+   * @param <U> The type of the result
+   * @param identity Starting value for each block
+   * @param accumulator Function adding an entry to a partial result
+   * @param combiner Function combining two partial results
+   * @return The result
+   */
+  public <U> U reduce(final U identity, final BiFunction<U, ? super T, U> accumulator,
+      final BinaryOperator<U> combiner) {
+    return ParallelRows.reduce(nrows, ncols, new ParallelRows.Reduction<U>() {
+      public U rows(int startRow, int endRow) {
+        U result = identity;
+        for(int r = startRow; r < endRow; r++) {
+          for(int c = 0; c < ncols; c++) {
+            result = accumulator.apply(result, atRC(r, c));
+          }
+        }
+        return result;
+      }
+
+      public U combine(U upper, U lower) {
+        return combiner.apply(upper, lower);
+      }
+    });
+  }
+
+  /**
+   * <!-- allMatch -->
+   * 
+   * Check whether every entry in the table satisfies a predicate. Checking
+   * stops in all blocks of rows once one entry is found that does not.
+   * 
+   * @param predicate The predicate (which is given <code>null</code> entries
+   *          too)
+   * @return <code>true</code> if the predicate holds for every entry
+   */
+  public boolean allMatch(final Predicate<? super T> predicate) {
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    ParallelRows.forEach(nrows, ncols, (startRow, endRow) -> {
+      for(int r = startRow; r < endRow && !failed.get(); r++) {
+        for(int c = 0; c < ncols; c++) {
+          if(!predicate.test(atRC(r, c))) {
+            failed.set(true);
+            return;
+          }
+        }
+      }
+    });
+    return !failed.get();
+  }
+
+  /**
+   * <!-- fill -->
+   * 
+   * Set every cell in the table to the same value
+   * 
+   * @param value The value to set
+   */
+  public void fill(final T value) {
+    ParallelRows.forEach(nrows, ncols, (startRow, endRow) -> {
+      for(int r = startRow; r < endRow; r++) {
+        for(int c = 0; c < ncols; c++) {
+          setCell(r, c, value);
+        }
+      }
+    });
+  }
+
+  /**
+   * <!-- flatten -->
+   * 
+   * @return The table as a 1D data structure, row by row
+   */
+  public ArrayList<T> flatten() {
+    final ArrayList<T> flattened = new ArrayList<T>(Collections.<T>nCopies(nrows * ncols, null));
+
+    forEachCellIndexed((row, col, value) -> flattened.set(row * ncols + col, value));
     return flattened;
   }
 
   /**
    * <!-- asIntegerTable -->
    * 
-   * @return This table converted to a table of integers
+   * @return This table converted to a table of integers, stored as an array of
+   *         <code>int</code>s
    * @throws NumberFormatException
    */
-  public Table<Integer> asIntegerTable() {
-    Table<Integer> table = new Table<Integer>(nrows, ncols);
-    for(int r = 0; r < nrows; r++) {
-      for(int c = 0; c < ncols; c++) {
-        T obj = atRC(r, c);
-        if(obj != null) table.atRC(r, c, Integer.parseInt(obj.toString()));
-      }
-    }
+  public IntTable asIntegerTable() {
+    final IntTable table = new IntTable(nrows, ncols);
+    forEachCellIndexed((row, col, obj) -> {
+      if(obj == null) table.setCell(row, col, null);
+      else
+        table.setInt(row, col, Integer.parseInt(obj.toString()));
+    });
     return table;
   }
 
   /**
    * <!-- asLongTable -->
    *
-   * @return This table converted to a table of longs
+   * @return This table converted to a table of longs, stored as an array of
+   *         <code>long</code>s
    * @throws NumberFormatException
    */
-  public Table<Long> asLongTable() {
-    Table<Long> table = new Table<Long>(nrows, ncols);
-    for(int r = 0; r < nrows; r++) {
-      for(int c = 0; c < ncols; c++) {
-        T obj = atRC(r, c);
-        if(obj != null) table.atRC(r, c, Long.parseLong(obj.toString()));
-      }
-    }
+  public LongTable asLongTable() {
+    final LongTable table = new LongTable(nrows, ncols);
+    forEachCellIndexed((row, col, obj) -> {
+      if(obj == null) table.setCell(row, col, null);
+      else
+        table.setLong(row, col, Long.parseLong(obj.toString()));
+    });
     return table;
   }
 
   /**
    * <!-- asFloatTable -->
    *
-   * @return This table converted to a table of floats
+   * @return This table converted to a table of floats, stored as an array of
+   *         <code>float</code>s
    * @throws NumberFormatException
    */
-  public Table<Float> asFloatTable() {
-    Table<Float> table = new Table<Float>(nrows, ncols);
-    for(int r = 0; r < nrows; r++) {
-      for(int c = 0; c < ncols; c++) {
-        T obj = atRC(r, c);
-        if(obj != null) table.atRC(r, c, Float.parseFloat(obj.toString()));
-      }
-    }
+  public FloatTable asFloatTable() {
+    final FloatTable table = new FloatTable(nrows, ncols);
+    forEachCellIndexed((row, col, obj) -> {
+      if(obj == null) table.setCell(row, col, null);
+      else
+        table.setFloat(row, col, Float.parseFloat(obj.toString()));
+    });
     return table;
   }
 
   /**
    * <!-- asDoubleTable -->
    *
-   * @return This table converted to a table of doubles
+   * @return This table converted to a table of doubles, stored as an array of
+   *         <code>double</code>s
    * @throws NumberFormatException
    */
-  public Table<Double> asDoubleTable() {
-    Table<Double> table = new Table<Double>(nrows, ncols);
-    for(int r = 0; r < nrows; r++) {
-      for(int c = 0; c < ncols; c++) {
-        T obj = atRC(r, c);
-        if(obj != null) table.atRC(r, c, Double.parseDouble(obj.toString()));
-      }
-    }
+  public DoubleTable asDoubleTable() {
+    final DoubleTable table = new DoubleTable(nrows, ncols);
+    forEachCellIndexed((row, col, obj) -> {
+      if(obj == null) table.setCell(row, col, null);
+      else
+        table.setDouble(row, col, Double.parseDouble(obj.toString()));
+    });
     return table;
   }
 
@@ -347,13 +586,67 @@ public class Table<T> implements Iterable<T> {
    * @return This table converted to a table of strings
    */
   public Table<String> asStringTable() {
-    Table<String> table = new Table<String>(nrows, ncols);
-    for(int r = 0; r < nrows; r++) {
-      for(int c = 0; c < ncols; c++) {
-        table.atRC(r, c, atRC(r, c).toString());
-      }
+    return mapCells(obj -> obj == null ? null : obj.toString());
+  }
+
+  /**
+   * <!-- inferAndConvert -->
+   * 
+   * Convert the table to the narrowest type that will hold all its cells,
+   * parsing each cell only once. This does the work of the
+   * <code>areAllParseable...()</code> and <code>as...Table()</code> methods
+   * together, without any exceptions being thrown for cells that are not
+   * numbers. Each block of rows is parsed in parallel into a
+   * {@link TypedTableBuilder}, which widens from <code>int</code> to
+   * <code>long</code> to <code>double</code> as it needs to; the blocks are
+   * then copied into a table of the widest type any of them needed. As soon
+   * as one block finds a cell that is not a number, the others stop.
+   * 
+   * @return An {@link IntTable}, {@link LongTable} or {@link DoubleTable} if
+   *         all the non-null cells are numbers, otherwise the table converted
+   *         to strings with {@link #asStringTable()}
+   */
+  public Table<?> inferAndConvert() {
+    final AtomicBoolean numeric = new AtomicBoolean(true);
+
+    List<TypedTableBuilder> blocks = ParallelRows.reduce(nrows, ncols,
+        new ParallelRows.Reduction<List<TypedTableBuilder>>() {
+          public List<TypedTableBuilder> rows(int startRow, int endRow) {
+            TypedTableBuilder block = new TypedTableBuilder(endRow - startRow, ncols);
+            for(int row = startRow; row < endRow && numeric.get(); row++) {
+              for(int col = 0; col < ncols; col++) {
+                Object obj = getCell(row, col);
+                if(obj == null) block.setNull(row - startRow, col);
+                else if(!block.set(row - startRow, col, obj.toString())) {
+                  numeric.set(false);
+                  break;
+                }
+              }
+            }
+            List<TypedTableBuilder> list = new ArrayList<TypedTableBuilder>(1);
+            list.add(block);
+            return list;
+          }
+
+          public List<TypedTableBuilder> combine(List<TypedTableBuilder> upper, List<TypedTableBuilder> lower) {
+            upper.addAll(lower);
+            return upper;
+          }
+        });
+
+    if(!numeric.get()) return asStringTable();
+    if(blocks.size() == 1) return blocks.get(0).build();
+
+    TypedTableBuilder builder = new TypedTableBuilder(nrows, ncols);
+    for(TypedTableBuilder block: blocks) {
+      builder.widenTo(block.getType());
     }
-    return table;
+    int row = 0;
+    for(TypedTableBuilder block: blocks) {
+      builder.setRows(row, block);
+      row += block.nrows();
+    }
+    return builder.build();
   }
 
   /**
@@ -363,19 +656,16 @@ public class Table<T> implements Iterable<T> {
    *         integer or null
    */
   public boolean areAllParseableInteger() {
-    for(int r = 0; r < nrows; r++) {
-      for(int c = 0; c < ncols; c++) {
-        T obj = atRC(r, c);
-        if(obj == null) continue;
-        try {
-          Integer.parseInt(obj.toString());
-        }
-        catch(NumberFormatException e) {
-          return false;
-        }
+    return allMatch(obj -> {
+      if(obj == null) return true;
+      try {
+        Integer.parseInt(obj.toString());
+        return true;
       }
-    }
-    return true;
+      catch(NumberFormatException e) {
+        return false;
+      }
+    });
   }
 
   /**
@@ -385,19 +675,16 @@ public class Table<T> implements Iterable<T> {
    *         or null
    */
   public boolean areAllParseableLong() {
-    for(int r = 0; r < nrows; r++) {
-      for(int c = 0; c < ncols; c++) {
-        T obj = atRC(r, c);
-        if(obj == null) continue;
-        try {
-          Long.parseLong(obj.toString());
-        }
-        catch(NumberFormatException e) {
-          return false;
-        }
+    return allMatch(obj -> {
+      if(obj == null) return true;
+      try {
+        Long.parseLong(obj.toString());
+        return true;
       }
-    }
-    return true;
+      catch(NumberFormatException e) {
+        return false;
+      }
+    });
   }
 
   /**
@@ -407,19 +694,16 @@ public class Table<T> implements Iterable<T> {
    *         or null
    */
   public boolean areAllParseableFloat() {
-    for(int r = 0; r < nrows; r++) {
-      for(int c = 0; c < ncols; c++) {
-        T obj = atRC(r, c);
-        if(obj == null) continue;
-        try {
-          Float.parseFloat(obj.toString());
-        }
-        catch(NumberFormatException e) {
-          return false;
-        }
+    return allMatch(obj -> {
+      if(obj == null) return true;
+      try {
+        Float.parseFloat(obj.toString());
+        return true;
       }
-    }
-    return true;
+      catch(NumberFormatException e) {
+        return false;
+      }
+    });
   }
 
   /**
@@ -429,19 +713,16 @@ public class Table<T> implements Iterable<T> {
    *         double or null
    */
   public boolean areAllParseableDouble() {
-    for(int r = 0; r < nrows; r++) {
-      for(int c = 0; c < ncols; c++) {
-        T obj = atRC(r, c);
-        if(obj == null) continue;
-        try {
-          Double.parseDouble(obj.toString());
-        }
-        catch(NumberFormatException e) {
-          return false;
-        }
+    return allMatch(obj -> {
+      if(obj == null) return true;
+      try {
+        Double.parseDouble(obj.toString());
+        return true;
       }
-    }
-    return true;
+      catch(NumberFormatException e) {
+        return false;
+      }
+    });
   }
 
   /**
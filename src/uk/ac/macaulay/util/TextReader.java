@@ -90,7 +90,9 @@ public class TextReader {
     this.filename = filename;
     this.format = format;
     lastLineRead = null;
-    lastLineParsed = false;
+    // There is no unparsed line waiting, so the next line-based read must read
+    // from the buffer
+    lastLineParsed = true;
     eof = false;
   }
 
@@ -826,7 +828,7 @@ public class TextReader {
         table.atRC(row, col, words[col]);
       }
       lastLineParsed = true;
-      lastLastLineParsed = false;
+      lastLastLineParsed = true;
       row++;
     }
     if(lastLineRead == null) eof = true;
@@ -882,7 +884,7 @@ public class TextReader {
     Map<String, String> pairs = new HashMap<String, String>();
     int i = 0;
     boolean lastLastLineParsed = lastLineParsed;
-    while((lastLineRead = lastLastLineParsed ? buff.readLine() : lastLineRead) != null && i < keys.length) {
+    while(i < keys.length && (lastLineRead = lastLastLineParsed ? buff.readLine() : lastLineRead) != null) {
       lastLineParsed = false;
       String[] words = lastLineRead.split("\\s+");
       if(words.length != 2) {
@@ -912,8 +914,11 @@ public class TextReader {
       if(!found && !optional) {
         throw new FileFormatException(filename, format, getKeyMessage(keys, keystart), words[0]);
       }
+      // The line matches none of the remaining (optional) keys, so leave it
+      // unparsed for whatever reads the file next
+      if(!found) break;
       lastLineParsed = true;
-      lastLastLineParsed = false;
+      lastLastLineParsed = true;
     }
     if(lastLineRead == null) eof = true;
     if(i < keys.length) {
@@ -995,7 +1000,7 @@ public class TextReader {
    * @return An array of key options
    */
   private String[] getKeyOptions(String key) {
-    String keywords = key.startsWith("?") ? key.substring(0, key.length() - 1) : key;
+    String keywords = key.startsWith("?") ? key.substring(1) : key;
     return keywords.split("\\|");
   }
 }
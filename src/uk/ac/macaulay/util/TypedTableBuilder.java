@@ -0,0 +1,357 @@
+/*
+ * uk.ac.macaulay.util: TypedTableBuilder.java
+ *
+ * Copyright (C) 2010 Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * utils is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with utils. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Contact information: Gary Polhill Macaulay Institute, Craigiebuckler,
+ * Aberdeen. AB15 8QH. UK. g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util;
+
+import java.util.BitSet;
+
+/**
+ * <!-- TypedTableBuilder -->
+ *
+ * <p>
+ * Build a table of numbers from text, choosing the narrowest type of table
+ * that will hold them all as it goes. The builder starts by storing
+ * <code>int</code>s, and widens its array to <code>long</code>s or
+ * <code>double</code>s the first time it is given a number that needs it
+ * (copying what it already has). If it is given text that is not a number at
+ * all, it stops storing anything, and {@link #isNumeric()} becomes
+ * <code>false</code>.
+ * </p>
+ *
+ * <p>
+ * Cells can be given in any order, but a builder is not safe to use from more
+ * than one thread.
+ * </p>
+ *
+ * @see NumberParser
+ * @author Gary Polhill
+ */
+public class TypedTableBuilder {
+  /**
+   * Number of rows
+   */
+  private final int nrows;
+
+  /**
+   * Number of columns
+   */
+  private final int ncols;
+
+  /**
+   * The parser (one per builder, as it keeps the last value parsed)
+   */
+  private final NumberParser parser;
+
+  /**
+   * The type of number currently stored (a {@link NumberParser} constant)
+   */
+  private int type;
+
+  /**
+   * The cells, if the type is {@link NumberParser#INT}
+   */
+  private int[] ints;
+
+  /**
+   * The cells, if the type is {@link NumberParser#LONG}
+   */
+  private long[] longs;
+
+  /**
+   * The cells, if the type is {@link NumberParser#DOUBLE}
+   */
+  private double[] doubles;
+
+  /**
+   * Cells that are null
+   */
+  private final BitSet nulls;
+
+  /**
+   * Constructor
+   *
+   * @param nrows The number of rows in the table to build
+   * @param ncols The number of columns in the table to build
+   */
+  public TypedTableBuilder(int nrows, int ncols) {
+    if(nrows < 0 || ncols < 0 || (long)nrows * (long)ncols > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Cannot store " + nrows + " rows by " + ncols + " columns in an array");
+    }
+    this.nrows = nrows;
+    this.ncols = ncols;
+    parser = new NumberParser();
+    type = NumberParser.INT;
+    ints = new int[nrows * ncols];
+    nulls = new BitSet();
+  }
+
+  /**
+   * <!-- nrows -->
+   *
+   * @return The number of rows in the table being built
+   */
+  public int nrows() {
+    return nrows;
+  }
+
+  /**
+   * <!-- ncols -->
+   *
+   * @return The number of columns in the table being built
+   */
+  public int ncols() {
+    return ncols;
+  }
+
+  /**
+   * <!-- getType -->
+   *
+   * @return The narrowest type that will hold all the cells given so far, as
+   *         a {@link NumberParser} constant
+   */
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * <!-- isNumeric -->
+   *
+   * @return <code>false</code> if any of the cells given so far was not a
+   *         number
+   */
+  public boolean isNumeric() {
+    return type != NumberParser.NOT_A_NUMBER;
+  }
+
+  /**
+   * <!-- set -->
+   *
+   * Parse the text for a cell and store its value
+   *
+   * @param row The row of the cell
+   * @param col The column of the cell
+   * @param text The text to parse (<code>null</code> for a null cell)
+   * @return <code>false</code> if the text was not a number
+   */
+  public boolean set(int row, int col, CharSequence text) {
+    if(text == null) {
+      setNull(row, col);
+      return isNumeric();
+    }
+    return set(row, col, text, 0, text.length());
+  }
+
+  /**
+   * <!-- set -->
+   *
+   * Parse part of some text for a cell and store its value
+   *
+   * @param row The row of the cell
+   * @param col The column of the cell
+   * @param text The text containing the number
+   * @param start The index of the first character of the number
+   * @param end One more than the index of the last character of the number
+   * @return <code>false</code> if the text was not a number
+   */
+  public boolean set(int row, int col, CharSequence text, int start, int end) {
+    if(type == NumberParser.NOT_A_NUMBER) return false;
+    checkRC(row, col);
+    int ix = row * ncols + col;
+    int parsed = parser.parse(text, start, end);
+    widenTo(parsed);
+    switch(type) {
+    case NumberParser.INT:
+      ints[ix] = parser.intValue();
+      break;
+    case NumberParser.LONG:
+      longs[ix] = parser.longValue();
+      break;
+    case NumberParser.DOUBLE:
+      doubles[ix] = parser.doubleValue();
+      break;
+    default:
+      return false;
+    }
+    nulls.clear(ix);
+    return true;
+  }
+
+  /**
+   * <!-- setNull -->
+   *
+   * Record that a cell is null
+   *
+   * @param row The row of the cell
+   * @param col The column of the cell
+   */
+  public void setNull(int row, int col) {
+    checkRC(row, col);
+    nulls.set(row * ncols + col);
+  }
+
+  /**
+   * <!-- setRows -->
+   *
+   * Copy all the cells from another builder into a block of rows in this one,
+   * widening this builder if needed.
+   *
+   * @param startRow The row in this builder to copy the first row of the
+   *          other into
+   * @param block The builder to copy (which must have the same number of
+   *          columns)
+   */
+  public void setRows(int startRow, TypedTableBuilder block) {
+    if(block.ncols != ncols || startRow < 0 || startRow + block.nrows > nrows) {
+      throw new ArrayIndexOutOfBoundsException();
+    }
+    widenTo(block.type);
+    if(type == NumberParser.NOT_A_NUMBER) return;
+    int offset = startRow * ncols;
+    int n = block.nrows * block.ncols;
+    switch(type) {
+    case NumberParser.INT:
+      System.arraycopy(block.ints, 0, ints, offset, n);
+      break;
+    case NumberParser.LONG:
+      for(int i = 0; i < n; i++) {
+        longs[offset + i] = block.longAt(i);
+      }
+      break;
+    case NumberParser.DOUBLE:
+      for(int i = 0; i < n; i++) {
+        doubles[offset + i] = block.doubleAt(i);
+      }
+      break;
+    }
+    for(int i = block.nulls.nextSetBit(0); i >= 0; i = block.nulls.nextSetBit(i + 1)) {
+      nulls.set(offset + i);
+    }
+  }
+
+  /**
+   * <!-- widenTo -->
+   *
+   * Make sure the builder stores cells of at least the given type. This saves
+   * copying the array more than once when it is known in advance that wider
+   * cells are coming.
+   *
+   * @param newType A {@link NumberParser} constant
+   */
+  public void widenTo(int newType) {
+    if(newType > type) widen(newType);
+  }
+
+  /**
+   * <!-- build -->
+   *
+   * Build the table. The builder should not be used afterwards, as the table
+   * uses its array.
+   *
+   * @return An {@link IntTable}, {@link LongTable} or {@link DoubleTable}, or
+   *         <code>null</code> if any cell was not a number
+   */
+  public AbstractPrimitiveTable<?> build() {
+    AbstractPrimitiveTable<?> table;
+    switch(type) {
+    case NumberParser.INT:
+      table = new IntTable(nrows, ncols, ints);
+      break;
+    case NumberParser.LONG:
+      table = new LongTable(nrows, ncols, longs);
+      break;
+    case NumberParser.DOUBLE:
+      table = new DoubleTable(nrows, ncols, doubles);
+      break;
+    default:
+      return null;
+    }
+    for(int i = nulls.nextSetBit(0); i >= 0; i = nulls.nextSetBit(i + 1)) {
+      table.setCell(i / ncols, i % ncols, null);
+    }
+    return table;
+  }
+
+  /**
+   * <!-- widen -->
+   *
+   * Change the array to one of a wider type, copying the cells
+   *
+   * @param newType The new type
+   */
+  private void widen(int newType) {
+    int n = nrows * ncols;
+    if(newType == NumberParser.LONG) {
+      longs = new long[n];
+      for(int i = 0; i < n; i++) {
+        longs[i] = ints[i];
+      }
+    }
+    else if(newType == NumberParser.DOUBLE) {
+      doubles = new double[n];
+      for(int i = 0; i < n; i++) {
+        doubles[i] = doubleAt(i);
+      }
+    }
+    ints = null;
+    if(newType != NumberParser.LONG) longs = null;
+    type = newType;
+  }
+
+  /**
+   * <!-- longAt -->
+   *
+   * @param ix Index in the array
+   * @return The cell at the index as a <code>long</code> (if the type is
+   *         integer)
+   */
+  private long longAt(int ix) {
+    return type == NumberParser.INT ? ints[ix] : longs[ix];
+  }
+
+  /**
+   * <!-- doubleAt -->
+   *
+   * @param ix Index in the array
+   * @return The cell at the index as a <code>double</code>
+   */
+  private double doubleAt(int ix) {
+    switch(type) {
+    case NumberParser.INT:
+      return ints[ix];
+    case NumberParser.LONG:
+      return longs[ix];
+    default:
+      return doubles[ix];
+    }
+  }
+
+  /**
+   * <!-- checkRC -->
+   *
+   * @param row The row
+   * @param col The column
+   */
+  private void checkRC(int row, int col) {
+    if(col < 0 || col >= ncols || row < 0 || row >= nrows) throw new ArrayIndexOutOfBoundsException();
+  }
+}
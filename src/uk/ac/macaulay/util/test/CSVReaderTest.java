@@ -29,9 +29,20 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import uk.ac.macaulay.util.CSVException;
+import uk.ac.macaulay.util.CSVParser;
 import uk.ac.macaulay.util.CSVReader;
+import uk.ac.macaulay.util.CSVStream;
+import uk.ac.macaulay.util.ColumnTable;
+import uk.ac.macaulay.util.HeadedTable;
+import uk.ac.macaulay.util.ParallelCSVReader;
 import uk.ac.macaulay.util.Table;
 
 import junit.framework.TestCase;
@@ -44,6 +55,11 @@ import junit.framework.TestCase;
  * @author Gary Polhill
  */
 public class CSVReaderTest extends TestCase {
+  /**
+   * Number of lines parsed by {@link #parse(String[], int)}
+   */
+  private static final int NLINES = 200000;
+
   /**
    * Test method for {@link uk.ac.macaulay.fearlusOWL.CSVReader#CSVReader(java.lang.String)}.
    * @throws IOException 
@@ -120,4 +136,340 @@ public class CSVReaderTest extends TestCase {
     
   }
 
+  /**
+   * Test method for {@link uk.ac.macaulay.util.CSVReader#stream(java.lang.String)}.
+   * @throws IOException 
+   * @throws CSVException 
+   */
+  public void testStream() throws IOException, CSVException {
+    File tmp = File.createTempFile("CSVReaderTest", ".csv");
+    tmp.deleteOnExit();
+    PrintWriter pw = new PrintWriter(new FileWriter(tmp));
+    pw.println("a,b,c");
+    pw.println("1,\"2,3\",4");
+    pw.println("5,6");
+    pw.close();
+
+    CSVStream stream = CSVReader.stream(tmp.getCanonicalPath());
+    assertTrue(stream.nextRow());
+    List<String> row = stream.getRow();
+    assertEquals(Arrays.asList("a", "b", "c"), row);
+    assertTrue(stream.nextRow());
+    assertSame(row, stream.getRow());
+    assertEquals(Arrays.asList("1", "2,3", "4"), row);
+    assertEquals(2, stream.getRowNumber());
+    assertTrue(stream.nextRow());
+    assertEquals(Arrays.asList("5", "6"), row);
+    assertFalse(stream.nextRow());
+    assertFalse(stream.nextRow());
+
+    int n = 0;
+    for(List<String> cells: CSVReader.stream(tmp.getCanonicalPath())) {
+      assertEquals(n == 2 ? 2 : 3, cells.size());
+      n++;
+    }
+    assertEquals(3, n);
+
+    pw = new PrintWriter(new FileWriter(tmp));
+    pw.println("a,b");
+    pw.println("c,d\"e\"");
+    pw.close();
+    stream = CSVReader.stream(tmp.getCanonicalPath());
+    try {
+      for(List<String> cells: stream) {
+        assertEquals(2, cells.size());
+      }
+      fail();
+    }
+    catch(IllegalStateException e) {
+      assertTrue(e.getCause() instanceof CSVException);
+      assertTrue(e.getCause().getMessage().contains("row 2"));
+    }
+    assertFalse(stream.nextRow());
+  }
+
+  /**
+   * Test method for quoted cells at the end of a row or spanning lines, read
+   * by {@link uk.ac.macaulay.util.CSVStream#nextRow()}.
+   * @throws IOException 
+   * @throws CSVException 
+   */
+  public void testQuotedLines() throws IOException, CSVException {
+    try {
+      assertEquals(Arrays.asList("a", "b"), CSVReader.parseCells("a,\"b\""));
+      assertEquals(Arrays.asList("a", ""), CSVReader.parseCells("a,\"\""));
+      assertEquals(Arrays.asList(""), CSVReader.parseCells(""));
+    }
+    catch(CSVException e) {
+      fail(e.toString());
+    }
+
+    File tmp = File.createTempFile("CSVReaderTest", ".csv");
+    tmp.deleteOnExit();
+    FileWriter fw = new FileWriter(tmp);
+    fw.write("a,\"b\"\r\n\"line 1\nline \"\"2\"\"\",c\r\nd,\"\"\re,\"f\r\n\"\n\n");
+    fw.close();
+
+    CSVStream stream = CSVReader.stream(tmp.getCanonicalPath());
+    assertTrue(stream.nextRow());
+    assertEquals(Arrays.asList("a", "b"), stream.getRow());
+    assertTrue(stream.nextRow());
+    assertEquals(Arrays.asList("line 1\nline \"2\"", "c"), stream.getRow());
+    assertTrue(stream.nextRow());
+    assertEquals(Arrays.asList("d", ""), stream.getRow());
+    assertTrue(stream.nextRow());
+    assertEquals(Arrays.asList("e", "f\r\n"), stream.getRow());
+    assertTrue(stream.nextRow());
+    assertEquals(Arrays.asList(""), stream.getRow());
+    assertEquals(5, stream.getRowNumber());
+    assertFalse(stream.nextRow());
+
+    CSVReader reader = new CSVReader(tmp.getCanonicalPath());
+    assertEquals(5, reader.getTable().nrows());
+    assertEquals("line 1\nline \"2\"", reader.getTable().atRC(1, 0));
+
+    fw = new FileWriter(tmp);
+    fw.write("a,\"b\nc\"\nd,\"e\n");
+    fw.close();
+    stream = CSVReader.stream(tmp.getCanonicalPath());
+    assertTrue(stream.nextRow());
+    try {
+      stream.nextRow();
+      fail("Parser parsed unterminated quote");
+    }
+    catch(CSVException e) {
+      assertTrue(e.getMessage().contains("row 2"));
+      assertTrue(e.getMessage().contains("end of file"));
+    }
+    stream.close();
+  }
+
+  /**
+   * <!-- parse -->
+   * 
+   * Have a number of threads, each with its own {@link CSVParser}, parse a
+   * share of the lines, and check the cells parsed and the file and row named
+   * in the error each thread's last line causes
+   * 
+   * @param lines The lines to parse
+   * @param nthreads The number of threads
+   * @throws InterruptedException
+   */
+  private void parse(final String[] lines, int nthreads) throws InterruptedException {
+    final int linesPerThread = lines.length / nthreads;
+    final int[] cellsParsed = new int[nthreads];
+    final String[] errors = new String[nthreads];
+    Thread[] parsers = new Thread[nthreads];
+    for(int i = 0; i < nthreads; i++) {
+      final int thread = i;
+      parsers[i] = new Thread() {
+        public void run() {
+          CSVParser parser = new CSVParser("file" + thread);
+          List<String> cells = new ArrayList<String>();
+          int start = thread * linesPerThread;
+          try {
+            for(int line = start; line < start + linesPerThread; line++) {
+              cells.clear();
+              parser.parseLine(lines[line], line + 1, cells);
+              if(cells.size() == 4 && cells.get(0).equals(Integer.toString(line))
+                && cells.get(1).equals("name \"" + line + "\"")) {
+                cellsParsed[thread] += cells.size();
+              }
+            }
+            parser.parseLine("a,b\"c\"", start + linesPerThread + 1, cells);
+          }
+          catch(CSVException e) {
+            errors[thread] = e.getMessage();
+          }
+        }
+      };
+    }
+    for(Thread parser: parsers) {
+      parser.start();
+    }
+    for(Thread parser: parsers) {
+      parser.join();
+    }
+
+    for(int i = 0; i < nthreads; i++) {
+      assertEquals(4 * linesPerThread, cellsParsed[i]);
+      assertNotNull(errors[i]);
+      assertTrue(errors[i].contains("file" + i + " at row " + ((i + 1) * linesPerThread + 1) + ","));
+    }
+  }
+
+  /**
+   * Test that parsers in from 1 to 16 threads sharing a fixed number of lines
+   * get the right cells and errors. As in
+   * {@link ConcurrentTableTest#testScaling()}, how the time taken falls with
+   * the number of threads is measured by <code>CSVParserBenchmark</code> in
+   * the bench module rather than here.
+   * 
+   * @throws InterruptedException
+   */
+  public void testParseScaling() throws InterruptedException {
+    String[] lines = new String[NLINES];
+    for(int i = 0; i < NLINES; i++) {
+      lines[i] = i + ",\"name \"\"" + i + "\"\"\"," + (i * 0.5) + ",\"some text, with a comma\"";
+    }
+    for(int nthreads = 1; nthreads <= 16; nthreads *= 2) {
+      parse(lines, nthreads);
+    }
+
+    // More threads than processors, and not dividing the lines evenly
+    parse(lines, 2 * Runtime.getRuntime().availableProcessors() + 1);
+  }
+
+  /**
+   * Test method for {@link uk.ac.macaulay.util.ParallelCSVReader}, comparing
+   * what it reads from a file of many chunks, with quoted cells spanning lines
+   * and chunks, with what {@link CSVReader} reads.
+   * 
+   * @throws IOException
+   * @throws CSVException
+   */
+  public void testParallelCSVReader() throws IOException, CSVException {
+    File tmp = File.createTempFile("CSVReaderTest", ".csv");
+    tmp.deleteOnExit();
+    FileWriter fw = new FileWriter(tmp);
+    fw.write("id,name,value\r\n");
+    final int n = 50000;
+    for(int i = 0; i < n; i++) {
+      if(i % 1000 == 999) fw.write(i + ",\"" + i + "\n\"\"" + i + "\"\",\r\n\"," + i + "\n");
+      else if(i % 7 == 0) fw.write(i + ",\"name, " + i + "\"\r\n");
+      else
+        fw.write(i + ",name " + i + "," + (i * 0.25) + "\n");
+    }
+    fw.close();
+
+    Table<String> expected = new CSVReader(tmp.getPath()).getTable();
+    Table<String> table = new ParallelCSVReader(tmp.getPath()).getTable();
+
+    assertEquals(n + 1, table.nrows());
+    assertEquals(3, table.ncols());
+    for(int row = 0; row <= n; row++) {
+      for(int col = 0; col < 3; col++) {
+        assertEquals(expected.atRC(row, col), table.atRC(row, col));
+      }
+    }
+    assertNull(table.atRC(8, 2));
+    assertEquals("999\n\"999\",\r\n", table.atRC(1000, 1));
+
+    HeadedTable<String> headed = new ParallelCSVReader(tmp.getPath()).getHeadedTable();
+    assertEquals(n, headed.nrows());
+    assertEquals("name 49998", headed.atRC(n - 2, "name"));
+
+    final AtomicLong sum = new AtomicLong();
+    long nrows = new ParallelCSVReader(tmp.getPath()).read(new ParallelCSVReader.RowSink() {
+      public void row(long row, List<String> cells) {
+        if(row > 1) {
+          assertEquals(Long.toString(row - 2), cells.get(0));
+          sum.addAndGet(Long.parseLong(cells.get(0)));
+        }
+      }
+    });
+    assertEquals(n + 1, nrows);
+    assertEquals((long)n * (n - 1) / 2, sum.get());
+
+    fw = new FileWriter(tmp, true);
+    fw.write("a,b\"c\"\n");
+    fw.write("\"d\n");
+    fw.close();
+    try {
+      new ParallelCSVReader(tmp.getPath()).getTable();
+      fail("Parallel parser parsed illegal CSV");
+    }
+    catch(CSVException e) {
+      assertTrue(e.getMessage().contains("row " + (n + 2) + ","));
+    }
+  }
+
+  /**
+   * Test method for
+   * {@link uk.ac.macaulay.util.ColumnTable#readCSV(java.lang.String, java.util.Map)}
+   * and {@link uk.ac.macaulay.util.ColumnTable#readCSV(java.lang.String, int)}.
+   * 
+   * @throws IOException
+   * @throws CSVException
+   */
+  public void testColumnTable() throws IOException, CSVException {
+    File tmp = File.createTempFile("CSVReaderTest", ".csv");
+    tmp.deleteOnExit();
+    PrintWriter pw = new PrintWriter(new FileWriter(tmp));
+    pw.println("id,x,big,name");
+    final int n = 3000;
+    for(int i = 0; i < n; i++) {
+      if(i == 10) pw.println("10,,,\"ten, with a comma\"");
+      else if(i == 20) pw.println("20,5");
+      else
+        pw.println(i + "," + (i * 0.5) + "," + (i == n - 1 ? "1e3" : Long.toString(i * 10000000000L)) + ",n" + i);
+    }
+    pw.close();
+
+    Map<String, ColumnTable.Type> schema = new HashMap<String, ColumnTable.Type>();
+    schema.put("id", ColumnTable.Type.INT);
+    schema.put("x", ColumnTable.Type.DOUBLE);
+    schema.put("big", ColumnTable.Type.DOUBLE);
+    ColumnTable table = ColumnTable.readCSV(tmp.getPath(), schema);
+    assertEquals(n, table.nrows());
+    assertTrue(Arrays.equals(new String[] { "id", "x", "big", "name" }, table.getColumnHeadings()));
+    assertEquals(ColumnTable.Type.STRING, table.getType("name"));
+    int[] ids = table.getInts("id");
+    double[] xs = table.getDoubles("x");
+    assertEquals(n, ids.length);
+    for(int i = 0; i < n; i++) {
+      assertEquals(i, ids[i]);
+      if(i != 10) assertEquals(i == 20 ? 5.0 : i * 0.5, xs[i], 0.0);
+    }
+    assertTrue(table.isNull(10, 1));
+    assertNull(table.atRC(10, "x"));
+    assertEquals("ten, with a comma", table.atRC(10, "name"));
+    assertTrue(table.isNull(20, 2));
+    assertNull(table.atRC(20, "name"));
+    assertEquals(Double.valueOf(30000000000.0), table.atRC(3, "big"));
+    assertEquals(Integer.valueOf(7), table.atRC(7, "id"));
+
+    table.atRC(10, "x", 1);
+    assertEquals(Double.valueOf(1.0), table.atRC(10, "x"));
+    assertFalse(table.isNull(10, 1));
+    try {
+      table.atRC(0, "id", "zero");
+      fail("Put a string in a column of ints");
+    }
+    catch(IllegalArgumentException e) {
+    }
+    try {
+      table.getLongs("id");
+      fail("Got a column of ints as longs");
+    }
+    catch(IllegalArgumentException e) {
+    }
+
+    // Inferred types: big is widened from long to double by the last row
+
+    table = ColumnTable.readCSV(tmp.getPath(), 100);
+    assertEquals(ColumnTable.Type.INT, table.getType("id"));
+    assertEquals(ColumnTable.Type.DOUBLE, table.getType("x"));
+    assertEquals(ColumnTable.Type.DOUBLE, table.getType("big"));
+    assertEquals(ColumnTable.Type.STRING, table.getType("name"));
+    assertEquals(20000000000.0, table.getDoubles("big")[2], 0.0);
+    assertEquals(1000.0, table.getDoubles("big")[n - 1], 0.0);
+    assertEquals("n" + (n - 1), table.getStrings("name")[n - 1]);
+
+    schema.put("big", ColumnTable.Type.LONG);
+    try {
+      ColumnTable.readCSV(tmp.getPath(), schema);
+      fail("Read a double into a column of longs");
+    }
+    catch(CSVException e) {
+      assertTrue(e.getMessage().contains("row " + (n + 1) + ", column 3"));
+    }
+    schema.put("y", ColumnTable.Type.INT);
+    try {
+      ColumnTable.readCSV(tmp.getPath(), schema);
+      fail("Read a column not in the file");
+    }
+    catch(IllegalArgumentException e) {
+    }
+  }
 }
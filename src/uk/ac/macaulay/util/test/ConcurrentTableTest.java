@@ -0,0 +1,158 @@
+/* uk.ac.macaulay.util.test: ConcurrentTableTest.java
+ *
+ * Copyright (C) 2010  Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with utils. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Contact information:
+ *   Gary Polhill
+ *   Macaulay Institute, Craigiebuckler, Aberdeen. AB15 8QH. UK.
+ *   g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util.test;
+
+import uk.ac.macaulay.util.ConcurrentTable;
+import uk.ac.macaulay.util.Table;
+import junit.framework.TestCase;
+
+/**
+ * ConcurrentTableTest
+ *
+ * Stress tests for the ConcurrentTable class, with threads writing to disjoint
+ * rows of a shared table.
+ *
+ * @author Gary Polhill
+ */
+public class ConcurrentTableTest extends TestCase {
+  /**
+   * Number of columns in the tables written to
+   */
+  private static final int NCOLS = 500;
+
+  /**
+   * Number of rows each writer thread is given
+   */
+  private static final int ROWS_PER_THREAD = 50;
+
+  /**
+   * Number of times each writer writes to each of its cells
+   */
+  private static final int PASSES = 40;
+
+  /**
+   * <!-- write -->
+   *
+   * Have a number of threads write to disjoint blocks of rows in a table, and
+   * check the table has the values written
+   *
+   * @param table The table to write to
+   * @param nthreads The number of threads
+   * @throws InterruptedException
+   */
+  private void write(final Table<Integer> table, int nthreads) throws InterruptedException {
+    final int rowsPerThread = table.nrows() / nthreads;
+    Thread[] writers = new Thread[nthreads];
+    for(int i = 0; i < nthreads; i++) {
+      final int start = i * rowsPerThread;
+      writers[i] = new Thread() {
+        public void run() {
+          for(int pass = 0; pass < PASSES; pass++) {
+            for(int row = start; row < start + rowsPerThread; row++) {
+              for(int col = 0; col < NCOLS; col++) {
+                table.atRC(row, col, row * NCOLS + col + pass);
+              }
+            }
+          }
+        }
+      };
+    }
+    for(Thread writer: writers) {
+      writer.start();
+    }
+    for(Thread writer: writers) {
+      writer.join();
+    }
+
+    for(int row = 0; row < rowsPerThread * nthreads; row++) {
+      for(int col = 0; col < NCOLS; col++) {
+        assertTrue(table.atRC(row, col) == row * NCOLS + col + PASSES - 1);
+      }
+    }
+  }
+
+  /**
+   * Test method for {@link uk.ac.macaulay.util.Table#concurrent(int, int)},
+   * with more threads than processors.
+   *
+   * @throws InterruptedException
+   */
+  public void testDisjointRowWriters() throws InterruptedException {
+    int nthreads = 2 * Runtime.getRuntime().availableProcessors() + 1;
+    ConcurrentTable<Integer> table = Table.concurrent(nthreads * ROWS_PER_THREAD, NCOLS);
+    write(table, nthreads);
+  }
+
+  /**
+   * Test the same number of writes shared among from 1 to 16 threads, both to
+   * a {@link ConcurrentTable} and to a synchronized {@link Table}, checking
+   * every cell each time. How the time taken falls with the number of threads
+   * is measured by <code>ConcurrentTableBenchmark</code> in the bench module
+   * rather than here, as it depends on what else the machine is doing.
+   *
+   * @throws InterruptedException
+   */
+  public void testScaling() throws InterruptedException {
+    int maxThreads = 16;
+    int nrows = maxThreads * ROWS_PER_THREAD;
+    for(int nthreads = 1; nthreads <= maxThreads; nthreads *= 2) {
+      write(Table.<Integer>concurrent(nrows, NCOLS), nthreads);
+      write(new Table<Integer>(nrows, NCOLS), nthreads);
+    }
+  }
+
+  /**
+   * Test method for
+   * {@link uk.ac.macaulay.util.ConcurrentTable#compareAndSetRC(int, int, Object, Object)}
+   * , with several threads incrementing the same cell.
+   *
+   * @throws InterruptedException
+   */
+  public void testCompareAndSetRC() throws InterruptedException {
+    final ConcurrentTable<Integer> table = Table.concurrent(3, 3);
+    table.atRC(1, 1, 0);
+    final int increments = 10000;
+    Thread[] threads = new Thread[4];
+    for(int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          for(int j = 0; j < increments; j++) {
+            Integer value;
+            do {
+              value = table.atRC(1, 1);
+            } while(!table.compareAndSetRC(1, 1, value, value + 1));
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for(Thread thread: threads) {
+      thread.join();
+    }
+    assertTrue(table.atRC(1, 1) == threads.length * increments);
+    assertTrue(table.atRC(0, 0) == null);
+  }
+}
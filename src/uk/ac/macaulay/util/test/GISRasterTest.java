@@ -0,0 +1,1354 @@
+/* uk.ac.macaulay.util.test: GISRasterTest.java
+ *
+ * Copyright (C) 2010  Macaulay Institute
+ *
+ * This file is part of utils.
+ *
+ * utils is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * utils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with utils. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Contact information:
+ *   Gary Polhill
+ *   Macaulay Institute, Craigiebuckler, Aberdeen. AB15 8QH. UK.
+ *   g.polhill@macaulay.ac.uk
+ */
+package uk.ac.macaulay.util.test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.ac.macaulay.util.DenseNoDataMask;
+import uk.ac.macaulay.util.DoubleTable;
+import uk.ac.macaulay.util.FileFormatException;
+import uk.ac.macaulay.util.GISCompiledKey;
+import uk.ac.macaulay.util.GISFocal;
+import uk.ac.macaulay.util.GISHSBLogScaledKey;
+import uk.ac.macaulay.util.GISKeyedRaster;
+import uk.ac.macaulay.util.GISMultiScaleKey;
+import uk.ac.macaulay.util.GISPatches;
+import uk.ac.macaulay.util.GISRaster;
+import uk.ac.macaulay.util.GISRasterBinaryFile;
+import uk.ac.macaulay.util.GISRasterExpression;
+import uk.ac.macaulay.util.GISRasterPyramid;
+import uk.ac.macaulay.util.GISRasterReader;
+import uk.ac.macaulay.util.GISResampler;
+import uk.ac.macaulay.util.GISRGBScaledKey;
+import uk.ac.macaulay.util.GISZonalStatistics;
+import uk.ac.macaulay.util.GridASCIIReader;
+import uk.ac.macaulay.util.HeadedTable;
+import uk.ac.macaulay.util.ImplicitNoDataMask;
+import uk.ac.macaulay.util.IntTable;
+import uk.ac.macaulay.util.MappedGISRaster;
+import uk.ac.macaulay.util.NoDataMask;
+import uk.ac.macaulay.util.ParallelGridASCIIReader;
+import uk.ac.macaulay.util.SparseNoDataMask;
+import junit.framework.TestCase;
+
+/**
+ * GISRasterTest
+ *
+ * Tests of the GISRaster class's handling of cells with no data, and of
+ * other ways of storing rasters.
+ *
+ * @author Gary Polhill
+ */
+public class GISRasterTest extends TestCase {
+
+  /**
+   * <!-- checkNoData -->
+   *
+   * Stipulate some cells have no data in a raster using a given mask, and
+   * check they are found, counted and skipped.
+   *
+   * @param raster The raster to use, with no data yet
+   * @param mask The mask to use
+   */
+  private void checkNoData(GISRaster<Integer> raster, NoDataMask mask) {
+    raster.fill(1);
+    raster.atXYNoData(3, 4);
+    raster.setNoDataMask(mask);
+    raster.atXYNoData(0, 0);
+    raster.atRC(2, 5, -1);
+    raster.atRC(7, 7, null);
+    assertTrue(raster.isAtXYNoData(3, 4));
+    assertTrue(raster.isAtXYNoData(0, 0));
+    assertTrue(raster.atRC(raster.nrows() - 5, 3).equals(-1));
+    assertTrue(raster.atRC(2, 5).equals(-1));
+    assertTrue(raster.countNoData() == 4);
+    raster.atRC(7, 7, 2);
+    assertFalse(raster.isAtXYNoData(7, raster.nrows() - 8));
+    assertTrue(raster.countNoData() == 3);
+    assertTrue(Double.isNaN(raster.atRCDouble(2, 5)));
+
+    final AtomicInteger sum = new AtomicInteger();
+    final AtomicInteger count = new AtomicInteger();
+    raster.forEachValidCell((row, col, value) -> {
+      sum.addAndGet(value);
+      count.incrementAndGet();
+    });
+    assertTrue(count.get() == raster.nrows() * raster.ncols() - 3);
+    assertTrue(sum.get() == count.get() + 1);
+
+    GISRaster<Integer> copy = new GISRaster<Integer>(raster);
+    assertTrue(copy.countNoData() == 3);
+    raster.fill(1);
+    assertTrue(raster.countNoData() == 0);
+    assertTrue(copy.countNoData() == 3);
+  }
+
+  /**
+   * Test the dense, sparse and implicit masks on rasters of objects and of
+   * primitives large enough to be processed in parallel.
+   */
+  public void testNoDataMasks() {
+    int nrows = 300, ncols = 200;
+    checkNoData(new GISRaster<Integer>(nrows, ncols, 0.0, 0.0, 1.0, -1), new DenseNoDataMask(nrows * ncols));
+    checkNoData(new GISRaster<Integer>(nrows, ncols, 0.0, 0.0, 1.0, -1), new SparseNoDataMask());
+    checkNoData(new GISRaster<Integer>(nrows, ncols, 0.0, 0.0, 1.0, -1), new ImplicitNoDataMask());
+    IntTable ints = new IntTable(nrows, ncols);
+    checkNoData(new GISRaster<Integer>(ints, 0.0, 0.0, 1.0, -1), new DenseNoDataMask(nrows * ncols));
+    checkNoData(new GISRaster<Integer>(ints, 0.0, 0.0, 1.0, -1), new SparseNoDataMask());
+    checkNoData(new GISRaster<Integer>(ints, 0.0, 0.0, 1.0, -1), new ImplicitNoDataMask());
+  }
+
+  /**
+   * Test setting, clearing and iterating over cells in a sparse mask, enough
+   * of them for containers to change from arrays to bitmaps and back.
+   */
+  public void testSparseNoDataMask() {
+    SparseNoDataMask mask = new SparseNoDataMask();
+    for(int i = 0; i < 10000; i++) {
+      mask.set(i * 3);
+    }
+    mask.set(1 << 30);
+    assertTrue(mask.cardinality() == 10001);
+    assertTrue(mask.get(29997));
+    assertFalse(mask.get(29998));
+    assertTrue(mask.nextSetBit(29998) == 1 << 30);
+    assertTrue(mask.nextSetBit((1 << 30) + 1) == -1);
+    for(int i = 0; i < 9000; i++) {
+      mask.clear(i * 3);
+    }
+    assertTrue(mask.cardinality() == 1001);
+    assertTrue(mask.nextSetBit(0) == 27000);
+    SparseNoDataMask copy = mask.copy();
+    mask.clear();
+    assertTrue(mask.cardinality() == 0);
+    assertTrue(copy.cardinality() == 1001);
+  }
+
+  /**
+   * Test writing a raster to a memory-mapped file with tiles smaller than the
+   * raster, and reopening it.
+   *
+   * @throws IOException
+   */
+  public void testMappedGISRaster() throws IOException {
+    File file = File.createTempFile("GISRasterTest", MappedGISRaster.EXTENSION);
+    file.deleteOnExit();
+    GISRaster<Double> raster = new GISRaster<Double>(300, 500, 1000.0, 2000.0, 10.0, -9999.0);
+    for(int row = 0; row < raster.nrows(); row++) {
+      for(int col = 0; col < raster.ncols(); col++) {
+        raster.atRC(row, col, row + col / 1000.0);
+      }
+    }
+    raster.atXYNoData(499, 299);
+    MappedGISRaster<Double> mapped = MappedGISRaster.create(file.getPath(), Double.class, raster);
+    assertTrue(mapped.atRC(299, 499) == 299.499);
+    mapped.atRC(299, 499, 1.5);
+    mapped.close();
+
+    GISRasterReader reader = new GISRasterReader(file.getPath());
+    assertTrue(reader.isRasterTypeDouble());
+    GISRaster<Double> reopened = reader.getRasterDouble();
+    assertTrue(reopened.nrows() == 300 && reopened.ncols() == 500);
+    assertTrue(reopened.getNoDataValue() == -9999.0);
+    assertTrue(reopened.isAtXYNoData(499, 299));
+    assertTrue(reopened.atRC(299, 499) == 1.5);
+    assertTrue(reopened.atRC(256, 257) == 256.257);
+    assertTrue(reopened.atXY(5995.0, 2005.0) == 1.5);
+    assertTrue(reopened.convertX(1005.0) == 0 && reopened.convertY(4995.0) == 299);
+    assertTrue(reopened.countNoData() == 1);
+    ((MappedGISRaster<?>)reopened).close();
+  }
+
+  /**
+   * Test writing rasters without a 'no data' value to memory-mapped files,
+   * and reopening them, checking the cells with no data are still so.
+   *
+   * @throws IOException
+   */
+  public void testMappedGISRasterNoNoDataValue() throws IOException {
+    File file = File.createTempFile("GISRasterTest", MappedGISRaster.EXTENSION);
+    file.deleteOnExit();
+    GISRaster<Integer> ints = new GISRaster<Integer>(new IntTable(30, 40), 0.0, 0.0, 1.0);
+    ints.fill(0);
+    ints.atXYNoData(5, 6);
+    MappedGISRaster.create(file.getPath(), Integer.class, ints).close();
+    GISRasterReader reader = new GISRasterReader(file.getPath());
+    assertTrue(reader.isRasterTypeInteger());
+    GISRaster<Integer> reopenedInts = reader.getRasterInteger();
+    assertTrue(reopenedInts.getNoDataValue() == Integer.MIN_VALUE);
+    assertTrue(reopenedInts.isAtXYNoData(5, 6));
+    assertTrue(reopenedInts.atRC(0, 0) == 0);
+    assertTrue(reopenedInts.countNoData() == 1);
+    ((MappedGISRaster<?>)reopenedInts).close();
+
+    GISRaster<Double> doubles = new GISRaster<Double>(30, 40, 0.0, 0.0, 1.0);
+    doubles.fill(0.0);
+    doubles.atXYNoData(5, 6);
+    MappedGISRaster.create(file.getPath(), Double.class, doubles).close();
+    MappedGISRaster<?> reopenedDoubles = GISRasterReader.convertToMapped(file.getPath(), file.getPath() + ".copy");
+    new File(file.getPath() + ".copy").deleteOnExit();
+    assertTrue(Double.isNaN(reopenedDoubles.getNoDataValue().doubleValue()));
+    assertTrue(reopenedDoubles.isAtXYNoData(5, 6));
+    assertTrue(reopenedDoubles.atRCDouble(0, 0) == 0.0);
+    assertTrue(reopenedDoubles.countNoData() == 1);
+    reopenedDoubles.close();
+  }
+
+  /**
+   * <!-- writeGrid -->
+   *
+   * Write an ARC ASCII grid to a temporary file
+   *
+   * @param text The contents of the file
+   * @return The file
+   * @throws IOException
+   */
+  private File writeGrid(String text) throws IOException {
+    File file = File.createTempFile("GISRasterTest", ".asc");
+    file.deleteOnExit();
+    FileWriter writer = new FileWriter(file);
+    writer.write(text);
+    writer.close();
+    return file;
+  }
+
+  /**
+   * Test streaming an ARC ASCII grid row by row, reading it into a raster of
+   * primitives, converting it to a mapped raster, and the position reported
+   * when a cell is not a number.
+   *
+   * @throws IOException
+   */
+  public void testGridASCIIReader() throws IOException {
+    File file = writeGrid("NCOLS 4\nnrows 3\nxllcenter 105\nyllcorner 200\ncellsize 10\nNODATA_value -9999\n"
+      + "1 2 3 4\n5 -9999 7.5 8\r\n9 10 11 12\n");
+    GridASCIIReader grid = new GridASCIIReader(file.getPath());
+    assertTrue(grid.nrows() == 3 && grid.ncols() == 4);
+    assertTrue(grid.getXllcorner() == 100.0);
+    final double[] sums = new double[3];
+    grid.visitRows((row, cells) -> {
+      for(double cell: cells) {
+        if(Double.isNaN(cell)) sums[row] -= 1000.0;
+        else
+          sums[row] += cell;
+      }
+    });
+    grid.close();
+    assertTrue(sums[0] == 10.0 && sums[1] == -979.5 && sums[2] == 42.0);
+
+    GISRasterReader reader = new GISRasterReader(file.getPath());
+    assertTrue(reader.isRasterTypeDouble());
+    GISRaster<Double> raster = reader.getRasterDouble();
+    assertTrue(raster.isPrimitive());
+    assertTrue(raster.isAtXYNoData(1, 1));
+    assertTrue(raster.atXY(125.0, 215.0) == 7.5);
+
+    File mappedFile = File.createTempFile("GISRasterTest", MappedGISRaster.EXTENSION);
+    mappedFile.deleteOnExit();
+    MappedGISRaster<?> mapped = GISRasterReader.convertToMapped(file.getPath(), mappedFile.getPath());
+    assertTrue(mapped.getCellType().getType() == Double.class);
+    assertTrue(mapped.isAtXYNoData(1, 1));
+    assertTrue(mapped.atRCDouble(2, 3) == 12.0);
+    assertTrue(mapped.countNoData() == 1);
+    mapped.close();
+
+    File bad = writeGrid("ncols 2\nnrows 2\nxllcorner 0\nyllcorner 0\ncellsize 1\n1 2\n3 x4\n");
+    grid = new GridASCIIReader(bad.getPath());
+    try {
+      grid.visitRows((row, cells) -> {
+      });
+      fail();
+    }
+    catch(FileFormatException e) {
+      assertTrue(e.getMessage().contains("line 7, character 3"));
+    }
+    finally {
+      grid.close();
+    }
+
+    // Cells that are not numbers are read as text, with the header keys in
+    // either order
+    File text = writeGrid("ncols 3\nnrows 2\nyllcenter 0.5\nxllcorner 10\ncellsize 1\na b c\nd e f\n");
+    reader = new GISRasterReader(text.getPath());
+    assertTrue(reader.getRasterDataType() == String.class);
+    GISRaster<String> strings = reader.getRasterString();
+    assertTrue(strings.nrows() == 2 && strings.ncols() == 3);
+    assertEquals("d", strings.atXY(10.5, 0.5));
+    assertEquals("c", strings.atXY(12.5, 1.5));
+
+    // Keys given twice are refused
+    File twice =
+      writeGrid("nrows 2\nnrows 3\nncols 3\nxllcorner 0\nyllcorner 0\ncellsize 1\na b c\nd e f\ng h i\n");
+    try {
+      new GISRasterReader(twice.getPath());
+      fail();
+    }
+    catch(FileFormatException e) {
+      // expected
+    }
+    twice = writeGrid("ncols 3\nnrows 2\nxllcorner 0\nxllcenter 0.5\nyllcorner 0\ncellsize 1\na b c\nd e f\n");
+    try {
+      new GISRasterReader(twice.getPath());
+      fail();
+    }
+    catch(FileFormatException e) {
+      // expected
+    }
+  }
+
+  /**
+   * <!-- bigGrid -->
+   *
+   * @param nrows Number of rows
+   * @param ncols Number of columns
+   * @param bad Index of a cell to replace with something that is not a number
+   *          (or -1)
+   * @param big Index of a cell to replace with a number too big for an int
+   *          (or -1)
+   * @return The text of an ARC ASCII grid, with rows split over two lines
+   */
+  private String bigGrid(int nrows, int ncols, int bad, int big) {
+    StringBuffer buff = new StringBuffer("ncols " + ncols + "\nnrows " + nrows
+      + "\nxllcorner 0\nyllcorner 0\ncellsize 1\nNODATA_value -1\n");
+    for(int row = 0; row < nrows; row++) {
+      for(int col = 0; col < ncols; col++) {
+        int ix = row * ncols + col;
+        buff.append(ix == bad ? "1.5x" : (ix == big ? "3000000000" : Integer.toString(ix % 1000 - 1)));
+        buff.append(col == ncols / 2 ? "\n" : " ");
+      }
+      buff.append("\n");
+    }
+    return buff.toString();
+  }
+
+  /**
+   * Test reading a grid large enough to be split into many chunks in
+   * parallel, that the result is the same as reading it serially, and that
+   * the first bad cell is the one reported.
+   *
+   * @throws IOException
+   */
+  public void testParallelGridASCIIReader() throws IOException {
+    int nrows = 400, ncols = 500;
+    File file = writeGrid(bigGrid(nrows, ncols, -1, -1));
+    GISRasterReader reader = new GISRasterReader(file.getPath(), true);
+    assertTrue(reader.isRasterTypeInteger());
+    GISRaster<Integer> parallel = reader.getRasterInteger();
+    GISRaster<Integer> serial = new GISRasterReader(file.getPath()).getRasterInteger();
+    for(int row = 0; row < nrows; row++) {
+      for(int col = 0; col < ncols; col++) {
+        assertEquals(serial.atRC(row, col), parallel.atRC(row, col));
+      }
+    }
+    assertTrue(parallel.countNoData() == nrows * ncols / 1000);
+
+    file = writeGrid(bigGrid(nrows, ncols, -1, nrows * ncols - 1));
+    reader = new GISRasterReader(file.getPath(), true);
+    assertTrue(reader.isRasterTypeDouble());
+    assertTrue(reader.getRasterDouble().atRC(nrows - 1, ncols - 1) == 3.0e9);
+    assertTrue(reader.getRasterDouble().atRC(nrows - 1, ncols - 2) == 997.0);
+
+    file = writeGrid(bigGrid(nrows, ncols, 123456, 3));
+    try {
+      new ParallelGridASCIIReader(file.getPath()).readCells();
+      fail();
+    }
+    catch(FileFormatException e) {
+      assertTrue(e.getMessage().contains("at line " + (7 + 246 * 2 + 1) + ", character 821"));
+      GridASCIIReader grid = new GridASCIIReader(file.getPath());
+      try {
+        grid.visitRows((row, cells) -> {
+        });
+        fail();
+      }
+      catch(FileFormatException e2) {
+        assertEquals(e2.getMessage(), e.getMessage());
+      }
+      finally {
+        grid.close();
+      }
+    }
+
+    file = writeGrid(bigGrid(nrows, ncols, -1, -1).substring(0, 100000));
+    try {
+      new ParallelGridASCIIReader(file.getPath()).readCells();
+      fail();
+    }
+    catch(FileFormatException e) {
+      assertTrue(e.getMessage().contains("found end of file"));
+    }
+  }
+
+  /**
+   * Test writing rasters to binary files, with and without checksums, reading
+   * them back, and detecting a corrupted block of rows.
+   *
+   * @throws IOException
+   */
+  public void testGISRasterBinaryFile() throws IOException {
+    File file = File.createTempFile("GISRasterTest", GISRasterBinaryFile.EXTENSION);
+    file.deleteOnExit();
+    GISRaster<Integer> ints = new GISRaster<Integer>(new IntTable(700, 300), 10.0, 20.0, 5.0, -1);
+    for(int row = 0; row < ints.nrows(); row++) {
+      for(int col = 0; col < ints.ncols(); col++) {
+        ints.atRC(row, col, row * 1000 + col);
+      }
+    }
+    ints.atXYNoData(299, 0);
+    GISRasterBinaryFile.write(file.getPath(), Integer.class, ints, true);
+    GISRasterReader reader = new GISRasterReader(file.getPath());
+    assertTrue(reader.isRasterTypeInteger());
+    GISRaster<Integer> read = reader.getRasterInteger();
+    assertTrue(read.nrows() == 700 && read.ncols() == 300 && read.getCellSize() == 5.0);
+    assertTrue(read.getOriginX() == 10.0 && read.getOriginY() == 20.0);
+    assertTrue(read.atRC(699, 298) == 699298);
+    assertTrue(read.atRC(600, 7) == 600007);
+    assertTrue(read.isAtXYNoData(299, 0));
+    assertTrue(read.countNoData() == 1);
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.seek(raf.length() - 1000);
+    raf.write(raf.read() ^ 1);
+    raf.close();
+    try {
+      GISRasterBinaryFile.read(file.getPath());
+      fail();
+    }
+    catch(FileFormatException e) {
+      assertTrue(e.getMessage().contains("for rows 512 to 699"));
+    }
+
+    GISRaster<Float> floats = new GISRaster<Float>(3, 2, 0.0, 0.0, 1.0);
+    floats.fill(1.25F);
+    floats.atRC(1, 1, null);
+    GISRasterBinaryFile.write(file.getPath(), Float.class, floats, false);
+    GISRaster<Float> readFloats = GISRasterBinaryFile.read(file.getPath(), Float.class);
+    assertTrue(readFloats.isPrimitive());
+    assertTrue(readFloats.atRC(2, 1) == 1.25F);
+    assertTrue(Float.isNaN(readFloats.atRC(1, 1)));
+    assertTrue(readFloats.countNoData() == 1);
+
+    // Integers with no 'no data' value use Integer.MIN_VALUE, not zero
+    GISRaster<Integer> noValue = new GISRaster<Integer>(new IntTable(4, 5), 0.0, 0.0, 1.0);
+    noValue.fill(0);
+    noValue.atXYNoData(2, 3);
+    GISRasterBinaryFile.write(file.getPath(), Integer.class, noValue, true);
+    GISRaster<Integer> readNoValue = GISRasterBinaryFile.read(file.getPath(), Integer.class);
+    assertTrue(readNoValue.getNoDataValue() == Integer.MIN_VALUE);
+    assertTrue(readNoValue.isAtXYNoData(2, 3));
+    assertTrue(readNoValue.atRC(0, 0) == 0);
+    assertTrue(readNoValue.countNoData() == 1);
+    try {
+      GISRasterBinaryFile.read(file.getPath(), Double.class);
+      fail();
+    }
+    catch(FileFormatException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Test scaled keys give the minimum colour at the minimum of the scale, the
+   * maximum colour at the maximum, and colours in between elsewhere.
+   */
+  public void testGISScaledKey() {
+    GISRGBScaledKey<Double> rgb = new GISRGBScaledKey<Double>(0.0, 100.0, Color.BLUE, Color.RED);
+    assertEquals(Color.BLUE, rgb.getColor(0.0));
+    assertEquals(Color.RED, rgb.getColor(100.0));
+    Color middle = rgb.getColor(50.0);
+    assertTrue(Math.abs(middle.getRed() - 128) <= 1 && middle.getGreen() == 0
+      && Math.abs(middle.getBlue() - 128) <= 1);
+    assertNull(rgb.getColor(100.5));
+
+    GISHSBLogScaledKey<Double> hsb = new GISHSBLogScaledKey<Double>(1.0, 1000.0, Color.YELLOW, Color.RED);
+    Color low = hsb.getColor(1.0);
+    assertTrue(low.getRed() >= 254 && low.getGreen() >= 254 && low.getBlue() <= 1);
+    Color high = hsb.getColor(1000.0);
+    assertTrue(high.getRed() >= 254 && high.getGreen() <= 1 && high.getBlue() <= 1);
+  }
+
+  /**
+   * <!-- checkFillImage -->
+   *
+   * Check filling an image gives the same pixels as setting each one to the
+   * colour of its cell.
+   *
+   * @param raster The raster to draw
+   * @param width Width of the image
+   * @param height Height of the image
+   * @param type Type of the image
+   * @param zoomFactor Pixels per cell
+   */
+  private void checkFillImage(GISKeyedRaster<Double> raster, int width, int height, int type, int zoomFactor) {
+    BufferedImage image = new BufferedImage(width, height, type);
+    raster.fillImage(image, zoomFactor);
+    BufferedImage expected = new BufferedImage(width, height, type);
+    for(int x = 0; x < width && x / zoomFactor < raster.ncols(); x++) {
+      for(int y = 0; y < height && y / zoomFactor < raster.nrows(); y++) {
+        expected.setRGB(x, y, raster.atXYColor(x / zoomFactor, y / zoomFactor).getRGB());
+      }
+    }
+    for(int x = 0; x < width; x++) {
+      for(int y = 0; y < height; y++) {
+        assertTrue(image.getRGB(x, y) == expected.getRGB(x, y));
+      }
+    }
+  }
+
+  /**
+   * Test filling images of various types with and without zoom, where the
+   * image is larger and smaller than the raster.
+   */
+  public void testFillImage() {
+    GISRaster<Double> values = new GISRaster<Double>(300, 200, 0.0, 0.0, 1.0, -1.0);
+    for(int row = 0; row < values.nrows(); row++) {
+      for(int col = 0; col < values.ncols(); col++) {
+        values.atRC(row, col, (double)((row / 3) * col % 1000));
+      }
+    }
+    values.atRC(10, 20, -1.0);
+    values.atXYNoData(0, 0);
+    GISKeyedRaster<Double> raster = new GISKeyedRaster<Double>(values, new GISRGBScaledKey<Double>(0.0, 1000.0,
+        Color.BLUE, Color.RED));
+    assertTrue(raster.getImage().getRGB(0, 0) == 0);
+    assertTrue(raster.getImage().getRGB(20, raster.nrows() - 11) == 0);
+    checkFillImage(raster, 200, 300, BufferedImage.TYPE_INT_ARGB, 1);
+    checkFillImage(raster, 601, 899, BufferedImage.TYPE_INT_ARGB, 3);
+    checkFillImage(raster, 150, 1000, BufferedImage.TYPE_INT_RGB, 2);
+    checkFillImage(raster, 410, 100, BufferedImage.TYPE_3BYTE_BGR, 2);
+    checkFillImage(raster, 70, 80, BufferedImage.TYPE_BYTE_INDEXED, 1);
+  }
+
+  /**
+   * <!-- colorDifference -->
+   *
+   * @param a A colour
+   * @param b Another colour
+   * @return The largest difference between their red, green and blue
+   */
+  private int colorDifference(Color a, Color b) {
+    return Math.max(Math.abs(a.getRed() - b.getRed()),
+        Math.max(Math.abs(a.getGreen() - b.getGreen()), Math.abs(a.getBlue() - b.getBlue())));
+  }
+
+  /**
+   * Test compiled keys give colours within the error asked for, both alone
+   * and when filling an image.
+   */
+  public void testGISCompiledKey() {
+    GISMultiScaleKey<Double> multi = new GISMultiScaleKey<Double>();
+    multi.addScale(new GISRGBScaledKey<Double>(0.0, 100.0, Color.BLUE, Color.GREEN));
+    multi.addScale(new GISHSBLogScaledKey<Double>(200.0, 5000.0, Color.YELLOW, Color.RED));
+    multi.addScale(new GISRGBScaledKey<Double>(100.5, 150.0, Color.BLACK, Color.WHITE));
+    GISCompiledKey<Double> compiled = multi.compile(2.0);
+    assertTrue(compiled.getError() <= 2.0);
+    for(double value = -10.0; value < 6000.0; value += 0.25) {
+      Color exact = multi.getColor(value);
+      Color color = compiled.getColor(value);
+      if(exact == null) assertNull(color);
+      else
+        assertTrue(colorDifference(exact, color) <= 2);
+    }
+    assertTrue(colorDifference(compiled.getColor(150.0), Color.WHITE) <= 2);
+    assertTrue(compiled.getARGB(Double.NaN) == 0);
+    assertEquals(multi.getEntry(Color.GRAY), compiled.getEntry(Color.GRAY));
+
+    GISRGBScaledKey<Double> scale = new GISRGBScaledKey<Double>(0.0, 1000.0, Color.BLUE, Color.RED);
+    assertTrue(scale.compile(1.0).getError() <= 1.0);
+    GISRaster<Double> values = new GISRaster<Double>(new DoubleTable(300, 200), 0.0, 0.0, 1.0, -1.0);
+    for(int row = 0; row < values.nrows(); row++) {
+      for(int col = 0; col < values.ncols(); col++) {
+        values.atRC(row, col, (double)((row * 7 + col * 3) % 1000));
+      }
+    }
+    values.atXYNoData(5, 6);
+    BufferedImage exact = new GISKeyedRaster<Double>(values, scale).getImage();
+    BufferedImage image = new GISKeyedRaster<Double>(values, scale.compile(1.0)).getImage();
+    for(int x = 0; x < image.getWidth(); x++) {
+      for(int y = 0; y < image.getHeight(); y++) {
+        Color a = new Color(exact.getRGB(x, y), true);
+        Color b = new Color(image.getRGB(x, y), true);
+        assertTrue(a.getAlpha() == b.getAlpha());
+        assertTrue(colorDifference(a, b) <= 1);
+      }
+    }
+    assertTrue(image.getRGB(5, 6) == 0);
+  }
+
+  /**
+   * Test building rasters from images that are not square, decoding colours
+   * with scaled and mapped keys.
+   */
+  public void testGISKeyedRasterFromImage() {
+    GISRaster<Integer> values = new GISRaster<Integer>(new IntTable(150, 400), 0.0, 0.0, 1.0, -1);
+    for(int row = 0; row < values.nrows(); row++) {
+      for(int col = 0; col < values.ncols(); col++) {
+        values.atRC(row, col, (row + col) % 256);
+      }
+    }
+    values.atXYNoData(7, 3);
+    GISRGBScaledKey<Integer> scale = new GISRGBScaledKey<Integer>(0, 255, Color.BLUE, Color.RED);
+    BufferedImage image = new GISKeyedRaster<Integer>(values, scale).getImage();
+    GISKeyedRaster<Integer> decoded = new GISKeyedRaster<Integer>(image, scale, 0.0, 0.0, 1.0);
+    assertTrue(decoded.nrows() == 150 && decoded.ncols() == 400);
+    for(int row = 0; row < values.nrows(); row++) {
+      for(int col = 0; col < values.ncols(); col++) {
+        if(row == 146 && col == 7) continue;
+        assertTrue(decoded.atRC(row, col).equals(values.atRC(row, col)));
+      }
+    }
+    // Transparent 'no data' pixels are black without alpha, which is not on
+    // the scale
+    assertTrue(decoded.isAtXYNoData(7, 3));
+    assertTrue(decoded.countNoData() == 1);
+
+    Map<String, Color> key = new HashMap<String, Color>();
+    key.put("water", Color.BLUE);
+    key.put("land", Color.GREEN);
+    BufferedImage map = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+    map.setRGB(0, 0, Color.BLUE.getRGB());
+    map.setRGB(1, 0, Color.GREEN.getRGB());
+    map.setRGB(2, 0, Color.BLUE.getRGB());
+    map.setRGB(0, 1, Color.GREEN.getRGB());
+    map.setRGB(1, 1, Color.WHITE.getRGB());
+    map.setRGB(2, 1, Color.GREEN.getRGB());
+    GISKeyedRaster<String> classes = new GISKeyedRaster<String>(map, key, 0.0, 0.0, 1.0);
+    assertTrue(classes.nrows() == 2 && classes.ncols() == 3);
+    assertTrue(classes.atXY(2, 0).equals("water"));
+    assertTrue(classes.atXY(0, 1).equals("land"));
+    assertTrue(classes.isAtXYNoData(1, 1));
+    assertTrue(classes.countNoData() == 1);
+    assertTrue(classes.getImage().getRGB(1, 0) == Color.GREEN.getRGB());
+  }
+
+  /**
+   * Test building pyramids of rasters of primitives and of objects, with
+   * cells with no data and odd numbers of rows and columns.
+   */
+  public void testGISRasterPyramid() {
+    // 3 rows by 5 columns; the bottom row is 1 2 3 4 5
+    GISRaster<Integer> ints = new GISRaster<Integer>(new IntTable(3, 5), 100.0, 200.0, 10.0, -1);
+    for(int x = 0; x < 5; x++) {
+      for(int y = 0; y < 3; y++) {
+        ints.atXY(x, y, y * 5 + x + 1);
+      }
+    }
+    ints.atXY(1, 1, -1);
+    ints.atXY(4, 2, -1);
+
+    GISRasterPyramid<Integer> mean = ints.pyramid(GISRasterPyramid.<Integer>mean());
+    assertTrue(mean.nlevels() == 4);
+    GISRaster<Integer> level = mean.getLevel(1);
+    assertTrue(level.isPrimitive());
+    assertTrue(level.nrows() == 2 && level.ncols() == 3 && level.getCellSize() == 20.0);
+    assertTrue(level.getOriginX() == 100.0 && level.getOriginY() == 200.0);
+    assertTrue(level.atXY(0, 0) == (1 + 2 + 6) / 3);
+    assertTrue(level.atXY(2, 0) == (5 + 10) / 2);
+    assertTrue(level.atXY(1, 1) == (13 + 14) / 2);
+    assertTrue(level.isAtXYNoData(2, 1));
+    assertTrue(mean.getLevel(3).nrows() == 1 && mean.getLevel(3).ncols() == 1);
+    assertTrue(mean.getLevelFor(5.0) == ints);
+    assertTrue(mean.getLevelFor(45.0) == mean.getLevel(2));
+    assertTrue(mean.atXY(125.0, 215.0, 20.0) == (3 + 4 + 8 + 9) / 4);
+    assertTrue(mean.isAtXYNoData(145.0, 225.0, 25.0));
+
+    assertTrue(ints.pyramid(GISRasterPyramid.<Integer>min()).getLevel(2).atXY(0, 0) == 1);
+    assertTrue(ints.pyramid(GISRasterPyramid.<Integer>max()).getLevel(2).atXY(0, 0) == 14);
+    assertTrue(ints.pyramid(GISRasterPyramid.<Integer>max()).getLevel(2).atXY(1, 0) == 10);
+
+    // The same aggregators on a raster of Integer objects rather than ints
+    GISRaster<Integer> objects = new GISRaster<Integer>(4, 4, 0.0, 0.0, 1.0);
+    for(int x = 0; x < 4; x++) {
+      for(int y = 0; y < 4; y++) {
+        objects.atXY(x, y, y * 4 + x + 1);
+      }
+    }
+    objects.atXYNoData(1, 0);
+    GISRasterPyramid<Integer> objectMean = objects.pyramid(GISRasterPyramid.<Integer>mean());
+    assertFalse(objectMean.getLevel(1).isPrimitive());
+    assertTrue(objectMean.getLevel(1).atXY(0, 0) == (1 + 5 + 6) / 3);
+    assertTrue(objectMean.getLevel(1).atXY(1, 1) == (11 + 12 + 15 + 16) / 4);
+    assertTrue(objectMean.getLevel(2).atXY(0, 0) == (4 + 5 + 11 + 13) / 4);
+    GISRasterPyramid<Integer> objectMin = objects.pyramid(GISRasterPyramid.<Integer>min());
+    assertTrue(objectMin.getLevel(1).atXY(1, 0) == 3);
+    assertTrue(objectMin.getLevel(2).atXY(0, 0) == 1);
+    GISRasterPyramid<Integer> objectMax = objects.pyramid(GISRasterPyramid.<Integer>max());
+    assertTrue(objectMax.getLevel(1).atXY(0, 0) == 6);
+    assertTrue(objectMax.getLevel(2).atXY(0, 0) == 16);
+
+    GISRaster<String> classes = new GISRaster<String>(4, 4, 0.0, 0.0, 1.0);
+    classes.fill("grass");
+    classes.atXY(0, 0, "water");
+    classes.atXY(1, 0, "water");
+    classes.atXY(0, 1, "forest");
+    classes.atXY(2, 2, "forest");
+    classes.atXY(3, 2, "water");
+    classes.atXYNoData(2, 3);
+    classes.atXYNoData(3, 3);
+    GISRasterPyramid<String> mode = classes.pyramid(GISRasterPyramid.<String>mode());
+    assertTrue(mode.nlevels() == 3);
+    assertTrue(mode.getLevel(1).atXY(0, 0).equals("water"));
+    assertTrue(mode.getLevel(1).atXY(1, 1).equals("forest"));
+    assertTrue(mode.getLevel(2).atXY(0, 0).equals("grass"));
+    assertTrue(mode.getLevel(1).countNoData() == 0);
+  }
+
+  /**
+   * <!-- checkZonalStatistics -->
+   *
+   * Compare zonal statistics with those found by looking up each cell
+   * separately.
+   *
+   * @param zones The zones
+   * @param values The values
+   */
+  private void checkZonalStatistics(GISRaster<Integer> zones, GISRaster<Double> values) {
+    Map<Integer, double[]> expected = new HashMap<Integer, double[]>();
+    for(int row = 0; row < zones.nrows(); row++) {
+      for(int col = 0; col < zones.ncols(); col++) {
+        if(zones.isAtXYNoData(col, zones.nrows() - row - 1)) continue;
+        double[] totals = expected.get(zones.atRC(row, col));
+        if(totals == null) {
+          totals = new double[] { 0.0, 0.0, 0.0, Double.NaN, Double.NaN, 0.0 };
+          expected.put(zones.atRC(row, col), totals);
+        }
+        totals[0]++;
+        double x = zones.convertX(col);
+        double y = zones.convertRow(row);
+        if(!values.isInTable(x, y) || values.isAtXYNoData(x, y)) continue;
+        double value = values.atXY(x, y);
+        totals[1]++;
+        totals[2] += value;
+        totals[3] = Double.isNaN(totals[3]) ? value : Math.min(totals[3], value);
+        totals[4] = Double.isNaN(totals[4]) ? value : Math.max(totals[4], value);
+        if(value >= 0.0 && value < 50.0) totals[5]++;
+      }
+    }
+    HeadedTable<Number> table = GISZonalStatistics.compute(zones, values, 2, 0.0, 100.0);
+    assertTrue(table.nrows() == expected.size());
+    int last = Integer.MIN_VALUE;
+    for(int row = 0; row < table.nrows(); row++) {
+      int zone = table.atRC(row, GISZonalStatistics.ZONE).intValue();
+      assertTrue(zone > last);
+      last = zone;
+      double[] totals = expected.get(zone);
+      assertTrue(table.atRC(row, GISZonalStatistics.CELLS).intValue() == (int)totals[0]);
+      assertTrue(table.atRC(row, GISZonalStatistics.COUNT).intValue() == (int)totals[1]);
+      assertEquals(totals[2], table.atRC(row, GISZonalStatistics.SUM).doubleValue(), 1e-9);
+      assertEquals(totals[2] / totals[1], table.atRC(row, GISZonalStatistics.MEAN).doubleValue(), 1e-9);
+      assertEquals(totals[3], table.atRC(row, GISZonalStatistics.MIN).doubleValue(), 0.0);
+      assertEquals(totals[4], table.atRC(row, GISZonalStatistics.MAX).doubleValue(), 0.0);
+      assertTrue(table.atRC(row, GISZonalStatistics.BIN + 0).intValue() == (int)totals[5]);
+    }
+  }
+
+  /**
+   * Test zonal statistics with rasters that are and are not aligned, and with
+   * zones that are and are not numbered closely together.
+   */
+  public void testGISZonalStatistics() {
+    GISRaster<Integer> zones = new GISRaster<Integer>(300, 200, 1000.0, 2000.0, 10.0, -1);
+    GISRaster<Double> values = new GISRaster<Double>(new DoubleTable(300, 200), 1000.0, 2000.0, 10.0, -1.0);
+    for(int row = 0; row < zones.nrows(); row++) {
+      for(int col = 0; col < zones.ncols(); col++) {
+        zones.atRC(row, col, (row / 30) * 10 + col / 50);
+        values.atRC(row, col, (double)((row * 31 + col * 17) % 100));
+      }
+    }
+    zones.atRC(0, 0, -1);
+    values.atRC(5, 5, -1.0);
+    checkZonalStatistics(zones, values);
+
+    GISRaster<Double> shifted = new GISRaster<Double>(500, 300, 1017.0, 2101.0, 4.0, -1.0);
+    for(int row = 0; row < shifted.nrows(); row++) {
+      for(int col = 0; col < shifted.ncols(); col++) {
+        shifted.atRC(row, col, (double)((row + col) % 120));
+      }
+    }
+    checkZonalStatistics(zones, shifted);
+
+    zones.atRC(100, 100, 5000000);
+    zones.atRC(101, 100, -3000000);
+    checkZonalStatistics(zones, values);
+
+    HeadedTable<Number> empty = GISZonalStatistics.compute(new GISRaster<Integer>(3, 3, 0.0, 0.0, 1.0), values);
+    assertTrue(empty.nrows() == 0);
+  }
+
+  /**
+   * Test evaluating map algebra expressions into new and existing rasters,
+   * with cells with no data.
+   */
+  public void testGISRasterExpression() {
+    GISRaster<Double> a = new GISRaster<Double>(new DoubleTable(300, 200), 0.0, 0.0, 10.0, -1.0);
+    GISRaster<Integer> b = new GISRaster<Integer>(300, 200, 0.0, 0.0, 10.0, -1);
+    GISRaster<Integer> c = new GISRaster<Integer>(new IntTable(300, 200), 0.0, 0.0, 10.0, -1);
+    for(int row = 0; row < a.nrows(); row++) {
+      for(int col = 0; col < a.ncols(); col++) {
+        a.atRC(row, col, row + col / 10.0);
+        b.atRC(row, col, col);
+        c.atRC(row, col, (row + col) % 5);
+      }
+    }
+    a.atRC(10, 8, -1.0);
+    b.atRC(10, 18, -1);
+    c.atRC(10, 13, -1);
+
+    // a * 0.5 + b where c == 3
+    GISRasterExpression expr =
+      GISRasterExpression.of(a).times(0.5).plus(GISRasterExpression.of(b)).where(GISRasterExpression.of(c).eq(3));
+    GISRaster<Double> result = expr.evaluate();
+    assertTrue(result.isPrimitive());
+    for(int row = 0; row < a.nrows(); row++) {
+      for(int col = 0; col < a.ncols(); col++) {
+        if(row == 10 && (col == 8 || col == 18 || col == 13) || (row + col) % 5 != 3) {
+          assertTrue(Double.isNaN(result.atRCDouble(row, col)));
+        }
+        else {
+          assertEquals((row + col / 10.0) * 0.5 + col, result.atRCDouble(row, col), 1e-12);
+        }
+      }
+    }
+    assertTrue(result.countNoData() == 300 * 200 - 300 * 200 / 5 + 3);
+
+    // Into an existing raster of ints, which is also in the expression
+    GISRasterExpression.choose(GISRasterExpression.of(c).gt(2), GISRasterExpression.of(c).times(10),
+        GISRasterExpression.constant(7)).evaluate(c);
+    assertTrue(c.atRC(0, 0) == 7);
+    assertTrue(c.atRC(0, 3) == 30);
+    assertTrue(c.atRC(0, 4) == 40);
+    assertTrue(c.isAtXYNoData(13, 300 - 11));
+
+    // Dividing by zero gives no data, not an infinity
+    GISRaster<Double> quotient = GISRasterExpression.of(a).dividedBy(GISRasterExpression.of(b)).evaluate();
+    assertTrue(Double.isNaN(quotient.atRCDouble(1, 0)));
+    assertTrue(Double.isNaN(quotient.atRCDouble(0, 0)));
+    assertTrue(quotient.atRCDouble(1, 2) == 1.2 / 2);
+    assertTrue(GISRasterExpression.of(a).dividedBy(0.0).evaluate().countNoData() == 300 * 200);
+
+    try {
+      GISRasterExpression.of(a).plus(GISRasterExpression.of(new GISRaster<Integer>(300, 200, 5.0, 0.0, 10.0)));
+      fail();
+    }
+    catch(IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Test writing rasters with a sparse mask of cells with no data in
+   * parallel blocks, where cells are both given data and made to have no
+   * data, checking the number of cells with no data each time.
+   */
+  public void testSparseNoDataParallelWrites() {
+    GISRaster<Integer> a = new GISRaster<Integer>(new IntTable(400, 300), 0.0, 0.0, 10.0, -1);
+    for(int row = 0; row < a.nrows(); row++) {
+      for(int col = 0; col < a.ncols(); col++) {
+        a.atRC(row, col, (row * 7 + col) % 11);
+      }
+    }
+    int expected = 0;
+    for(int row = 0; row < a.nrows(); row++) {
+      for(int col = 0; col < a.ncols(); col++) {
+        if((row * 7 + col) % 11 <= 4) expected++;
+      }
+    }
+
+    GISRaster<Double> b = new GISRaster<Double>(new DoubleTable(400, 300), 0.0, 0.0, 10.0, -1.0);
+    b.setNoDataMask(new SparseNoDataMask());
+    for(int i = 0; i < 20; i++) {
+      for(int x = 0; x < b.ncols(); x++) {
+        for(int y = 0; y < b.nrows(); y++) {
+          b.atXYNoData(x, y);
+        }
+      }
+      assertTrue(b.countNoData() == 400 * 300);
+
+      // Keeps the cells of b with no data where a <= 4, in place
+      GISRasterExpression.choose(GISRasterExpression.of(a).gt(4), GISRasterExpression.of(a),
+          GISRasterExpression.of(b)).evaluate(b);
+      assertTrue(b.countNoData() == expected);
+      assertTrue(Double.isNaN(b.atRCDouble(0, 0)));
+      assertTrue(b.atRCDouble(0, 5) == 5.0);
+
+      // Gives data to the cells with none, and none to the cells with data
+      GISRasterExpression.choose(GISRasterExpression.of(a).gt(4), GISRasterExpression.constant(Double.NaN),
+          GISRasterExpression.of(a)).evaluate(b);
+      assertTrue(b.countNoData() == 400 * 300 - expected);
+    }
+
+    GISRaster<Double> c = new GISRaster<Double>(new DoubleTable(400, 300), 0.0, 0.0, 10.0, -1.0);
+    c.setNoDataMask(new SparseNoDataMask());
+    for(int x = 0; x < c.ncols(); x++) {
+      for(int y = 0; y < c.nrows(); y++) {
+        c.atXYNoData(x, y);
+      }
+    }
+    GISResampler.resample(b, c, GISResampler.Method.NEAREST);
+    assertTrue(c.countNoData() == 400 * 300 - expected);
+  }
+
+  /**
+   * <!-- checkFocal -->
+   * 
+   * Compare a focal statistic with one found by looking at every cell of
+   * every window
+   * 
+   * @param raster The raster
+   * @param statistic The statistic
+   * @param shape The shape of window
+   * @param radius The radius of the window
+   */
+  private void checkFocal(GISRaster<Integer> raster, GISFocal.Statistic statistic, GISFocal.Shape shape,
+      int radius) {
+    GISRaster<Double> result = GISFocal.compute(raster, statistic, shape, radius);
+    for(int row = 0; row < raster.nrows(); row++) {
+      for(int col = 0; col < raster.ncols(); col++) {
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        double sum = 0.0;
+        int count = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for(int r = row - radius; r <= row + radius; r++) {
+          for(int c = col - radius; c <= col + radius; c++) {
+            if(r < 0 || c < 0 || r >= raster.nrows() || c >= raster.ncols()) continue;
+            if(shape == GISFocal.Shape.CIRCLE && (r - row) * (r - row) + (c - col) * (c - col) > radius * radius) {
+              continue;
+            }
+            double value = raster.atRCDouble(r, c);
+            if(Double.isNaN(value)) continue;
+            int v = (int)value;
+            sum += v;
+            count++;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            counts.put(v, counts.containsKey(v) ? counts.get(v) + 1 : 1);
+          }
+        }
+        double actual = result.atRCDouble(row, col);
+        if(count == 0) {
+          assertTrue(Double.isNaN(actual));
+          continue;
+        }
+        double expected;
+        switch(statistic) {
+        case SUM:
+          expected = sum;
+          break;
+        case MEAN:
+          expected = sum / count;
+          break;
+        case MIN:
+          expected = min;
+          break;
+        case MAX:
+          expected = max;
+          break;
+        default:
+          int best = Integer.MAX_VALUE;
+          for(Map.Entry<Integer, Integer> entry: counts.entrySet()) {
+            int n = entry.getValue();
+            int bestN = counts.containsKey(best) ? counts.get(best) : 0;
+            if(n > bestN || (n == bestN && entry.getKey() < best)) best = entry.getKey();
+          }
+          expected = best;
+        }
+        assertEquals(statistic + " " + shape + " " + radius + " at " + row + ", " + col, expected, actual, 1e-9);
+      }
+    }
+  }
+
+  /**
+   * Test every focal statistic with square and circular windows against one
+   * found cell by cell, with cells with no data, and with windows wider than
+   * the raster.
+   */
+  public void testGISFocal() {
+    GISRaster<Integer> raster = new GISRaster<Integer>(new IntTable(300, 200), 0.0, 0.0, 10.0, -1);
+    for(int row = 0; row < raster.nrows(); row++) {
+      for(int col = 0; col < raster.ncols(); col++) {
+        raster.atRC(row, col, (row * 7 + col * 3) % 11);
+      }
+    }
+    for(int row = 40; row < 50; row++) {
+      for(int col = 60; col < 75; col++) {
+        raster.atRC(row, col, -1);
+      }
+    }
+    raster.atRC(0, 0, -1);
+    raster.atRC(299, 199, -1);
+    raster.atRC(120, 13, -1);
+
+    for(GISFocal.Statistic statistic: GISFocal.Statistic.values()) {
+      for(GISFocal.Shape shape: GISFocal.Shape.values()) {
+        checkFocal(raster, statistic, shape, 0);
+        checkFocal(raster, statistic, shape, 3);
+      }
+    }
+    assertTrue(GISFocal.mean(raster, GISFocal.Shape.SQUARE, 1).isAtXYNoData(65, 300 - 45));
+    assertFalse(GISFocal.mean(raster, GISFocal.Shape.SQUARE, 5).isAtXYNoData(65, 300 - 45));
+
+    // Wider than the raster
+    double total = 0.0;
+    for(int row = 0; row < raster.nrows(); row++) {
+      for(int col = 0; col < raster.ncols(); col++) {
+        if(!Double.isNaN(raster.atRCDouble(row, col))) total += raster.atRC(row, col);
+      }
+    }
+    GISRaster<Double> wide = GISFocal.sum(raster, GISFocal.Shape.SQUARE, 400);
+    assertEquals(total, wide.atRCDouble(150, 100), 1e-9);
+
+    try {
+      GISFocal.max(raster, GISFocal.Shape.CIRCLE, -1);
+      fail();
+    }
+    catch(IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Test resampling with bilinear interpolation of a plane, nearest
+   * neighbour against looking up each cell, and majority of categories into
+   * part of an existing raster.
+   */
+  public void testGISResampler() {
+    GISRaster<Double> source = new GISRaster<Double>(new DoubleTable(60, 80), 0.0, 0.0, 10.0, -1.0);
+    for(int row = 0; row < source.nrows(); row++) {
+      for(int col = 0; col < source.ncols(); col++) {
+        source.atRC(row, col, 2.0 * source.convertX(col) + 3.0 * source.convertRow(row));
+      }
+    }
+
+    // Bilinear reproduces a plane between the centres of the source cells
+
+    GISRaster<Double> bilinear = GISResampler.resample(source, GISResampler.Method.BILINEAR, 100, 130, -13.0, 4.0, 7.0);
+    int interpolated = 0;
+    for(int row = 0; row < bilinear.nrows(); row++) {
+      for(int col = 0; col < bilinear.ncols(); col++) {
+        double x = bilinear.convertX(col);
+        double y = bilinear.convertRow(row);
+        if(!source.isInTable(x, y)) assertTrue(Double.isNaN(bilinear.atRCDouble(row, col)));
+        else if(x >= 5.0 && x <= 795.0 && y >= 5.0 && y <= 595.0) {
+          assertEquals(2.0 * x + 3.0 * y, bilinear.atRCDouble(row, col), 1e-9);
+          interpolated++;
+        }
+      }
+    }
+    assertTrue(interpolated > 9000);
+
+    // Nearest gives the same as atXY
+
+    source.atRC(10, 10, -1.0);
+    source.atRC(30, 50, -1.0);
+    GISRaster<Double> nearest = GISResampler.resample(source, GISResampler.Method.NEAREST, 100, 130, -13.0, 4.0, 7.0);
+    for(int row = 0; row < nearest.nrows(); row++) {
+      for(int col = 0; col < nearest.ncols(); col++) {
+        double x = nearest.convertX(col);
+        double y = nearest.convertRow(row);
+        if(source.isAtXYNoData(x, y)) assertTrue(Double.isNaN(nearest.atRCDouble(row, col)));
+        else
+          assertEquals(source.atXY(x, y), nearest.atRCDouble(row, col), 0.0);
+      }
+    }
+
+    // Majority of categories onto cells three times the size, into part of
+    // an existing raster
+
+    GISRaster<Integer> categories = new GISRaster<Integer>(new IntTable(60, 80), 0.0, 0.0, 10.0, -1);
+    for(int row = 0; row < categories.nrows(); row++) {
+      for(int col = 0; col < categories.ncols(); col++) {
+        categories.atRC(row, col, (row / 2 + col / 4) % 5);
+      }
+    }
+    categories.atRC(0, 0, -1);
+    categories.atRC(0, 1, -1);
+    categories.atRC(0, 2, -1);
+    categories.atRC(1, 0, -1);
+    GISRaster<Integer> majority = new GISRaster<Integer>(new IntTable(20, 30), 0.0, 0.0, 30.0, -1);
+    majority.fill(9);
+    GISResampler.resample(categories, majority, GISResampler.Method.MAJORITY, 0.0, 0.0, 450.0, 600.0);
+    for(int row = 0; row < majority.nrows(); row++) {
+      for(int col = 0; col < majority.ncols(); col++) {
+        if(col >= 15) {
+          assertTrue(majority.atRC(row, col) == 9);
+          continue;
+        }
+        int[] counts = new int[5];
+        for(int r = row * 3; r < row * 3 + 3; r++) {
+          for(int c = col * 3; c < col * 3 + 3; c++) {
+            if(c < categories.ncols() && !Double.isNaN(categories.atRCDouble(r, c))) counts[categories.atRC(r, c)]++;
+          }
+        }
+        int best = 0;
+        for(int k = 1; k < 5; k++) {
+          if(counts[k] > counts[best]) best = k;
+        }
+        assertTrue(majority.atRC(row, col) == best);
+      }
+    }
+
+    // Into a window narrower than the target, with cells outside the source
+    // and with no data
+
+    GISRaster<Double> small = new GISRaster<Double>(new DoubleTable(4, 4), 0.0, 0.0, 1.0, -1.0);
+    for(int row = 0; row < 4; row++) {
+      for(int col = 0; col < 4; col++) {
+        small.atRC(row, col, row * 4.0 + col + 1.0);
+      }
+    }
+    small.atRC(0, 0, -1.0);
+    small.atRC(2, 3, -1.0);
+    GISRaster<Double> wide = new GISRaster<Double>(new DoubleTable(6, 8), -2.0, -1.0, 1.0, -1.0);
+    wide.fill(99.0);
+    GISResampler.resample(small, wide, GISResampler.Method.NEAREST, -1.0, -1.0, 5.0, 5.0);
+    int nodata = 0;
+    for(int row = 0; row < wide.nrows(); row++) {
+      for(int col = 0; col < wide.ncols(); col++) {
+        double x = wide.convertX(col);
+        double y = wide.convertRow(row);
+        if(col < 1 || col >= 7) assertTrue(wide.atRCDouble(row, col) == 99.0);
+        else if(!small.isInTable(x, y) || small.isAtXYNoData(x, y)) {
+          assertTrue(Double.isNaN(wide.atRCDouble(row, col)));
+          nodata++;
+        }
+        else
+          assertEquals(small.atXY(x, y), wide.atRCDouble(row, col), 0.0);
+      }
+    }
+    assertTrue(nodata == 6 * 6 - 4 * 4 + 2);
+    assertTrue(wide.countNoData() == nodata);
+
+    try {
+      GISResampler.resample(source, new GISRaster<Double>(10, 10, 0.0, 0.0, 10.0), GISResampler.Method.NEAREST);
+      fail();
+    }
+    catch(UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  /**
+   * <!-- checkWindow -->
+   *
+   * @param full A raster read in full
+   * @param window The same raster read from a window
+   * @param nrows Expected number of rows in the window
+   * @param ncols Expected number of columns in the window
+   */
+  private void checkWindow(GISRaster<?> full, GISRaster<?> window, int nrows, int ncols) {
+    assertTrue(window.nrows() == nrows && window.ncols() == ncols);
+    assertTrue(window.getCellSize() == full.getCellSize());
+    for(int row = 0; row < nrows; row++) {
+      for(int col = 0; col < ncols; col++) {
+        double x = window.convertX(col);
+        double y = window.convertRow(row);
+        assertTrue(window.isAtXYNoData(x, y) == full.isAtXYNoData(x, y));
+        assertEquals(full.atXY(x, y), window.atXY(x, y));
+      }
+    }
+  }
+
+  /**
+   * Test reading a window of ARC ASCII, binary and mapped rasters
+   *
+   * @throws IOException
+   */
+  public void testReadWindow() throws IOException {
+    File file = writeGrid(bigGrid(100, 80, -1, -1));
+    GISRaster<?> full = GISRasterReader.read(file.getPath());
+    GISRaster<?> window = GISRasterReader.readWindow(file.getPath(), 12.5, 30.2, 41.0, 70.0);
+    assertTrue(window.getOriginX() == 12.0 && window.getOriginY() == 30.0);
+    assertTrue(window.isPrimitive());
+    checkWindow(full, window, 40, 29);
+    assertTrue(window.countNoData() > 0);
+
+    // Overlapping the edges of the raster
+
+    window = GISRasterReader.readWindow(file.getPath(), -50.0, 95.5, 1.0, 1000.0);
+    assertTrue(window.getOriginX() == 0.0 && window.getOriginY() == 95.0);
+    checkWindow(full, window, 5, 1);
+
+    File binary = File.createTempFile("GISRasterTest", GISRasterBinaryFile.EXTENSION);
+    binary.deleteOnExit();
+    GISRasterReader.convertToBinary(file.getPath(), binary.getPath(), true);
+    checkWindow(full, GISRasterReader.readWindow(binary.getPath(), 12.5, 30.2, 41.0, 70.0), 40, 29);
+    checkWindow(full, GISRasterReader.readWindow(binary.getPath(), -1.0, 30.2, 81.0, 70.0), 40, 80);
+
+    File mappedFile = File.createTempFile("GISRasterTest", MappedGISRaster.EXTENSION);
+    mappedFile.deleteOnExit();
+    GISRasterReader.convertToMapped(file.getPath(), mappedFile.getPath()).close();
+    checkWindow(full, GISRasterReader.readWindow(mappedFile.getPath(), 12.5, 30.2, 41.0, 70.0), 40, 29);
+
+    // A cell that is not a number only matters if it is in the window
+
+    File bad = writeGrid("ncols 4\nnrows 3\nxllcorner 0\nyllcorner 0\ncellsize 1\n1 2 3 4\n5 6 x 8\n9 10 11 12\n");
+    GISRasterReader reader = new GISRasterReader(bad.getPath(), 0.0, 0.0, 2.0, 1.0);
+    assertTrue(reader.isRasterTypeInteger());
+    assertTrue(reader.getRasterInteger().atRC(0, 1) == 10);
+    reader = new GISRasterReader(bad.getPath(), 1.5, 0.5, 3.0, 1.5);
+    assertTrue(reader.getRasterDataType() == String.class);
+    assertTrue(reader.getRaster().nrows() == 2 && reader.getRaster().ncols() == 2);
+    assertEquals("x", reader.getRasterString().atRC(0, 1));
+
+    // A file ending before the window names the cell where skipping ran out
+
+    File truncated = writeGrid("ncols 4\nnrows 3\nxllcorner 0\nyllcorner 0\ncellsize 1\n1 2 3 4\n5\n");
+    GridASCIIReader grid = new GridASCIIReader(truncated.getPath());
+    try {
+      grid.readWindow(2, 3, 1, 2);
+      fail();
+    }
+    catch(FileFormatException e) {
+      assertTrue(e.getMessage().contains("row 1, column 1"));
+    }
+    finally {
+      grid.close();
+    }
+
+    try {
+      GISRasterReader.readWindow(file.getPath(), 100.0, 0.0, 200.0, 10.0);
+      fail();
+    }
+    catch(IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * <!-- checkPatches -->
+   *
+   * Compare the patches found with those found by a breadth-first search from
+   * each cell in turn not yet in a patch
+   *
+   * @param raster A raster of categories
+   * @param eightConnected Whether cells touching at a corner are neighbours
+   */
+  private void checkPatches(GISRaster<Integer> raster, boolean eightConnected) {
+    GISPatches patches = new GISPatches(raster, eightConnected);
+    int nrows = raster.nrows(), ncols = raster.ncols();
+    int[][] expected = new int[nrows][ncols];
+    int npatches = 0;
+    int[] queue = new int[nrows * ncols];
+    for(int row = 0; row < nrows; row++) {
+      for(int col = 0; col < ncols; col++) {
+        if(expected[row][col] != 0 || Double.isNaN(raster.atRCDouble(row, col))) continue;
+        npatches++;
+        int value = raster.atRC(row, col);
+        int head = 0, tail = 0;
+        queue[tail++] = row * ncols + col;
+        expected[row][col] = npatches;
+        while(head < tail) {
+          int r = queue[head] / ncols, c = queue[head++] % ncols;
+          for(int dr = -1; dr <= 1; dr++) {
+            for(int dc = -1; dc <= 1; dc++) {
+              if((dr == 0 && dc == 0) || (!eightConnected && dr != 0 && dc != 0)) continue;
+              int r2 = r + dr, c2 = c + dc;
+              if(r2 < 0 || c2 < 0 || r2 >= nrows || c2 >= ncols || expected[r2][c2] != 0) continue;
+              if(Double.isNaN(raster.atRCDouble(r2, c2)) || raster.atRC(r2, c2) != value) continue;
+              expected[r2][c2] = npatches;
+              queue[tail++] = r2 * ncols + c2;
+            }
+          }
+        }
+      }
+    }
+    assertTrue(patches.npatches() == npatches);
+    GISRaster<Integer> labels = patches.getLabels();
+    int[] cells = new int[npatches + 1];
+    for(int row = 0; row < nrows; row++) {
+      for(int col = 0; col < ncols; col++) {
+        if(expected[row][col] == 0) assertTrue(labels.isAtXYNoData(col, nrows - 1 - row));
+        else
+          assertTrue(labels.atRC(row, col) == expected[row][col]);
+        cells[expected[row][col]]++;
+      }
+    }
+    HeadedTable<Number> metrics = patches.getMetrics();
+    for(int patch = 1; patch <= npatches; patch++) {
+      assertTrue(metrics.atRC(patch - 1, GISPatches.CELLS).intValue() == cells[patch]);
+    }
+  }
+
+  /**
+   * Test finding patches with 4- and 8-connectivity against a breadth-first
+   * search, with a patch snaking across many blocks of rows, and the metrics
+   * of the patches of a small raster.
+   */
+  public void testGISPatches() {
+    GISRaster<Integer> raster = new GISRaster<Integer>(new IntTable(300, 200), 0.0, 0.0, 10.0, -1);
+    Random rand = new Random(20100401L);
+    for(int row = 0; row < raster.nrows(); row++) {
+      for(int col = 0; col < raster.ncols(); col++) {
+        raster.atRC(row, col, rand.nextInt(10) == 0 ? -1 : rand.nextInt(3));
+      }
+    }
+
+    // A snake crossing many blocks of rows, joined at the far end
+
+    for(int row = 0; row < raster.nrows(); row++) {
+      raster.atRC(row, 50, 7);
+      raster.atRC(row, 52, 7);
+    }
+    raster.atRC(299, 51, 7);
+    checkPatches(raster, false);
+    checkPatches(raster, true);
+
+    GISRaster<Integer> small = new GISRaster<Integer>(new IntTable(3, 4), 100.0, 200.0, 10.0, -1);
+    int[][] cells = { { 1, 1, 2, -1 }, { 1, 2, 1, 1 }, { -1, 1, 1, 2 } };
+    for(int row = 0; row < 3; row++) {
+      for(int col = 0; col < 4; col++) {
+        small.atRC(row, col, cells[row][col]);
+      }
+    }
+    GISPatches four = new GISPatches(small, false);
+    assertTrue(four.npatches() == 5);
+    GISPatches eight = new GISPatches(small, true);
+    assertTrue(eight.npatches() == 3);
+    HeadedTable<Number> metrics = eight.getMetrics();
+    assertTrue(metrics.atRC(0, GISPatches.VALUE).intValue() == 1);
+    assertTrue(metrics.atRC(0, GISPatches.CELLS).intValue() == 7);
+    assertEquals(700.0, metrics.atRC(0, GISPatches.AREA).doubleValue(), 1e-9);
+    assertEquals(180.0, metrics.atRC(0, GISPatches.PERIMETER).doubleValue(), 1e-9);
+    assertEquals(100.0, metrics.atRC(0, GISPatches.MIN_X).doubleValue(), 1e-9);
+    assertEquals(200.0, metrics.atRC(0, GISPatches.MIN_Y).doubleValue(), 1e-9);
+    assertEquals(140.0, metrics.atRC(0, GISPatches.MAX_X).doubleValue(), 1e-9);
+    assertEquals(230.0, metrics.atRC(0, GISPatches.MAX_Y).doubleValue(), 1e-9);
+    assertTrue(metrics.atRC(1, GISPatches.VALUE).intValue() == 2);
+    assertTrue(metrics.atRC(1, GISPatches.CELLS).intValue() == 2);
+    assertTrue(eight.getLabels().atRC(2, 3) == 3);
+    assertTrue(eight.getLabels().isAtXYNoData(0, 0));
+  }
+}
@@ -27,6 +27,9 @@ package uk.ac.macaulay.util.test;
 
 import java.util.ArrayList;
 
+import uk.ac.macaulay.util.DoubleTable;
+import uk.ac.macaulay.util.IntTable;
+import uk.ac.macaulay.util.LongTable;
 import uk.ac.macaulay.util.Table;
 import junit.framework.TestCase;
 
@@ -179,5 +182,112 @@ public class TableTest extends TestCase {
     assertTrue(n == 80);
   }
 
+  /**
+   * Test method for {@link uk.ac.macaulay.util.Table#asDoubleTable()}.
+   */
+  public void testAsDoubleTable() {
+    Table<String> t = new Table<String>(30, 7);
+    for(int r = 0; r < 30; r++) {
+      for(int c = 0; c < 7; c++) {
+        if(r != c) t.atRC(r, c, Double.toString(r * 0.5 - c));
+      }
+    }
 
+    DoubleTable d = t.asDoubleTable();
+    assertTrue(d.nrows() == 30);
+    assertTrue(d.ncols() == 7);
+    for(int r = 0; r < 30; r++) {
+      for(int c = 0; c < 7; c++) {
+        if(r == c) {
+          assertTrue(d.isNull(r, c));
+          assertTrue(d.atRC(r, c) == null);
+        }
+        else {
+          assertFalse(d.isNull(r, c));
+          assertTrue(d.getDouble(r, c) == r * 0.5 - c);
+          assertTrue(d.atXY(c, 29 - r).doubleValue() == r * 0.5 - c);
+        }
+      }
+    }
+  }
+
+  /**
+   * Test method for {@link uk.ac.macaulay.util.IntTable#setInt(int, int, int)}.
+   */
+  public void testIntTable() {
+    IntTable t = new IntTable(4, 5);
+    for(Integer i: t) {
+      assertTrue(i == 0);
+    }
+    t.atRC(2, 3, null);
+    assertTrue(t.hasNulls());
+    assertTrue(t.atRC(2, 3) == null);
+    t.setInt(2, 3, 17);
+    assertFalse(t.hasNulls());
+    t.atXFlipY(4, 1, 99);
+    assertTrue(t.getInt(1, 4) == 99);
+    assertTrue(t.getInts()[1 * 5 + 4] == 99);
+    assertTrue(t.copy().getInt(2, 3) == 17);
+    try {
+      t.getInt(4, 0);
+      fail();
+    }
+    catch(ArrayIndexOutOfBoundsException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Test method for {@link uk.ac.macaulay.util.Table#mapCells(java.util.function.Function)}
+   * and {@link uk.ac.macaulay.util.Table#reduce(Object, java.util.function.BiFunction, java.util.function.BinaryOperator)}
+   * on a table large enough to be split into blocks of rows.
+   */
+  public void testMapCellsReduce() {
+    Table<Integer> t = new Table<Integer>(1000, 300);
+    t.fill(2);
+    t.atRC(999, 299, 5);
+    Table<String> s = t.mapCells(i -> Integer.toString(i * 3));
+    assertTrue(s.atRC(0, 0).equals("6"));
+    assertTrue(s.atRC(999, 299).equals("15"));
+    assertTrue(s.areAllParseableInteger());
+    s.atRC(500, 150, "6.5");
+    assertFalse(s.areAllParseableInteger());
+    assertTrue(s.areAllParseableDouble());
+
+    long sum = t.reduce(0L, (total, i) -> total + i, (a, b) -> a + b);
+    assertTrue(sum == 2L * 1000L * 300L + 3L);
+    String concat = s.reduce("", (str, cell) -> str.length() < 5 ? str + cell.charAt(0) : str, (a, b) -> a + b);
+    assertTrue(concat.startsWith("66666"));
+
+    ArrayList<Integer> flat = t.flatten();
+    assertTrue(flat.size() == 300000);
+    assertTrue(flat.get(299999) == 5);
+  }
+
+  /**
+   * Test method for {@link uk.ac.macaulay.util.Table#inferAndConvert()}, with
+   * the widest cell in the last block of rows.
+   */
+  public void testInferAndConvert() {
+    Table<String> s = new Table<String>(1000, 100);
+    s.fill("7");
+    s.atRC(3, 4, null);
+    assertTrue(s.inferAndConvert() instanceof IntTable);
+    s.atRC(998, 99, "5000000000");
+    Table<?> t = s.inferAndConvert();
+    assertTrue(t instanceof LongTable);
+    assertTrue(((LongTable)t).getLong(998, 99) == 5000000000L);
+    assertTrue(((LongTable)t).getLong(0, 0) == 7L);
+    assertTrue(t.atRC(3, 4) == null);
+    s.atRC(999, 0, "-2.5e1");
+    t = s.inferAndConvert();
+    assertTrue(t instanceof DoubleTable);
+    assertTrue(((DoubleTable)t).getDouble(999, 0) == -25.0);
+    assertTrue(((DoubleTable)t).getDouble(998, 99) == 5.0e9);
+    assertTrue(t.atRC(3, 4) == null);
+    s.atRC(999, 1, "7a");
+    t = s.inferAndConvert();
+    assertTrue(t.atRC(999, 1).equals("7a"));
+    assertTrue(t.atRC(0, 0).equals("7"));
+  }
 }